@@ -4,7 +4,12 @@ import Zql.*;
 import java.io.*;
 import java.lang.reflect.InvocationTargetException;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Paths;
 import java.util.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 import jline.ArgumentCompletor;
 import jline.ConsoleReader;
@@ -15,7 +20,9 @@ import simpledb.common.Type;
 import simpledb.execution.*;
 import simpledb.optimizer.LogicalPlan;
 import simpledb.optimizer.TableStats;
+import simpledb.storage.Field;
 import simpledb.storage.IntField;
+import simpledb.storage.PoolWarmer;
 import simpledb.storage.StringField;
 import simpledb.storage.Tuple;
 import simpledb.storage.TupleDesc;
@@ -25,6 +32,13 @@ import simpledb.transaction.TransactionId;
 public class Parser {
     static boolean explain = false;
 
+    static {
+        // 近似聚合和抽样以函数的形式写在查询中
+        ZUtils.addCustomFunction("APPROX_COUNT_DISTINCT", 1);
+        ZUtils.addCustomFunction("SAMPLE", ZUtils.VARIABLE_PLIST);
+        ZUtils.addCustomFunction("SAMPLE_PAGES", ZUtils.VARIABLE_PLIST);
+    }
+
     public static Predicate.Op getOp(String s) throws simpledb.ParsingException {
         if (s.equals("="))
             return Predicate.Op.EQUALS;
@@ -50,7 +64,9 @@ public class Parser {
 
     void processExpression(TransactionId tid, ZExpression wx, LogicalPlan lp)
             throws simpledb.ParsingException, IOException, ParseException {
-        if (wx.getOperator().equals("AND")) {
+        if (wx.getOperator().equalsIgnoreCase("SAMPLE") || wx.getOperator().equalsIgnoreCase("SAMPLE_PAGES")) {
+            processSample(wx, lp);
+        } else if (wx.getOperator().equals("AND")) {
             for (int i = 0; i < wx.nbOperands(); i++) {
                 if (!(wx.getOperand(i) instanceof ZExpression)) {
                     throw new simpledb.ParsingException(
@@ -60,9 +76,8 @@ public class Parser {
                 processExpression(tid, newWx, lp);
 
             }
-        } else if (wx.getOperator().equals("OR")) {
-            throw new simpledb.ParsingException(
-                    "OR expressions currently unsupported.");
+        } else if (wx.getOperator().equals("OR") || isCompoundExpression(wx)) {
+            lp.addFilter(toExpression(wx));
         } else {
             // this is a binary expression comparing two constants
             @SuppressWarnings("unchecked")
@@ -137,6 +152,153 @@ public class Parser {
 
     }
 
+    /**
+     * Add the sample of a WHERE clause of the form SAMPLE([table,] percent
+     * [, seed]), which reads each page of the table with the given
+     * probability, or SAMPLE_PAGES([table,] pages [, seed]), which reads
+     * the given number of pages. Without a seed, another sample is read
+     * each time the query is run.
+     */
+    private static void processSample(ZExpression wx, LogicalPlan lp) throws simpledb.ParsingException {
+        List<String> args = new ArrayList<>();
+        String alias = null;
+        for (int i = 0; i < wx.nbOperands(); i++) {
+            if (!(wx.getOperand(i) instanceof ZConstant)) {
+                throw new simpledb.ParsingException("Invalid argument " + wx.getOperand(i) + " of " + wx.getOperator());
+            }
+            ZConstant c = (ZConstant) wx.getOperand(i);
+            if (i == 0 && c.getType() == ZConstant.COLUMNNAME) {
+                alias = c.getValue();
+            } else {
+                args.add(c.getValue());
+            }
+        }
+        if (args.isEmpty() || args.size() > 2) {
+            throw new simpledb.ParsingException("Usage: " + wx.getOperator() + "([table,] size [, seed])");
+        }
+        try {
+            long seed = args.size() == 2 ? Long.parseLong(args.get(1)) : new Random().nextLong();
+            PageSample sample = wx.getOperator().equalsIgnoreCase("SAMPLE")
+                    ? PageSample.bernoulli(Double.parseDouble(args.get(0)) / 100, seed)
+                    : PageSample.reservoir(Integer.parseInt(args.get(0)), seed);
+            lp.addSample(alias, sample);
+        } catch (IllegalArgumentException e) {
+            throw new simpledb.ParsingException("Invalid " + wx.getOperator() + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * @return whether wx is a condition other than a comparison of two
+     * fields, constants or subqueries, e.g. NOT, IN or a comparison of
+     * arithmetic expressions
+     */
+    private static boolean isCompoundExpression(ZExpression wx) {
+        String op = wx.getOperator();
+        if (op.equals("NOT") || op.equals("IN") || op.equals("NOT IN") || op.equals("BETWEEN")) {
+            return true;
+        }
+        boolean compound = false;
+        for (int i = 0; i < wx.nbOperands(); i++) {
+            if (wx.getOperand(i) instanceof ZQuery) {
+                return false;
+            }
+            compound |= wx.getOperand(i) instanceof ZExpression;
+        }
+        return compound;
+    }
+
+    /**
+     * Convert a condition or value of a WHERE clause into an
+     * {@link Expression}, whose columns are referred to by the names used
+     * in the query.
+     *
+     * @throws simpledb.ParsingException if e contains subqueries or
+     *                                   unsupported operators or constants
+     */
+    static Expression toExpression(ZExp e) throws simpledb.ParsingException {
+        if (e instanceof ZConstant) {
+            ZConstant c = (ZConstant) e;
+            switch (c.getType()) {
+                case ZConstant.COLUMNNAME:
+                    return Expression.column(c.getValue());
+                case ZConstant.NUMBER:
+                    try {
+                        return Expression.constant(Integer.parseInt(c.getValue()));
+                    } catch (NumberFormatException ex) {
+                        throw new simpledb.ParsingException("Only integer constants are supported: " + c.getValue());
+                    }
+                case ZConstant.STRING:
+                    return Expression.constant(new StringField(c.getValue(), Type.STRING_LEN));
+                default:
+                    throw new simpledb.ParsingException("Unsupported constant " + c);
+            }
+        }
+        if (!(e instanceof ZExpression)) {
+            throw new simpledb.ParsingException(
+                    "Nested queries are currently unsupported.");
+        }
+        ZExpression wx = (ZExpression) e;
+        String op = wx.getOperator();
+        List<Expression> operands = new ArrayList<>();
+        for (int i = 0; i < wx.nbOperands(); i++) {
+            operands.add(toExpression(wx.getOperand(i)));
+        }
+        switch (op) {
+            case "AND":
+                return Expression.and(operands);
+            case "OR":
+                return Expression.or(operands);
+            case "NOT":
+                return Expression.not(operands.get(0));
+            case "IN":
+            case "NOT IN": {
+                List<Field> values = new ArrayList<>();
+                for (Expression v : operands.subList(1, operands.size())) {
+                    if (!(v instanceof Expression.Constant)) {
+                        throw new simpledb.ParsingException("IN lists may only contain constants.");
+                    }
+                    values.add(((Expression.Constant) v).getValue());
+                }
+                Expression in = Expression.in(operands.get(0), values);
+                return op.equals("IN") ? in : Expression.not(in);
+            }
+            case "BETWEEN":
+                return Expression.and(
+                        Expression.compare(operands.get(0), Predicate.Op.GREATER_THAN_OR_EQ, operands.get(1)),
+                        Expression.compare(operands.get(0), Predicate.Op.LESS_THAN_OR_EQ, operands.get(2)));
+            case "+":
+            case "-":
+            case "*":
+            case "/": {
+                Expression.ArithmeticOp aop = op.equals("+") ? Expression.ArithmeticOp.PLUS
+                        : op.equals("-") ? Expression.ArithmeticOp.MINUS
+                        : op.equals("*") ? Expression.ArithmeticOp.TIMES : Expression.ArithmeticOp.DIVIDE;
+                if (operands.size() == 1) {
+                    if (aop != Expression.ArithmeticOp.MINUS) {
+                        return operands.get(0);
+                    }
+                    // 一元负号: 负数常量直接取反
+                    Expression x = operands.get(0);
+                    if (x instanceof Expression.Constant
+                            && ((Expression.Constant) x).getValue() instanceof IntField) {
+                        return Expression.constant(-((IntField) ((Expression.Constant) x).getValue()).getValue());
+                    }
+                    return Expression.arithmetic(Expression.constant(0), aop, x);
+                }
+                Expression result = operands.get(0);
+                for (Expression x : operands.subList(1, operands.size())) {
+                    result = Expression.arithmetic(result, aop, x);
+                }
+                return result;
+            }
+            default:
+                if (operands.size() != 2) {
+                    throw new simpledb.ParsingException("Unsupported expression " + wx);
+                }
+                return Expression.compare(operands.get(0), getOp(op), operands.get(1));
+        }
+    }
+
     public LogicalPlan parseQueryLogicalPlan(TransactionId tid, ZQuery q)
             throws IOException, Zql.ParseException, simpledb.ParsingException {
         @SuppressWarnings("unchecked")
@@ -212,8 +374,8 @@ public class Parser {
         // validity
         @SuppressWarnings("unchecked")
         List<ZSelectItem> selectList = q.getSelect();
-        String aggField = null;
-        String aggFun = null;
+        List<String> aggFields = new ArrayList<>();
+        List<String> aggFuns = new ArrayList<>();
 
         for (int i = 0; i < selectList.size(); i++) {
             ZSelectItem si = selectList.get(i);
@@ -223,15 +385,13 @@ public class Parser {
                         "Expressions in SELECT list are not supported.");
             }
             if (si.getAggregate() != null) {
-                if (aggField != null) {
-                    throw new simpledb.ParsingException(
-                            "Aggregates over multiple fields not supported.");
-                }
-                aggField = ((ZConstant) ((ZExpression) si.getExpression())
+                String aggField = ((ZConstant) ((ZExpression) si.getExpression())
                         .getOperand(0)).getValue();
-                aggFun = si.getAggregate();
+                String aggFun = si.getAggregate();
                 System.out.println("Aggregate field is " + aggField
                         + ", agg fun is : " + aggFun);
+                aggFields.add(aggField);
+                aggFuns.add(aggFun);
                 lp.addProjectField(aggField, aggFun);
             } else {
                 if (groupByField != null
@@ -246,12 +406,13 @@ public class Parser {
             }
         }
 
-        if (groupByField != null && aggFun == null) {
+        if (groupByField != null && aggFuns.isEmpty()) {
             throw new simpledb.ParsingException("GROUP BY without aggregation.");
         }
 
-        if (aggFun != null) {
-            lp.addAggregate(aggFun, aggField, groupByField);
+        // 多个聚合在同一趟扫描中计算
+        for (int i = 0; i < aggFuns.size(); i++) {
+            lp.addAggregate(aggFuns.get(i), aggFields.get(i), groupByField);
         }
         // sort the data
 
@@ -278,12 +439,44 @@ public class Parser {
     private Transaction curtrans = null;
     private boolean inUserTrans = false;
 
+    /**
+     * A statement ending with LIMIT n [OFFSET m], which Zql cannot parse.
+     */
+    private static final Pattern LIMIT_CLAUSE = Pattern.compile(
+            "(?is)(.*)\\bLIMIT\\s+(\\d{1,9})(?:\\s+OFFSET\\s+(\\d{1,9}))?\\s*;\\s*");
+
+    /**
+     * 当前语句的LIMIT和OFFSET, 没有LIMIT时limit为-1
+     */
+    private int limit = -1, offset = 0;
+
+    /**
+     * Remove the LIMIT clause at the end of statement s, and remember it
+     * for the query of the statement.
+     *
+     * @return s without its LIMIT clause
+     */
+    private String takeLimit(String s) {
+        Matcher m = LIMIT_CLAUSE.matcher(s);
+        if (!m.matches()) {
+            limit = -1;
+            offset = 0;
+            return s;
+        }
+        limit = Integer.parseInt(m.group(2));
+        offset = m.group(3) == null ? 0 : Integer.parseInt(m.group(3));
+        return m.group(1).trim() + ";";
+    }
+
     public Query handleQueryStatement(ZQuery s, TransactionId tId)
             throws IOException,
             simpledb.ParsingException, Zql.ParseException {
         Query query = new Query(tId);
 
         LogicalPlan lp = parseQueryLogicalPlan(tId, s);
+        if (limit >= 0) {
+            lp.addLimit(limit, offset);
+        }
         OpIterator physicalPlan = lp.physicalPlan(tId,
                 TableStats.getStatsMap(), explain);
         query.setPhysicalPlan(physicalPlan);
@@ -465,16 +658,22 @@ public class Parser {
 
     public LogicalPlan generateLogicalPlan(TransactionId tid, String s)
             throws simpledb.ParsingException, IOException {
-        ByteArrayInputStream bis = new ByteArrayInputStream(s.getBytes());
+        ByteArrayInputStream bis = new ByteArrayInputStream(takeLimit(s).getBytes());
         ZqlParser p = new ZqlParser(bis);
         try {
             ZStatement stmt = p.readStatement();
             if (stmt instanceof ZQuery) {
-                return parseQueryLogicalPlan(tid, (ZQuery) stmt);
+                LogicalPlan lp = parseQueryLogicalPlan(tid, (ZQuery) stmt);
+                if (limit >= 0) {
+                    lp.addLimit(limit, offset);
+                }
+                return lp;
             }
         } catch (Zql.ParseException e) {
             throw new simpledb.ParsingException(
                     "Invalid SQL expression: \n \t " + e);
+        } finally {
+            limit = -1;
         }
 
         throw new simpledb.ParsingException(
@@ -489,14 +688,26 @@ public class Parser {
         return curtrans;
     }
 
+    /**
+     * Process a statement, which may be a query ending with
+     * LIMIT n [OFFSET m].
+     */
     public void processNextStatement(String s) {
-        processNextStatement(new ByteArrayInputStream(s.getBytes(StandardCharsets.UTF_8)));
+        s = takeLimit(s);
+        try {
+            processNextStatement(new ByteArrayInputStream(s.getBytes(StandardCharsets.UTF_8)));
+        } finally {
+            limit = -1;
+        }
     }
 
     public void processNextStatement(InputStream is) {
         try {
             ZqlParser p = new ZqlParser(is);
             ZStatement s = p.readStatement();
+            if (limit >= 0 && !(s instanceof ZQuery)) {
+                throw new simpledb.ParsingException("LIMIT is only supported in queries");
+            }
 
             Query query = null;
             if (s instanceof ZTransactStmt)
@@ -585,15 +796,26 @@ public class Parser {
     static final int SLEEP_TIME = 1000;
 
     protected void shutdown() {
+        try {
+            Database.shutdown();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
         System.out.println("Bye");
     }
 
+    static final int WARM_THREADS = 4;
+    static final long MANIFEST_INTERVAL = 60 * 1000;
+
     protected boolean interactive = true;
 
     protected void start(String[] argv) throws IOException {
         // first add tables to database
         Database.getCatalog().loadSchema(argv[0]);
         TableStats.computeStatistics();
+        // 统计信息扫描完所有表之后再预热, 否则预热的页面会被扫描换出
+        PoolWarmer warmer = Database.warmStart(WARM_THREADS, MANIFEST_INTERVAL);
+        System.out.println("Warming buffer pool with " + warmer.getPagesPlanned() + " pages in the background");
 
         String queryFile = null;
 
@@ -627,15 +849,17 @@ public class Parser {
                     e.printStackTrace();
                 }
 
+                // 整个文件读成字符串, 以便识别末尾的LIMIT
+                String statement = new String(Files.readAllBytes(Paths.get(queryFile)), StandardCharsets.UTF_8);
                 long startTime = System.currentTimeMillis();
-                processNextStatement(new FileInputStream(queryFile));
+                processNextStatement(statement);
                 long time = System.currentTimeMillis() - startTime;
                 System.out.printf("----------------\n%.2f seconds\n\n",
                         ((double) time / 1000.0));
                 System.out.println("Press Enter to exit");
                 System.in.read();
                 this.shutdown();
-            } catch (FileNotFoundException e) {
+            } catch (NoSuchFileException e) {
                 System.out.println("Unable to find query file" + queryFile);
                 e.printStackTrace();
             }
@@ -660,7 +884,6 @@ public class Parser {
                     buffer.append(line, 0, split + 1);
                     String cmd = buffer.toString().trim();
                     cmd = cmd.substring(0, cmd.length() - 1).trim() + ";";
-                    byte[] statementBytes = cmd.getBytes(StandardCharsets.UTF_8);
                     if (cmd.equalsIgnoreCase("quit;")
                             || cmd.equalsIgnoreCase("exit;")) {
                         shutdown();
@@ -669,8 +892,7 @@ public class Parser {
                     }
 
                     long startTime = System.currentTimeMillis();
-                    processNextStatement(new ByteArrayInputStream(
-                            statementBytes));
+                    processNextStatement(cmd);
                     long time = System.currentTimeMillis() - startTime;
                     System.out.printf("----------------\n%.2f seconds\n\n",
                             ((double) time / 1000.0));
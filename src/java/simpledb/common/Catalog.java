@@ -1,7 +1,10 @@
 package simpledb.common;
 
+import simpledb.index.BTreePageId;
+import simpledb.storage.BufferPool;
 import simpledb.storage.DbFile;
 import simpledb.storage.HeapFile;
+import simpledb.storage.PageId;
 import simpledb.storage.TupleDesc;
 
 import java.io.BufferedReader;
@@ -26,6 +29,8 @@ public class Catalog {
         private DbFile dbFile; // 存放表数据的文件
         private String name; // 表名
         private String pkeyField; // 主键
+        private String bufferPool; // 缓存该表页面的缓冲池名, null表示默认缓冲池
+        private String internalPagePool; // 缓存B+树内部节点的缓冲池名
 
         public Table(DbFile dbFile, String name, String pkeyField) {
             this.dbFile = dbFile;
@@ -125,6 +130,72 @@ public class Catalog {
         throw new NoSuchElementException();
     }
 
+    /**
+     * Returns the page size of the specified table.
+     *
+     * @param tableid The id of the table, as specified by the DbFile.getId()
+     *                function passed to addTable
+     * @throws NoSuchElementException if the table doesn't exist
+     */
+    public int getPageSize(int tableid) throws NoSuchElementException {
+        return getDatabaseFile(tableid).getPageSize();
+    }
+
+    /**
+     * Cache the pages of the specified table in the named buffer pool (see
+     * {@link BufferPool#addPool}) instead of the default one.
+     *
+     * @param poolName the name of the pool, or null for the default pool
+     * @throws NoSuchElementException if the table doesn't exist
+     */
+    public void setBufferPool(int tableid, String poolName) throws NoSuchElementException {
+        getTable(tableid).bufferPool = poolName;
+    }
+
+    /**
+     * Cache the internal pages of the B+ tree of the specified table in the
+     * named buffer pool, so that lookups keep their upper levels in memory
+     * whatever the leaf pages of this and other tables do.
+     *
+     * @param poolName the name of the pool, or null to keep the internal
+     *                 pages with the rest of the table
+     * @throws NoSuchElementException if the table doesn't exist
+     */
+    public void setInternalPagePool(int tableid, String poolName) throws NoSuchElementException {
+        getTable(tableid).internalPagePool = poolName;
+    }
+
+    /**
+     * @return the name of the buffer pool assigned to the specified table,
+     * or null if it uses the default pool (or does not exist)
+     */
+    public String getBufferPoolName(int tableid) {
+        Table table = tables.get(tableid);
+        return table == null ? null : table.bufferPool;
+    }
+
+    /**
+     * @return the name of the buffer pool that caches the specified page, or
+     * null for the default pool
+     */
+    public String getBufferPoolName(PageId pid) {
+        Table table = tables.get(pid.getTableId());
+        if (table == null) {
+            return null;
+        }
+        if (table.internalPagePool != null && pid instanceof BTreePageId
+                && ((BTreePageId) pid).pgcateg() == BTreePageId.INTERNAL) {
+            return table.internalPagePool;
+        }
+        return table.bufferPool;
+    }
+
+    private Table getTable(int tableid) throws NoSuchElementException {
+        Table table = tables.get(tableid);
+        if (table == null) throw new NoSuchElementException();
+        return table;
+    }
+
     public String getPrimaryKey(int tableid) {
         // some code goes here
         return tables.get(tableid).pkeyField;
@@ -150,6 +221,9 @@ public class Catalog {
 
     /**
      * Reads the schema from a file and creates the appropriate tables in the database.
+     * Each line has the format <code>name (field type [pk], ...) [pagesize=N] [pool=name]</code>;
+     * tables without a pagesize use {@link simpledb.storage.BufferPool#getPageSize()},
+     * tables without a pool are cached in the default buffer pool.
      *
      * @param catalogFile
      */
@@ -191,9 +265,26 @@ public class Catalog {
                 Type[] typeAr = types.toArray(new Type[0]);
                 String[] namesAr = names.toArray(new String[0]);
                 TupleDesc t = new TupleDesc(typeAr, namesAr);
-                HeapFile tabHf = new HeapFile(new File(baseFolder + "/" + name + ".dat"), t);
+                // optional table options after the field list
+                int pageSize = BufferPool.getPageSize();
+                String pool = null;
+                for (String opt : line.substring(line.indexOf(")") + 1).trim().split("\\s+")) {
+                    if (opt.isEmpty())
+                        continue;
+                    if (opt.toLowerCase().startsWith("pagesize="))
+                        pageSize = Integer.parseInt(opt.substring("pagesize=".length()));
+                    else if (opt.toLowerCase().startsWith("pool="))
+                        pool = opt.substring("pool=".length());
+                    else {
+                        System.out.println("Unknown table option " + opt);
+                        System.exit(0);
+                    }
+                }
+                HeapFile tabHf = new HeapFile(new File(baseFolder + "/" + name + ".dat"), t, pageSize);
                 addTable(tabHf, name, primaryKey);
-                System.out.println("Added table : " + name + " with schema " + t);
+                setBufferPool(tabHf.getId(), pool);
+                System.out.println("Added table : " + name + " with schema " + t
+                        + (pageSize != BufferPool.getPageSize() ? " and page size " + pageSize : ""));
             }
         } catch (IOException e) {
             e.printStackTrace();
@@ -1,7 +1,9 @@
 package simpledb.common;
 
 import simpledb.storage.BufferPool;
+import simpledb.storage.BufferPoolManifest;
 import simpledb.storage.LogFile;
+import simpledb.storage.PoolWarmer;
 
 import java.io.*;
 import java.util.concurrent.atomic.AtomicReference;
@@ -24,6 +26,9 @@ public class Database {
     private final static String LOGFILENAME = "log";
     private final LogFile _logfile;
 
+    private final static String MANIFESTFILENAME = "bufferpool.manifest";
+    private final BufferPoolManifest _manifest;
+
     private Database() {
         _catalog = new Catalog();
         _bufferpool = new BufferPool(BufferPool.DEFAULT_PAGES);
@@ -35,6 +40,7 @@ public class Database {
             System.exit(1);
         }
         _logfile = tmp;
+        _manifest = new BufferPoolManifest(new File(MANIFESTFILENAME));
         // startControllerThread();
     }
 
@@ -48,6 +54,38 @@ public class Database {
         return _instance.get()._bufferpool;
     }
 
+    /** Return the buffer pool manifest of the static Database instance */
+    public static BufferPoolManifest getManifest() {
+        return _instance.get()._manifest;
+    }
+
+    /**
+     * Warm up the buffer pool with the pages listed in the manifest written
+     * by the last run, and keep the manifest up to date from now on. Call
+     * after the catalog is loaded.
+     *
+     * @param threads the number of threads reading pages
+     * @param manifestIntervalMillis how often to rewrite the manifest
+     * @return the warmer, to follow the progress of the warm-up
+     */
+    public static PoolWarmer warmStart(int threads, long manifestIntervalMillis) throws IOException {
+        Database db = _instance.get();
+        PoolWarmer warmer = PoolWarmer.start(db._bufferpool, db._manifest.read(), threads);
+        db._manifest.startPeriodicWrites(db._bufferpool, manifestIntervalMillis);
+        return warmer;
+    }
+
+    /**
+     * Clean shutdown: stop the background threads of the buffer pool and
+     * write its manifest for the next {@link #warmStart}.
+     */
+    public static void shutdown() throws IOException {
+        Database db = _instance.get();
+        db._manifest.stopPeriodicWrites();
+        db._bufferpool.stopPageCleaner();
+        db._manifest.write(db._bufferpool);
+    }
+
     /** Return the catalog of the static Database instance */
     public static Catalog getCatalog() {
         return _instance.get()._catalog;
@@ -58,11 +96,23 @@ public class Database {
      * return it
      */
     public static BufferPool resetBufferPool(int pages) {
+        return resetBufferPool(new BufferPool(pages));
+    }
+
+    /**
+     * Method used for testing -- install the given buffer pool, e.g. one
+     * created with {@link BufferPool#offHeap(long)}, and return it
+     */
+    public static BufferPool resetBufferPool(BufferPool pool) {
+        BufferPool old = _instance.get()._bufferpool;
+        if (old != pool) {
+            old.stopPageCleaner();
+        }
         java.lang.reflect.Field bufferPoolF=null;
         try {
             bufferPoolF = Database.class.getDeclaredField("_bufferpool");
             bufferPoolF.setAccessible(true);
-            bufferPoolF.set(_instance.get(), new BufferPool(pages));
+            bufferPoolF.set(_instance.get(), pool);
         } catch (NoSuchFieldException | IllegalAccessException | IllegalArgumentException | SecurityException e) {
             e.printStackTrace();
         }
@@ -6,6 +6,7 @@ import simpledb.storage.IntField;
 
 import java.text.ParseException;
 import java.io.*;
+import java.nio.ByteBuffer;
 
 /**
  * Class representing a type in SimpleDB.
@@ -28,6 +29,16 @@ public enum Type implements Serializable {
             }
         }
 
+        @Override
+        public Field parse(byte[] data, int offset) {
+            return new IntField(readInt(data, offset));
+        }
+
+        @Override
+        public Field parse(ByteBuffer buf, int offset) {
+            return new IntField(buf.getInt(offset));
+        }
+
     }, STRING_TYPE() {
         @Override
         public int getLen() {
@@ -46,6 +57,22 @@ public enum Type implements Serializable {
                 throw new ParseException("couldn't parse", 0);
             }
         }
+
+        @Override
+        public Field parse(byte[] data, int offset) {
+            int strLen = readInt(data, offset);
+            return new StringField(new String(data, offset + 4, strLen), STRING_LEN);
+        }
+
+        @Override
+        public Field parse(ByteBuffer buf, int offset) {
+            int strLen = buf.getInt(offset);
+            byte[] bs = new byte[strLen];
+            ByteBuffer src = buf.duplicate();
+            src.position(offset + 4);
+            src.get(bs);
+            return new StringField(new String(bs), STRING_LEN);
+        }
     };
     
     public static final int STRING_LEN = 128;
@@ -64,4 +91,29 @@ public enum Type implements Serializable {
    */
     public abstract Field parse(DataInputStream dis) throws ParseException;
 
+  /**
+   * @return a Field object of the same type as this object decoded from the
+   *   serialized bytes starting at offset, laid out as written by
+   *   {@link Field#serialize}.
+   * @param data the serialized bytes
+   * @param offset the position of the first byte of the field
+   */
+    public abstract Field parse(byte[] data, int offset);
+
+  /**
+   * Same as {@link #parse(byte[], int)} for serialized bytes held in a
+   * (possibly direct) ByteBuffer. Uses absolute reads only, so the position
+   * of buf is not changed.
+   */
+    public abstract Field parse(ByteBuffer buf, int offset);
+
+  /**
+   * Decode a big-endian int, as written by {@link DataOutputStream#writeInt},
+   * without going through a stream.
+   */
+    public static int readInt(byte[] data, int offset) {
+        return ((data[offset] & 0xff) << 24) | ((data[offset + 1] & 0xff) << 16)
+                | ((data[offset + 2] & 0xff) << 8) | (data[offset + 3] & 0xff);
+    }
+
 }
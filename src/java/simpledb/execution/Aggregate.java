@@ -15,6 +15,11 @@ import java.util.NoSuchElementException;
  * The Aggregation operator that computes an aggregate (e.g., sum, avg, max,
  * min). Note that we only support aggregates over a single column, grouped by a
  * single column.
+ * <p>
+ * The groups of a grouped aggregate take at most a memory budget, beyond
+ * which they are spilled to disk by a {@link SpillableAggregator}.
+ * Approximate distinct counts are estimated by a
+ * {@link DistinctCountAggregator}.
  */
 
 // 对外暴露该类来执行sql
@@ -33,6 +38,21 @@ public class Aggregate extends Operator {
     private OpIterator it; // // 聚合结果迭代器，存着一个个的tuple
     private TupleDesc td; // 聚合结果的表描述
 
+    private final long memoryBudget; // 分组聚合可用的内存, 超出后溢出到磁盘
+
+    /**
+     * The name of the system property with the default number of bytes the
+     * groups of an aggregate may take in memory before they are spilled to
+     * disk.
+     */
+    public static final String MEMORY_BUDGET_PROPERTY = "simpledb.aggregateMemory";
+
+    /**
+     * @return the default memory budget of grouped aggregates, in bytes
+     */
+    public static long defaultMemoryBudget() {
+        return Long.getLong(MEMORY_BUDGET_PROPERTY, 64L << 20);
+    }
 
     /**
      * Constructor.
@@ -48,15 +68,38 @@ public class Aggregate extends Operator {
      * @param aop    The aggregation operator to use
      */
     public Aggregate(OpIterator child, int afield, int gfield, Aggregator.Op aop) {
+        this(child, afield, gfield, aop, defaultMemoryBudget());
+    }
+
+    /**
+     * Constructor for an aggregate whose groups may take at most
+     * memoryBudget bytes of memory. Grouped aggregates supported by
+     * {@link SpillableAggregator} spill the other groups to disk.
+     *
+     * @param child        The OpIterator that is feeding us tuples.
+     * @param afield       The column over which we are computing an aggregate.
+     * @param gfield       The column over which we are grouping the result, or
+     *                     -1 if there is no grouping
+     * @param aop          The aggregation operator to use
+     * @param memoryBudget The number of bytes the groups may take in memory
+     */
+    public Aggregate(OpIterator child, int afield, int gfield, Aggregator.Op aop, long memoryBudget) {
         // some code goes here
         this.child = child;
         this.afield = afield;
         this.gfield = gfield;
         this.aop = aop;
+        this.memoryBudget = memoryBudget;
         // 聚合类型,如果是-1,,说明不分组聚合
         Type gfieldtype = gfield == -1 ? null : this.child.getTupleDesc().getFieldType(this.gfield);
+        Type afieldtype = this.child.getTupleDesc().getFieldType(this.afield);
         // 选用和是的聚合器
-        if(this.child.getTupleDesc().getFieldType(this.afield) == (Type.STRING_TYPE)){
+        if (aop == Aggregator.Op.APPROX_COUNT_DISTINCT) {
+            this.aggregator = new DistinctCountAggregator(this.gfield, gfieldtype, this.afield, this.aop);
+        } else if (gfieldtype != null && SpillableAggregator.supports(aop, afieldtype)) {
+            this.aggregator = new SpillableAggregator(this.gfield, gfieldtype, this.afield, afieldtype, this.aop,
+                    memoryBudget);
+        } else if(afieldtype == (Type.STRING_TYPE)){
             this.aggregator = new StringAggregator(this.gfield,gfieldtype,this.afield,this.aop);
         }else{
             this.aggregator = new IntegerAggregator(this.gfield,gfieldtype,this.afield,this.aop);
@@ -64,22 +107,31 @@ public class Aggregate extends Operator {
         // 获取聚合器的迭代器
         this.it = this.aggregator.iterator();
         // 构造聚合结果的表头信息
+        this.td = resultDesc(this.child.getTupleDesc(), afield, gfield, aop);
+    }
+
+    /**
+     * @return the TupleDesc of the result of aggregating afield of tuples
+     * with TupleDesc childTd with aop, grouped by gfield
+     */
+    static TupleDesc resultDesc(TupleDesc childTd, int afield, int gfield, Aggregator.Op aop) {
         List<Type> types = new ArrayList<>();
         List<String> names = new ArrayList<>();
         // 如果分组了，第一列表头是gfield
-        if (gfieldtype != null) {
-            types.add(gfieldtype);
-            names.add(this.child.getTupleDesc().getFieldName(this.gfield));
+        if (gfield != Aggregator.NO_GROUPING) {
+            types.add(childTd.getFieldType(gfield));
+            names.add(childTd.getFieldName(gfield));
         }
         // 注意，如果上面判断分组的条件没有执行，也就是乜有分组，那么types和names列表的长度 应该是1，如果执行了就是2
-        types.add(this.child.getTupleDesc().getFieldType(this.afield));
-        names.add(this.child.getTupleDesc().getFieldName(this.afield));
+        // 聚合结果都是整数, 包括字符串列的COUNT
+        types.add(Type.INT_TYPE);
+        names.add(childTd.getFieldName(afield));
 
         if (aop.equals(Aggregator.Op.SUM_COUNT)) {
             types.add(Type.INT_TYPE);
             names.add("COUNT");
         }
-        this.td = new TupleDesc(types.toArray(new Type[0]), names.toArray(new String[0]));
+        return new TupleDesc(types.toArray(new Type[0]), names.toArray(new String[0]));
     }
 
     /**
@@ -132,6 +184,21 @@ public class Aggregate extends Operator {
         return this.aop;
     }
 
+    /**
+     * @return the number of bytes the groups may take in memory
+     */
+    public long getMemoryBudget() {
+        return memoryBudget;
+    }
+
+    /**
+     * @return the number of bytes of groups spilled to disk the last time
+     * this aggregate was opened
+     */
+    public long getSpilledBytes() {
+        return aggregator instanceof SpillableAggregator ? ((SpillableAggregator) aggregator).getSpilledBytes() : 0;
+    }
+
     public static String nameOfAggregatorOp(Aggregator.Op aop) {
         return aop.toString();
     }
@@ -140,6 +207,10 @@ public class Aggregate extends Operator {
             TransactionAbortedException {
         // some code goes here
         this.child.open();
+        if (this.aggregator instanceof SpillableAggregator)
+            ((SpillableAggregator) this.aggregator).reset();
+        if (this.aggregator instanceof DistinctCountAggregator)
+            ((DistinctCountAggregator) this.aggregator).reset();
         while (this.child.hasNext())
             this.aggregator.mergeTupleIntoGroup(this.child.next());
         this.it.open();
@@ -188,6 +259,8 @@ public class Aggregate extends Operator {
         super.close();
         this.child.close();
         this.it.close();
+        if (this.aggregator instanceof SpillableAggregator)
+            ((SpillableAggregator) this.aggregator).close();
     }
 
     @Override
@@ -0,0 +1,92 @@
+package simpledb.execution;
+
+import simpledb.storage.Field;
+
+import java.io.Serializable;
+import java.util.Collection;
+
+/**
+ * BloomFilter is a compact set of fields that may report fields it does not
+ * contain, but never misses one it does. Joins build them over the keys of
+ * one input to discard tuples of the other input early, see
+ * {@link HashEquiJoin}.
+ * <p>
+ * With {@link #BITS_PER_KEY} bits per key and {@link #HASHES} hash
+ * functions about 1% of the fields that are not in the set are reported.
+ */
+public class BloomFilter implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    public static final int BITS_PER_KEY = 10;
+    public static final int HASHES = 7;
+
+    private final long[] bits;
+    private final int size;
+
+    /**
+     * Create an empty filter for up to expectedKeys keys. More keys can be
+     * added, at the cost of a higher false positive rate.
+     *
+     * @param expectedKeys the number of keys the filter is sized for
+     */
+    public BloomFilter(int expectedKeys) {
+        int words = Math.max(1, (int) (((long) expectedKeys * BITS_PER_KEY + 63) / 64));
+        this.bits = new long[words];
+        this.size = words * 64;
+    }
+
+    /**
+     * @return a filter that contains every field of keys
+     */
+    public static BloomFilter of(Collection<? extends Field> keys) {
+        BloomFilter filter = new BloomFilter(keys.size());
+        for (Field key : keys) {
+            filter.add(key);
+        }
+        return filter;
+    }
+
+    /**
+     * Spread the bits of the hash code, so that consecutive integers do not
+     * set neighbouring bits.
+     */
+    private static long mix(int hash) {
+        long h = hash * 0x9E3779B97F4A7C15L;
+        h ^= h >>> 33;
+        h *= 0xFF51AFD7ED558CCDL;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    public void add(Field key) {
+        long h = mix(key.hashCode());
+        int h1 = (int) h, h2 = (int) (h >>> 32);
+        for (int i = 0; i < HASHES; i++) {
+            int bit = Math.floorMod(h1 + i * h2, size);
+            bits[bit >>> 6] |= 1L << bit;
+        }
+    }
+
+    /**
+     * @return false if key was never added, true if it may have been
+     */
+    public boolean mightContain(Field key) {
+        long h = mix(key.hashCode());
+        int h1 = (int) h, h2 = (int) (h >>> 32);
+        for (int i = 0; i < HASHES; i++) {
+            int bit = Math.floorMod(h1 + i * h2, size);
+            if ((bits[bit >>> 6] & (1L << bit)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return the size of the filter in bits
+     */
+    public int bitSize() {
+        return size;
+    }
+}
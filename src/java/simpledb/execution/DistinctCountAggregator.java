@@ -0,0 +1,129 @@
+package simpledb.execution;
+
+import simpledb.common.Type;
+import simpledb.storage.Field;
+import simpledb.storage.IntField;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Estimates the number of distinct values of a field of any type, per
+ * group, with a {@link HyperLogLog} sketch. Unlike an exact distinct count,
+ * whose groups keep every value seen, each group takes a few kilobytes.
+ */
+public class DistinctCountAggregator implements Aggregator {
+
+    private static final long serialVersionUID = 1L;
+
+    private static final IntField NO_GROUP = new IntField(-1);
+
+    private final int gbfield;
+    private final int afield;
+    private final TupleDesc desc;
+    /**
+     * 每个分组的基数草图, 不分组时只有NO_GROUP一项
+     */
+    private final Map<Field, HyperLogLog> sketches = new LinkedHashMap<>();
+
+    /**
+     * Aggregate constructor
+     *
+     * @param gbfield     the 0-based index of the group-by field in the tuple, or NO_GROUPING if there is no grouping
+     * @param gbfieldtype the type of the group by field (e.g., Type.INT_TYPE), or null if there is no grouping
+     * @param afield      the 0-based index of the aggregate field in the tuple
+     * @param what        aggregation operator to use -- only supports APPROX_COUNT_DISTINCT
+     * @throws IllegalArgumentException if what != APPROX_COUNT_DISTINCT
+     */
+    public DistinctCountAggregator(int gbfield, Type gbfieldtype, int afield, Op what) {
+        if (what != Op.APPROX_COUNT_DISTINCT) {
+            throw new IllegalArgumentException("unsupported aggregate " + what);
+        }
+        this.gbfield = gbfield;
+        this.afield = afield;
+        if (gbfield == NO_GROUPING) {
+            this.desc = new TupleDesc(new Type[]{Type.INT_TYPE}, new String[]{"aggregateValue"});
+        } else {
+            this.desc = new TupleDesc(new Type[]{gbfieldtype, Type.INT_TYPE},
+                    new String[]{"groupValue", "aggregateValue"});
+        }
+        reset();
+    }
+
+    /**
+     * Forget the tuples merged so far.
+     */
+    public void reset() {
+        sketches.clear();
+        // 不分组时空输入也返回0
+        if (gbfield == NO_GROUPING) {
+            sketches.put(NO_GROUP, new HyperLogLog());
+        }
+    }
+
+    public void mergeTupleIntoGroup(Tuple tup) {
+        Field group = gbfield == NO_GROUPING ? NO_GROUP : tup.getField(gbfield);
+        sketches.computeIfAbsent(group, k -> new HyperLogLog()).add(tup.getField(afield));
+    }
+
+    /**
+     * @return a OpIterator whose tuples are the pair (groupVal,
+     * estimatedCount) if using group, or a single (estimatedCount) if no
+     * grouping, as of the time the iterator is opened or rewound
+     */
+    public OpIterator iterator() {
+        return new OpIterator() {
+            private static final long serialVersionUID = 1L;
+            private Iterator<Tuple> it;
+
+            @Override
+            public void open() {
+                it = results().iterator();
+            }
+
+            @Override
+            public boolean hasNext() {
+                return it.hasNext();
+            }
+
+            @Override
+            public Tuple next() {
+                return it.next();
+            }
+
+            @Override
+            public void rewind() {
+                open();
+            }
+
+            @Override
+            public TupleDesc getTupleDesc() {
+                return desc;
+            }
+
+            @Override
+            public void close() {
+                it = null;
+            }
+        };
+    }
+
+    private List<Tuple> results() {
+        List<Tuple> tuples = new ArrayList<>();
+        for (Map.Entry<Field, HyperLogLog> e : sketches.entrySet()) {
+            Tuple t = new Tuple(desc);
+            int i = 0;
+            if (gbfield != NO_GROUPING) {
+                t.setField(i++, e.getKey());
+            }
+            t.setField(i, new IntField((int) Math.min(Integer.MAX_VALUE, e.getValue().estimate())));
+            tuples.add(t);
+        }
+        return tuples;
+    }
+}
@@ -0,0 +1,425 @@
+package simpledb.execution;
+
+import simpledb.common.DbException;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+import simpledb.transaction.TransactionAbortedException;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Exchange moves tuples between threads, so that the operators below and
+ * above it can run in parallel.
+ * <p>
+ * An exchange has one or more inputs, each of which is run on a producer
+ * thread of its own, and one or more outputs, each an Exchange operator
+ * read by a consumer. The tuples of the inputs are routed to the outputs
+ * <ul>
+ * <li>all to a single output ({@link #gather}),
+ * <li>by the hash of a field, so that equal values meet in the same output
+ * ({@link #repartition}), or
+ * <li>each to every output ({@link #broadcast}).
+ * </ul>
+ * Tuples are passed in batches through a bounded queue per output; a
+ * producer waits while the queue of an output it sends to is full. The
+ * producers are started when the first output is opened. An output that is
+ * closed before its end receives no more tuples, and once every output is
+ * closed the producers are stopped.
+ * <p>
+ * The outputs of a repartition or broadcast may be rewound: they keep the
+ * tuples they have returned and return them again. A materialized output
+ * reads all of its tuples when opened. The outputs a consumer reads must
+ * not wait on each other: while one consumer stops reading its output,
+ * the producers may wait for it, holding back the other outputs. Since
+ * operators such as joins read one child while the other waits, the child
+ * a join reads completely first should be materialized.
+ * <p>
+ * An exchange is opened once; it cannot be reopened after it is closed.
+ */
+public class Exchange extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * 每批传递的元组数
+     */
+    static final int BATCH_SIZE = 256;
+    /**
+     * 每个输出队列最多缓存的批数
+     */
+    static final int QUEUE_BATCHES = 16;
+
+    private final transient Producers producers;
+    private final int partition;
+    private final boolean materialize;
+
+    /**
+     * 已返回的元组, 用于rewind; gather的输出不保留, 为null
+     */
+    private transient List<Tuple> spool;
+    private transient int position;
+    private transient Iterator<Tuple> batch;
+    private transient int ended;
+    private transient boolean closed;
+
+    private Exchange(Producers producers, int partition, boolean materialize, boolean rewindable) {
+        this.producers = producers;
+        this.partition = partition;
+        this.materialize = materialize;
+        this.spool = rewindable ? new ArrayList<>() : null;
+    }
+
+    /**
+     * Run the inputs in parallel and return all of their tuples, in no
+     * particular order. The result cannot be rewound.
+     *
+     * @param inputs the inputs, which must have the same TupleDesc
+     */
+    public static Exchange gather(List<? extends OpIterator> inputs) {
+        Producers producers = new Producers(inputs, 1, -1, false);
+        return new Exchange(producers, 0, false, false);
+    }
+
+    /**
+     * Run the inputs in parallel and split their tuples between several
+     * outputs by the hash of a field.
+     *
+     * @param inputs      the inputs, which must have the same TupleDesc
+     * @param field       the field to partition on
+     * @param partitions  the number of outputs
+     * @param materialize whether each output reads all of its tuples when
+     *                    it is opened
+     * @return the outputs
+     */
+    public static List<Exchange> repartition(List<? extends OpIterator> inputs, int field, int partitions,
+                                             boolean materialize) {
+        return outputs(new Producers(inputs, partitions, field, false), materialize);
+    }
+
+    /**
+     * Run the inputs in parallel and send each of their tuples to several
+     * outputs.
+     *
+     * @param inputs      the inputs, which must have the same TupleDesc
+     * @param partitions  the number of outputs
+     * @param materialize whether each output reads all of its tuples when
+     *                    it is opened
+     * @return the outputs
+     */
+    public static List<Exchange> broadcast(List<? extends OpIterator> inputs, int partitions,
+                                           boolean materialize) {
+        return outputs(new Producers(inputs, partitions, -1, true), materialize);
+    }
+
+    private static List<Exchange> outputs(Producers producers, boolean materialize) {
+        List<Exchange> outputs = new ArrayList<>();
+        for (int i = 0; i < producers.queues.size(); i++) {
+            outputs.add(new Exchange(producers, i, materialize, true));
+        }
+        return outputs;
+    }
+
+    /**
+     * @return a short description of the exchange, e.g. for explaining a
+     * plan
+     */
+    public String getName() {
+        String name;
+        if (producers.broadcast) {
+            name = "broadcast";
+        } else if (producers.field >= 0) {
+            name = "hash(" + getTupleDesc().getFieldName(producers.field) + ")";
+        } else {
+            name = "gather";
+        }
+        return String.format("exchange %s %d->%d", name, producers.inputs.size(), producers.queues.size());
+    }
+
+    /**
+     * @return the number of the output this operator reads
+     */
+    public int getPartition() {
+        return partition;
+    }
+
+    @Override
+    public TupleDesc getTupleDesc() {
+        return producers.inputs.get(0).getTupleDesc();
+    }
+
+    @Override
+    public void open() throws DbException, TransactionAbortedException {
+        if (closed) {
+            throw new DbException("an exchange cannot be reopened");
+        }
+        producers.start();
+        batch = Collections.emptyIterator();
+        ended = 0;
+        position = 0;
+        if (materialize) {
+            for (Tuple t = receive(); t != null; t = receive()) {
+                spool.add(t);
+            }
+        }
+        super.open();
+    }
+
+    @Override
+    protected Tuple fetchNext() throws DbException, TransactionAbortedException {
+        if (spool != null && position < spool.size()) {
+            return spool.get(position++);
+        }
+        Tuple t = receive();
+        if (t != null && spool != null) {
+            spool.add(t);
+            position++;
+        }
+        return t;
+    }
+
+    /**
+     * @return the next tuple sent to this output, or null once every
+     * producer has finished
+     */
+    private Tuple receive() throws DbException, TransactionAbortedException {
+        BlockingQueue<Batch> queue = producers.queues.get(partition);
+        while (!batch.hasNext()) {
+            if (ended == producers.inputs.size()) {
+                return null;
+            }
+            Batch next;
+            try {
+                next = queue.take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new DbException("interrupted while waiting for an exchange producer");
+            }
+            if (next.failure != null) {
+                ended = producers.inputs.size();
+                rethrow(next.failure);
+            }
+            if (next.tuples == null) {
+                ended++;
+            } else {
+                batch = next.tuples.iterator();
+            }
+        }
+        return batch.next();
+    }
+
+    private static void rethrow(Exception e) throws DbException, TransactionAbortedException {
+        if (e instanceof DbException) {
+            throw (DbException) e;
+        }
+        if (e instanceof TransactionAbortedException) {
+            throw (TransactionAbortedException) e;
+        }
+        throw (RuntimeException) e;
+    }
+
+    @Override
+    public void rewind() throws DbException {
+        if (spool == null) {
+            throw new DbException("a gather exchange cannot be rewound");
+        }
+        position = 0;
+    }
+
+    @Override
+    public void close() {
+        super.close();
+        if (!closed) {
+            closed = true;
+            producers.close(partition);
+        }
+        batch = null;
+        if (spool != null) {
+            spool.clear();
+        }
+    }
+
+    @Override
+    public OpIterator[] getChildren() {
+        return producers.inputs.toArray(new OpIterator[0]);
+    }
+
+    @Override
+    public void setChildren(OpIterator[] children) {
+        producers.setInputs(children);
+    }
+
+    /**
+     * A batch of tuples, the end of one producer's tuples (no tuples), or
+     * the error that stopped a producer.
+     */
+    private static final class Batch {
+        static final Batch END = new Batch(null, null);
+
+        final List<Tuple> tuples;
+        final Exception failure;
+
+        Batch(List<Tuple> tuples, Exception failure) {
+            this.tuples = tuples;
+            this.failure = failure;
+        }
+    }
+
+    /**
+     * The producer side of an exchange, shared by its outputs.
+     */
+    private static final class Producers {
+        private static final AtomicInteger ids = new AtomicInteger();
+
+        private final int id = ids.incrementAndGet();
+        private List<OpIterator> inputs;
+        private final int field;
+        private final boolean broadcast;
+        private final List<BlockingQueue<Batch>> queues = new ArrayList<>();
+        /**
+         * 已关闭的输出, 生产者不再向其发送元组
+         */
+        private final Set<Integer> closed = ConcurrentHashMap.newKeySet();
+        private final List<Thread> threads = new ArrayList<>();
+        private volatile boolean stopped;
+        private boolean started;
+
+        Producers(List<? extends OpIterator> inputs, int partitions, int field, boolean broadcast) {
+            if (inputs.isEmpty()) {
+                throw new IllegalArgumentException("an exchange needs at least one input");
+            }
+            if (partitions < 1) {
+                throw new IllegalArgumentException("an exchange needs at least one output");
+            }
+            this.inputs = new ArrayList<>(inputs);
+            this.field = field;
+            this.broadcast = broadcast;
+            for (int i = 0; i < partitions; i++) {
+                queues.add(new ArrayBlockingQueue<>(QUEUE_BATCHES));
+            }
+        }
+
+        synchronized void setInputs(OpIterator[] children) {
+            if (started) {
+                throw new IllegalStateException("exchange already started");
+            }
+            inputs = new ArrayList<>();
+            Collections.addAll(inputs, children);
+        }
+
+        synchronized void start() {
+            if (started) {
+                return;
+            }
+            started = true;
+            for (int i = 0; i < inputs.size(); i++) {
+                OpIterator input = inputs.get(i);
+                Thread thread = new Thread(() -> produce(input), "exchange-" + id + "-" + i);
+                thread.setDaemon(true);
+                threads.add(thread);
+                thread.start();
+            }
+        }
+
+        private void produce(OpIterator input) {
+            int n = queues.size();
+            List<List<Tuple>> pending = new ArrayList<>();
+            for (int i = 0; i < n; i++) {
+                pending.add(new ArrayList<>());
+            }
+            try {
+                try {
+                    input.open();
+                    while (!stopped && input.hasNext()) {
+                        Tuple t = input.next();
+                        if (broadcast) {
+                            for (int i = 0; i < n; i++) {
+                                add(pending, i, t);
+                            }
+                        } else {
+                            int p = field < 0 ? 0 : Math.floorMod(t.getField(field).hashCode(), n);
+                            add(pending, p, t);
+                        }
+                    }
+                    for (int i = 0; i < n; i++) {
+                        if (!pending.get(i).isEmpty()) {
+                            send(i, new Batch(pending.get(i), null));
+                        }
+                    }
+                } catch (DbException | TransactionAbortedException | RuntimeException e) {
+                    for (int i = 0; i < n; i++) {
+                        send(i, new Batch(null, e));
+                    }
+                    return;
+                } finally {
+                    input.close();
+                }
+                for (int i = 0; i < n; i++) {
+                    send(i, Batch.END);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        private void add(List<List<Tuple>> pending, int p, Tuple t) throws InterruptedException {
+            List<Tuple> tuples = pending.get(p);
+            tuples.add(t);
+            if (tuples.size() == BATCH_SIZE) {
+                send(p, new Batch(tuples, null));
+                pending.set(p, new ArrayList<>());
+            }
+        }
+
+        /**
+         * Put a batch in the queue of an output, waiting while it is full,
+         * unless the output is closed or the exchange is stopped.
+         */
+        private void send(int p, Batch batch) throws InterruptedException {
+            BlockingQueue<Batch> queue = queues.get(p);
+            while (!stopped && !closed.contains(p)) {
+                if (queue.offer(batch, 10, TimeUnit.MILLISECONDS)) {
+                    return;
+                }
+            }
+        }
+
+        /**
+         * Called when an output is closed; stops the producers once every
+         * output is closed.
+         */
+        void close(int p) {
+            closed.add(p);
+            queues.get(p).clear();
+            if (closed.size() < queues.size()) {
+                return;
+            }
+            stopped = true;
+            List<Thread> running;
+            synchronized (this) {
+                running = new ArrayList<>(threads);
+            }
+            boolean interrupted = false;
+            for (Thread thread : running) {
+                while (thread.isAlive()) {
+                    try {
+                        thread.join();
+                    } catch (InterruptedException e) {
+                        interrupted = true;
+                    }
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+}
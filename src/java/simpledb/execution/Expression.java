@@ -0,0 +1,742 @@
+package simpledb.execution;
+
+import simpledb.common.Type;
+import simpledb.storage.Field;
+import simpledb.storage.IntField;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Expression is a tree of columns, constants, arithmetic, comparisons, IN
+ * lists and AND/OR/NOT over the fields of a tuple, e.g. the WHERE clause of
+ * a query.
+ * <p>
+ * Before it is evaluated an expression is compiled against the TupleDesc of
+ * its input into a chain of lambdas, see {@link #compile}. Operators, field
+ * types and column indexes are resolved once at that point: a comparison of
+ * an INT column with a constant becomes a single primitive comparison of
+ * {@link Tuple#getInt}, with no Field objects, boxing or switch on the
+ * operator per tuple. Arithmetic is on INT values only.
+ * <p>
+ * Columns are referred to by index, or by name until compiled; names are
+ * looked up with {@link TupleDesc#fieldNameToIndex}.
+ */
+public abstract class Expression implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * A compiled boolean expression.
+     */
+    @FunctionalInterface
+    public interface Condition extends Serializable {
+        boolean test(Tuple t);
+    }
+
+    /**
+     * A compiled INT expression.
+     */
+    @FunctionalInterface
+    public interface IntValue extends Serializable {
+        int eval(Tuple t);
+    }
+
+    /**
+     * A compiled expression of any type.
+     */
+    @FunctionalInterface
+    public interface Value extends Serializable {
+        Field eval(Tuple t);
+    }
+
+    public enum ArithmeticOp {
+        PLUS("+"), MINUS("-"), TIMES("*"), DIVIDE("/");
+
+        private final String symbol;
+
+        ArithmeticOp(String symbol) {
+            this.symbol = symbol;
+        }
+
+        public String toString() {
+            return symbol;
+        }
+    }
+
+    public static Expression column(int index) {
+        return new Column(index, null);
+    }
+
+    /**
+     * @param name the name of the column in the TupleDesc the expression is
+     *             compiled against, e.g. "alias.field"
+     */
+    public static Expression column(String name) {
+        return new Column(-1, name);
+    }
+
+    public static Expression constant(Field value) {
+        return new Constant(value);
+    }
+
+    public static Expression constant(int value) {
+        return new Constant(new IntField(value));
+    }
+
+    public static Expression compare(Expression left, Predicate.Op op, Expression right) {
+        return new Comparison(left, op, right);
+    }
+
+    public static Expression arithmetic(Expression left, ArithmeticOp op, Expression right) {
+        return new Arithmetic(left, op, right);
+    }
+
+    public static Expression and(Expression... operands) {
+        return new Logical(true, Arrays.asList(operands));
+    }
+
+    public static Expression and(List<Expression> operands) {
+        return new Logical(true, operands);
+    }
+
+    public static Expression or(Expression... operands) {
+        return new Logical(false, Arrays.asList(operands));
+    }
+
+    public static Expression or(List<Expression> operands) {
+        return new Logical(false, operands);
+    }
+
+    public static Expression not(Expression operand) {
+        return new Not(operand);
+    }
+
+    /**
+     * @return an expression that is true if operand equals one of values
+     */
+    public static Expression in(Expression operand, List<Field> values) {
+        return new In(operand, values);
+    }
+
+    /**
+     * @return the expression that is true for the tuples p accepts
+     */
+    public static Expression of(Predicate p) {
+        return compare(column(p.getField()), p.getOp(), constant(p.getOperand()));
+    }
+
+    /**
+     * @return the type of the value of this expression, or null if it is a
+     * condition
+     * @throws IllegalArgumentException if the expression does not fit td
+     */
+    public abstract Type getType(TupleDesc td);
+
+    /**
+     * Compile this condition for tuples with TupleDesc td.
+     *
+     * @throws IllegalArgumentException if this is not a condition, or does
+     *                                  not fit td
+     */
+    public Condition compile(TupleDesc td) {
+        throw new IllegalArgumentException(this + " is not a condition");
+    }
+
+    /**
+     * Compile this INT expression for tuples with TupleDesc td.
+     *
+     * @throws IllegalArgumentException if this is not an INT expression, or
+     *                                  does not fit td
+     */
+    public IntValue compileInt(TupleDesc td) {
+        throw new IllegalArgumentException(this + " is not an INT expression");
+    }
+
+    /**
+     * Compile this expression for tuples with TupleDesc td, returning its
+     * value as a Field.
+     *
+     * @throws IllegalArgumentException if this is a condition, or does not
+     *                                  fit td
+     */
+    public Value compileValue(TupleDesc td) {
+        IntValue v = compileInt(td);
+        return t -> new IntField(v.eval(t));
+    }
+
+    /**
+     * @return the names of the columns referred to by name in this
+     * expression
+     */
+    public Set<String> columnNames() {
+        Set<String> names = new HashSet<>();
+        collectColumnNames(names);
+        return names;
+    }
+
+    abstract void collectColumnNames(Collection<String> names);
+
+    /**
+     * @return a copy of this expression with the columns referred to by a
+     * key of names referred to by its value instead
+     */
+    public abstract Expression rename(Map<String, String> names);
+
+    private static IllegalArgumentException mismatch(Expression e, Type left, Type right) {
+        return new IllegalArgumentException("cannot compare " + left + " with " + right + " in " + e);
+    }
+
+    /**
+     * A column of the input tuple.
+     */
+    public static final class Column extends Expression {
+        private static final long serialVersionUID = 1L;
+        private final int index;
+        private final String name;
+
+        private Column(int index, String name) {
+            this.index = index;
+            this.name = name;
+        }
+
+        /**
+         * @return the index of the column, or -1 if it is referred to by
+         * name
+         */
+        public int getIndex() {
+            return index;
+        }
+
+        /**
+         * @return the name of the column, or null if it is referred to by
+         * index
+         */
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * @return the index of the column in td
+         */
+        public int resolve(TupleDesc td) {
+            if (name == null) {
+                if (index >= td.numFields()) {
+                    throw new IllegalArgumentException("no column " + index + " in " + td);
+                }
+                return index;
+            }
+            return td.fieldNameToIndex(name);
+        }
+
+        public Type getType(TupleDesc td) {
+            return td.getFieldType(resolve(td));
+        }
+
+        public IntValue compileInt(TupleDesc td) {
+            int i = resolve(td);
+            if (td.getFieldType(i) != Type.INT_TYPE) {
+                return super.compileInt(td);
+            }
+            return t -> t.getInt(i);
+        }
+
+        public Value compileValue(TupleDesc td) {
+            int i = resolve(td);
+            return t -> t.getField(i);
+        }
+
+        void collectColumnNames(Collection<String> names) {
+            if (name != null) {
+                names.add(name);
+            }
+        }
+
+        public Expression rename(Map<String, String> names) {
+            return name != null && names.containsKey(name) ? new Column(-1, names.get(name)) : this;
+        }
+
+        public String toString() {
+            return name != null ? name : "$" + index;
+        }
+    }
+
+    /**
+     * A constant.
+     */
+    public static final class Constant extends Expression {
+        private static final long serialVersionUID = 1L;
+        private final Field value;
+
+        private Constant(Field value) {
+            this.value = value;
+        }
+
+        public Field getValue() {
+            return value;
+        }
+
+        public Type getType(TupleDesc td) {
+            return value.getType();
+        }
+
+        public IntValue compileInt(TupleDesc td) {
+            if (!(value instanceof IntField)) {
+                return super.compileInt(td);
+            }
+            int v = ((IntField) value).getValue();
+            return t -> v;
+        }
+
+        public Value compileValue(TupleDesc td) {
+            Field v = value;
+            return t -> v;
+        }
+
+        void collectColumnNames(Collection<String> names) {
+        }
+
+        public Expression rename(Map<String, String> names) {
+            return this;
+        }
+
+        public String toString() {
+            return value.getType() == Type.STRING_TYPE ? "'" + value + "'" : value.toString();
+        }
+    }
+
+    /**
+     * Arithmetic on two INT expressions. Division by zero throws an
+     * ArithmeticException when the tuple is evaluated.
+     */
+    public static final class Arithmetic extends Expression {
+        private static final long serialVersionUID = 1L;
+        private final Expression left, right;
+        private final ArithmeticOp op;
+
+        private Arithmetic(Expression left, ArithmeticOp op, Expression right) {
+            this.left = left;
+            this.op = op;
+            this.right = right;
+        }
+
+        public Expression getLeft() {
+            return left;
+        }
+
+        public ArithmeticOp getOp() {
+            return op;
+        }
+
+        public Expression getRight() {
+            return right;
+        }
+
+        public Type getType(TupleDesc td) {
+            if (left.getType(td) != Type.INT_TYPE || right.getType(td) != Type.INT_TYPE) {
+                throw new IllegalArgumentException("arithmetic on non INT values in " + this);
+            }
+            return Type.INT_TYPE;
+        }
+
+        public IntValue compileInt(TupleDesc td) {
+            getType(td);
+            if (left instanceof Constant && right instanceof Constant && op != ArithmeticOp.DIVIDE) {
+                // 常量在编译时折叠; 除法保留到执行时, 以便除零照常报错
+                int v = apply(((IntField) ((Constant) left).value).getValue(),
+                        ((IntField) ((Constant) right).value).getValue());
+                return t -> v;
+            }
+            IntValue l = left.compileInt(td);
+            if (right instanceof Constant) {
+                int c = ((IntField) ((Constant) right).value).getValue();
+                switch (op) {
+                    case PLUS:
+                        return t -> l.eval(t) + c;
+                    case MINUS:
+                        return t -> l.eval(t) - c;
+                    case TIMES:
+                        return t -> l.eval(t) * c;
+                    default:
+                        return t -> l.eval(t) / c;
+                }
+            }
+            IntValue r = right.compileInt(td);
+            switch (op) {
+                case PLUS:
+                    return t -> l.eval(t) + r.eval(t);
+                case MINUS:
+                    return t -> l.eval(t) - r.eval(t);
+                case TIMES:
+                    return t -> l.eval(t) * r.eval(t);
+                default:
+                    return t -> l.eval(t) / r.eval(t);
+            }
+        }
+
+        private int apply(int a, int b) {
+            switch (op) {
+                case PLUS:
+                    return a + b;
+                case MINUS:
+                    return a - b;
+                case TIMES:
+                    return a * b;
+                default:
+                    return a / b;
+            }
+        }
+
+        void collectColumnNames(Collection<String> names) {
+            left.collectColumnNames(names);
+            right.collectColumnNames(names);
+        }
+
+        public Expression rename(Map<String, String> names) {
+            return new Arithmetic(left.rename(names), op, right.rename(names));
+        }
+
+        public String toString() {
+            return "(" + left + " " + op + " " + right + ")";
+        }
+    }
+
+    /**
+     * A comparison of two values of the same type with a {@link Predicate.Op}.
+     */
+    public static final class Comparison extends Expression {
+        private static final long serialVersionUID = 1L;
+        private final Expression left, right;
+        private final Predicate.Op op;
+
+        private Comparison(Expression left, Predicate.Op op, Expression right) {
+            this.left = left;
+            this.op = op;
+            this.right = right;
+        }
+
+        public Expression getLeft() {
+            return left;
+        }
+
+        public Predicate.Op getOp() {
+            return op;
+        }
+
+        public Expression getRight() {
+            return right;
+        }
+
+        public Type getType(TupleDesc td) {
+            Type l = left.getType(td), r = right.getType(td);
+            if (l == null || l != r) {
+                throw mismatch(this, l, r);
+            }
+            return null;
+        }
+
+        public Condition compile(TupleDesc td) {
+            getType(td);
+            if (left.getType(td) == Type.INT_TYPE) {
+                return compileInts(td);
+            }
+            Value l = left.compileValue(td);
+            Predicate.Op o = op;
+            if (right instanceof Constant) {
+                Field c = ((Constant) right).value;
+                return t -> l.eval(t).compare(o, c);
+            }
+            Value r = right.compileValue(td);
+            return t -> l.eval(t).compare(o, r.eval(t));
+        }
+
+        /**
+         * One lambda per operator, so the operator is not looked at again;
+         * comparisons of a column with a constant read the column directly.
+         */
+        private Condition compileInts(TupleDesc td) {
+            if (left instanceof Column && right instanceof Constant) {
+                int i = ((Column) left).resolve(td);
+                int c = ((IntField) ((Constant) right).value).getValue();
+                switch (op) {
+                    case EQUALS:
+                    case LIKE:
+                        return t -> t.getInt(i) == c;
+                    case NOT_EQUALS:
+                        return t -> t.getInt(i) != c;
+                    case GREATER_THAN:
+                        return t -> t.getInt(i) > c;
+                    case GREATER_THAN_OR_EQ:
+                        return t -> t.getInt(i) >= c;
+                    case LESS_THAN:
+                        return t -> t.getInt(i) < c;
+                    default:
+                        return t -> t.getInt(i) <= c;
+                }
+            }
+            IntValue l = left.compileInt(td);
+            IntValue r = right.compileInt(td);
+            switch (op) {
+                case EQUALS:
+                case LIKE:
+                    return t -> l.eval(t) == r.eval(t);
+                case NOT_EQUALS:
+                    return t -> l.eval(t) != r.eval(t);
+                case GREATER_THAN:
+                    return t -> l.eval(t) > r.eval(t);
+                case GREATER_THAN_OR_EQ:
+                    return t -> l.eval(t) >= r.eval(t);
+                case LESS_THAN:
+                    return t -> l.eval(t) < r.eval(t);
+                default:
+                    return t -> l.eval(t) <= r.eval(t);
+            }
+        }
+
+        public Value compileValue(TupleDesc td) {
+            throw new IllegalArgumentException(this + " is a condition");
+        }
+
+        void collectColumnNames(Collection<String> names) {
+            left.collectColumnNames(names);
+            right.collectColumnNames(names);
+        }
+
+        public Expression rename(Map<String, String> names) {
+            return new Comparison(left.rename(names), op, right.rename(names));
+        }
+
+        public String toString() {
+            return left + " " + op + " " + right;
+        }
+    }
+
+    /**
+     * AND or OR of any number of conditions, evaluated from left to right
+     * until the result is known.
+     */
+    public static final class Logical extends Expression {
+        private static final long serialVersionUID = 1L;
+        private final boolean and;
+        private final List<Expression> operands;
+
+        private Logical(boolean and, List<Expression> operands) {
+            if (operands.isEmpty()) {
+                throw new IllegalArgumentException("AND and OR need operands");
+            }
+            this.and = and;
+            this.operands = Collections.unmodifiableList(new ArrayList<>(operands));
+        }
+
+        public boolean isAnd() {
+            return and;
+        }
+
+        public List<Expression> getOperands() {
+            return operands;
+        }
+
+        public Type getType(TupleDesc td) {
+            for (Expression e : operands) {
+                if (e.getType(td) != null) {
+                    throw new IllegalArgumentException(e + " is not a condition");
+                }
+            }
+            return null;
+        }
+
+        public Condition compile(TupleDesc td) {
+            Condition[] cs = new Condition[operands.size()];
+            for (int i = 0; i < cs.length; i++) {
+                cs[i] = operands.get(i).compile(td);
+            }
+            if (cs.length == 1) {
+                return cs[0];
+            }
+            if (cs.length == 2) {
+                Condition a = cs[0], b = cs[1];
+                return and ? t -> a.test(t) && b.test(t) : t -> a.test(t) || b.test(t);
+            }
+            if (and) {
+                return t -> {
+                    for (Condition c : cs) {
+                        if (!c.test(t)) {
+                            return false;
+                        }
+                    }
+                    return true;
+                };
+            }
+            return t -> {
+                for (Condition c : cs) {
+                    if (c.test(t)) {
+                        return true;
+                    }
+                }
+                return false;
+            };
+        }
+
+        public Value compileValue(TupleDesc td) {
+            throw new IllegalArgumentException(this + " is a condition");
+        }
+
+        void collectColumnNames(Collection<String> names) {
+            for (Expression e : operands) {
+                e.collectColumnNames(names);
+            }
+        }
+
+        public Expression rename(Map<String, String> names) {
+            List<Expression> renamed = new ArrayList<>();
+            for (Expression e : operands) {
+                renamed.add(e.rename(names));
+            }
+            return new Logical(and, renamed);
+        }
+
+        public String toString() {
+            StringBuilder sb = new StringBuilder("(");
+            for (int i = 0; i < operands.size(); i++) {
+                if (i > 0) {
+                    sb.append(and ? " AND " : " OR ");
+                }
+                sb.append(operands.get(i));
+            }
+            return sb.append(")").toString();
+        }
+    }
+
+    /**
+     * The negation of a condition.
+     */
+    public static final class Not extends Expression {
+        private static final long serialVersionUID = 1L;
+        private final Expression operand;
+
+        private Not(Expression operand) {
+            this.operand = operand;
+        }
+
+        public Expression getOperand() {
+            return operand;
+        }
+
+        public Type getType(TupleDesc td) {
+            if (operand.getType(td) != null) {
+                throw new IllegalArgumentException(operand + " is not a condition");
+            }
+            return null;
+        }
+
+        public Condition compile(TupleDesc td) {
+            Condition c = operand.compile(td);
+            return t -> !c.test(t);
+        }
+
+        public Value compileValue(TupleDesc td) {
+            throw new IllegalArgumentException(this + " is a condition");
+        }
+
+        void collectColumnNames(Collection<String> names) {
+            operand.collectColumnNames(names);
+        }
+
+        public Expression rename(Map<String, String> names) {
+            return new Not(operand.rename(names));
+        }
+
+        public String toString() {
+            return "NOT " + operand;
+        }
+    }
+
+    /**
+     * Membership of a value in a list of constants. INT lists are sorted
+     * and searched without boxing; other lists are hashed.
+     */
+    public static final class In extends Expression {
+        private static final long serialVersionUID = 1L;
+        /**
+         * 不超过该长度的整数列表顺序比较, 比二分查找更快
+         */
+        private static final int LINEAR_SEARCH = 8;
+        private final Expression operand;
+        private final List<Field> values;
+
+        private In(Expression operand, List<Field> values) {
+            this.operand = operand;
+            this.values = Collections.unmodifiableList(new ArrayList<>(values));
+        }
+
+        public Expression getOperand() {
+            return operand;
+        }
+
+        public List<Field> getValues() {
+            return values;
+        }
+
+        public Type getType(TupleDesc td) {
+            Type type = operand.getType(td);
+            for (Field f : values) {
+                if (f.getType() != type) {
+                    throw mismatch(this, type, f.getType());
+                }
+            }
+            return null;
+        }
+
+        public Condition compile(TupleDesc td) {
+            getType(td);
+            if (operand.getType(td) != Type.INT_TYPE) {
+                Value v = operand.compileValue(td);
+                Set<Field> set = new HashSet<>(values);
+                return t -> set.contains(v.eval(t));
+            }
+            IntValue v = operand.compileInt(td);
+            int[] keys = values.stream().mapToInt(f -> ((IntField) f).getValue()).sorted().distinct().toArray();
+            if (keys.length <= LINEAR_SEARCH) {
+                return t -> {
+                    int x = v.eval(t);
+                    for (int k : keys) {
+                        if (k == x) {
+                            return true;
+                        }
+                    }
+                    return false;
+                };
+            }
+            return t -> Arrays.binarySearch(keys, v.eval(t)) >= 0;
+        }
+
+        public Value compileValue(TupleDesc td) {
+            throw new IllegalArgumentException(this + " is a condition");
+        }
+
+        void collectColumnNames(Collection<String> names) {
+            operand.collectColumnNames(names);
+        }
+
+        public Expression rename(Map<String, String> names) {
+            return new In(operand.rename(names), values);
+        }
+
+        public String toString() {
+            StringBuilder sb = new StringBuilder().append(operand).append(" IN (");
+            for (int i = 0; i < values.size(); i++) {
+                sb.append(i > 0 ? ", " : "").append(new Constant(values.get(i)));
+            }
+            return sb.append(")").toString();
+        }
+    }
+}
@@ -9,13 +9,26 @@ import java.util.NoSuchElementException;
 
 /**
  * Filter is an operator that implements a relational select.
+ * <p>
+ * The condition, a {@link Predicate} or any boolean {@link Expression}, is
+ * compiled when the filter is created, see {@link Expression#compile}.
  */
 public class Filter extends Operator {
 
     private static final long serialVersionUID = 1L;
 
-    private Predicate p;
+    private final Predicate p;
+    private final Expression expression;
     private OpIterator child;
+    /**
+     * 针对子节点TupleDesc编译的条件, 反序列化后在open时重新编译
+     */
+    private transient Expression.Condition condition;
+    /**
+     * 连接下推的运行时过滤器, 没有时为null
+     */
+    private BloomFilter runtimeFilter;
+    private int runtimeField;
 
     /**
      * Constructor accepts a predicate to apply and a child operator to read
@@ -27,14 +40,59 @@ public class Filter extends Operator {
     public Filter(Predicate p, OpIterator child) {
         // some code goes here
         this.p = p;
+        this.expression = Expression.of(p);
         this.child = child;
+        this.condition = expression.compile(child.getTupleDesc());
     }
 
+    /**
+     * Constructor accepts a condition to apply and a child operator to read
+     * tuples to filter from.
+     *
+     * @param condition The boolean expression to filter tuples with
+     * @param child     The child operator
+     * @throws IllegalArgumentException if condition is not a boolean
+     *                                  expression over the child's fields
+     */
+    public Filter(Expression condition, OpIterator child) {
+        this.p = null;
+        this.expression = condition;
+        this.child = child;
+        this.condition = expression.compile(child.getTupleDesc());
+    }
+
+    /**
+     * @return the predicate of the filter, or null if it was created with
+     * an expression
+     */
     public Predicate getPredicate() {
         // some code goes here
         return p;
     }
 
+    /**
+     * @return the condition of the filter
+     */
+    public Expression getExpression() {
+        return expression;
+    }
+
+    /**
+     * Also discard the tuples whose field is not in filter, see
+     * {@link SeqScan#setRuntimeFilter}.
+     *
+     * @param field  the index of the field to look up in filter
+     * @param filter the filter, or null to apply only the predicate again
+     */
+    public void setRuntimeFilter(int field, BloomFilter filter) {
+        this.runtimeField = field;
+        this.runtimeFilter = filter;
+    }
+
+    public BloomFilter getRuntimeFilter() {
+        return runtimeFilter;
+    }
+
     public TupleDesc getTupleDesc() {
         // some code goes here
         return child.getTupleDesc();
@@ -44,6 +102,9 @@ public class Filter extends Operator {
             TransactionAbortedException {
         // some code goes here
         // todo 不懂open
+        if (condition == null) {
+            condition = expression.compile(child.getTupleDesc());
+        }
         child.open();
         super.open();
     }
@@ -62,18 +123,21 @@ public class Filter extends Operator {
     /**
      * AbstractDbIterator.readNext implementation. Iterates over tuples from the
      * child operator, applying the predicate to them and returning those that
-     * pass the predicate (i.e. for which the Predicate.filter() returns true.)
+     * pass the predicate (i.e. for which the compiled condition returns true.)
      *
      * @return The next tuple that passes the filter, or null if there are no
      * more tuples
-     * @see Predicate#filter
+     * @see Expression#compile
      */
     protected Tuple fetchNext() throws NoSuchElementException,
             TransactionAbortedException, DbException {
         // some code goes here
         while (child.hasNext()){
             Tuple next = child.next();
-            if (p.filter(next))  return next;
+            if (runtimeFilter != null && !runtimeFilter.mightContain(next.getField(runtimeField))) {
+                continue;
+            }
+            if (condition.test(next))  return next;
         }
         return null;
     }
@@ -88,6 +152,7 @@ public class Filter extends Operator {
     public void setChildren(OpIterator[] children) {
         // some code goes here
         child = children[0];
+        condition = expression.compile(child.getTupleDesc());
     }
 
 }
@@ -2,6 +2,7 @@ package simpledb.execution;
 
 import simpledb.transaction.TransactionAbortedException;
 import simpledb.common.DbException;
+import simpledb.storage.Field;
 import simpledb.storage.Tuple;
 import simpledb.storage.TupleDesc;
 
@@ -9,6 +10,12 @@ import java.util.*;
 
 /**
  * The Join operator implements the relational join operation.
+ * <p>
+ * While the hash table of the left child is loaded, a {@link BloomFilter} of
+ * its keys is pushed into the scan of the right child (through any filters
+ * above it), or else into a filter directly above the right child, so that
+ * tuples of the right child without a match are discarded before they
+ * leave the scan.
  */
 public class HashEquiJoin extends Operator {
 
@@ -55,7 +62,7 @@ public class HashEquiJoin extends Operator {
 	return this.child2.getTupleDesc().getFieldName(this.pred.getField2());
     }
     
-    final Map<Object, List<Tuple>> map = new HashMap<>();
+    final Map<Field, List<Tuple>> map = new HashMap<>();
     public final static int MAP_SIZE = 20000;
 
     private boolean loadMap() throws DbException, TransactionAbortedException {
@@ -65,13 +72,35 @@ public class HashEquiJoin extends Operator {
             t1 = child1.next();
             List<Tuple> list = map.computeIfAbsent(t1.getField(pred.getField1()), k -> new ArrayList<>());
             list.add(t1);
-            if (cnt++ == MAP_SIZE)
+            if (cnt++ == MAP_SIZE) {
+                pushRuntimeFilter(BloomFilter.of(map.keySet()));
                 return true;
+            }
+        }
+        if (cnt > 0) {
+            pushRuntimeFilter(BloomFilter.of(map.keySet()));
         }
         return cnt > 0;
 
     }
 
+    /**
+     * Set the filter of the keys in the hash table on the right child, or
+     * clear it if filter is null. Filters and scans keep the tuple layout,
+     * so the join field has the same index there.
+     */
+    private void pushRuntimeFilter(BloomFilter filter) {
+        OpIterator probe = child2;
+        while (probe instanceof Filter) {
+            probe = ((Filter) probe).getChildren()[0];
+        }
+        if (probe instanceof SeqScan) {
+            ((SeqScan) probe).setRuntimeFilter(pred.getField2(), filter);
+        } else if (child2 instanceof Filter) {
+            ((Filter) child2).setRuntimeFilter(pred.getField2(), filter);
+        }
+    }
+
     public void open() throws DbException, NoSuchElementException,
             TransactionAbortedException {
         child1.open();
@@ -82,6 +111,7 @@ public class HashEquiJoin extends Operator {
 
     public void close() {
         super.close();
+        pushRuntimeFilter(null);
         child2.close();
         child1.close();
         this.t1=null;
@@ -118,16 +148,8 @@ public class HashEquiJoin extends Operator {
     private Tuple processList() {
         t1 = listIt.next();
 
-        int td1n = t1.getTupleDesc().numFields();
-        int td2n = t2.getTupleDesc().numFields();
-
-        // set fields in combined tuple
-        Tuple t = new Tuple(comboTD);
-        for (int i = 0; i < td1n; i++)
-            t.setField(i, t1.getField(i));
-        for (int i = 0; i < td2n; i++)
-            t.setField(td1n + i, t2.getField(i));
-        return t;
+        // combined tuple shares the precomputed comboTD
+        return Tuple.merge(comboTD, t1, t2);
 
     }
 
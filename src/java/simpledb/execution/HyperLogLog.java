@@ -0,0 +1,97 @@
+package simpledb.execution;
+
+import simpledb.storage.Field;
+
+import java.io.Serializable;
+
+/**
+ * HyperLogLog estimates the number of distinct Fields added to it in a
+ * fixed amount of memory: 2^precision one-byte registers, whatever the
+ * number of Fields. The relative standard error of the estimate is about
+ * 1.04 / sqrt(2^precision), 1.6% with the default precision.
+ * <p>
+ * Each Field is hashed to 64 bits; the first precision bits choose a
+ * register, which keeps the largest position of the first one bit seen in
+ * the remaining bits. Small cardinalities, where many registers are still
+ * empty, are estimated by linear counting instead.
+ */
+public class HyperLogLog implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    public static final int DEFAULT_PRECISION = 12;
+
+    private final int precision;
+    private final byte[] registers;
+
+    public HyperLogLog() {
+        this(DEFAULT_PRECISION);
+    }
+
+    /**
+     * @param precision the number of hash bits that choose a register,
+     *                  between 4 and 16
+     */
+    public HyperLogLog(int precision) {
+        if (precision < 4 || precision > 16) {
+            throw new IllegalArgumentException("precision must be between 4 and 16");
+        }
+        this.precision = precision;
+        this.registers = new byte[1 << precision];
+    }
+
+    private static long mix(long h) {
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    public void add(Field f) {
+        long h = mix(f.hashCode());
+        int index = (int) (h >>> (64 - precision));
+        // 末尾补一个1, 保证rank不超过64 - precision + 1
+        long rest = (h << precision) | (1L << (precision - 1));
+        byte rank = (byte) (Long.numberOfLeadingZeros(rest) + 1);
+        if (rank > registers[index]) {
+            registers[index] = rank;
+        }
+    }
+
+    /**
+     * Add the Fields added to other to this one.
+     *
+     * @throws IllegalArgumentException if other has another precision
+     */
+    public void merge(HyperLogLog other) {
+        if (other.precision != precision) {
+            throw new IllegalArgumentException("cannot merge sketches of different precisions");
+        }
+        for (int i = 0; i < registers.length; i++) {
+            registers[i] = (byte) Math.max(registers[i], other.registers[i]);
+        }
+    }
+
+    /**
+     * @return the estimated number of distinct Fields added
+     */
+    public long estimate() {
+        int m = registers.length;
+        double sum = 0;
+        int zeros = 0;
+        for (byte r : registers) {
+            sum += 1.0 / (1L << r);
+            if (r == 0) {
+                zeros++;
+            }
+        }
+        double alpha = m == 16 ? 0.673 : m == 32 ? 0.697 : m == 64 ? 0.709 : 0.7213 / (1 + 1.079 / m);
+        double e = alpha * m * m / sum;
+        if (e <= 2.5 * m && zeros > 0) {
+            e = m * Math.log((double) m / zeros);
+        }
+        return Math.round(e);
+    }
+}
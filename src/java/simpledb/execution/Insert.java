@@ -4,6 +4,7 @@ import simpledb.common.Database;
 import simpledb.common.DbException;
 import simpledb.common.Type;
 import simpledb.storage.BufferPool;
+import simpledb.storage.BufferRing;
 import simpledb.storage.IntField;
 import simpledb.storage.Tuple;
 import simpledb.storage.TupleDesc;
@@ -32,6 +33,11 @@ public class Insert extends Operator {
 
     private Tuple insertTuple;
 
+    /**
+     * 批量插入使用的环形缓冲区
+     */
+    private BufferRing ring;
+
     /**
      * Constructor.
      *
@@ -62,6 +68,7 @@ public class Insert extends Operator {
         child.open();
         super.open();
         this.count = 0;
+        this.ring = Database.getBufferPool().newBulkWriteRing(Database.getCatalog().getDatabaseFile(tableId));
     }
 
     public void close() {
@@ -69,6 +76,10 @@ public class Insert extends Operator {
         child.close();
         super.close();
         this.count = -1;
+        if (ring != null) {
+            ring.close();
+            ring = null;
+        }
     }
 
     public void rewind() throws DbException, TransactionAbortedException {
@@ -96,7 +107,7 @@ public class Insert extends Operator {
         while (child.hasNext()) {
             Tuple toInsertTuple = child.next();
             try {
-                Database.getBufferPool().insertTuple(t, tableId, toInsertTuple);
+                Database.getBufferPool().insertTuple(t, tableId, toInsertTuple, ring);
                 this.count++;
             } catch (IOException e) {
                 e.printStackTrace();
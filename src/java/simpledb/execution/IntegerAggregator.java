@@ -144,6 +144,7 @@ public class IntegerAggregator implements Aggregator {
                 case COUNT:
                     tuple.setField(0, new IntField(field.getValue() + 1));
                     aggregate.put(NO_GROUP, tuple);
+                    return;
                 case SUM:
                     tuple.setField(0, new IntField(field.getValue() + operationField.getValue()));
                     aggregate.put(NO_GROUP, tuple);
@@ -19,6 +19,8 @@ public class Join extends Operator {
     private OpIterator child1; // todo 暂时理解成需要执行join操作的两组存放Tuple的迭代器
     private OpIterator child2;
 
+    private TupleDesc comboTD; // 输出元组的描述，只在构造时合并一次
+
     private Tuple t;
 
     /**
@@ -34,6 +36,7 @@ public class Join extends Operator {
         this.p = p;
         this.child1 = child1;
         this.child2 = child2;
+        this.comboTD = TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc());
         t = null;
     }
 
@@ -66,7 +69,7 @@ public class Join extends Operator {
      */
     public TupleDesc getTupleDesc() {
         // some code goes here
-        return TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc());
+        return comboTD;
     }
 
     public void open() throws DbException, NoSuchElementException,
@@ -117,16 +120,8 @@ public class Join extends Operator {
             while (child2.hasNext()) {
                 Tuple t2 = child2.next();
                 if (p.filter(t, t2)) {
-                    TupleDesc td1 = t.getTupleDesc();
-                    TupleDesc td2 = t2.getTupleDesc();
-                    TupleDesc newTd = TupleDesc.merge(td1, td2);
-                    Tuple newTuple = new Tuple(newTd);
+                    Tuple newTuple = Tuple.merge(comboTD, t, t2);
                     newTuple.setRecordId(t.getRecordId());
-                    int i = 0;
-                    for (; i < td1.numFields(); ++i)
-                        newTuple.setField(i, t.getField(i));
-                    for (int j = 0; j < td2.numFields(); ++j)
-                        newTuple.setField(i + j, t2.getField(j));
                     if (!child2.hasNext()) {
                         child2.rewind();
                         t = null;
@@ -150,7 +145,8 @@ public class Join extends Operator {
     public void setChildren(OpIterator[] children) {
         // some code goes here
         child1 = children[0];
-        child2 = children[0];
+        child2 = children[1];
+        comboTD = TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc());
     }
 
 }
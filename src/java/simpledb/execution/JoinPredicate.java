@@ -1,6 +1,8 @@
 package simpledb.execution;
 
+import simpledb.common.Type;
 import simpledb.storage.Field;
+import simpledb.storage.IntField;
 import simpledb.storage.Tuple;
 
 import java.io.Serializable;
@@ -47,6 +49,9 @@ public class JoinPredicate implements Serializable {
      */
     public boolean filter(Tuple t1, Tuple t2) {
         // some code goes here
+        if (t1.getTupleDesc().getFieldType(field1) == Type.INT_TYPE) {
+            return IntField.compare(op, t1.getInt(field1), t2.getInt(field2));
+        }
        return  t1.getField(field1).compare(op,t2.getField(field2));
     }
     
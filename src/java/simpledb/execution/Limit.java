@@ -0,0 +1,132 @@
+package simpledb.execution;
+
+import simpledb.common.DbException;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+import simpledb.transaction.TransactionAbortedException;
+
+import java.util.NoSuchElementException;
+
+/**
+ * Limit is an operator that implements LIMIT and OFFSET: it skips the first
+ * offset tuples of its child and returns at most limit of the following
+ * ones.
+ * <p>
+ * The child is closed as soon as the last tuple is returned, so scans and
+ * {@link Exchange} producers below it stop reading ahead, and their
+ * buffers and threads are released before the query is closed.
+ */
+public class Limit extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    private OpIterator child;
+    private final int limit;
+    private final int offset;
+
+    private int returned;
+    private boolean skipped;
+    /**
+     * 子节点是否仍处于打开状态; 返回够元组后提前关闭
+     */
+    private boolean childOpen;
+
+    /**
+     * Constructor.
+     *
+     * @param child  The child operator
+     * @param limit  the largest number of tuples to return
+     * @param offset the number of tuples to skip before the first one
+     *               returned
+     * @throws IllegalArgumentException if limit or offset is negative
+     */
+    public Limit(OpIterator child, int limit, int offset) {
+        if (limit < 0 || offset < 0) {
+            throw new IllegalArgumentException("LIMIT and OFFSET must not be negative");
+        }
+        this.child = child;
+        this.limit = limit;
+        this.offset = offset;
+    }
+
+    /**
+     * @return the largest number of tuples returned
+     */
+    public int getLimit() {
+        return limit;
+    }
+
+    /**
+     * @return the number of tuples skipped
+     */
+    public int getOffset() {
+        return offset;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return child.getTupleDesc();
+    }
+
+    public void open() throws DbException, NoSuchElementException, TransactionAbortedException {
+        child.open();
+        childOpen = true;
+        returned = 0;
+        skipped = false;
+        super.open();
+    }
+
+    protected Tuple fetchNext() throws DbException, TransactionAbortedException {
+        if (!childOpen) {
+            return null;
+        }
+        if (!skipped) {
+            for (int i = 0; i < offset && child.hasNext(); i++) {
+                child.next();
+            }
+            skipped = true;
+        }
+        if (returned == limit || !child.hasNext()) {
+            closeChild();
+            return null;
+        }
+        Tuple t = child.next();
+        // 不等下一次调用, 取到最后一个元组就关闭子节点
+        if (++returned == limit) {
+            closeChild();
+        }
+        return t;
+    }
+
+    private void closeChild() {
+        if (childOpen) {
+            child.close();
+            childOpen = false;
+        }
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        if (childOpen) {
+            child.rewind();
+        } else {
+            child.open();
+            childOpen = true;
+        }
+        returned = 0;
+        skipped = false;
+    }
+
+    public void close() {
+        super.close();
+        closeChild();
+    }
+
+    @Override
+    public OpIterator[] getChildren() {
+        return new OpIterator[]{child};
+    }
+
+    @Override
+    public void setChildren(OpIterator[] children) {
+        this.child = children[0];
+    }
+}
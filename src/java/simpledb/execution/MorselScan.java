@@ -0,0 +1,241 @@
+package simpledb.execution;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.storage.BufferRing;
+import simpledb.storage.DbFileIterator;
+import simpledb.storage.HeapFile;
+import simpledb.storage.Tuple;
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+
+/**
+ * MorselScan reads a HeapFile on several threads, for {@link SeqScan}.
+ * <p>
+ * The file is cut into morsels of consecutive pages, see
+ * {@link MorselSource}. Each worker thread repeatedly claims the next
+ * morsel, reads its pages and hands the morsel's tuples to the consumer
+ * as one batch, so a thread that gets slow pages simply claims fewer
+ * morsels. At most a few morsels per worker are read ahead of the
+ * consumer; a worker waits before claiming another one.
+ * <p>
+ * Batches are consumed as they are finished, so tuples come out in no
+ * particular order. In ordered mode morsels are consumed by number
+ * instead, and the scan returns the tuples in the same order as a serial
+ * scan.
+ * <p>
+ * The iterator itself must be used by one thread.
+ */
+class MorselScan implements DbFileIterator {
+
+    /**
+     * 每个工作线程最多可以领先消费者的morsel数
+     */
+    private static final int READ_AHEAD = 2;
+
+    private final HeapFile file;
+    private final TransactionId tid;
+    private final int dop;
+    private final boolean ordered;
+
+    private MorselSource source;
+    private int numMorsels;
+    /**
+     * 已领取但还没有被消费的morsel数的上限
+     */
+    private Semaphore window;
+    private BlockingQueue<Batch> finished;
+    private List<Thread> workers;
+    /**
+     * 扫描关闭时通知工作线程退出; 不中断工作线程, 以免打断正在进行的读
+     */
+    private volatile boolean stopped;
+    /**
+     * 有序模式下提前完成的morsel
+     */
+    private final Map<Integer, Batch> pending = new HashMap<>();
+    private int consumed;
+    private Iterator<Tuple> current;
+
+    MorselScan(HeapFile file, TransactionId tid, int dop, boolean ordered) {
+        if (dop < 1) {
+            throw new IllegalArgumentException("degree of parallelism must be positive");
+        }
+        this.file = file;
+        this.tid = tid;
+        this.dop = dop;
+        this.ordered = ordered;
+    }
+
+    /**
+     * The tuples of one morsel, or the error that stopped the worker
+     * reading it.
+     */
+    private static final class Batch {
+        final int morsel;
+        final List<Tuple> tuples;
+        final Exception failure;
+
+        Batch(int morsel, List<Tuple> tuples, Exception failure) {
+            this.morsel = morsel;
+            this.tuples = tuples;
+            this.failure = failure;
+        }
+    }
+
+    @Override
+    public void open() throws DbException, TransactionAbortedException {
+        source = new MorselSource(file);
+        numMorsels = source.numMorsels();
+        window = new Semaphore(READ_AHEAD * dop);
+        finished = new LinkedBlockingQueue<>();
+        pending.clear();
+        consumed = 0;
+        current = Collections.emptyIterator();
+        stopped = false;
+        workers = new ArrayList<>();
+        int threads = Math.min(dop, numMorsels);
+        for (int i = 0; i < threads; i++) {
+            Thread worker = new Thread(this::work, "scan-" + file.getId() + "-" + i);
+            worker.setDaemon(true);
+            workers.add(worker);
+            worker.start();
+        }
+    }
+
+    private void work() {
+        // 每个工作线程使用自己的环形缓冲区
+        BufferRing ring = Database.getBufferPool().newScanRing(file);
+        try {
+            while (true) {
+                window.acquire();
+                if (stopped) {
+                    return;
+                }
+                int morsel = source.claim();
+                if (morsel < 0) {
+                    window.release();
+                    return;
+                }
+                List<Tuple> tuples;
+                try {
+                    tuples = source.read(tid, morsel, ring);
+                } catch (DbException | TransactionAbortedException | RuntimeException e) {
+                    finished.put(new Batch(morsel, null, e));
+                    return;
+                }
+                finished.put(new Batch(morsel, tuples, null));
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            if (ring != null) {
+                ring.close();
+            }
+        }
+    }
+
+    @Override
+    public boolean hasNext() throws DbException, TransactionAbortedException {
+        if (current == null) {
+            return false;
+        }
+        while (!current.hasNext()) {
+            if (consumed == numMorsels) {
+                return false;
+            }
+            Batch batch = take();
+            consumed++;
+            // 该morsel已被消费, 允许工作线程再领取一个
+            window.release();
+            current = batch.tuples.iterator();
+        }
+        return true;
+    }
+
+    /**
+     * Wait for the next morsel to consume: the next one finished, or in
+     * ordered mode the next one by number.
+     */
+    private Batch take() throws DbException, TransactionAbortedException {
+        try {
+            while (true) {
+                Batch batch = ordered ? pending.remove(consumed) : null;
+                if (batch == null) {
+                    batch = finished.take();
+                }
+                if (batch.failure != null) {
+                    rethrow(batch.failure);
+                }
+                if (!ordered || batch.morsel == consumed) {
+                    return batch;
+                }
+                pending.put(batch.morsel, batch);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new DbException("interrupted while waiting for a scan worker");
+        }
+    }
+
+    private static void rethrow(Exception e) throws DbException, TransactionAbortedException {
+        if (e instanceof DbException) {
+            throw (DbException) e;
+        }
+        if (e instanceof TransactionAbortedException) {
+            throw (TransactionAbortedException) e;
+        }
+        throw (RuntimeException) e;
+    }
+
+    @Override
+    public Tuple next() throws DbException, TransactionAbortedException, NoSuchElementException {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        return current.next();
+    }
+
+    @Override
+    public void rewind() throws DbException, TransactionAbortedException {
+        close();
+        open();
+    }
+
+    @Override
+    public void close() {
+        if (workers != null) {
+            stopped = true;
+            // 唤醒等待领取morsel的工作线程
+            window.release(workers.size());
+            boolean interrupted = false;
+            for (Thread worker : workers) {
+                while (worker.isAlive()) {
+                    try {
+                        worker.join();
+                    } catch (InterruptedException e) {
+                        interrupted = true;
+                    }
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        workers = null;
+        finished = null;
+        pending.clear();
+        current = null;
+    }
+}
@@ -0,0 +1,153 @@
+package simpledb.execution;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.common.Permissions;
+import simpledb.storage.BufferPool;
+import simpledb.storage.BufferRing;
+import simpledb.storage.DbFileIterator;
+import simpledb.storage.HeapFile;
+import simpledb.storage.HeapPage;
+import simpledb.storage.HeapPageId;
+import simpledb.storage.Tuple;
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * MorselSource hands out the morsels of a HeapFile, runs of
+ * {@link #MORSEL_PAGES} consecutive pages, to the threads scanning it
+ * together. Each morsel is handed out once; a thread claims the next one
+ * when it is done with its last, so faster threads read more of the file.
+ * <p>
+ * The number of pages is fixed when the first morsel is claimed.
+ * <p>
+ * Thread-safe.
+ */
+class MorselSource {
+
+    static final int MORSEL_PAGES = 16;
+
+    private final HeapFile file;
+    private final AtomicInteger next = new AtomicInteger();
+    private int numPages = -1;
+
+    MorselSource(HeapFile file) {
+        this.file = file;
+    }
+
+    HeapFile getFile() {
+        return file;
+    }
+
+    /**
+     * @return the number of morsels of the file
+     */
+    synchronized int numMorsels() {
+        if (numPages < 0) {
+            numPages = file.numPages();
+        }
+        return (numPages + MORSEL_PAGES - 1) / MORSEL_PAGES;
+    }
+
+    /**
+     * @return the number of the next morsel not handed out yet, or -1 if
+     * every morsel has been handed out
+     */
+    int claim() {
+        int morsels = numMorsels();
+        int morsel = next.getAndIncrement();
+        return morsel < morsels ? morsel : -1;
+    }
+
+    /**
+     * Read the tuples of a morsel. Each page is pinned only while its tuples
+     * are copied out.
+     *
+     * @param ring the ring of the calling thread, or null
+     */
+    List<Tuple> read(TransactionId tid, int morsel, BufferRing ring)
+            throws DbException, TransactionAbortedException {
+        BufferPool pool = Database.getBufferPool();
+        List<Tuple> tuples = new ArrayList<>();
+        int end = Math.min(numPages, (morsel + 1) * MORSEL_PAGES);
+        for (int pgNo = morsel * MORSEL_PAGES; pgNo < end; pgNo++) {
+            HeapPageId pid = new HeapPageId(file.getId(), pgNo);
+            HeapPage page = (HeapPage) pool.pinPage(tid, pid, Permissions.READ_ONLY, ring);
+            try {
+                page.iterator().forEachRemaining(tuples::add);
+            } finally {
+                pool.unpinPage(tid, pid);
+            }
+        }
+        return tuples;
+    }
+
+    /**
+     * @return an iterator over the morsels the calling thread claims from
+     * this source. It reads its share of the file once and cannot be
+     * rewound.
+     */
+    DbFileIterator iterator(TransactionId tid) {
+        return new FragmentIterator(tid);
+    }
+
+    private final class FragmentIterator implements DbFileIterator {
+        private final TransactionId tid;
+        private BufferRing ring;
+        private Iterator<Tuple> current;
+
+        FragmentIterator(TransactionId tid) {
+            this.tid = tid;
+        }
+
+        @Override
+        public void open() {
+            ring = Database.getBufferPool().newScanRing(file);
+            current = Collections.emptyIterator();
+        }
+
+        @Override
+        public boolean hasNext() throws DbException, TransactionAbortedException {
+            if (current == null) {
+                return false;
+            }
+            while (!current.hasNext()) {
+                int morsel = claim();
+                if (morsel < 0) {
+                    return false;
+                }
+                current = read(tid, morsel, ring).iterator();
+            }
+            return true;
+        }
+
+        @Override
+        public Tuple next() throws DbException, TransactionAbortedException, NoSuchElementException {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            return current.next();
+        }
+
+        @Override
+        public void rewind() throws DbException {
+            throw new DbException("a scan sharing its table with other scans cannot be rewound");
+        }
+
+        @Override
+        public void close() {
+            current = null;
+            if (ring != null) {
+                ring.close();
+                ring = null;
+            }
+        }
+    }
+}
@@ -0,0 +1,171 @@
+package simpledb.execution;
+
+import simpledb.common.DbException;
+import simpledb.common.Type;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+import simpledb.transaction.TransactionAbortedException;
+
+import java.util.NoSuchElementException;
+
+/**
+ * MultiAggregate computes several aggregates of its child, e.g. the MIN
+ * and MAX of one column and the AVG of another, grouped by the same column,
+ * in a single pass: the state of every aggregate of a group is kept in one
+ * entry of a shared hash table (see {@link SpillableAggregator}), which is
+ * spilled to disk beyond a memory budget like that of {@link Aggregate}.
+ * <p>
+ * The result tuples hold the group-by field, if grouping, followed by one
+ * integer field per aggregate, in the order they were given. Without
+ * grouping, an empty child gives no tuple.
+ */
+public class MultiAggregate extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    private OpIterator child;
+    private final int[] afields;
+    private final Aggregator.Op[] aops;
+    private final int gfield;
+    private final long memoryBudget;
+    private final TupleDesc td;
+
+    private final SpillableAggregator aggregator;
+    private final OpIterator it;
+
+    /**
+     * Constructor, with the memory budget of {@link Aggregate}.
+     *
+     * @param child   The OpIterator that is feeding us tuples.
+     * @param afields The columns over which we are computing aggregates
+     * @param aops    The aggregation operator of each column of afields
+     * @param gfield  The column over which we are grouping the result, or
+     *                {@link Aggregator#NO_GROUPING}
+     * @throws IllegalArgumentException if an operator cannot be computed
+     *                                  over its column
+     */
+    public MultiAggregate(OpIterator child, int[] afields, Aggregator.Op[] aops, int gfield) {
+        this(child, afields, aops, gfield, Aggregate.defaultMemoryBudget());
+    }
+
+    /**
+     * @param memoryBudget The number of bytes the groups may take in memory
+     * @see #MultiAggregate(OpIterator, int[], Aggregator.Op[], int)
+     */
+    public MultiAggregate(OpIterator child, int[] afields, Aggregator.Op[] aops, int gfield, long memoryBudget) {
+        this.child = child;
+        this.afields = afields.clone();
+        this.aops = aops.clone();
+        this.gfield = gfield;
+        this.memoryBudget = memoryBudget;
+
+        TupleDesc childTd = child.getTupleDesc();
+        int offset = gfield == Aggregator.NO_GROUPING ? 0 : 1;
+        Type[] types = new Type[offset + afields.length];
+        String[] names = new String[types.length];
+        Type[] afieldTypes = new Type[afields.length];
+        if (offset == 1) {
+            types[0] = childTd.getFieldType(gfield);
+            names[0] = childTd.getFieldName(gfield);
+        }
+        for (int i = 0; i < afields.length; i++) {
+            afieldTypes[i] = childTd.getFieldType(afields[i]);
+            types[offset + i] = Type.INT_TYPE;
+            // 同一列可以有多个聚合, 列名带上聚合名以免重名
+            names[offset + i] = aops[i] + "(" + childTd.getFieldName(afields[i]) + ")";
+        }
+        this.td = new TupleDesc(types, names);
+        this.aggregator = new SpillableAggregator(gfield, offset == 1 ? types[0] : null, afields, afieldTypes,
+                aops, memoryBudget);
+        this.it = aggregator.iterator();
+    }
+
+    /**
+     * @return the groupby field index in the <b>INPUT</b> tuples, or
+     * {@link Aggregator#NO_GROUPING}
+     */
+    public int groupField() {
+        return gfield;
+    }
+
+    /**
+     * @return the name of the groupby field in the <b>OUTPUT</b> tuples, or
+     * null if there is no grouping
+     */
+    public String groupFieldName() {
+        return gfield == Aggregator.NO_GROUPING ? null : td.getFieldName(0);
+    }
+
+    /**
+     * @return the aggregate fields
+     */
+    public int[] aggregateFields() {
+        return afields.clone();
+    }
+
+    /**
+     * @return the aggregate operator of each aggregate field
+     */
+    public Aggregator.Op[] aggregateOps() {
+        return aops.clone();
+    }
+
+    /**
+     * @return the number of bytes the groups may take in memory
+     */
+    public long getMemoryBudget() {
+        return memoryBudget;
+    }
+
+    /**
+     * @return the number of bytes of groups spilled to disk the last time
+     * this aggregate was opened
+     */
+    public long getSpilledBytes() {
+        return aggregator.getSpilledBytes();
+    }
+
+    public void open() throws NoSuchElementException, DbException, TransactionAbortedException {
+        child.open();
+        aggregator.reset();
+        while (child.hasNext()) {
+            aggregator.mergeTupleIntoGroup(child.next());
+        }
+        it.open();
+        super.open();
+    }
+
+    protected Tuple fetchNext() throws TransactionAbortedException, DbException {
+        if (!it.hasNext()) {
+            return null;
+        }
+        Tuple t = it.next();
+        t.resetTupleDesc(td);
+        return t;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        it.rewind();
+    }
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    public void close() {
+        super.close();
+        child.close();
+        it.close();
+        aggregator.close();
+    }
+
+    @Override
+    public OpIterator[] getChildren() {
+        return new OpIterator[]{child};
+    }
+
+    @Override
+    public void setChildren(OpIterator[] children) {
+        this.child = children[0];
+    }
+}
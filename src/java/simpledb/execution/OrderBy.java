@@ -10,6 +10,10 @@ import java.util.*;
 
 /**
  * OrderBy is an operator that implements a relational ORDER BY.
+ * <p>
+ * When only the first tuples of the order are needed, e.g. under a
+ * {@link Limit}, it keeps just those while reading its child (a top-N sort),
+ * instead of sorting every tuple.
  */
 public class OrderBy extends Operator {
 
@@ -21,6 +25,7 @@ public class OrderBy extends Operator {
     private final String orderByFieldName;
     private Iterator<Tuple> it;
     private final boolean asc;
+    private final int limit; // 只保留排序后的前limit个元组, -1表示全部
 
     /**
      * Creates a new OrderBy node over the tuples from the iterator.
@@ -33,6 +38,23 @@ public class OrderBy extends Operator {
      *            the tuples to sort.
      */
     public OrderBy(int orderbyField, boolean asc, OpIterator child) {
+        this(orderbyField, asc, child, -1);
+    }
+
+    /**
+     * Creates a new OrderBy node that only returns the first limit tuples
+     * of the order. Ties are returned in the order of the child, as by a
+     * full sort.
+     *
+     * @param limit
+     *            the number of tuples to return, or -1 for every tuple
+     * @see #OrderBy(int, boolean, OpIterator)
+     */
+    public OrderBy(int orderbyField, boolean asc, OpIterator child, int limit) {
+        if (limit < -1) {
+            throw new IllegalArgumentException("invalid limit " + limit);
+        }
+        this.limit = limit;
         this.child = child;
         td = child.getTupleDesc();
         this.orderByField = orderbyField;
@@ -54,6 +76,13 @@ public class OrderBy extends Operator {
     {
 	return this.orderByFieldName;
     }
+
+    /**
+     * @return the number of tuples returned, or -1 if every tuple is
+     */
+    public int getLimit() {
+        return limit;
+    }
     
     public TupleDesc getTupleDesc() {
         return td;
@@ -62,16 +91,33 @@ public class OrderBy extends Operator {
     public void open() throws DbException, NoSuchElementException,
             TransactionAbortedException {
         child.open();
+        childTups.clear();
+        TupleComparator comparator = new TupleComparator(orderByField, asc);
         // load all the tuples in a collection, and sort it
-        while (child.hasNext())
+        while (child.hasNext()) {
             childTups.add(child.next());
-        childTups.sort(new TupleComparator(orderByField, asc));
+            // 前limit个之外的元组不会返回; 缓冲区满时排序截断, 稳定排序保持相等元组的顺序
+            if (limit >= 0 && childTups.size() >= 2 * limit + 1024) {
+                truncate(comparator);
+            }
+        }
+        if (limit >= 0) {
+            truncate(comparator);
+        } else {
+            childTups.sort(comparator);
+        }
         it = childTups.iterator();
         super.open();
     }
 
+    private void truncate(TupleComparator comparator) {
+        childTups.sort(comparator);
+        childTups.subList(Math.min(limit, childTups.size()), childTups.size()).clear();
+    }
+
     public void close() {
         super.close();
+        child.close();
         it = null;
     }
 
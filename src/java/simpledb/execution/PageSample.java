@@ -0,0 +1,200 @@
+package simpledb.execution;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.common.Permissions;
+import simpledb.storage.BufferPool;
+import simpledb.storage.BufferRing;
+import simpledb.storage.DbFileIterator;
+import simpledb.storage.HeapFile;
+import simpledb.storage.HeapPage;
+import simpledb.storage.HeapPageId;
+import simpledb.storage.Tuple;
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Random;
+
+/**
+ * PageSample chooses the pages of a HeapFile a sampled {@link SeqScan}
+ * reads; every tuple of a chosen page is returned. A Bernoulli sample
+ * chooses each page independently with a given probability, a reservoir
+ * sample chooses a given number of pages uniformly at random. The pages
+ * chosen only depend on the seed and the number of pages of the file, so a
+ * rewound scan reads the same sample again.
+ */
+public class PageSample implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private final double fraction;
+    private final int pages;
+    private final long seed;
+
+    private PageSample(double fraction, int pages, long seed) {
+        this.fraction = fraction;
+        this.pages = pages;
+        this.seed = seed;
+    }
+
+    /**
+     * @param fraction the probability of reading each page, in (0, 1]
+     * @param seed     the seed of the random choices
+     * @throws IllegalArgumentException if fraction is out of range
+     */
+    public static PageSample bernoulli(double fraction, long seed) {
+        if (!(fraction > 0 && fraction <= 1)) {
+            throw new IllegalArgumentException("sample fraction must be in (0, 1]: " + fraction);
+        }
+        return new PageSample(fraction, -1, seed);
+    }
+
+    /**
+     * @param pages the number of pages to read; smaller files are read
+     *              entirely
+     * @param seed  the seed of the random choices
+     * @throws IllegalArgumentException if pages is not positive
+     */
+    public static PageSample reservoir(int pages, long seed) {
+        if (pages < 1) {
+            throw new IllegalArgumentException("sample size must be positive: " + pages);
+        }
+        return new PageSample(-1, pages, seed);
+    }
+
+    /**
+     * @return the numbers of the pages to read of a file with numPages
+     * pages, in increasing order
+     */
+    public int[] choose(int numPages) {
+        Random random = new Random(seed);
+        if (pages < 0) {
+            int[] chosen = new int[numPages];
+            int n = 0;
+            for (int pgNo = 0; pgNo < numPages; pgNo++) {
+                if (random.nextDouble() < fraction) {
+                    chosen[n++] = pgNo;
+                }
+            }
+            return Arrays.copyOf(chosen, n);
+        }
+        int[] reservoir = new int[Math.min(pages, numPages)];
+        for (int pgNo = 0; pgNo < numPages; pgNo++) {
+            if (pgNo < reservoir.length) {
+                reservoir[pgNo] = pgNo;
+            } else {
+                int j = random.nextInt(pgNo + 1);
+                if (j < reservoir.length) {
+                    reservoir[j] = pgNo;
+                }
+            }
+        }
+        Arrays.sort(reservoir);
+        return reservoir;
+    }
+
+    /**
+     * @return the expected fraction of the pages of a file with numPages
+     * pages that are read
+     */
+    public double expectedFraction(int numPages) {
+        if (pages < 0) {
+            return fraction;
+        }
+        return numPages <= pages ? 1.0 : (double) pages / numPages;
+    }
+
+    /**
+     * @return an iterator over the tuples of the given pages of file
+     */
+    DbFileIterator iterator(HeapFile file, TransactionId tid, int[] chosen) {
+        return new SampleIterator(file, tid, chosen);
+    }
+
+    @Override
+    public String toString() {
+        return pages < 0 ? "sample " + (fraction * 100) + "%" : "sample " + pages + " pages";
+    }
+
+    private static final class SampleIterator implements DbFileIterator {
+        private final HeapFile file;
+        private final TransactionId tid;
+        private final int[] chosen;
+        private BufferRing ring;
+        private int next;
+        private Iterator<Tuple> current;
+
+        SampleIterator(HeapFile file, TransactionId tid, int[] chosen) {
+            this.file = file;
+            this.tid = tid;
+            this.chosen = chosen;
+        }
+
+        @Override
+        public void open() {
+            ring = Database.getBufferPool().newScanRing(file);
+            rewind();
+        }
+
+        /**
+         * Copy the tuples of a page out, so it is only pinned while they
+         * are read.
+         */
+        private List<Tuple> read(int pgNo) throws DbException, TransactionAbortedException {
+            BufferPool pool = Database.getBufferPool();
+            HeapPageId pid = new HeapPageId(file.getId(), pgNo);
+            List<Tuple> tuples = new ArrayList<>();
+            HeapPage page = (HeapPage) pool.pinPage(tid, pid, Permissions.READ_ONLY, ring);
+            try {
+                page.iterator().forEachRemaining(tuples::add);
+            } finally {
+                pool.unpinPage(tid, pid);
+            }
+            return tuples;
+        }
+
+        @Override
+        public boolean hasNext() throws DbException, TransactionAbortedException {
+            if (current == null) {
+                return false;
+            }
+            while (!current.hasNext()) {
+                if (next == chosen.length) {
+                    return false;
+                }
+                current = read(chosen[next++]).iterator();
+            }
+            return true;
+        }
+
+        @Override
+        public Tuple next() throws DbException, TransactionAbortedException, NoSuchElementException {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            return current.next();
+        }
+
+        @Override
+        public void rewind() {
+            next = 0;
+            current = Collections.emptyIterator();
+        }
+
+        @Override
+        public void close() {
+            current = null;
+            if (ring != null) {
+                ring.close();
+                ring = null;
+            }
+        }
+    }
+}
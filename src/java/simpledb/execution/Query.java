@@ -121,5 +121,36 @@ public class Query implements Serializable {
         }
         System.out.println("\n " + cnt + " rows.");
         this.close();
+        long spilled = getSpilledBytes();
+        if (spilled > 0) {
+            System.out.println(" " + spilled + " bytes of aggregate groups spilled to disk.");
+        }
+    }
+
+    /**
+     * @return the number of bytes the operators of the plan spilled to disk
+     * the last time it was run
+     */
+    public long getSpilledBytes() {
+        // 重分区的Exchange共享输入, 每个算子只计一次
+        return spilledBytes(op, Collections.newSetFromMap(new IdentityHashMap<>()));
+    }
+
+    private static long spilledBytes(OpIterator op, Set<OpIterator> seen) {
+        if (op == null || !seen.add(op)) {
+            return 0;
+        }
+        long bytes = 0;
+        if (op instanceof Aggregate) {
+            bytes += ((Aggregate) op).getSpilledBytes();
+        } else if (op instanceof MultiAggregate) {
+            bytes += ((MultiAggregate) op).getSpilledBytes();
+        }
+        if (op instanceof Operator) {
+            for (OpIterator child : ((Operator) op).getChildren()) {
+                bytes += spilledBytes(child, seen);
+            }
+        }
+        return bytes;
     }
 }
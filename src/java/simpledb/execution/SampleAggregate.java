@@ -0,0 +1,264 @@
+package simpledb.execution;
+
+import simpledb.common.DbException;
+import simpledb.common.Type;
+import simpledb.storage.Field;
+import simpledb.storage.IntField;
+import simpledb.storage.PageId;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+import simpledb.transaction.TransactionAbortedException;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+/**
+ * SampleAggregate estimates the COUNT, SUM and AVG of columns of a whole
+ * table from a {@link SeqScan} that reads a sample of its pages (see
+ * {@link SeqScan#setSample}), with a bound on the error of each estimate.
+ * <p>
+ * The pages read are treated as a simple random sample of the N pages of
+ * the table: with m pages read, COUNT and SUM are the totals of the sample
+ * scaled up by N / m, and AVG is the ratio of the estimated SUM and COUNT.
+ * Tuples of a page are not independent of each other, so the variance of
+ * the estimates is computed from the totals of each page. The error bound
+ * is the half-width of a 95% confidence interval, 0 if every page was read,
+ * and -1 if fewer than two pages were read.
+ * <p>
+ * The result tuples hold the group-by field, if grouping, followed by two
+ * integer fields per aggregate, in the order they were given: the estimate
+ * and its error bound.
+ */
+public class SampleAggregate extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * The quantile of the normal distribution for a 95% confidence interval.
+     */
+    public static final double Z = 1.96;
+
+    private SeqScan child;
+    private final int[] afields;
+    private final Aggregator.Op[] aops;
+    private final int gfield;
+    private final TupleDesc td;
+
+    private Iterator<Tuple> it;
+    private List<Tuple> results;
+
+    /**
+     * Constructor.
+     *
+     * @param child   The sampled scan that is feeding us tuples.
+     * @param afields The columns over which we are estimating aggregates
+     * @param aops    The aggregation operator of each column of afields
+     * @param gfield  The column over which we are grouping the result, or
+     *                {@link Aggregator#NO_GROUPING}
+     * @throws IllegalArgumentException if an operator cannot be estimated
+     *                                  over its column
+     */
+    public SampleAggregate(SeqScan child, int[] afields, Aggregator.Op[] aops, int gfield) {
+        this.child = child;
+        this.afields = afields.clone();
+        this.aops = aops.clone();
+        this.gfield = gfield;
+
+        TupleDesc childTd = child.getTupleDesc();
+        int offset = gfield == Aggregator.NO_GROUPING ? 0 : 1;
+        Type[] types = new Type[offset + 2 * afields.length];
+        String[] names = new String[types.length];
+        if (offset == 1) {
+            types[0] = childTd.getFieldType(gfield);
+            names[0] = childTd.getFieldName(gfield);
+        }
+        for (int i = 0; i < afields.length; i++) {
+            if (!supports(aops[i], childTd.getFieldType(afields[i]))) {
+                throw new IllegalArgumentException("cannot estimate " + aops[i] + " of "
+                        + childTd.getFieldName(afields[i]) + " from a sample");
+            }
+            String name = aops[i] + "(" + childTd.getFieldName(afields[i]) + ")";
+            types[offset + 2 * i] = Type.INT_TYPE;
+            names[offset + 2 * i] = name;
+            types[offset + 2 * i + 1] = Type.INT_TYPE;
+            names[offset + 2 * i + 1] = "error(" + name + ")";
+        }
+        this.td = new TupleDesc(types, names);
+    }
+
+    /**
+     * @return whether aop over a column of type type can be estimated from
+     * a sample
+     */
+    public static boolean supports(Aggregator.Op aop, Type type) {
+        switch (aop) {
+            case COUNT:
+                return true;
+            case SUM:
+            case AVG:
+                return type == Type.INT_TYPE;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * @return the groupby field index in the <b>INPUT</b> tuples, or
+     * {@link Aggregator#NO_GROUPING}
+     */
+    public int groupField() {
+        return gfield;
+    }
+
+    /**
+     * @return the name of the groupby field in the <b>OUTPUT</b> tuples, or
+     * null if there is no grouping
+     */
+    public String groupFieldName() {
+        return gfield == Aggregator.NO_GROUPING ? null : td.getFieldName(0);
+    }
+
+    /**
+     * @return the aggregate fields
+     */
+    public int[] aggregateFields() {
+        return afields.clone();
+    }
+
+    /**
+     * @return the aggregate operator of each aggregate field
+     */
+    public Aggregator.Op[] aggregateOps() {
+        return aops.clone();
+    }
+
+    public void open() throws NoSuchElementException, DbException, TransactionAbortedException {
+        child.open();
+        // 每个分组: [Σx, Σx²], 然后每个聚合 [Σy, Σy², Σxy]; x为页内元组数, y为页内之和
+        Map<Field, double[]> sums = new LinkedHashMap<>();
+        Map<Field, double[]> page = new HashMap<>();
+        PageId current = null;
+        while (child.hasNext()) {
+            Tuple t = child.next();
+            PageId pid = t.getRecordId().getPageId();
+            if (!pid.equals(current)) {
+                addPage(page, sums);
+                current = pid;
+            }
+            Field group = gfield == Aggregator.NO_GROUPING ? null : t.getField(gfield);
+            double[] totals = page.computeIfAbsent(group, k -> new double[1 + afields.length]);
+            totals[0]++;
+            for (int i = 0; i < afields.length; i++) {
+                if (aops[i] != Aggregator.Op.COUNT) {
+                    totals[1 + i] += t.getInt(afields[i]);
+                }
+            }
+        }
+        addPage(page, sums);
+        if (sums.isEmpty() && gfield == Aggregator.NO_GROUPING) {
+            sums.put(null, new double[2 + 3 * afields.length]);
+        }
+        results = new ArrayList<>();
+        for (Map.Entry<Field, double[]> e : sums.entrySet()) {
+            results.add(estimate(e.getKey(), e.getValue()));
+        }
+        it = results.iterator();
+        super.open();
+    }
+
+    private void addPage(Map<Field, double[]> page, Map<Field, double[]> sums) {
+        for (Map.Entry<Field, double[]> e : page.entrySet()) {
+            double[] totals = e.getValue();
+            double[] s = sums.computeIfAbsent(e.getKey(), k -> new double[2 + 3 * afields.length]);
+            double x = totals[0];
+            s[0] += x;
+            s[1] += x * x;
+            for (int i = 0; i < afields.length; i++) {
+                double y = totals[1 + i];
+                s[2 + 3 * i] += y;
+                s[3 + 3 * i] += y * y;
+                s[4 + 3 * i] += x * y;
+            }
+        }
+        page.clear();
+    }
+
+    /**
+     * @return the result tuple of a group, given the sums over the pages
+     * read of its per page totals
+     */
+    private Tuple estimate(Field group, double[] s) {
+        // 未读到该分组的页面的x和y都为0, 不影响各项和, 只计入页数m
+        double n = child.getTablePages();
+        double m = child.getSampledPages();
+        Tuple t = new Tuple(td);
+        int offset = 0;
+        if (gfield != Aggregator.NO_GROUPING) {
+            t.setField(offset++, group);
+        }
+        for (int i = 0; i < afields.length; i++) {
+            double estimate, variance;
+            double sx = s[0], sxx = s[1], sy = s[2 + 3 * i], syy = s[3 + 3 * i], sxy = s[4 + 3 * i];
+            if (aops[i] == Aggregator.Op.AVG) {
+                double r = sx == 0 ? 0 : sy / sx;
+                estimate = r;
+                // 比率估计的线性化方差
+                double sdd = (syy - 2 * r * sxy + r * r * sxx) / (m - 1);
+                variance = sx == 0 ? Double.NaN : (1 - m / n) * sdd * m / (sx * sx);
+            } else {
+                double sum = aops[i] == Aggregator.Op.COUNT ? sx : sy;
+                double sumSq = aops[i] == Aggregator.Op.COUNT ? sxx : syy;
+                estimate = m == 0 ? 0 : sum * n / m;
+                double s2 = (sumSq - sum * sum / m) / (m - 1);
+                variance = n * n * (1 - m / n) * s2 / m;
+            }
+            int error;
+            if (m == n) {
+                error = 0;
+            } else if (m < 2 || Double.isNaN(variance)) {
+                error = -1;
+            } else {
+                error = (int) Math.ceil(Z * Math.sqrt(Math.max(0, variance)));
+            }
+            // AVG和精确的AVG一样截断为整数
+            t.setField(offset++, new IntField(aops[i] == Aggregator.Op.AVG ? (int) estimate
+                    : (int) Math.round(estimate)));
+            t.setField(offset++, new IntField(error));
+        }
+        return t;
+    }
+
+    protected Tuple fetchNext() throws TransactionAbortedException, DbException {
+        return it.hasNext() ? it.next() : null;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        it = results.iterator();
+    }
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    public void close() {
+        super.close();
+        child.close();
+        it = null;
+        results = null;
+    }
+
+    @Override
+    public OpIterator[] getChildren() {
+        return new OpIterator[]{child};
+    }
+
+    @Override
+    public void setChildren(OpIterator[] children) {
+        this.child = (SeqScan) children[0];
+    }
+}
@@ -0,0 +1,139 @@
+package simpledb.execution;
+
+import simpledb.common.Type;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+
+import java.io.Serializable;
+import java.util.Arrays;
+
+/**
+ * ScanPushdown is the work a scan does on each tuple of a table before
+ * handing it out: a condition the tuple must satisfy, and the columns to
+ * return. See {@link SeqScan#setPredicate} and {@link SeqScan#setProjection}.
+ * <p>
+ * Pages hand out {@link simpledb.storage.CompactTuple}s that read their
+ * values straight from the page bytes, so the compiled condition is
+ * evaluated without decoding the tuple, and only the projected columns of
+ * the tuples that pass it are decoded into Fields.
+ */
+public class ScanPushdown implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private final TupleDesc tableDesc;
+    private final Expression predicate;
+    private final int[] columns;
+    private final TupleDesc outputDesc;
+    /**
+     * 针对表的TupleDesc编译的条件, 反序列化后重新编译
+     */
+    private transient Expression.Condition condition;
+
+    /**
+     * @param tableDesc the TupleDesc of the tuples of the table
+     * @param predicate the condition tuples must satisfy, with columns of
+     *                  tableDesc, or null to accept every tuple
+     * @param columns   the indexes in tableDesc of the columns to return,
+     *                  or null to return every column
+     * @throws IllegalArgumentException if predicate is not a condition over
+     *                                  tableDesc, or a column does not exist
+     */
+    public ScanPushdown(TupleDesc tableDesc, Expression predicate, int[] columns) {
+        this.tableDesc = tableDesc;
+        this.predicate = predicate;
+        this.columns = columns == null ? null : columns.clone();
+        this.condition = predicate == null ? null : predicate.compile(tableDesc);
+        if (columns == null) {
+            this.outputDesc = tableDesc;
+        } else {
+            if (columns.length == 0) {
+                throw new IllegalArgumentException("a scan must return at least one column");
+            }
+            Type[] types = new Type[columns.length];
+            String[] names = new String[columns.length];
+            for (int j = 0; j < columns.length; j++) {
+                if (columns[j] < 0 || columns[j] >= tableDesc.numFields()) {
+                    throw new IllegalArgumentException("no column " + columns[j] + " in " + tableDesc);
+                }
+                types[j] = tableDesc.getFieldType(columns[j]);
+                names[j] = tableDesc.getFieldName(columns[j]);
+            }
+            this.outputDesc = new TupleDesc(types, names);
+        }
+    }
+
+    public ScanPushdown withPredicate(Expression predicate) {
+        return new ScanPushdown(tableDesc, predicate, columns);
+    }
+
+    public ScanPushdown withProjection(int[] columns) {
+        return new ScanPushdown(tableDesc, predicate, columns);
+    }
+
+    /**
+     * @return whether every tuple is returned whole
+     */
+    public boolean isEmpty() {
+        return predicate == null && columns == null;
+    }
+
+    public Expression getPredicate() {
+        return predicate;
+    }
+
+    /**
+     * @return the indexes of the returned columns in the table, or null if
+     * every column is returned
+     */
+    public int[] getColumns() {
+        return columns == null ? null : columns.clone();
+    }
+
+    /**
+     * @return the TupleDesc of the returned tuples
+     */
+    public TupleDesc getTupleDesc() {
+        return outputDesc;
+    }
+
+    /**
+     * @return the index in the table of column i of the returned tuples
+     */
+    public int tableIndex(int i) {
+        return columns == null ? i : columns[i];
+    }
+
+    /**
+     * @return whether the tuple t of the table satisfies the predicate
+     */
+    public boolean accept(Tuple t) {
+        if (predicate == null) {
+            return true;
+        }
+        if (condition == null) {
+            condition = predicate.compile(tableDesc);
+        }
+        return condition.test(t);
+    }
+
+    /**
+     * @return the returned columns of the tuple t of the table
+     */
+    public Tuple project(Tuple t) {
+        if (columns == null) {
+            return t;
+        }
+        Tuple out = new Tuple(outputDesc);
+        for (int j = 0; j < columns.length; j++) {
+            out.setField(j, t.getField(columns[j]));
+        }
+        out.setRecordId(t.getRecordId());
+        return out;
+    }
+
+    @Override
+    public String toString() {
+        return "ScanPushdown{predicate=" + predicate + ", columns=" + Arrays.toString(columns) + '}';
+    }
+}
@@ -3,14 +3,17 @@ package simpledb.execution;
 import simpledb.common.Catalog;
 import simpledb.common.Database;
 import simpledb.common.DbException;
+import simpledb.storage.BufferRing;
 import simpledb.storage.DbFile;
 import simpledb.storage.DbFileIterator;
+import simpledb.storage.HeapFile;
 import simpledb.storage.Tuple;
 import simpledb.storage.TupleDesc;
 import simpledb.transaction.TransactionAbortedException;
 import simpledb.transaction.TransactionId;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.NoSuchElementException;
 
@@ -18,6 +21,20 @@ import java.util.NoSuchElementException;
  * SeqScan is an implementation of a sequential scan access method that reads
  * each tuple of a table in no particular order (e.g., as they are laid out on
  * disk).
+ * <p>
+ * A scan of a HeapFile can run on several threads, see
+ * {@link #setParallelism}, or be split into several scans that each read a
+ * part of the table, see {@link #split}. A join can push a
+ * {@link BloomFilter} of its keys into the scan, see
+ * {@link #setRuntimeFilter}.
+ * <p>
+ * A condition and a subset of the columns can be pushed into the scan, see
+ * {@link #setPredicate} and {@link #setProjection}; tuples are then tested
+ * while they still point into the page, and only the returned columns are
+ * decoded.
+ * <p>
+ * A scan of a HeapFile can also read a random sample of its pages, see
+ * {@link #setSample}.
  */
 public class SeqScan implements OpIterator {
 
@@ -30,6 +47,43 @@ public class SeqScan implements OpIterator {
     private String tableAlias;
     private DbFileIterator iterator;
     private DbFile file;
+    /**
+     * 扫描大表时使用的环形缓冲区, 小表为null
+     */
+    private BufferRing ring;
+    /**
+     * 扫描使用的线程数, 1表示在调用者线程中串行扫描
+     */
+    private int parallelism = 1;
+    /**
+     * 并行扫描是否保持串行扫描的元组顺序
+     */
+    private boolean ordered;
+    /**
+     * 与其他扫描共同读取该表时的morsel来源, 否则为null
+     */
+    private MorselSource source;
+    /**
+     * 连接下推的运行时过滤器, 不满足的元组不离开扫描; 没有时为null
+     */
+    private BloomFilter runtimeFilter;
+    private int runtimeField;
+    /**
+     * 已通过运行时过滤器但尚未返回的元组
+     */
+    private Tuple pending;
+    /**
+     * 下推到扫描中的条件和投影
+     */
+    private ScanPushdown pushdown;
+    /**
+     * 只读取部分页面时的抽样方式, 否则为null
+     */
+    private PageSample sample;
+    /**
+     * 上次打开时表的页数和读取的页数
+     */
+    private int tablePages, sampledPages;
 
     /**
      * Creates a sequential scan over the specified table as a part of the
@@ -52,6 +106,7 @@ public class SeqScan implements OpIterator {
         this.tableName = catalog.getTableName(tableid);
         this.tableAlias = tableAlias;
         this.file = catalog.getDatabaseFile(tableid);
+        this.pushdown = new ScanPushdown(tupleDesc, null, null);
     }
 
     /**
@@ -99,6 +154,7 @@ public class SeqScan implements OpIterator {
         this.tupleDesc = changeTupleDesc(catalog.getTupleDesc(tableid), tableAlias);
         this.tableName = catalog.getTableName(tableid);
         this.file = catalog.getDatabaseFile(tableid);
+        this.pushdown = new ScanPushdown(tupleDesc, null, null);
         try {
             open();
         } catch (DbException | TransactionAbortedException e) {
@@ -110,8 +166,198 @@ public class SeqScan implements OpIterator {
         this(tid, tableId, Database.getCatalog().getTableName(tableId));
     }
 
+    /**
+     * Set the number of threads the scan reads the table with, taking
+     * effect the next time it is opened. With more than one thread the
+     * table is read in morsels of consecutive pages, and tuples come out
+     * in no particular order unless ordered is set. Tables that are not
+     * HeapFiles are always scanned serially.
+     *
+     * @param dop     the degree of parallelism, 1 for a serial scan
+     * @param ordered whether a parallel scan must return tuples in the same
+     *                order as a serial one
+     */
+    public void setParallelism(int dop, boolean ordered) {
+        if (dop < 1) {
+            throw new IllegalArgumentException("degree of parallelism must be positive");
+        }
+        this.parallelism = dop;
+        this.ordered = ordered;
+    }
+
+    /**
+     * @return the number of threads the scan reads the table with
+     */
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    /**
+     * @return whether a parallel scan returns tuples in table order
+     */
+    public boolean isOrdered() {
+        return ordered;
+    }
+
+    /**
+     * Only return the tuples that satisfy condition.
+     *
+     * @param condition a condition over the columns of
+     *                  {@link #getTableTupleDesc}, or null to return every
+     *                  tuple
+     * @throws IllegalArgumentException if condition does not fit the table
+     */
+    public void setPredicate(Expression condition) {
+        this.pushdown = pushdown.withPredicate(condition);
+    }
+
+    /**
+     * @return the condition set by {@link #setPredicate}, or null
+     */
+    public Expression getPredicate() {
+        return pushdown.getPredicate();
+    }
+
+    /**
+     * Only return some columns of the table. This changes the TupleDesc of
+     * the scan, so it must be set before operators are put on top of it.
+     * The predicate can still use every column.
+     *
+     * @param columns the indexes in {@link #getTableTupleDesc} of the
+     *                columns to return, in order, or null for every column
+     * @throws IllegalArgumentException if columns is empty or a column does
+     *                                  not exist
+     */
+    public void setProjection(int[] columns) {
+        this.pushdown = pushdown.withProjection(columns);
+    }
+
+    /**
+     * @return the columns set by {@link #setProjection}, or null
+     */
+    public int[] getProjection() {
+        return pushdown.getColumns();
+    }
+
+    /**
+     * @return the TupleDesc of every column of the table, with names
+     * prefixed by the alias
+     */
+    public TupleDesc getTableTupleDesc() {
+        return tupleDesc;
+    }
+
+    /**
+     * Discard the tuples whose field is not in filter before they leave the
+     * scan, from the next tuple read on. Tuples the filter reports by
+     * mistake are still returned, so the caller must check its keys again.
+     *
+     * @param field  the index of the field to look up in filter, in the
+     *               TupleDesc of the scan
+     * @param filter the filter, or null to return every tuple again
+     */
+    public void setRuntimeFilter(int field, BloomFilter filter) {
+        this.runtimeField = field;
+        this.runtimeFilter = filter;
+    }
+
+    /**
+     * @return the filter set by {@link #setRuntimeFilter}, or null
+     */
+    public BloomFilter getRuntimeFilter() {
+        return runtimeFilter;
+    }
+
+    /**
+     * Only read the pages of the table chosen by sample, from the next time
+     * the scan is opened. A sampled scan is always serial.
+     *
+     * @param sample the pages to read, or null to read every page
+     * @throws IllegalArgumentException if the table is not a HeapFile
+     */
+    public void setSample(PageSample sample) {
+        if (sample != null && !(file instanceof HeapFile)) {
+            throw new IllegalArgumentException("only heap files can be sampled");
+        }
+        this.sample = sample;
+    }
+
+    /**
+     * @return the sample set by {@link #setSample}, or null
+     */
+    public PageSample getSample() {
+        return sample;
+    }
+
+    /**
+     * @return the number of pages of the table when the scan was last
+     * opened
+     */
+    public int getTablePages() {
+        return tablePages;
+    }
+
+    /**
+     * @return the number of pages the scan read, or reads, since it was
+     * last opened
+     */
+    public int getSampledPages() {
+        return sampledPages;
+    }
+
+    /**
+     * Split this scan into n scans that together read every tuple of the
+     * table once, for running on n threads, with the predicate and
+     * projection of this scan. The scans claim morsels of
+     * consecutive pages from a common source, so a scan on a busy thread
+     * reads less of the table. Each of them can be opened once and cannot
+     * be rewound. Tables that are not HeapFiles and sampled scans are not
+     * split.
+     *
+     * @param n the number of scans to split this one into
+     * @return the scans, or just this scan if it is not split
+     */
+    public List<SeqScan> split(int n) {
+        if (n <= 1 || !(file instanceof HeapFile) || sample != null) {
+            return Collections.singletonList(this);
+        }
+        MorselSource shared = new MorselSource((HeapFile) file);
+        List<SeqScan> scans = new ArrayList<>();
+        for (int i = 0; i < n; i++) {
+            SeqScan scan = new SeqScan(tid, tableId, tableAlias);
+            scan.source = shared;
+            scan.pushdown = pushdown;
+            scans.add(scan);
+        }
+        return scans;
+    }
+
+    /**
+     * Tables larger than the buffer pool are read through a
+     * {@link BufferRing} so the scan does not evict the pages of other
+     * queries.
+     */
     public void open() throws DbException, TransactionAbortedException {
-        this.iterator = this.file.iterator(this.tid);
+        releaseRing();
+        if (iterator != null) {
+            iterator.close();
+        }
+        pending = null;
+        this.tablePages = file instanceof HeapFile ? ((HeapFile) file).numPages() : 0;
+        this.sampledPages = tablePages;
+        if (sample != null) {
+            int[] pages = sample.choose(tablePages);
+            this.sampledPages = pages.length;
+            this.iterator = sample.iterator((HeapFile) file, tid, pages);
+        } else if (source != null) {
+            this.iterator = source.iterator(tid);
+        } else if (parallelism > 1 && file instanceof HeapFile) {
+            // 每个工作线程使用自己的环
+            this.iterator = new MorselScan((HeapFile) file, tid, parallelism, ordered);
+        } else {
+            this.ring = Database.getBufferPool().newScanRing(this.file);
+            this.iterator = this.file.iterator(this.tid, this.ring);
+        }
         iterator.open();
     }
 
@@ -126,14 +372,28 @@ public class SeqScan implements OpIterator {
      * prefixed with the tableAlias string from the constructor.
      */
     public TupleDesc getTupleDesc() {
-        return this.tupleDesc;
+        return pushdown.getTupleDesc();
     }
 
     public boolean hasNext() throws TransactionAbortedException, DbException {
         if (iterator == null) {
             return false;
         }
-        return iterator.hasNext();
+        if (runtimeFilter == null && pushdown.isEmpty()) {
+            return pending != null || iterator.hasNext();
+        }
+        while (pending == null && iterator.hasNext()) {
+            Tuple tuple = iterator.next();
+            if (!pushdown.accept(tuple)) {
+                continue;
+            }
+            if (runtimeFilter != null
+                    && !runtimeFilter.mightContain(tuple.getField(pushdown.tableIndex(runtimeField)))) {
+                continue;
+            }
+            pending = pushdown.project(tuple);
+        }
+        return pending != null;
     }
 
     public Tuple next() throws NoSuchElementException,
@@ -141,6 +401,14 @@ public class SeqScan implements OpIterator {
         if (iterator == null) {
             throw new NoSuchElementException("No next tuple");
         }
+        if ((runtimeFilter != null || !pushdown.isEmpty()) && !hasNext()) {
+            throw new NoSuchElementException("No next tuple");
+        }
+        if (pending != null) {
+            Tuple tuple = pending;
+            pending = null;
+            return tuple;
+        }
         Tuple tuple = iterator.next();
         if (tuple == null) {
             throw new NoSuchElementException("No next tuple");
@@ -149,11 +417,24 @@ public class SeqScan implements OpIterator {
     }
 
     public void close() {
+        if (iterator != null) {
+            iterator.close();
+        }
         iterator = null;
+        pending = null;
+        releaseRing();
+    }
+
+    private void releaseRing() {
+        if (ring != null) {
+            ring.close();
+            ring = null;
+        }
     }
 
     public void rewind() throws DbException, NoSuchElementException,
             TransactionAbortedException {
+        pending = null;
         iterator.rewind();
     }
 }
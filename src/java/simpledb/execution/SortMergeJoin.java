@@ -0,0 +1,278 @@
+package simpledb.execution;
+
+import simpledb.common.DbException;
+import simpledb.storage.Field;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+import simpledb.transaction.TransactionAbortedException;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * SortMergeJoin joins two children that are both sorted in ascending order
+ * on their join fields, e.g. scans of B+ trees keyed on them, by reading
+ * each child once.
+ * <p>
+ * For an equality predicate the children are merged, and only the tuples of
+ * the right child with the current key are buffered, so that duplicates on
+ * both sides are joined with each other. A range predicate is answered from
+ * a growing prefix of one child: for &lt; and &lt;= the tuples of the left
+ * child smaller than the current right tuple, for &gt; and &gt;= the tuples
+ * of the right child smaller than the current left tuple. Other predicates
+ * are not supported.
+ * <p>
+ * Like {@link Join}, the result tuples are the concatenation of a left and
+ * a right tuple. The result is not sorted for range predicates; for an
+ * equality predicate it is sorted on the join field.
+ */
+public class SortMergeJoin extends Operator {
+
+    private static final long serialVersionUID = 1L;
+    private final JoinPredicate pred;
+    private OpIterator child1, child2;
+    private TupleDesc comboTD;
+
+    /**
+     * 已缓存的元组: 等值连接时为右侧当前键的所有元组, 范围连接时为一侧已读的前缀
+     */
+    private transient List<Tuple> buffer;
+    /**
+     * 正在与缓存的元组逐个组合的元组
+     */
+    private transient Tuple current;
+    private transient int position;
+    /**
+     * 从子节点预读的下一个元组
+     */
+    private transient Tuple nextLeft, nextRight;
+
+    /**
+     * Constructor. Accepts two children to join and the predicate to join
+     * them on.
+     *
+     * @param p      The predicate to use to join the children; one of =, &lt;,
+     *               &lt;=, &gt; and &gt;=
+     * @param child1 Iterator for the left relation, sorted on p's first field
+     * @param child2 Iterator for the right relation, sorted on p's second field
+     */
+    public SortMergeJoin(JoinPredicate p, OpIterator child1, OpIterator child2) {
+        if (!supports(p.getOperator())) {
+            throw new IllegalArgumentException("a merge join cannot evaluate " + p.getOperator());
+        }
+        this.pred = p;
+        this.child1 = child1;
+        this.child2 = child2;
+        this.comboTD = TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc());
+    }
+
+    /**
+     * @return whether a merge join can evaluate predicates with operator op
+     */
+    public static boolean supports(Predicate.Op op) {
+        switch (op) {
+            case EQUALS:
+            case LESS_THAN:
+            case LESS_THAN_OR_EQ:
+            case GREATER_THAN:
+            case GREATER_THAN_OR_EQ:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    public JoinPredicate getJoinPredicate() {
+        return pred;
+    }
+
+    public String getJoinField1Name() {
+        return this.child1.getTupleDesc().getFieldName(this.pred.getField1());
+    }
+
+    public String getJoinField2Name() {
+        return this.child2.getTupleDesc().getFieldName(this.pred.getField2());
+    }
+
+    public TupleDesc getTupleDesc() {
+        return comboTD;
+    }
+
+    public void open() throws DbException, NoSuchElementException, TransactionAbortedException {
+        child1.open();
+        child2.open();
+        reset();
+        super.open();
+    }
+
+    private void reset() throws DbException, TransactionAbortedException {
+        buffer = new ArrayList<>();
+        current = null;
+        position = 0;
+        nextLeft = child1.hasNext() ? child1.next() : null;
+        nextRight = child2.hasNext() ? child2.next() : null;
+    }
+
+    public void close() {
+        super.close();
+        child2.close();
+        child1.close();
+        buffer = null;
+        current = null;
+        nextLeft = null;
+        nextRight = null;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        child1.rewind();
+        child2.rewind();
+        reset();
+    }
+
+    private Tuple advanceLeft() throws DbException, TransactionAbortedException {
+        Tuple t = nextLeft;
+        nextLeft = child1.hasNext() ? child1.next() : null;
+        return t;
+    }
+
+    private Tuple advanceRight() throws DbException, TransactionAbortedException {
+        Tuple t = nextRight;
+        nextRight = child2.hasNext() ? child2.next() : null;
+        return t;
+    }
+
+    private Field key1(Tuple t) {
+        return t.getField(pred.getField1());
+    }
+
+    private Field key2(Tuple t) {
+        return t.getField(pred.getField2());
+    }
+
+    private static int compare(Field a, Field b) {
+        if (a.compare(Predicate.Op.LESS_THAN, b)) {
+            return -1;
+        }
+        return a.compare(Predicate.Op.EQUALS, b) ? 0 : 1;
+    }
+
+    protected Tuple fetchNext() throws TransactionAbortedException, DbException {
+        switch (pred.getOperator()) {
+            case EQUALS:
+                return fetchEquals();
+            case LESS_THAN:
+            case LESS_THAN_OR_EQ:
+                return fetchLess();
+            default:
+                return fetchGreater();
+        }
+    }
+
+    /**
+     * Join each left tuple with the buffered right tuples of the same key,
+     * buffering the next run of equal right keys when the left key passes
+     * them.
+     */
+    private Tuple fetchEquals() throws TransactionAbortedException, DbException {
+        while (true) {
+            if (current != null && position < buffer.size()) {
+                return Tuple.merge(comboTD, current, buffer.get(position++));
+            }
+            current = null;
+            if (nextLeft == null) {
+                return null;
+            }
+            if (!buffer.isEmpty() && compare(key1(nextLeft), key2(buffer.get(0))) == 0) {
+                // 左侧的重复键与同一组右侧元组连接
+                current = advanceLeft();
+                position = 0;
+                continue;
+            }
+            buffer.clear();
+            while (nextLeft != null && nextRight != null) {
+                int c = compare(key1(nextLeft), key2(nextRight));
+                if (c < 0) {
+                    advanceLeft();
+                } else if (c > 0) {
+                    advanceRight();
+                } else {
+                    break;
+                }
+            }
+            if (nextLeft == null || nextRight == null) {
+                return null;
+            }
+            Field key = key2(nextRight);
+            while (nextRight != null && compare(key2(nextRight), key) == 0) {
+                buffer.add(advanceRight());
+            }
+        }
+    }
+
+    /**
+     * left &lt; right: each right tuple joins the prefix of the left child
+     * with smaller keys, which only grows as the right keys increase.
+     */
+    private Tuple fetchLess() throws TransactionAbortedException, DbException {
+        boolean orEqual = pred.getOperator() == Predicate.Op.LESS_THAN_OR_EQ;
+        while (true) {
+            if (current != null && position < buffer.size()) {
+                return Tuple.merge(comboTD, buffer.get(position++), current);
+            }
+            if (nextRight == null) {
+                return null;
+            }
+            current = advanceRight();
+            position = 0;
+            Field key = key2(current);
+            while (nextLeft != null) {
+                int c = compare(key1(nextLeft), key);
+                if (c < 0 || (orEqual && c == 0)) {
+                    buffer.add(advanceLeft());
+                } else {
+                    break;
+                }
+            }
+        }
+    }
+
+    /**
+     * left &gt; right: each left tuple joins the prefix of the right child
+     * with smaller keys, which only grows as the left keys increase.
+     */
+    private Tuple fetchGreater() throws TransactionAbortedException, DbException {
+        boolean orEqual = pred.getOperator() == Predicate.Op.GREATER_THAN_OR_EQ;
+        while (true) {
+            if (current != null && position < buffer.size()) {
+                return Tuple.merge(comboTD, current, buffer.get(position++));
+            }
+            if (nextLeft == null) {
+                return null;
+            }
+            current = advanceLeft();
+            position = 0;
+            Field key = key1(current);
+            while (nextRight != null) {
+                int c = compare(key2(nextRight), key);
+                if (c < 0 || (orEqual && c == 0)) {
+                    buffer.add(advanceRight());
+                } else {
+                    break;
+                }
+            }
+        }
+    }
+
+    @Override
+    public OpIterator[] getChildren() {
+        return new OpIterator[]{this.child1, this.child2};
+    }
+
+    @Override
+    public void setChildren(OpIterator[] children) {
+        this.child1 = children[0];
+        this.child2 = children[1];
+        this.comboTD = TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc());
+    }
+}
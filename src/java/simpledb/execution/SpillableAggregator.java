@@ -0,0 +1,480 @@
+package simpledb.execution;
+
+import simpledb.common.DbException;
+import simpledb.common.Type;
+import simpledb.storage.Field;
+import simpledb.storage.IntField;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+import simpledb.transaction.TransactionAbortedException;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+/**
+ * Knows how to compute grouped aggregates over more groups than fit in a
+ * memory budget.
+ * <p>
+ * Any number of aggregates can be computed at once: each group keeps the
+ * running state of all of them in a single entry of the hash table, so the
+ * input is read once. Without grouping, all the tuples form a single group,
+ * which is never spilled.
+ * <p>
+ * Groups are aggregated in a hash table until it holds as many groups as
+ * the budget allows. From then on, the tuples of groups that are not in the
+ * table are written to one of {@link #FANOUT} temporary spill files, chosen
+ * by the hash of the group value, while the groups in the table go on being
+ * aggregated in memory. Every group is therefore either entirely in memory
+ * or entirely in one spill file. The iterator returns the groups in memory,
+ * then aggregates the spill files one after the other in the same way,
+ * spilling again with other bits of the hash if a file still has too many
+ * groups.
+ * <p>
+ * COUNT is supported over any field, and MIN, MAX, SUM and AVG over
+ * integer fields, with the same results as {@link IntegerAggregator} and
+ * {@link StringAggregator}. Unlike them, no tuple is returned for an empty
+ * input without grouping.
+ */
+public class SpillableAggregator implements Aggregator {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * 溢出文件数, 每层递归用哈希值的4位选择文件
+     */
+    static final int FANOUT = 16;
+    private static final int FANOUT_BITS = 4;
+    /**
+     * 最大递归层数, 达到后不再溢出, 以免哈希值相同的分组无限递归
+     */
+    static final int MAX_DEPTH = 32 / FANOUT_BITS - 1;
+    /**
+     * 每个分组除分组值以外占用的内存估计: 哈希表项, 聚合状态数组和对象头
+     */
+    static final int GROUP_OVERHEAD = 96;
+
+    private static final Field NO_GROUP = new IntField(-1);
+
+    private final int gbfield;
+    private final Type gbfieldtype;
+    private final int[] afields;
+    private final Type[] afieldtypes;
+    private final Op[] whats;
+    private final long memoryBudget;
+    private final int depth;
+    /**
+     * 溢出字节数汇总到最外层的聚合器
+     */
+    private final SpillableAggregator parent;
+
+    private final TupleDesc tupleDesc;
+    /**
+     * 溢出文件中的元组只保留分组字段和聚合字段
+     */
+    private final TupleDesc spillDesc;
+    private final int maxGroups;
+
+    /**
+     * 分组值 -> 每个聚合的{count, sum, min, max}, 依次排列
+     */
+    private transient Map<Field, int[]> groups;
+    private transient File[] spillFiles;
+    private transient DataOutputStream[] spillOut;
+    private long spilledBytes;
+
+    /**
+     * Aggregate constructor
+     *
+     * @param gbfield      the 0-based index of the group-by field in the
+     *                     tuple, or NO_GROUPING if there is no grouping
+     * @param gbfieldtype  the type of the group by field, or null if there
+     *                     is no grouping
+     * @param afield       the 0-based index of the aggregate field in the tuple
+     * @param afieldtype   the type of the aggregate field
+     * @param what         the aggregation operator
+     * @param memoryBudget the number of bytes the groups may take in memory
+     * @throws IllegalArgumentException if what cannot be computed over
+     *                                  afieldtype
+     */
+    public SpillableAggregator(int gbfield, Type gbfieldtype, int afield, Type afieldtype, Op what,
+                               long memoryBudget) {
+        this(gbfield, gbfieldtype, new int[]{afield}, new Type[]{afieldtype}, new Op[]{what}, memoryBudget);
+    }
+
+    /**
+     * Constructor for several aggregates computed in one pass.
+     *
+     * @param gbfield      the 0-based index of the group-by field in the
+     *                     tuple, or NO_GROUPING if there is no grouping
+     * @param gbfieldtype  the type of the group by field, or null if there
+     *                     is no grouping
+     * @param afields      the 0-based indexes of the aggregate fields
+     * @param afieldtypes  the types of the aggregate fields
+     * @param whats        the aggregation operator of each aggregate field
+     * @param memoryBudget the number of bytes the groups may take in memory
+     * @throws IllegalArgumentException if an operator cannot be computed
+     *                                  over its field
+     */
+    public SpillableAggregator(int gbfield, Type gbfieldtype, int[] afields, Type[] afieldtypes, Op[] whats,
+                               long memoryBudget) {
+        this(gbfield, gbfieldtype, afields, afieldtypes, whats, memoryBudget, 0, null);
+    }
+
+    private SpillableAggregator(int gbfield, Type gbfieldtype, int[] afields, Type[] afieldtypes, Op[] whats,
+                                long memoryBudget, int depth, SpillableAggregator parent) {
+        if (afields.length == 0 || afields.length != afieldtypes.length || afields.length != whats.length) {
+            throw new IllegalArgumentException("need an operator and a type for each aggregate field");
+        }
+        for (int i = 0; i < whats.length; i++) {
+            if (!supports(whats[i], afieldtypes[i])) {
+                throw new IllegalArgumentException("cannot compute " + whats[i] + " over " + afieldtypes[i]);
+            }
+        }
+        this.gbfield = gbfield;
+        this.gbfieldtype = gbfieldtype;
+        this.afields = afields.clone();
+        this.afieldtypes = afieldtypes.clone();
+        this.whats = whats.clone();
+        this.memoryBudget = memoryBudget;
+        this.depth = depth;
+        this.parent = parent;
+
+        boolean grouped = gbfield != NO_GROUPING;
+        int offset = grouped ? 1 : 0;
+        Type[] types = new Type[offset + afields.length];
+        String[] names = new String[types.length];
+        Type[] spillTypes = new Type[1 + afields.length];
+        if (grouped) {
+            types[0] = gbfieldtype;
+            names[0] = "groupValue";
+            spillTypes[0] = gbfieldtype;
+        } else {
+            spillTypes[0] = Type.INT_TYPE;
+        }
+        for (int i = 0; i < afields.length; i++) {
+            types[offset + i] = Type.INT_TYPE;
+            names[offset + i] = afields.length == 1 ? "aggregateValue" : "aggregateValue" + i;
+            spillTypes[1 + i] = afieldtypes[i];
+        }
+        this.tupleDesc = new TupleDesc(types, names);
+        this.spillDesc = new TupleDesc(spillTypes);
+        int keyLen = grouped ? gbfieldtype.getLen() : 0;
+        this.maxGroups = (int) Math.max(1, Math.min(Integer.MAX_VALUE,
+                memoryBudget / (GROUP_OVERHEAD + 16L * afields.length + keyLen)));
+        this.groups = new HashMap<>();
+    }
+
+    /**
+     * @return whether a spillable aggregator can compute what over a field
+     * of type type
+     */
+    public static boolean supports(Op what, Type type) {
+        switch (what) {
+            case COUNT:
+                return true;
+            case MIN:
+            case MAX:
+            case SUM:
+            case AVG:
+                return type == Type.INT_TYPE;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * @return the number of bytes written to spill files, by this
+     * aggregator and the ones aggregating its spill files, since it was
+     * created or last reset
+     */
+    public long getSpilledBytes() {
+        return spilledBytes;
+    }
+
+    /**
+     * Merge a new tuple into the aggregate, grouping as indicated in the
+     * constructor
+     *
+     * @param tup the Tuple containing an aggregate field and a group-by field
+     */
+    public void mergeTupleIntoGroup(Tuple tup) {
+        Field key = gbfield == NO_GROUPING ? NO_GROUP : tup.getField(gbfield);
+        int[] state = groups.get(key);
+        if (state == null) {
+            if (groups.size() >= maxGroups && depth < MAX_DEPTH) {
+                spill(key, tup);
+                return;
+            }
+            state = new int[4 * whats.length];
+            for (int i = 0; i < whats.length; i++) {
+                state[4 * i + 2] = Integer.MAX_VALUE;
+                state[4 * i + 3] = Integer.MIN_VALUE;
+            }
+            groups.put(key, state);
+        }
+        for (int i = 0; i < whats.length; i++) {
+            int s = 4 * i;
+            state[s]++;
+            if (whats[i] != Op.COUNT) {
+                int v = tup.getInt(afields[i]);
+                state[s + 1] += v;
+                state[s + 2] = Math.min(state[s + 2], v);
+                state[s + 3] = Math.max(state[s + 3], v);
+            }
+        }
+    }
+
+    /**
+     * 选择分组值所在的溢出文件, 每层用哈希值中不同的位
+     */
+    private int partition(Field key) {
+        int h = key.hashCode();
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        h ^= h >>> 16;
+        return (h >>> (depth * FANOUT_BITS)) & (FANOUT - 1);
+    }
+
+    private void spill(Field key, Tuple tup) {
+        int p = partition(key);
+        try {
+            if (spillOut == null) {
+                spillFiles = new File[FANOUT];
+                spillOut = new DataOutputStream[FANOUT];
+            }
+            if (spillOut[p] == null) {
+                spillFiles[p] = File.createTempFile("aggregate", ".spill");
+                spillOut[p] = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(spillFiles[p])));
+            }
+            key.serialize(spillOut[p]);
+            for (int afield : afields) {
+                tup.getField(afield).serialize(spillOut[p]);
+            }
+        } catch (IOException e) {
+            throw new RuntimeException("could not spill aggregate groups", e);
+        }
+        addSpilledBytes(spillDesc.getSize());
+    }
+
+    private void addSpilledBytes(long n) {
+        spilledBytes += n;
+        if (parent != null) {
+            parent.addSpilledBytes(n);
+        }
+    }
+
+    /**
+     * 结束写入溢出文件
+     */
+    private void finishSpilling() throws DbException {
+        if (spillOut == null) {
+            return;
+        }
+        try {
+            for (int p = 0; p < FANOUT; p++) {
+                if (spillOut[p] != null) {
+                    spillOut[p].close();
+                    spillOut[p] = null;
+                }
+            }
+        } catch (IOException e) {
+            throw new DbException("could not write spill file: " + e.getMessage());
+        }
+    }
+
+    /**
+     * @return an aggregator of the groups spilled to file p
+     */
+    private SpillableAggregator aggregateSpillFile(int p) throws DbException {
+        int[] spilledFields = new int[afields.length];
+        for (int i = 0; i < afields.length; i++) {
+            spilledFields[i] = i + 1;
+        }
+        SpillableAggregator sub = new SpillableAggregator(0, gbfieldtype, spilledFields, afieldtypes, whats,
+                memoryBudget, depth + 1, this);
+        byte[] record = new byte[spillDesc.getSize()];
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(spillFiles[p])))) {
+            while (true) {
+                try {
+                    in.readFully(record);
+                } catch (EOFException e) {
+                    break;
+                }
+                Tuple t = new Tuple(spillDesc);
+                int offset = 0;
+                for (int i = 0; i < spillDesc.numFields(); i++) {
+                    Type type = spillDesc.getFieldType(i);
+                    t.setField(i, type.parse(record, offset));
+                    offset += type.getLen();
+                }
+                sub.mergeTupleIntoGroup(t);
+            }
+        } catch (IOException e) {
+            throw new DbException("could not read spill file: " + e.getMessage());
+        }
+        return sub;
+    }
+
+    private Tuple result(Field key, int[] state) {
+        Tuple t = new Tuple(tupleDesc);
+        int offset = 0;
+        if (gbfield != NO_GROUPING) {
+            t.setField(0, key);
+            offset = 1;
+        }
+        for (int i = 0; i < whats.length; i++) {
+            int s = 4 * i;
+            int value;
+            switch (whats[i]) {
+                case MIN:
+                    value = state[s + 2];
+                    break;
+                case MAX:
+                    value = state[s + 3];
+                    break;
+                case SUM:
+                    value = state[s + 1];
+                    break;
+                case AVG:
+                    value = state[s + 1] / state[s];
+                    break;
+                default:
+                    value = state[s];
+            }
+            t.setField(offset + i, new IntField(value));
+        }
+        return t;
+    }
+
+    /**
+     * Discards the groups and spill files, and the count of spilled bytes,
+     * to aggregate another input.
+     */
+    public void reset() {
+        close();
+        spilledBytes = 0;
+    }
+
+    /**
+     * Releases the memory and deletes the spill files of this aggregator.
+     * The count of spilled bytes is kept.
+     */
+    public void close() {
+        groups = new HashMap<>();
+        if (spillOut != null) {
+            for (int p = 0; p < FANOUT; p++) {
+                if (spillOut[p] != null) {
+                    try {
+                        spillOut[p].close();
+                    } catch (IOException ignored) {
+                    }
+                }
+                if (spillFiles[p] != null) {
+                    spillFiles[p].delete();
+                }
+            }
+        }
+        spillOut = null;
+        spillFiles = null;
+    }
+
+    /**
+     * Create a OpIterator over group aggregate results.
+     *
+     * @return a OpIterator whose tuples are the group value, if grouping,
+     * followed by the value of each aggregate
+     */
+    public OpIterator iterator() {
+        return new SpillOpIterator();
+    }
+
+    /**
+     * 先返回内存中的分组, 再逐个聚合溢出文件并返回其结果
+     */
+    private class SpillOpIterator implements OpIterator {
+        private static final long serialVersionUID = 1L;
+
+        private transient Iterator<Map.Entry<Field, int[]>> inMemory;
+        private transient int nextFile;
+        private transient SpillableAggregator sub;
+        private transient OpIterator subIt;
+
+        @Override
+        public void open() throws DbException, TransactionAbortedException {
+            finishSpilling();
+            rewind();
+        }
+
+        @Override
+        public boolean hasNext() throws DbException, TransactionAbortedException {
+            if (inMemory.hasNext()) {
+                return true;
+            }
+            while (subIt == null || !subIt.hasNext()) {
+                closeSub();
+                while (spillFiles != null && nextFile < FANOUT && spillFiles[nextFile] == null) {
+                    nextFile++;
+                }
+                if (spillFiles == null || nextFile == FANOUT) {
+                    return false;
+                }
+                sub = aggregateSpillFile(nextFile++);
+                subIt = sub.iterator();
+                subIt.open();
+            }
+            return true;
+        }
+
+        @Override
+        public Tuple next() throws DbException, TransactionAbortedException, NoSuchElementException {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            if (inMemory.hasNext()) {
+                Map.Entry<Field, int[]> e = inMemory.next();
+                return result(e.getKey(), e.getValue());
+            }
+            return subIt.next();
+        }
+
+        @Override
+        public void rewind() throws DbException, TransactionAbortedException {
+            closeSub();
+            inMemory = groups.entrySet().iterator();
+            nextFile = 0;
+        }
+
+        @Override
+        public TupleDesc getTupleDesc() {
+            return tupleDesc;
+        }
+
+        @Override
+        public void close() {
+            closeSub();
+            inMemory = null;
+        }
+
+        private void closeSub() {
+            if (subIt != null) {
+                subIt.close();
+                sub.close();
+            }
+            subIt = null;
+            sub = null;
+        }
+    }
+}
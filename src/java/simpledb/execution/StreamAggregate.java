@@ -0,0 +1,230 @@
+package simpledb.execution;
+
+import simpledb.common.DbException;
+import simpledb.common.Type;
+import simpledb.storage.Field;
+import simpledb.storage.IntField;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+import simpledb.transaction.TransactionAbortedException;
+
+import java.util.NoSuchElementException;
+
+/**
+ * StreamAggregate computes the same grouped aggregate as {@link Aggregate}
+ * over a child that is sorted in ascending order on the group-by field,
+ * e.g. a scan of a B+ tree keyed on it or an {@link OrderBy}.
+ * <p>
+ * The tuples of a group are consecutive, so each group is returned as soon
+ * as the first tuple of the next group is read, and only the running
+ * aggregate of the current group is kept instead of a hash table of all the
+ * groups. The groups are returned in the order of the child, so the result
+ * is sorted on its first field. If the child turns out not to be sorted,
+ * {@link #next()} throws a DbException rather than returning a group twice.
+ */
+public class StreamAggregate extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    private OpIterator child;
+    private final int afield;
+    private final int gfield;
+    private final Aggregator.Op aop;
+    private final TupleDesc td;
+    /**
+     * 分组字段是否为整数, 是则用getInt比较, 不必解码成Field
+     */
+    private final boolean intGroup;
+
+    /**
+     * 从子节点预读的下一个元组, 即下一组的第一个元组
+     */
+    private transient Tuple pending;
+    /**
+     * 当前组的聚合状态
+     */
+    private transient int count, sum, min, max;
+
+    /**
+     * Constructor.
+     *
+     * @param child  The OpIterator that is feeding us tuples, sorted on gfield
+     * @param afield The column over which we are computing an aggregate.
+     * @param gfield The column over which we are grouping the result
+     * @param aop    The aggregation operator to use; COUNT for a string
+     *               column, and MIN, MAX, SUM, AVG, COUNT or SUM_COUNT for
+     *               an integer column
+     * @throws IllegalArgumentException if there is no grouping, or aop
+     *                                  cannot be computed over afield
+     */
+    public StreamAggregate(OpIterator child, int afield, int gfield, Aggregator.Op aop) {
+        if (gfield == Aggregator.NO_GROUPING) {
+            throw new IllegalArgumentException("a streaming aggregate needs a group-by field");
+        }
+        TupleDesc childTd = child.getTupleDesc();
+        if (!supports(aop, childTd.getFieldType(afield))) {
+            throw new IllegalArgumentException("cannot compute " + aop + " over " + childTd.getFieldName(afield));
+        }
+        this.child = child;
+        this.afield = afield;
+        this.gfield = gfield;
+        this.aop = aop;
+        this.td = Aggregate.resultDesc(childTd, afield, gfield, aop);
+        this.intGroup = childTd.getFieldType(gfield) == Type.INT_TYPE;
+    }
+
+    /**
+     * @return whether a streaming aggregate can compute aop over a column
+     * of type type
+     */
+    public static boolean supports(Aggregator.Op aop, Type type) {
+        switch (aop) {
+            case COUNT:
+                return true;
+            case MIN:
+            case MAX:
+            case SUM:
+            case AVG:
+            case SUM_COUNT:
+                return type == Type.INT_TYPE;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * @return the groupby field index in the <b>INPUT</b> tuples
+     */
+    public int groupField() {
+        return gfield;
+    }
+
+    /**
+     * @return the name of the groupby field in the <b>OUTPUT</b> tuples
+     */
+    public String groupFieldName() {
+        return td.getFieldName(0);
+    }
+
+    /**
+     * @return the aggregate field
+     */
+    public int aggregateField() {
+        return afield;
+    }
+
+    /**
+     * @return the name of the aggregate field in the <b>OUTPUT</b> tuples
+     */
+    public String aggregateFieldName() {
+        return td.getFieldName(1);
+    }
+
+    /**
+     * @return the aggregate operator
+     */
+    public Aggregator.Op aggregateOp() {
+        return aop;
+    }
+
+    public void open() throws DbException, NoSuchElementException, TransactionAbortedException {
+        child.open();
+        pending = child.hasNext() ? child.next() : null;
+        super.open();
+    }
+
+    public void close() {
+        super.close();
+        child.close();
+        pending = null;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        child.rewind();
+        pending = child.hasNext() ? child.next() : null;
+    }
+
+    private void merge(Tuple t) {
+        count++;
+        if (aop == Aggregator.Op.COUNT) {
+            return;
+        }
+        int v = t.getInt(afield);
+        sum += v;
+        min = Math.min(min, v);
+        max = Math.max(max, v);
+    }
+
+    /**
+     * Reads the tuples of the group of the pending tuple, and returns its
+     * aggregate.
+     */
+    protected Tuple fetchNext() throws TransactionAbortedException, DbException {
+        if (pending == null) {
+            return null;
+        }
+        Field key = pending.getField(gfield);
+        int intKey = intGroup ? pending.getInt(gfield) : 0;
+        count = 0;
+        sum = 0;
+        min = Integer.MAX_VALUE;
+        max = Integer.MIN_VALUE;
+        merge(pending);
+        pending = null;
+        while (child.hasNext()) {
+            Tuple t = child.next();
+            boolean same = intGroup ? t.getInt(gfield) == intKey : key.equals(t.getField(gfield));
+            if (!same) {
+                if (t.getField(gfield).compare(Predicate.Op.LESS_THAN, key)) {
+                    throw new DbException("input of streaming aggregate is not sorted on "
+                            + child.getTupleDesc().getFieldName(gfield));
+                }
+                pending = t;
+                break;
+            }
+            merge(t);
+        }
+
+        Tuple result = new Tuple(td);
+        result.setField(0, key);
+        switch (aop) {
+            case MIN:
+                result.setField(1, new IntField(min));
+                break;
+            case MAX:
+                result.setField(1, new IntField(max));
+                break;
+            case SUM:
+                result.setField(1, new IntField(sum));
+                break;
+            case AVG:
+                result.setField(1, new IntField(sum / count));
+                break;
+            case SUM_COUNT:
+                result.setField(1, new IntField(sum));
+                result.setField(2, new IntField(count));
+                break;
+            default:
+                result.setField(1, new IntField(count));
+        }
+        return result;
+    }
+
+    /**
+     * @return the TupleDesc of the result, the group-by field followed by
+     * the aggregate, as for {@link Aggregate#getTupleDesc()}
+     */
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    @Override
+    public OpIterator[] getChildren() {
+        return new OpIterator[]{child};
+    }
+
+    @Override
+    public void setChildren(OpIterator[] children) {
+        this.child = children[0];
+    }
+}
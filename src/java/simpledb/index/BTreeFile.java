@@ -1,6 +1,8 @@
 package simpledb.index;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.util.*;
 
 import simpledb.common.Database;
@@ -32,9 +34,16 @@ public class BTreeFile implements DbFile {
 	private final TupleDesc td;
 	private final int tableid ;
 	private final int keyField;
+	private final int pageSize;
+	/**
+	 * 根指针页的长度, 0表示尚未从文件读出
+	 */
+	private volatile int rootPtrSize;
 
 	/**
-	 * Constructs a B+ tree file backed by the specified file.
+	 * Constructs a B+ tree file backed by the specified file. The page size is
+	 * the one recorded in the root pointer page of the file, or
+	 * {@link BufferPool#getPageSize()} if the file is new or does not record one.
 	 * 
 	 * @param f - the file that stores the on-disk backing store for this B+ tree
 	 *            file.
@@ -42,10 +51,73 @@ public class BTreeFile implements DbFile {
 	 * @param td - the tuple descriptor of tuples in the file
 	 */
 	public BTreeFile(File f, int key, TupleDesc td) {
+		this(f, key, td, readPageSize(f));
+	}
+
+	/**
+	 * Constructs a B+ tree file backed by the specified file whose internal,
+	 * leaf and header pages are pageSize bytes long.
+	 *
+	 * @param f - the file that stores the on-disk backing store for this B+ tree
+	 *            file.
+	 * @param key - the field which index is keyed on
+	 * @param td - the tuple descriptor of tuples in the file
+	 * @param pageSize - the page size of this file
+	 */
+	public BTreeFile(File f, int key, TupleDesc td, int pageSize) {
 		this.f = f;
 		this.tableid = f.getAbsoluteFile().hashCode();
 		this.keyField = key;
 		this.td = td;
+		this.pageSize = pageSize;
+	}
+
+	/**
+	 * Read the page size recorded in the root pointer page of f.
+	 */
+	private static int readPageSize(File f) {
+		BTreeRootPtrPage rootPtr = readRootPtrPage(f);
+		if (rootPtr != null && rootPtr.getTreePageSize() > 0) {
+			return rootPtr.getTreePageSize();
+		}
+		return BufferPool.getPageSize();
+	}
+
+	/**
+	 * Read the root pointer page of f straight from disk.
+	 *
+	 * @return the root pointer page, or null if f is empty
+	 */
+	private static BTreeRootPtrPage readRootPtrPage(File f) {
+		long length = f.length();
+		if (length < BTreeRootPtrPage.LEGACY_PAGE_SIZE) {
+			return null;
+		}
+		// 旧文件的根指针页只有9字节, 多读的字节会被忽略
+		byte[] data = new byte[(int) Math.min(length, BTreeRootPtrPage.getPageSize())];
+		try (DataInputStream dis = new DataInputStream(new FileInputStream(f))) {
+			dis.readFully(data);
+			return new BTreeRootPtrPage(BTreeRootPtrPage.getId(0), data);
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	/**
+	 * Returns the length of the root pointer page of this file, which is
+	 * also where its first internal, leaf or header page starts:
+	 * {@link BTreeRootPtrPage#LEGACY_PAGE_SIZE} bytes for files written
+	 * before the page size was recorded, {@link BTreeRootPtrPage#getPageSize()}
+	 * otherwise.
+	 */
+	int rootPtrSize() {
+		int size = rootPtrSize;
+		if (size == 0) {
+			BTreeRootPtrPage rootPtr = readRootPtrPage(f);
+			size = rootPtr == null ? BTreeRootPtrPage.getPageSize() : rootPtr.getLength();
+			rootPtrSize = size;
+		}
+		return size;
 	}
 
 	/**
@@ -77,6 +149,15 @@ public class BTreeFile implements DbFile {
 		return td;
 	}
 
+	/**
+	 * Returns the size in bytes of the internal, leaf and header pages of this
+	 * file; the root pointer page is {@link #rootPtrSize()} bytes long.
+	 */
+	@Override
+	public int getPageSize() {
+		return pageSize;
+	}
+
 	/**
 	 * Read a page from the file on disk. This should not be called directly
 	 * but should be called from the BufferPool via getPage()
@@ -89,40 +170,33 @@ public class BTreeFile implements DbFile {
 
         try (BufferedInputStream bis = new BufferedInputStream(new FileInputStream(f))) {
             if (id.pgcateg() == BTreePageId.ROOT_PTR) {
-                byte[] pageBuf = new byte[BTreeRootPtrPage.getPageSize()];
-                int retval = bis.read(pageBuf, 0, BTreeRootPtrPage.getPageSize());
+                byte[] pageBuf = new byte[rootPtrSize()];
+                int retval = bis.read(pageBuf, 0, pageBuf.length);
                 if (retval == -1) {
                     throw new IllegalArgumentException("Read past end of table");
                 }
-                if (retval < BTreeRootPtrPage.getPageSize()) {
+                if (retval < pageBuf.length) {
                     throw new IllegalArgumentException("Unable to read "
-                            + BTreeRootPtrPage.getPageSize() + " bytes from BTreeFile");
+                            + pageBuf.length + " bytes from BTreeFile");
                 }
                 Debug.log(1, "BTreeFile.readPage: read page %d", id.getPageNumber());
                 return new BTreeRootPtrPage(id, pageBuf);
             } else {
-                byte[] pageBuf = new byte[BufferPool.getPageSize()];
-                if (bis.skip(BTreeRootPtrPage.getPageSize() + (long) (id.getPageNumber() - 1) * BufferPool.getPageSize()) !=
-                        BTreeRootPtrPage.getPageSize() + (long) (id.getPageNumber() - 1) * BufferPool.getPageSize()) {
+                byte[] pageBuf = new byte[pageSize];
+                if (bis.skip(pageOffset(id)) != pageOffset(id)) {
                     throw new IllegalArgumentException(
                             "Unable to seek to correct place in BTreeFile");
                 }
-                int retval = bis.read(pageBuf, 0, BufferPool.getPageSize());
+                int retval = bis.read(pageBuf, 0, pageSize);
                 if (retval == -1) {
                     throw new IllegalArgumentException("Read past end of table");
                 }
-                if (retval < BufferPool.getPageSize()) {
+                if (retval < pageSize) {
                     throw new IllegalArgumentException("Unable to read "
-                            + BufferPool.getPageSize() + " bytes from BTreeFile");
+                            + pageSize + " bytes from BTreeFile");
                 }
                 Debug.log(1, "BTreeFile.readPage: read page %d", id.getPageNumber());
-                if (id.pgcateg() == BTreePageId.INTERNAL) {
-                    return new BTreeInternalPage(id, pageBuf, keyField);
-                } else if (id.pgcateg() == BTreePageId.LEAF) {
-                    return new BTreeLeafPage(id, pageBuf, keyField);
-                } else { // id.pgcateg() == BTreePageId.HEADER
-                    return new BTreeHeaderPage(id, pageBuf);
-                }
+                return pageFromBytes(id, pageBuf);
             }
         } catch (IOException e) {
             throw new RuntimeException(e);
@@ -131,6 +205,76 @@ public class BTreeFile implements DbFile {
         // Ignore failures closing the file
     }
 
+	/**
+	 * Read a page from disk straight into a frame of an off-heap buffer pool.
+	 *
+	 * @see DbFile#readPage(PageId, ByteBuffer)
+	 */
+	@Override
+	public void readPage(PageId pid, ByteBuffer frame) {
+		BTreePageId id = (BTreePageId) pid;
+		long offset = pageOffset(id);
+		int len = pageLength(id);
+		try (FileChannel channel = new RandomAccessFile(f, "r").getChannel()) {
+			if (offset + len > channel.size()) {
+				throw new IllegalArgumentException("Read past end of table");
+			}
+			ByteBuffer dst = frame.duplicate();
+			dst.clear();
+			dst.limit(len);
+			while (dst.hasRemaining()) {
+				if (channel.read(dst, offset + dst.position()) < 0) {
+					throw new IllegalArgumentException("Unable to read " + len + " bytes from BTreeFile");
+				}
+			}
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	/**
+	 * B+ tree pages parse their contents eagerly, so the page is built from a
+	 * copy of the frame bytes.
+	 *
+	 * @see DbFile#pageView(PageId, ByteBuffer)
+	 */
+	@Override
+	public Page pageView(PageId pid, ByteBuffer frame) {
+		BTreePageId id = (BTreePageId) pid;
+		byte[] pageBuf = new byte[pageLength(id)];
+		ByteBuffer src = frame.duplicate();
+		src.clear();
+		src.get(pageBuf);
+		try {
+			return pageFromBytes(id, pageBuf);
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	private Page pageFromBytes(BTreePageId id, byte[] pageBuf) throws IOException {
+		if (id.pgcateg() == BTreePageId.ROOT_PTR) {
+			return new BTreeRootPtrPage(id, pageBuf);
+		} else if (id.pgcateg() == BTreePageId.INTERNAL) {
+			return new BTreeInternalPage(id, pageBuf, keyField);
+		} else if (id.pgcateg() == BTreePageId.LEAF) {
+			return new BTreeLeafPage(id, pageBuf, keyField);
+		} else { // id.pgcateg() == BTreePageId.HEADER
+			return new BTreeHeaderPage(id, pageBuf);
+		}
+	}
+
+	private long pageOffset(BTreePageId id) {
+		if (id.pgcateg() == BTreePageId.ROOT_PTR) {
+			return 0;
+		}
+		return rootPtrSize() + (long) (id.getPageNumber() - 1) * pageSize;
+	}
+
+	private int pageLength(BTreePageId id) {
+		return id.pgcateg() == BTreePageId.ROOT_PTR ? rootPtrSize() : pageSize;
+	}
+
 	/**
 	 * Write a page to disk.  This should not be called directly but should 
 	 * be called from the BufferPool when pages are flushed to disk
@@ -147,7 +291,7 @@ public class BTreeFile implements DbFile {
 			rf.close();
 		}
 		else {
-			rf.seek(BTreeRootPtrPage.getPageSize() + (long) (page.getId().getPageNumber() - 1) * BufferPool.getPageSize());
+			rf.seek(pageOffset(id));
 			rf.write(data);
 			rf.close();
 		}
@@ -158,7 +302,7 @@ public class BTreeFile implements DbFile {
 	 */
 	public int numPages() {
 		// we only ever write full pages
-		return (int) ((f.length() - BTreeRootPtrPage.getPageSize())/ BufferPool.getPageSize());
+		return (int) ((f.length() - rootPtrSize())/ pageSize);
 	}
 
 	/**
@@ -834,8 +978,8 @@ public class BTreeFile implements DbFile {
 				// create the root pointer page and the root page
 				BufferedOutputStream bw = new BufferedOutputStream(
 						new FileOutputStream(f, true));
-				byte[] emptyRootPtrData = BTreeRootPtrPage.createEmptyPageData();
-				byte[] emptyLeafData = BTreeLeafPage.createEmptyPageData();
+				byte[] emptyRootPtrData = BTreeRootPtrPage.createEmptyPageData(pageSize);
+				byte[] emptyLeafData = BTreeLeafPage.createEmptyPageData(pageSize);
 				bw.write(emptyRootPtrData);
 				bw.write(emptyLeafData);
 				bw.close();
@@ -885,7 +1029,7 @@ public class BTreeFile implements DbFile {
 				headerPage = (BTreeHeaderPage) getPage(tid, dirtypages, headerId, Permissions.READ_WRITE);
 				int emptySlot = headerPage.getEmptySlot();
 				headerPage.markSlotUsed(emptySlot, true);
-				emptyPageNo = headerPageCount * BTreeHeaderPage.getNumSlots() + emptySlot;
+				emptyPageNo = headerPageCount * BTreeHeaderPage.getNumSlots(pageSize) + emptySlot;
 			}
 		}
 
@@ -896,7 +1040,7 @@ public class BTreeFile implements DbFile {
 				// create the new page
 				BufferedOutputStream bw = new BufferedOutputStream(
 						new FileOutputStream(f, true));
-				byte[] emptyData = BTreeInternalPage.createEmptyPageData();
+				byte[] emptyData = BTreeInternalPage.createEmptyPageData(pageSize);
 				bw.write(emptyData);
 				bw.close();
 				emptyPageNo = numPages();
@@ -930,8 +1074,8 @@ public class BTreeFile implements DbFile {
 		
 		// write empty page to disk
 		RandomAccessFile rf = new RandomAccessFile(f, "rw");
-		rf.seek(BTreeRootPtrPage.getPageSize() + (long) (emptyPageNo - 1) * BufferPool.getPageSize());
-		rf.write(BTreePage.createEmptyPageData());
+		rf.seek(pageOffset(newPageId));
+		rf.write(BTreePage.createEmptyPageData(pageSize));
 		rf.close();
 		
 		// make sure the page is not in the buffer pool	or in the local cache		
@@ -997,7 +1141,7 @@ public class BTreeFile implements DbFile {
 
 		// iterate through all the existing header pages to find the one containing the slot
 		// corresponding to emptyPageNo
-		while(headerId != null && (headerPageCount + 1) * BTreeHeaderPage.getNumSlots() < emptyPageNo) {
+		while(headerId != null && (headerPageCount + 1) * BTreeHeaderPage.getNumSlots(pageSize) < emptyPageNo) {
 			BTreeHeaderPage headerPage = (BTreeHeaderPage) getPage(tid, dirtypages, headerId, Permissions.READ_ONLY);
 			prevId = headerId;
 			headerId = headerPage.getNextPageId();
@@ -1007,7 +1151,7 @@ public class BTreeFile implements DbFile {
 		// at this point headerId should either be null or set with 
 		// the headerPage containing the slot corresponding to emptyPageNo.
 		// Add header pages until we have one with a slot corresponding to emptyPageNo
-		while((headerPageCount + 1) * BTreeHeaderPage.getNumSlots() < emptyPageNo) {
+		while((headerPageCount + 1) * BTreeHeaderPage.getNumSlots(pageSize) < emptyPageNo) {
 			BTreeHeaderPage prevPage = (BTreeHeaderPage) getPage(tid, dirtypages, prevId, Permissions.READ_WRITE);
 			
 			BTreeHeaderPage headerPage = (BTreeHeaderPage) getEmptyPage(tid, dirtypages, BTreePageId.HEADER);
@@ -1023,7 +1167,7 @@ public class BTreeFile implements DbFile {
 		// now headerId should be set with the headerPage containing the slot corresponding to 
 		// emptyPageNo
 		BTreeHeaderPage headerPage = (BTreeHeaderPage) getPage(tid, dirtypages, headerId, Permissions.READ_WRITE);
-		int emptySlot = emptyPageNo - headerPageCount * BTreeHeaderPage.getNumSlots();
+		int emptySlot = emptyPageNo - headerPageCount * BTreeHeaderPage.getNumSlots(pageSize);
 		headerPage.markSlotUsed(emptySlot, false);
 	}
 
@@ -218,7 +218,7 @@ public class BTreeFileEncoder {
 		tuples.sort(new TupleComparator(keyField));
 
 		// add the tuples to B+ tree file
-		BTreeFile bf = BTreeUtility.openBTreeFile(numFields, bFile, keyField);
+		BTreeFile bf = BTreeUtility.openBTreeFile(numFields, bFile, keyField, npagebytes);
 		Type keyType = typeAr[keyField];
 		int tableid = bf.getId();
 
@@ -239,7 +239,7 @@ public class BTreeFileEncoder {
 
 		// first add some bytes for the root pointer page
 		bf.writePage(new BTreeRootPtrPage(BTreeRootPtrPage.getId(tableid), 
-				BTreeRootPtrPage.createEmptyPageData()));
+				BTreeRootPtrPage.createEmptyPageData(npagebytes)));
 
 		// next iterate through all the tuples and write out leaf pages
 		// and internal pages as they fill up.
@@ -325,7 +325,7 @@ public class BTreeFileEncoder {
 		// update the root pointer to point to the last page of the file
 		int root = bf.numPages();
 		int rootCategory = (root > 1 ? BTreePageId.INTERNAL : BTreePageId.LEAF);
-		byte[] rootPtrBytes = convertToRootPtrPage(root, rootCategory, 0);
+		byte[] rootPtrBytes = convertToRootPtrPage(root, rootCategory, 0, npagebytes);
 		bf.writePage(new BTreeRootPtrPage(BTreeRootPtrPage.getId(tableid), rootPtrBytes));
 
 		// set all the parent and sibling pointers
@@ -705,14 +705,30 @@ public class BTreeFileEncoder {
 	 */
 	public static byte[] convertToRootPtrPage(int root, int rootCategory, int header)
 			throws IOException {
+		return convertToRootPtrPage(root, rootCategory, header, 0);
+	}
+
+	/**
+	 * Create a byte array in the format of a BTreeRootPtrPage
+	 * 
+	 * @param root - the page number of the root page
+	 * @param rootCategory - the category of the root page (leaf or internal)
+	 * @param header - the page number of the first header page
+	 * @param npagebytes - the page size of the tree, or 0 for the default page size
+	 * @return a byte array which can be passed to the BTreeRootPtrPage constructor
+	 * @throws IOException
+	 */
+	public static byte[] convertToRootPtrPage(int root, int rootCategory, int header, int npagebytes)
+			throws IOException {
 
 		ByteArrayOutputStream baos = new ByteArrayOutputStream(BTreeRootPtrPage.getPageSize());
 		DataOutputStream dos = new DataOutputStream(baos);
 
 		dos.writeInt(root); // root pointer
-		dos.writeByte((byte) rootCategory); // root page category
+		dos.writeByte((byte) (rootCategory | BTreeRootPtrPage.PAGE_SIZE_RECORDED)); // root page category
 
 		dos.writeInt(header); // header pointer
+		dos.writeInt(npagebytes); // page size of the tree
 
 		return baos.toByteArray();
 	}
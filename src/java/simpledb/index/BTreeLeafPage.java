@@ -50,7 +50,7 @@ public class BTreeLeafPage extends BTreePage {
 	 * the slots of the page that are in use, and some number of tuple slots, 
 	 * as well as some extra bytes for the parent and sibling pointers.
 	 *  Specifically, the number of tuples is equal to: <p>
-	 *          floor((BufferPool.getPageSize()*8 - extra bytes*8) / (tuple size * 8 + 1))
+	 *          floor((pageSize*8 - extra bytes*8) / (tuple size * 8 + 1))
 	 * <p> where tuple size is the size of tuples in this
 	 * database table, which can be determined via {@link Catalog#getTupleDesc}.
 	 * The number of 8-bit header words is equal to:
@@ -59,6 +59,8 @@ public class BTreeLeafPage extends BTreePage {
 	 * <p>
 	 * @see Database#getCatalog
 	 * @see Catalog#getTupleDesc
+	 * where pageSize is the page size of the owning BTreeFile
+	 * ({@link Catalog#getPageSize}).
 	 * @see BufferPool#getPageSize()
 	 * 
 	 * @param id - the id of this page
@@ -66,7 +68,7 @@ public class BTreeLeafPage extends BTreePage {
 	 * @param key - the field which the index is keyed on
 	 */
 	public BTreeLeafPage(BTreePageId id, byte[] data, int key) throws IOException {
-		super(id, key);
+		super(id, key, Database.getCatalog().getPageSize(id.getTableId()));
 		this.numSlots = getMaxTuples();
 		DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
 
@@ -98,13 +100,10 @@ public class BTreeLeafPage extends BTreePage {
 			header[i] = dis.readByte();
 
 		tuples = new Tuple[numSlots];
-		try{
-			// allocate and read the actual records of this page
-			for (int i=0; i<tuples.length; i++)
-				tuples[i] = readNextTuple(dis,i);
-		}catch(NoSuchElementException e){
-			e.printStackTrace();
-		}
+		// allocate the actual records of this page as views over data
+		int tupleStart = 3 * INDEX_SIZE + header.length;
+		for (int i=0; i<tuples.length; i++)
+			tuples[i] = readNextTuple(data, tupleStart, i);
 		dis.close();
 
 		setBeforeImage();
@@ -117,7 +116,7 @@ public class BTreeLeafPage extends BTreePage {
 		int bitsPerTupleIncludingHeader = td.getSize() * 8 + 1;
 		// extraBits are: left sibling pointer, right sibling pointer, parent pointer
 		int extraBits = 3 * INDEX_SIZE * 8;
-        return (BufferPool.getPageSize()*8 - extraBits) / bitsPerTupleIncludingHeader;
+        return (pageSize*8 - extraBits) / bitsPerTupleIncludingHeader;
 	}
 
 	/**
@@ -157,36 +156,18 @@ public class BTreeLeafPage extends BTreePage {
 	}
 
 	/**
-	 * Read tuples from the source file.
+	 * Read tuples from the source file. The tuple is a {@link CompactTuple}
+	 * over the page bytes; fields are decoded on first access.
 	 */
-	private Tuple readNextTuple(DataInputStream dis, int slotId) throws NoSuchElementException {
-		// if associated bit is not set, read forward to the next tuple, and
-		// return null.
+	private Tuple readNextTuple(byte[] data, int tupleStart, int slotId) {
+		// if associated bit is not set, there is no tuple in this slot
 		if (!isSlotUsed(slotId)) {
-			for (int i=0; i<td.getSize(); i++) {
-				try {
-					dis.readByte();
-				} catch (IOException e) {
-					throw new NoSuchElementException("error reading empty tuple");
-				}
-			}
 			return null;
 		}
 
-		// read fields in the tuple
-		Tuple t = new Tuple(td);
+		Tuple t = new CompactTuple(td, data, tupleStart + slotId * td.getSize());
 		RecordId rid = new RecordId(pid, slotId);
 		t.setRecordId(rid);
-		try {
-			for (int j=0; j<td.numFields(); j++) {
-				Field f = td.getFieldType(j).parse(dis);
-				t.setField(j, f);
-			}
-		} catch (java.text.ParseException e) {
-			e.printStackTrace();
-			throw new NoSuchElementException("parsing error!");
-		}
-
 		return t;
 	}
 
@@ -202,7 +183,7 @@ public class BTreeLeafPage extends BTreePage {
 	 * @return A byte array corresponding to the bytes of this page.
 	 */
 	public byte[] getPageData() {
-		int len = BufferPool.getPageSize();
+		int len = pageSize;
 		ByteArrayOutputStream baos = new ByteArrayOutputStream(len);
 		DataOutputStream dos = new DataOutputStream(baos);
 
@@ -253,19 +234,15 @@ public class BTreeLeafPage extends BTreePage {
 			}
 
 			// non-empty slot
-			for (int j=0; j<td.numFields(); j++) {
-				Field f = tuples[i].getField(j);
-				try {
-					f.serialize(dos);
-
-				} catch (IOException e) {
-					e.printStackTrace();
-				}
+			try {
+				tuples[i].serialize(dos);
+			} catch (IOException e) {
+				e.printStackTrace();
 			}
 		}
 
 		// padding
-		int zerolen = BufferPool.getPageSize() - (header.length + td.getSize() * tuples.length + 3 * INDEX_SIZE); //- numSlots * td.getSize();
+		int zerolen = pageSize - (header.length + td.getSize() * tuples.length + 3 * INDEX_SIZE); //- numSlots * td.getSize();
 		byte[] zeroes = new byte[zerolen];
 		try {
 			dos.write(zeroes, 0, zerolen);
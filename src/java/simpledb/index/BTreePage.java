@@ -26,6 +26,7 @@ public abstract class BTreePage implements Page {
 	protected final BTreePageId pid;
 	protected final TupleDesc td;
 	protected final int keyField;
+	protected final int pageSize;
 
 	protected int parent; // parent is always internal node or 0 for root node
 	protected byte[] oldData;
@@ -55,8 +56,20 @@ public abstract class BTreePage implements Page {
 	 * @param key - the field which the index is keyed on
 	 */
 	public BTreePage(BTreePageId id, int key) {
+		this(id, key, Database.getCatalog().getPageSize(id.getTableId()));
+	}
+
+	/**
+	 * Create a BTreePage that occupies pageSize bytes on disk.
+	 *
+	 * @param id - the id of this page
+	 * @param key - the field which the index is keyed on
+	 * @param pageSize - the page size of the BTreeFile this page belongs to
+	 */
+	protected BTreePage(BTreePageId id, int key, int pageSize) {
 		this.pid = id;
 		this.keyField = key;
+		this.pageSize = pageSize;
 		this.td = Database.getCatalog().getTupleDesc(id.getTableId());
 	}
 
@@ -77,8 +90,17 @@ public abstract class BTreePage implements Page {
 	 * @return The returned ByteArray.
 	 */
 	public static byte[] createEmptyPageData() {
-		int len = BufferPool.getPageSize();
-		return new byte[len]; //all 0
+		return createEmptyPageData(BufferPool.getPageSize());
+	}
+
+	/**
+	 * Generate the bytes of an empty BTreePage of the given page size.
+	 *
+	 * @param pageSize - the page size of the BTreeFile
+	 * @return The returned ByteArray.
+	 */
+	public static byte[] createEmptyPageData(int pageSize) {
+		return new byte[pageSize]; //all 0
 	}
 
 	/**
@@ -15,7 +15,11 @@ import java.io.*;
  */
 public class BTreeRootPtrPage implements Page {
 	// size of this page
-	public final static int PAGE_SIZE = 9;
+	public final static int PAGE_SIZE = 13;
+	// size of the root pointer pages of files that do not record their page size
+	public final static int LEGACY_PAGE_SIZE = 9;
+	// flag set in the root category byte of pages that record the page size
+	public final static int PAGE_SIZE_RECORDED = 0x80;
 
 	private boolean dirty = false;
 	private TransactionId dirtier = null;
@@ -25,6 +29,8 @@ public class BTreeRootPtrPage implements Page {
     private int root;
 	private int rootCategory;
 	private int header;
+	private int treePageSize;
+	private final boolean legacy;
 
 	private byte[] oldData;
 
@@ -35,7 +41,12 @@ public class BTreeRootPtrPage implements Page {
 	 * The format of an BTreeRootPtrPage is an integer for the page number
 	 * of the root node, followed by a byte to encode the category of the root page
 	 * (either leaf or internal), followed by an integer for the page number
-	 * of the first header page
+	 * of the first header page, followed by an integer for the page size of
+	 * the other pages of the file (0 if the file uses the default page size).
+	 * The category byte has {@link #PAGE_SIZE_RECORDED} set when the page size
+	 * follows. Root pointer pages written before the page size was recorded do
+	 * not have it set; they are {@link #LEGACY_PAGE_SIZE} bytes long, use the
+	 * default page size and keep that layout when written back.
 	 */
 	public BTreeRootPtrPage(BTreePageId id, byte[] data) throws IOException {
 		this.pid = id;
@@ -43,10 +54,15 @@ public class BTreeRootPtrPage implements Page {
 
 		// read in the root pointer
 		root = dis.readInt();
-		rootCategory = dis.readByte();
+		int category = dis.readUnsignedByte();
+		rootCategory = category & ~PAGE_SIZE_RECORDED;
+		legacy = (category & PAGE_SIZE_RECORDED) == 0;
 
 		// read in the header pointer
 		header = dis.readInt();
+
+		// read in the page size of the tree, if recorded
+		treePageSize = legacy ? 0 : dis.readInt();
 		
 		setBeforeImage();
 	}
@@ -82,7 +98,7 @@ public class BTreeRootPtrPage implements Page {
 	 * @return A byte array corresponding to the bytes of this root pointer page.
 	 */
 	public byte[] getPageData(){
-        ByteArrayOutputStream baos = new ByteArrayOutputStream(PAGE_SIZE);
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(getLength());
 		DataOutputStream dos = new DataOutputStream(baos);
 
 		// write out the root pointer (page number of the root page)
@@ -94,7 +110,7 @@ public class BTreeRootPtrPage implements Page {
 
 		// write out the category of the root page (leaf or internal)
 		try{
-			dos.writeByte((byte) rootCategory);
+			dos.writeByte((byte) (legacy ? rootCategory : rootCategory | PAGE_SIZE_RECORDED));
 		}catch(IOException e){
 			e.printStackTrace();
 		}
@@ -106,6 +122,15 @@ public class BTreeRootPtrPage implements Page {
 			e.printStackTrace();
 		}
 
+		// write out the page size of the tree
+		if (!legacy) {
+			try{
+				dos.writeInt(treePageSize);
+			}catch(IOException e){
+				e.printStackTrace();
+			}
+		}
+
 		try {
 			dos.flush();
 		}catch(IOException e) {
@@ -125,7 +150,24 @@ public class BTreeRootPtrPage implements Page {
 	 * @return The returned ByteArray.
 	 */
 	public static byte[] createEmptyPageData() {
-        return new byte[PAGE_SIZE]; //all 0
+        return createEmptyPageData(0);
+	}
+
+	/**
+	 * Generate the bytes of an empty BTreeRootPtrPage for a tree whose pages
+	 * are pageSize bytes long.
+	 *
+	 * @param pageSize - the page size of the BTreeFile, or 0 for the default page size
+	 * @return The returned ByteArray.
+	 */
+	public static byte[] createEmptyPageData(int pageSize) {
+		byte[] data = new byte[PAGE_SIZE];
+		data[4] = (byte) PAGE_SIZE_RECORDED;
+		data[PAGE_SIZE - 4] = (byte) (pageSize >>> 24);
+		data[PAGE_SIZE - 3] = (byte) (pageSize >>> 16);
+		data[PAGE_SIZE - 2] = (byte) (pageSize >>> 8);
+		data[PAGE_SIZE - 1] = (byte) pageSize;
+		return data;
 	}
 
 	public void markDirty(boolean dirty, TransactionId tid){
@@ -217,7 +259,25 @@ public class BTreeRootPtrPage implements Page {
 	}
 
 	/**
-	 * Get the page size of root pointer pages
+	 * Get the page size recorded for the internal, leaf and header pages of
+	 * this B+ tree
+	 * @return the recorded page size, or 0 if the file uses the default page size
+	 */
+	public int getTreePageSize() {
+		return treePageSize;
+	}
+
+	/**
+	 * Get the length of this root pointer page on disk
+	 * @return {@link #LEGACY_PAGE_SIZE} if the page does not record the page
+	 * size of the tree, {@link #PAGE_SIZE} otherwise
+	 */
+	public int getLength() {
+		return legacy ? LEGACY_PAGE_SIZE : PAGE_SIZE;
+	}
+
+	/**
+	 * Get the page size of the root pointer pages of new files
 	 * @return the page size
 	 */
 	public static int getPageSize() {
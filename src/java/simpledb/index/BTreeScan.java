@@ -3,8 +3,10 @@ package simpledb.index;
 import simpledb.common.Database;
 import simpledb.common.DbException;
 import simpledb.common.Type;
+import simpledb.execution.Expression;
 import simpledb.execution.IndexPredicate;
 import simpledb.execution.OpIterator;
+import simpledb.execution.ScanPushdown;
 import simpledb.storage.DbFileIterator;
 import simpledb.storage.Tuple;
 import simpledb.storage.TupleDesc;
@@ -16,6 +18,10 @@ import java.util.*;
 /**
  * BTreeScan is an operator which reads tuples in sorted order 
  * according to a predicate
+ * <p>
+ * Like {@link simpledb.execution.SeqScan}, it can also test a condition
+ * on any column and return a subset of the columns, see
+ * {@link #setPredicate} and {@link #setProjection}.
  */
 public class BTreeScan implements OpIterator {
 
@@ -28,6 +34,14 @@ public class BTreeScan implements OpIterator {
 	private transient DbFileIterator it;
 	private String tablename;
 	private String alias;
+	/**
+	 * 下推到扫描中的条件和投影
+	 */
+	private ScanPushdown pushdown;
+	/**
+	 * 已通过下推条件但尚未返回的元组
+	 */
+	private transient Tuple pending;
 
 	/**
 	 * Creates a B+ tree scan over the specified table as a part of the
@@ -104,6 +118,46 @@ public class BTreeScan implements OpIterator {
 			newTypes[i] = t;
 		}
 		myTd = new TupleDesc(newTypes, newNames);
+		pushdown = new ScanPushdown(myTd, null, null);
+	}
+
+	/**
+	 * Only return the tuples that satisfy condition, in addition to the
+	 * index predicate.
+	 *
+	 * @param condition
+	 *            a condition over the columns of {@link #getTableTupleDesc},
+	 *            or null to return every tuple
+	 */
+	public void setPredicate(Expression condition) {
+		pushdown = pushdown.withPredicate(condition);
+	}
+
+	public Expression getPredicate() {
+		return pushdown.getPredicate();
+	}
+
+	/**
+	 * Only return some columns of the table; this changes the TupleDesc
+	 * of the scan.
+	 *
+	 * @param columns
+	 *            the indexes in {@link #getTableTupleDesc} of the columns to
+	 *            return, or null for every column
+	 */
+	public void setProjection(int[] columns) {
+		pushdown = pushdown.withProjection(columns);
+	}
+
+	public int[] getProjection() {
+		return pushdown.getColumns();
+	}
+
+	/**
+	 * @return the TupleDesc of every column of the table
+	 */
+	public TupleDesc getTableTupleDesc() {
+		return myTd;
 	}
 
 	public BTreeScan(TransactionId tid, int tableid, IndexPredicate ipred) {
@@ -128,25 +182,38 @@ public class BTreeScan implements OpIterator {
 	 *         prefixed with the tableAlias string from the constructor.
 	 */
 	public TupleDesc getTupleDesc() {
-		return myTd;
+		return pushdown.getTupleDesc();
 	}
 
 	public boolean hasNext() throws TransactionAbortedException, DbException {
 		if (!isOpen)
 			throw new IllegalStateException("iterator is closed");
-		return it.hasNext();
+		if (pushdown.isEmpty())
+			return it.hasNext();
+		while (pending == null && it.hasNext()) {
+			Tuple t = it.next();
+			if (pushdown.accept(t))
+				pending = pushdown.project(t);
+		}
+		return pending != null;
 	}
 
 	public Tuple next() throws NoSuchElementException,
 	TransactionAbortedException, DbException {
 		if (!isOpen)
 			throw new IllegalStateException("iterator is closed");
-
-		return it.next();
+		if (pushdown.isEmpty())
+			return it.next();
+		if (!hasNext())
+			throw new NoSuchElementException("No next tuple");
+		Tuple t = pending;
+		pending = null;
+		return t;
 	}
 
 	public void close() {
 		it.close();
+		pending = null;
 		isOpen = false;
 	}
 
@@ -428,6 +428,16 @@ public class BTreeUtility {
 		return bf;
 	}
 
+	/** Opens a BTreeFile whose pages are pageSize bytes long and adds it to
+	 * the catalog.
+	 */
+	public static BTreeFile openBTreeFile(int cols, File f, int keyField, int pageSize) {
+		TupleDesc td = Utility.getTupleDesc(cols);
+		BTreeFile bf = new BTreeFile(f, keyField, td, pageSize);
+		Database.getCatalog().addTable(bf, UUID.randomUUID().toString());
+		return bf;
+	}
+
 	public static BTreeFile openBTreeFile(int cols, String colPrefix, File f, int keyField) {
 		// create the BTreeFile and add it to the catalog
 		TupleDesc td = Utility.getTupleDesc(cols, colPrefix);
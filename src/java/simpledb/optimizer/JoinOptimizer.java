@@ -3,6 +3,9 @@ package simpledb.optimizer;
 import simpledb.common.Database;
 import simpledb.ParsingException;
 import simpledb.execution.*;
+import simpledb.index.BTreeFile;
+import simpledb.index.BTreeScan;
+import simpledb.storage.DbFile;
 import simpledb.storage.TupleDesc;
 
 import java.util.*;
@@ -73,7 +76,16 @@ public class JoinOptimizer {
 
         JoinPredicate p = new JoinPredicate(t1id, lj.p, t2id);
 
-        if (lj.p == Predicate.Op.EQUALS) {
+        boolean sorted1 = sortedOn(plan1) == t1id;
+        boolean sorted2 = sortedOn(plan2) == t2id;
+        if (SortMergeJoin.supports(lj.p) && sorted1 && sorted2) {
+            // 两侧已按连接键有序, 各读一遍即可
+            j = new SortMergeJoin(p, plan1, plan2);
+        } else if (lj.p != Predicate.Op.EQUALS && SortMergeJoin.supports(lj.p)) {
+            // 范围连接: 排序的代价远小于嵌套循环的两两比较
+            j = new SortMergeJoin(p, sorted1 ? plan1 : new OrderBy(t1id, true, plan1),
+                    sorted2 ? plan2 : new OrderBy(t2id, true, plan2));
+        } else if (lj.p == Predicate.Op.EQUALS) {
 
             try {
                 // dynamically load HashEquiJoin -- if it doesn't exist, just
@@ -93,6 +105,57 @@ public class JoinOptimizer {
 
     }
 
+    /**
+     * Return the field a plan returns its tuples in ascending order of, if
+     * it is known to: scans of B+ trees are sorted on their key, filters
+     * keep the order of their child, merge joins are sorted on their left
+     * join field and streaming aggregates on their group-by field.
+     *
+     * @param plan the plan to examine
+     * @return the index of the field in plan's tuples, or -1 if the order of
+     *         the tuples is not known
+     */
+    public static int sortedOn(OpIterator plan) {
+        if (plan instanceof SeqScan || plan instanceof BTreeScan) {
+            String table = plan instanceof SeqScan ? ((SeqScan) plan).getTableName()
+                    : ((BTreeScan) plan).getTableName();
+            DbFile file = Database.getCatalog().getDatabaseFile(Database.getCatalog().getTableId(table));
+            if (!(file instanceof BTreeFile)) {
+                return -1;
+            }
+            int key = ((BTreeFile) file).keyField();
+            int[] columns = plan instanceof SeqScan ? ((SeqScan) plan).getProjection()
+                    : ((BTreeScan) plan).getProjection();
+            if (columns == null) {
+                return key;
+            }
+            // 投影后键列的位置
+            for (int j = 0; j < columns.length; j++) {
+                if (columns[j] == key) {
+                    return j;
+                }
+            }
+            return -1;
+        }
+        if (plan instanceof OrderBy) {
+            OrderBy orderBy = (OrderBy) plan;
+            return orderBy.isASC() ? orderBy.getOrderByField() : -1;
+        }
+        if (plan instanceof Filter) {
+            return sortedOn(((Filter) plan).getChildren()[0]);
+        }
+        if (plan instanceof StreamAggregate) {
+            return 0;
+        }
+        if (plan instanceof SortMergeJoin) {
+            SortMergeJoin join = (SortMergeJoin) plan;
+            JoinPredicate p = join.getJoinPredicate();
+            return p.getOperator() == Predicate.Op.EQUALS && sortedOn(join.getChildren()[0]) == p.getField1()
+                    ? p.getField1() : -1;
+        }
+        return -1;
+    }
+
     /**
      * Estimate the cost of a join.
      * 
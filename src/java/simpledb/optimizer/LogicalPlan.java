@@ -16,35 +16,65 @@ import java.io.File;
  * <p>
  * A LogicalPlan consits of a collection of table scan nodes, join
  * nodes, filter nodes, a select list, and a group by field.
- * LogicalPlans can only represent queries with one aggregation field
- * and one group by field.
+ * LogicalPlans can represent queries with any number of aggregates, which
+ * are computed in a single pass by a {@link MultiAggregate} when there is
+ * more than one, and at most one group by field.
+ * <p>
+ * Besides simple filters of the form field op constant, filters can be
+ * any boolean {@link Expression} (OR, NOT, IN, arithmetic, ...). Filters
+ * that refer to a single table are pushed into the {@link SeqScan} of that
+ * table, and the others are applied after the joins. Scans only return the
+ * columns the rest of the plan reads.
+ * <p>
+ * A table can be sampled, see {@link #addSample}. The COUNT, SUM and AVG
+ * of a sampled table are then estimated for the whole table by a
+ * {@link SampleAggregate}, and each of them is followed in the result by
+ * the bound of its error; other aggregates are computed over the sample.
+ * <p>
+ * A query can return only some of its tuples, see {@link #addLimit}; a
+ * {@link Limit} then stops the plan once they have been returned, and an
+ * ORDER BY only keeps the tuples that can be returned.
  * <p>
  * LogicalPlans can be converted to physical (optimized) plans using
  * the {@link #physicalPlan} method, which uses the
  * {@link JoinOptimizer} to order joins optimally and to select the
  * best implementations for joins.
+ * <p>
+ * With a degree of parallelism above one (see {@link #setParallelism}),
+ * the physical plan is split into fragments that run on several threads,
+ * connected by {@link Exchange} operators.
  */
 public class LogicalPlan {
+    /**
+     * System property with the default degree of parallelism of queries.
+     */
+    public static final String PARALLELISM_PROPERTY = "simpledb.parallelism";
+
     private List<LogicalJoinNode> joins;
     private final List<LogicalScanNode> tables;
     private final List<LogicalFilterNode> filters;
+    private final List<Expression> expressionFilters;
     private final Map<String, OpIterator> subplanMap;
     private final Map<String,Integer> tableMap;
 
     private final List<LogicalSelectListNode> selectList;
     private String groupByField = null;
     private boolean hasAgg = false;
-    private String aggOp;
-    private String aggField;
+    private final List<String> aggOps = new ArrayList<>();
+    private final List<String> aggFields = new ArrayList<>();
+    private final Map<String, PageSample> samples = new HashMap<>();
     private boolean oByAsc, hasOrderBy = false;
     private String oByField;
+    private int limit = -1, offset = 0;
     private String query;
+    private int parallelism = Integer.getInteger(PARALLELISM_PROPERTY, 1);
 //    private Query owner;
 
     /** Constructor -- generate an empty logical plan */
     public LogicalPlan() {
         joins = new ArrayList<>();
         filters = new ArrayList<>();
+        expressionFilters = new ArrayList<>();
         tables = new ArrayList<>();
         subplanMap = new HashMap<>();
         tableMap = new HashMap<>();
@@ -69,6 +99,25 @@ public class LogicalPlan {
         return query;
     }
 
+    /** Set the number of threads the physical plan of this query may run
+        each of its parallel parts on; 1 runs the whole plan on the calling
+        thread.
+
+        @param dop the degree of parallelism
+    */
+    public void setParallelism(int dop) {
+        if (dop < 1) {
+            throw new IllegalArgumentException("degree of parallelism must be positive");
+        }
+        this.parallelism = dop;
+    }
+
+    /** Get the degree of parallelism set via {@link #setParallelism}.
+     */
+    public int getParallelism() {
+        return parallelism;
+    }
+
     /** Given a table alias, return id of the table object (this id can be supplied to {@link Catalog#getDatabaseFile(int)}).
         Aliases are added as base tables are added via {@link #addScan}.
 
@@ -108,6 +157,21 @@ public class LogicalPlan {
         filters.add(lf);
     }
 
+    /** Add a filter with an arbitrary condition to the logical plan
+     *   @param condition a boolean expression whose columns are
+     *   referred to by name; the names can be fully qualified or
+     *   unique field names without a tablename qualifier
+     *   @throws ParsingException if a field is not in one of the
+     *   tables added via {@link #addScan} or is ambiguous
+     */
+    public void addFilter(Expression condition) throws ParsingException {
+        Map<String, String> names = new HashMap<>();
+        for (String name : condition.columnNames()) {
+            names.put(name, disambiguateName(name));
+        }
+        expressionFilters.add(condition.rename(names));
+    }
+
     /** Add a join between two fields of two different tables.  
      *  @param joinField1 The name of the first join field; this can
      *  be a fully qualified name (e.g., tableName.field or
@@ -171,6 +235,27 @@ public class LogicalPlan {
         tableMap.put(name,table);
     }
 
+    /** Only read a sample of the pages of a table.
+        @param alias the alias of the table, or null if the plan scans a
+        single table
+        @param sample the pages to read
+        @throws ParsingException if alias is not the alias of a table
+        added via {@link #addScan}, or is null and the plan scans several
+    */
+    public void addSample(String alias, PageSample sample) throws ParsingException {
+        if (alias == null) {
+            if (tables.size() != 1) {
+                throw new ParsingException("SAMPLE must name the table to sample");
+            }
+            alias = tables.get(0).alias;
+        }
+        if (!tableMap.containsKey(alias)) {
+            throw new ParsingException("Unknown table " + alias + " in SAMPLE");
+        }
+        System.out.println("Added " + sample + " of table " + alias);
+        samples.put(alias, sample);
+    }
+
     /** Add a specified field/aggregate combination to the select list of the query.
         Fields are output by the query such that the rightmost field is the first added via addProjectField.
         @param fname the field to add to the output
@@ -189,8 +274,8 @@ public class LogicalPlan {
     }
     
     /** Add an aggregate over the field with the specified grouping to
-        the query.  SimpleDb only supports a single aggregate
-        expression and GROUP BY field.
+        the query.  Every aggregate of a query must have the same
+        GROUP BY field.
         @param op the aggregation operator
         @param afield the field to aggregate over
         @param gfield the field to group by
@@ -200,8 +285,11 @@ public class LogicalPlan {
         afield=disambiguateName(afield);
         if (gfield!=null)
             gfield=disambiguateName(gfield);
-        aggOp = op;
-        aggField = afield;
+        if (hasAgg && !Objects.equals(groupByField, gfield)) {
+            throw new ParsingException("All aggregates must have the same GROUP BY field.");
+        }
+        aggOps.add(op);
+        aggFields.add(afield);
         groupByField = gfield;
         hasAgg = true;
     }
@@ -219,6 +307,20 @@ public class LogicalPlan {
         hasOrderBy = true;
     }
 
+    /** Only return limit tuples of the query, after skipping the first
+        offset ones.
+        @param limit the largest number of tuples to return
+        @param offset the number of tuples to skip
+        @throws ParsingException if limit or offset is negative
+    */
+    public void addLimit(int limit, int offset) throws ParsingException {
+        if (limit < 0 || offset < 0) {
+            throw new ParsingException("LIMIT and OFFSET must not be negative");
+        }
+        this.limit = limit;
+        this.offset = offset;
+    }
+
     /** Given a name of a field, try to figure out what table it belongs to by looking
      *   through all of the tables added via {@link #addScan}. 
      *  @return A fully qualified name of the form tableAlias.name.  If the name parameter is already qualified
@@ -271,6 +373,7 @@ public class LogicalPlan {
         if (s.equals("COUNT")) return Aggregator.Op.COUNT;
         if (s.equals("MIN")) return Aggregator.Op.MIN;
         if (s.equals("MAX")) return Aggregator.Op.MAX;
+        if (s.equals("APPROX_COUNT_DISTINCT")) return Aggregator.Op.APPROX_COUNT_DISTINCT;
         throw new ParsingException("Unknown predicate " + s);
     }
 
@@ -307,8 +410,21 @@ public class LogicalPlan {
             statsMap.put(baseTableName, baseTableStats.get(baseTableName));
             filterSelectivities.put(table.alias, 1.0);
 
+            PageSample sample = samples.get(table.alias);
+            if (sample != null) {
+                try {
+                    ss.setSample(sample);
+                } catch (IllegalArgumentException e) {
+                    throw new ParsingException("Cannot sample table " + table.alias + ": " + e.getMessage());
+                }
+                // 抽样按比例减少扫描返回的元组
+                int pages = ((HeapFile) Database.getCatalog().getDatabaseFile(table.t)).numPages();
+                filterSelectivities.put(table.alias, sample.expectedFraction(pages));
+            }
         }
 
+        // 每张表的过滤条件都下推到它的扫描中
+        Map<String, List<Expression>> pushed = new HashMap<>();
         for (LogicalFilterNode lf : filters) {
             OpIterator subplan = subplanMap.get(lf.tableAlias);
             if (subplan == null) {
@@ -329,13 +445,8 @@ public class LogicalPlan {
             else
                 f = new StringField(lf.c, Type.STRING_LEN);
 
-            Predicate p = null;
-            try {
-                p = new Predicate(subplan.getTupleDesc().fieldNameToIndex(lf.fieldQuantifiedName), lf.p, f);
-            } catch (NoSuchElementException e) {
-                throw new ParsingException("Unknown field " + lf.fieldQuantifiedName);
-            }
-            subplanMap.put(lf.tableAlias, new Filter(p, subplan));
+            pushed.computeIfAbsent(lf.tableAlias, k -> new ArrayList<>()).add(Expression.compare(
+                    Expression.column(lf.fieldQuantifiedName), lf.p, Expression.constant(f)));
 
             TableStats s = statsMap.get(Database.getCatalog().getTableName(this.getTableId(lf.tableAlias)));
 
@@ -345,6 +456,48 @@ public class LogicalPlan {
             //s.addSelectivityFactor(estimateFilterSelectivity(lf,statsMap));
         }
         
+        // 只涉及一张表的表达式也下推到扫描中, 其余在连接之后过滤
+        List<Expression> afterJoins = new ArrayList<>();
+        for (Expression e : expressionFilters) {
+            Set<String> aliases = new HashSet<>();
+            for (String name : e.columnNames()) {
+                aliases.add(name.split("[.]")[0]);
+            }
+            if (aliases.size() != 1) {
+                afterJoins.add(e);
+                continue;
+            }
+            String alias = aliases.iterator().next();
+            OpIterator subplan = subplanMap.get(alias);
+            if (subplan == null) {
+                throw new ParsingException("Unknown table in WHERE clause " + alias);
+            }
+            try {
+                e.compile(subplan.getTupleDesc());
+            } catch (NoSuchElementException | IllegalArgumentException ex) {
+                throw new ParsingException("Invalid filter expression " + e + ": " + ex.getMessage());
+            }
+            pushed.computeIfAbsent(alias, k -> new ArrayList<>()).add(e);
+            double sel = OperatorCardinality.estimateSelectivity(e, subplan.getTupleDesc(), tableMap, statsMap);
+            filterSelectivities.put(alias, filterSelectivities.get(alias) * sel);
+        }
+
+        for (Map.Entry<String, List<Expression>> entry : pushed.entrySet()) {
+            List<Expression> conditions = entry.getValue();
+            Expression condition = conditions.size() == 1 ? conditions.get(0) : Expression.and(conditions);
+            try {
+                ((SeqScan) subplanMap.get(entry.getKey())).setPredicate(condition);
+            } catch (NoSuchElementException | IllegalArgumentException e) {
+                throw new ParsingException("Invalid filter expression " + condition + ": " + e.getMessage());
+            }
+        }
+        Set<String> columns = neededColumns(afterJoins);
+        if (columns != null) {
+            for (LogicalScanNode table : tables) {
+                project((SeqScan) subplanMap.get(table.alias), columns);
+            }
+        }
+
         JoinOptimizer jo = new JoinOptimizer(this,joins);
 
         joins = jo.orderJoins(statsMap,filterSelectivities,explain);
@@ -406,14 +559,27 @@ public class LogicalPlan {
         }
         
         OpIterator node = subplanMap.entrySet().iterator().next().getValue();
+        for (Expression e : afterJoins) {
+            node = filter(e, node);
+        }
+
+        boolean estimate = estimateFromSample();
 
         //walk the select list, to determine order in which to project output fields
         List<Integer> outFields = new ArrayList<>();
         List<Type> outTypes = new ArrayList<>();
+        int aggs = 0;
         for (int i = 0; i < selectList.size(); i++) {
             LogicalSelectListNode si = selectList.get(i);
             if (si.aggOp != null) {
-                outFields.add(groupByField!=null?1:0);
+                // 聚合结果按加入的顺序排在分组字段之后, 抽样估计的结果后跟误差界
+                if (estimate) {
+                    outFields.add((groupByField!=null?1:0) + 2 * aggs++);
+                    outFields.add(outFields.get(outFields.size() - 1) + 1);
+                    outTypes.add(Type.INT_TYPE);
+                } else {
+                    outFields.add((groupByField!=null?1:0) + aggs++);
+                }
                 TupleDesc td = node.getTupleDesc();
 //                int  id;
                 try {
@@ -459,25 +625,150 @@ public class LogicalPlan {
 
         if (hasAgg) {
             TupleDesc td = node.getTupleDesc();
-            Aggregate aggNode;
             try {
-                aggNode = new Aggregate(node,
-                                        td.fieldNameToIndex(aggField),
-                                        groupByField == null?Aggregator.NO_GROUPING:td.fieldNameToIndex(groupByField),
-                                getAggOp(aggOp));
+                int gfield = groupByField == null ? Aggregator.NO_GROUPING : td.fieldNameToIndex(groupByField);
+                if (estimate) {
+                    if (!(node instanceof SeqScan)) {
+                        throw new ParsingException("COUNT, SUM and AVG can only be estimated from a sampled scan");
+                    }
+                    int[] afields = new int[aggFields.size()];
+                    Aggregator.Op[] ops = new Aggregator.Op[afields.length];
+                    for (int i = 0; i < afields.length; i++) {
+                        afields[i] = td.fieldNameToIndex(aggFields.get(i));
+                        ops[i] = getAggOp(aggOps.get(i));
+                    }
+                    node = new SampleAggregate((SeqScan) node, afields, ops, gfield);
+                } else if (aggFields.size() > 1) {
+                    int[] afields = new int[aggFields.size()];
+                    Aggregator.Op[] ops = new Aggregator.Op[afields.length];
+                    for (int i = 0; i < afields.length; i++) {
+                        afields[i] = td.fieldNameToIndex(aggFields.get(i));
+                        ops[i] = getAggOp(aggOps.get(i));
+                    }
+                    node = new MultiAggregate(node, afields, ops, gfield);
+                } else {
+                    int afield = td.fieldNameToIndex(aggFields.get(0));
+                    Aggregator.Op op = getAggOp(aggOps.get(0));
+                    // 输入已按分组字段有序时逐组流式聚合
+                    if (gfield != Aggregator.NO_GROUPING && JoinOptimizer.sortedOn(node) == gfield
+                            && StreamAggregate.supports(op, td.getFieldType(afield))) {
+                        node = new StreamAggregate(node, afield, gfield, op);
+                    } else {
+                        node = new Aggregate(node, afield, gfield, op);
+                    }
+                }
             } catch (NoSuchElementException | IllegalArgumentException e) {
                 throw new simpledb.ParsingException(e);
             }
-            node = aggNode;
         }
 
         if (hasOrderBy) {
-            node = new OrderBy(node.getTupleDesc().fieldNameToIndex(oByField), oByAsc, node);
+            // 有LIMIT时只需排出前offset + limit个元组
+            int topN = limit < 0 ? -1 : (int) Math.min(Integer.MAX_VALUE, (long) offset + limit);
+            node = new OrderBy(node.getTupleDesc().fieldNameToIndex(oByField), oByAsc, node, topN);
+        }
+
+        if (parallelism > 1) {
+            node = new Parallelizer(parallelism).parallelize(node);
+        }
+
+        if (limit >= 0) {
+            node = new Limit(node, limit, offset);
         }
 
         return new Project(outFields, outTypes, node);
     }
 
+    /**
+     * @return whether the aggregates are estimated for the whole table from
+     * a sample of it, which is the case when a table is sampled and they
+     * are all COUNT, SUM or AVG
+     * @throws ParsingException if only some of them are, or the query reads
+     *                          several tables
+     */
+    private boolean estimateFromSample() throws ParsingException {
+        if (!hasAgg || samples.isEmpty()) {
+            return false;
+        }
+        int scaled = 0;
+        for (String op : aggOps) {
+            Aggregator.Op aop = getAggOp(op);
+            if (aop == Aggregator.Op.COUNT || aop == Aggregator.Op.SUM || aop == Aggregator.Op.AVG) {
+                scaled++;
+            }
+        }
+        if (scaled == 0) {
+            return false;
+        }
+        if (scaled < aggOps.size()) {
+            throw new ParsingException("COUNT, SUM and AVG of a sample cannot be mixed with other aggregates");
+        }
+        if (tables.size() > 1) {
+            throw new ParsingException("COUNT, SUM and AVG can only be estimated from a sample of a single table");
+        }
+        return true;
+    }
+
+    /**
+     * @return the names of the columns the operators above the scans
+     * read, or null if every column is returned
+     */
+    private Set<String> neededColumns(List<Expression> afterJoins) {
+        Set<String> columns = new HashSet<>();
+        for (LogicalSelectListNode si : selectList) {
+            if (si.fname.equals("null.*")) {
+                return null;
+            }
+            columns.add(si.fname);
+        }
+        for (LogicalJoinNode lj : joins) {
+            columns.add(lj.f1QuantifiedName);
+            columns.add(lj.f2QuantifiedName);
+        }
+        for (Expression e : afterJoins) {
+            columns.addAll(e.columnNames());
+        }
+        if (hasAgg) {
+            columns.addAll(aggFields);
+            if (groupByField != null) {
+                columns.add(groupByField);
+            }
+        }
+        if (hasOrderBy) {
+            columns.add(oByField);
+        }
+        return columns;
+    }
+
+    /**
+     * Let scan only return the columns in columns, or its first column if
+     * it has none of them.
+     */
+    private static void project(SeqScan scan, Set<String> columns) {
+        TupleDesc td = scan.getTableTupleDesc();
+        List<Integer> indexes = new ArrayList<>();
+        for (int i = 0; i < td.numFields(); i++) {
+            if (columns.contains(td.getFieldName(i))) {
+                indexes.add(i);
+            }
+        }
+        if (indexes.size() == td.numFields()) {
+            return;
+        }
+        if (indexes.isEmpty()) {
+            indexes.add(0);
+        }
+        scan.setProjection(indexes.stream().mapToInt(Integer::intValue).toArray());
+    }
+
+    private static Filter filter(Expression condition, OpIterator child) throws ParsingException {
+        try {
+            return new Filter(condition, child);
+        } catch (NoSuchElementException | IllegalArgumentException e) {
+            throw new ParsingException("Invalid filter expression " + condition + ": " + e.getMessage());
+        }
+    }
+
     public static void main(String[] argv) {
         // construct a 3-column table schema
         Type[] types = new Type[]{ Type.INT_TYPE, Type.INT_TYPE, Type.INT_TYPE };
@@ -2,6 +2,9 @@ package simpledb.optimizer;
 
 import simpledb.common.Database;
 import simpledb.execution.*;
+import simpledb.storage.Field;
+import simpledb.storage.HeapFile;
+import simpledb.storage.TupleDesc;
 
 import java.util.Map;
 
@@ -32,8 +35,21 @@ public class OperatorCardinality {
             return updateHashEquiJoinCardinality((HashEquiJoin) o,
                     tableAliasToId, tableStats);
         } else if (o instanceof Aggregate) {
-            return updateAggregateCardinality((Aggregate) o, tableAliasToId,
-                    tableStats);
+            Aggregate a = (Aggregate) o;
+            return updateAggregateCardinality(a, a.groupField(),
+                    a.groupFieldName(), tableAliasToId, tableStats);
+        } else if (o instanceof StreamAggregate) {
+            StreamAggregate a = (StreamAggregate) o;
+            return updateAggregateCardinality(a, a.groupField(),
+                    a.groupFieldName(), tableAliasToId, tableStats);
+        } else if (o instanceof MultiAggregate) {
+            MultiAggregate a = (MultiAggregate) o;
+            return updateAggregateCardinality(a, a.groupField(),
+                    a.groupFieldName(), tableAliasToId, tableStats);
+        } else if (o instanceof SampleAggregate) {
+            SampleAggregate a = (SampleAggregate) o;
+            return updateAggregateCardinality(a, a.groupField(),
+                    a.groupFieldName(), tableAliasToId, tableStats);
         } else {
             OpIterator[] children = o.getChildren();
             int childC = 1;
@@ -44,11 +60,16 @@ public class OperatorCardinality {
                             (Operator) children[0], tableAliasToId, tableStats);
                     childC = ((Operator) children[0]).getEstimatedCardinality();
                 } else if (children[0] instanceof SeqScan) {
-                    childC = tableStats.get(
-                            ((SeqScan) children[0]).getTableName())
-                            .estimateTableCardinality(1.0);
+                    childC = scanCardinality((SeqScan) children[0],
+                            tableAliasToId, tableStats);
                 }
             }
+            // LIMIT和带LIMIT的排序最多返回limit个元组
+            if (o instanceof Limit) {
+                childC = Math.min(childC, ((Limit) o).getLimit());
+            } else if (o instanceof OrderBy && ((OrderBy) o).getLimit() >= 0) {
+                childC = Math.min(childC, ((OrderBy) o).getLimit());
+            }
             o.setEstimatedCardinality(childC);
             return hasJoinPK;
         }
@@ -58,38 +79,138 @@ public class OperatorCardinality {
             Map<String, Integer> tableAliasToId,
             Map<String, TableStats> tableStats) {
         OpIterator child = f.getChildren()[0];
-        Predicate pred = f.getPredicate();
-        String[] tmp = child.getTupleDesc().getFieldName(pred.getField())
-                .split("[.]");
-        String tableAlias = tmp[0];
-        String pureFieldName = tmp[1];
-        Integer tableId = tableAliasToId.get(tableAlias);
-        double selectivity = 1.0;
-        if (tableId != null) {
-            selectivity = tableStats.get(
-                    Database.getCatalog().getTableName(tableId))
-                    .estimateSelectivity(
-                            Database.getCatalog().getTupleDesc(tableId)
-                                    .fieldNameToIndex(pureFieldName),
-                            pred.getOp(), pred.getOperand());
-            if (child instanceof Operator) {
-                Operator oChild = (Operator) child;
-                boolean hasJoinPK = updateOperatorCardinality(oChild,
-                        tableAliasToId, tableStats);
-                f.setEstimatedCardinality((int) (oChild
-                        .getEstimatedCardinality() * selectivity) + 1);
-                return hasJoinPK;
-            } else if (child instanceof SeqScan) {
-                f.setEstimatedCardinality((int) (tableStats.get(
-                        ((SeqScan) child).getTableName())
-                        .estimateTableCardinality(1.0) * selectivity) + 1);
-                return false;
-            }
+        double selectivity = estimateSelectivity(f.getExpression(),
+                child.getTupleDesc(), tableAliasToId, tableStats);
+        if (child instanceof Operator) {
+            Operator oChild = (Operator) child;
+            boolean hasJoinPK = updateOperatorCardinality(oChild,
+                    tableAliasToId, tableStats);
+            f.setEstimatedCardinality((int) (oChild
+                    .getEstimatedCardinality() * selectivity) + 1);
+            return hasJoinPK;
+        } else if (child instanceof SeqScan) {
+            f.setEstimatedCardinality((int) (scanCardinality((SeqScan) child,
+                    tableAliasToId, tableStats) * selectivity) + 1);
+            return false;
         }
         f.setEstimatedCardinality(1);
         return false;
     }
 
+    /**
+     * @return the estimated number of tuples returned by scan, taking the
+     * predicate pushed into it and its sample into account
+     */
+    private static int scanCardinality(SeqScan scan,
+            Map<String, Integer> tableAliasToId,
+            Map<String, TableStats> tableStats) {
+        double selectivity = scan.getPredicate() == null ? 1.0
+                : estimateSelectivity(scan.getPredicate(),
+                        scan.getTableTupleDesc(), tableAliasToId, tableStats);
+        if (scan.getSample() != null) {
+            HeapFile file = (HeapFile) Database.getCatalog().getDatabaseFile(
+                    Database.getCatalog().getTableId(scan.getTableName()));
+            selectivity *= scan.getSample().expectedFraction(file.numPages());
+        }
+        return tableStats.get(scan.getTableName())
+                .estimateTableCardinality(selectivity);
+    }
+
+    /**
+     * Estimate the fraction of the tuples with TupleDesc td that satisfy
+     * the condition e. Comparisons of a column with a constant and IN lists
+     * are estimated from the histograms of the column; AND, OR and NOT
+     * combine the estimates of their operands as if they were independent.
+     * Other conditions get a fixed guess.
+     */
+    static double estimateSelectivity(Expression e, TupleDesc td,
+            Map<String, Integer> tableAliasToId,
+            Map<String, TableStats> tableStats) {
+        if (e instanceof Expression.Logical) {
+            Expression.Logical l = (Expression.Logical) e;
+            double all = 1.0, none = 1.0;
+            for (Expression operand : l.getOperands()) {
+                double s = estimateSelectivity(operand, td, tableAliasToId, tableStats);
+                all *= s;
+                none *= 1.0 - s;
+            }
+            return l.isAnd() ? all : 1.0 - none;
+        }
+        if (e instanceof Expression.Not) {
+            return 1.0 - estimateSelectivity(((Expression.Not) e).getOperand(),
+                    td, tableAliasToId, tableStats);
+        }
+        if (e instanceof Expression.In) {
+            Expression.In in = (Expression.In) e;
+            double s = 0.0;
+            for (Field value : in.getValues()) {
+                s += columnSelectivity(in.getOperand(), Predicate.Op.EQUALS,
+                        value, td, tableAliasToId, tableStats);
+            }
+            return Math.min(1.0, s);
+        }
+        if (e instanceof Expression.Comparison) {
+            Expression.Comparison c = (Expression.Comparison) e;
+            if (c.getRight() instanceof Expression.Constant) {
+                return columnSelectivity(c.getLeft(), c.getOp(),
+                        ((Expression.Constant) c.getRight()).getValue(), td,
+                        tableAliasToId, tableStats);
+            }
+            if (c.getLeft() instanceof Expression.Constant) {
+                return columnSelectivity(c.getRight(), reverse(c.getOp()),
+                        ((Expression.Constant) c.getLeft()).getValue(), td,
+                        tableAliasToId, tableStats);
+            }
+            return defaultSelectivity(c.getOp());
+        }
+        return defaultSelectivity(null);
+    }
+
+    private static double columnSelectivity(Expression column,
+            Predicate.Op op, Field value, TupleDesc td,
+            Map<String, Integer> tableAliasToId,
+            Map<String, TableStats> tableStats) {
+        if (!(column instanceof Expression.Column)
+                || column.getType(td) != value.getType()) {
+            return defaultSelectivity(op);
+        }
+        String[] tmp = td.getFieldName(((Expression.Column) column).resolve(td))
+                .split("[.]");
+        Integer tableId = tmp.length == 2 ? tableAliasToId.get(tmp[0]) : null;
+        TableStats stats = tableId == null ? null
+                : tableStats.get(Database.getCatalog().getTableName(tableId));
+        if (stats == null) {
+            return defaultSelectivity(op);
+        }
+        return stats.estimateSelectivity(Database.getCatalog()
+                .getTupleDesc(tableId).fieldNameToIndex(tmp[1]), op, value);
+    }
+
+    /**
+     * 没有直方图可用时的选择率: 等值条件0.1, 其他条件1/3
+     */
+    private static double defaultSelectivity(Predicate.Op op) {
+        return op == Predicate.Op.EQUALS ? 0.1 : 1.0 / 3;
+    }
+
+    /**
+     * @return the operator op' such that a op b is b op' a
+     */
+    private static Predicate.Op reverse(Predicate.Op op) {
+        switch (op) {
+            case LESS_THAN:
+                return Predicate.Op.GREATER_THAN;
+            case LESS_THAN_OR_EQ:
+                return Predicate.Op.GREATER_THAN_OR_EQ;
+            case GREATER_THAN:
+                return Predicate.Op.LESS_THAN;
+            case GREATER_THAN_OR_EQ:
+                return Predicate.Op.LESS_THAN_OR_EQ;
+            default:
+                return op;
+        }
+    }
+
     private static boolean updateJoinCardinality(Join j,
             Map<String, Integer> tableAliasToId,
             Map<String, TableStats> tableStats) {
@@ -123,8 +244,8 @@ public class OperatorCardinality {
             child1Card = child1O.getEstimatedCardinality();
             child1Card = child1Card > 0 ? child1Card : 1;
         } else if (child1 instanceof SeqScan) {
-            child1Card = tableStats.get(((SeqScan) child1)
-                    .getTableName()).estimateTableCardinality(1.0);
+            child1Card = scanCardinality((SeqScan) child1,
+                    tableAliasToId, tableStats);
         }
 
         if (child2 instanceof Operator) {
@@ -135,8 +256,8 @@ public class OperatorCardinality {
             child2Card = child2O.getEstimatedCardinality();
             child2Card = child2Card > 0 ? child2Card : 1;
         } else if (child2 instanceof SeqScan) {
-            child2Card = tableStats.get(((SeqScan) child2)
-                    .getTableName()).estimateTableCardinality(1.0);
+            child2Card = scanCardinality((SeqScan) child2,
+                    tableAliasToId, tableStats);
         }
 
         j.setEstimatedCardinality(JoinOptimizer.estimateTableJoinCardinality(j
@@ -178,8 +299,8 @@ public class OperatorCardinality {
             child1Card = child1O.getEstimatedCardinality();
             child1Card = child1Card > 0 ? child1Card : 1;
         } else if (child1 instanceof SeqScan) {
-            child1Card = tableStats.get(((SeqScan) child1)
-                    .getTableName()).estimateTableCardinality(1.0);
+            child1Card = scanCardinality((SeqScan) child1,
+                    tableAliasToId, tableStats);
         }
 
         if (child2 instanceof Operator) {
@@ -190,8 +311,8 @@ public class OperatorCardinality {
             child2Card = child2O.getEstimatedCardinality();
             child2Card = child2Card > 0 ? child2Card : 1;
         } else if (child2 instanceof SeqScan) {
-            child2Card = tableStats.get(((SeqScan) child2)
-                    .getTableName()).estimateTableCardinality(1.0);
+            child2Card = scanCardinality((SeqScan) child2,
+                    tableAliasToId, tableStats);
         }
 
         j.setEstimatedCardinality(JoinOptimizer.estimateTableJoinCardinality(j
@@ -201,7 +322,8 @@ public class OperatorCardinality {
         return child1HasJoinPK || child2HasJoinPK;
     }
 
-    private static boolean updateAggregateCardinality(Aggregate a,
+    private static boolean updateAggregateCardinality(Operator a,
+            int groupField, String groupFieldName,
             Map<String, Integer> tableAliasToId,
             Map<String, TableStats> tableStats) {
         OpIterator child = a.getChildren()[0];
@@ -214,17 +336,17 @@ public class OperatorCardinality {
             childCard = oChild.getEstimatedCardinality();
         }
 
-        if (a.groupField() == Aggregator.NO_GROUPING) {
+        if (groupField == Aggregator.NO_GROUPING) {
             a.setEstimatedCardinality(1);
             return hasJoinPK;
         }
 
         if (child instanceof SeqScan) {
-            childCard = tableStats.get(((SeqScan) child).getTableName())
-                    .estimateTableCardinality(1.0);
+            childCard = scanCardinality((SeqScan) child,
+                    tableAliasToId, tableStats);
         }
 
-        String[] tmp = a.groupFieldName().split("[.]");
+        String[] tmp = groupFieldName.split("[.]");
         String tableAlias = tmp[0];
         String pureFieldName = tmp[1];
         Integer tableId = tableAliasToId.get(tableAlias);
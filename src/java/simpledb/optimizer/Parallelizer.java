@@ -0,0 +1,169 @@
+package simpledb.optimizer;
+
+import simpledb.common.Type;
+import simpledb.execution.Aggregate;
+import simpledb.execution.Aggregator;
+import simpledb.execution.Exchange;
+import simpledb.execution.Filter;
+import simpledb.execution.HashEquiJoin;
+import simpledb.execution.Join;
+import simpledb.execution.JoinPredicate;
+import simpledb.execution.OpIterator;
+import simpledb.execution.Operator;
+import simpledb.execution.SeqScan;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Parallelizer rewrites a physical plan to run on several threads by
+ * inserting {@link Exchange} operators.
+ * <p>
+ * The plan is cut into fragments that run side by side, each on a thread
+ * of its own:
+ * <ul>
+ * <li>a scan of a heap file is split into scans that share the pages of the
+ * table between them, and filters are applied in every fragment;
+ * <li>both inputs of a hash join are repartitioned on the join key, and
+ * each pair of partitions is joined in a fragment of its own;
+ * <li>the inner input of any other join is broadcast to every fragment of
+ * the outer input;
+ * <li>MIN, MAX, SUM and COUNT of an integer field are computed per fragment
+ * and combined afterwards; other grouped aggregates are computed per
+ * partition of the group key.
+ * </ul>
+ * Where an operator that is not rewritten needs a single input, the
+ * fragments are gathered.
+ */
+class Parallelizer {
+
+    private final int dop;
+
+    /**
+     * @param dop the number of fragments to split the plan into
+     */
+    Parallelizer(int dop) {
+        if (dop < 1) {
+            throw new IllegalArgumentException("degree of parallelism must be positive");
+        }
+        this.dop = dop;
+    }
+
+    /**
+     * @return an equivalent plan that runs on up to dop threads per
+     * exchange
+     */
+    OpIterator parallelize(OpIterator plan) {
+        return gather(fragments(plan));
+    }
+
+    private static OpIterator gather(List<OpIterator> fragments) {
+        return fragments.size() == 1 ? fragments.get(0) : Exchange.gather(fragments);
+    }
+
+    /**
+     * @return operators that together return the tuples of op, and can be
+     * run in parallel
+     */
+    private List<OpIterator> fragments(OpIterator op) {
+        if (op instanceof SeqScan) {
+            return new ArrayList<>(((SeqScan) op).split(dop));
+        }
+        if (op instanceof Filter) {
+            Filter filter = (Filter) op;
+            List<OpIterator> fragments = new ArrayList<>();
+            for (OpIterator child : fragments(filter.getChildren()[0])) {
+                fragments.add(filter.getPredicate() != null ? new Filter(filter.getPredicate(), child)
+                        : new Filter(filter.getExpression(), child));
+            }
+            return fragments;
+        }
+        if (op instanceof HashEquiJoin) {
+            HashEquiJoin join = (HashEquiJoin) op;
+            JoinPredicate p = join.getJoinPredicate();
+            OpIterator[] children = join.getChildren();
+            // 先读完的建表一侧物化, 以免两侧的生产者互相等待
+            List<Exchange> build = Exchange.repartition(fragments(children[0]), p.getField1(), dop, true);
+            List<Exchange> probe = Exchange.repartition(fragments(children[1]), p.getField2(), dop, false);
+            List<OpIterator> fragments = new ArrayList<>();
+            for (int i = 0; i < dop; i++) {
+                fragments.add(new HashEquiJoin(p, build.get(i), probe.get(i)));
+            }
+            return fragments;
+        }
+        if (op instanceof Join) {
+            Join join = (Join) op;
+            OpIterator[] children = join.getChildren();
+            List<OpIterator> outer = fragments(children[0]);
+            List<Exchange> inner = Exchange.broadcast(fragments(children[1]), outer.size(), true);
+            List<OpIterator> fragments = new ArrayList<>();
+            for (int i = 0; i < outer.size(); i++) {
+                fragments.add(new Join(join.getJoinPredicate(), outer.get(i), inner.get(i)));
+            }
+            return fragments;
+        }
+        if (op instanceof Aggregate) {
+            return aggregate((Aggregate) op);
+        }
+        if (op instanceof Operator && !(op instanceof Exchange)) {
+            Operator operator = (Operator) op;
+            OpIterator[] children = operator.getChildren();
+            for (int i = 0; i < children.length; i++) {
+                children[i] = parallelize(children[i]);
+            }
+            operator.setChildren(children);
+        }
+        return Collections.singletonList(op);
+    }
+
+    private List<OpIterator> aggregate(Aggregate agg) {
+        OpIterator child = agg.getChildren()[0];
+        List<OpIterator> in = fragments(child);
+        if (in.size() == 1) {
+            agg.setChildren(new OpIterator[]{in.get(0)});
+            return Collections.singletonList(agg);
+        }
+        int afield = agg.aggregateField();
+        int gfield = agg.groupField();
+        Aggregator.Op op = agg.aggregateOp();
+        // 并行的片段共用原聚合的内存预算
+        long budget = agg.getMemoryBudget() / in.size();
+        Aggregator.Op merge = mergeOp(op);
+        if (merge != null && child.getTupleDesc().getFieldType(afield) == Type.INT_TYPE) {
+            List<OpIterator> partials = new ArrayList<>();
+            for (OpIterator fragment : in) {
+                partials.add(new Aggregate(fragment, afield, gfield, op, budget));
+            }
+            boolean grouped = gfield != Aggregator.NO_GROUPING;
+            return Collections.singletonList(new Aggregate(Exchange.gather(partials),
+                    grouped ? 1 : 0, grouped ? 0 : Aggregator.NO_GROUPING, merge, agg.getMemoryBudget()));
+        }
+        if (gfield != Aggregator.NO_GROUPING) {
+            List<OpIterator> fragments = new ArrayList<>();
+            for (Exchange partition : Exchange.repartition(in, gfield, dop, false)) {
+                fragments.add(new Aggregate(partition, afield, gfield, op, budget));
+            }
+            return fragments;
+        }
+        agg.setChildren(new OpIterator[]{Exchange.gather(in)});
+        return Collections.singletonList(agg);
+    }
+
+    /**
+     * @return the aggregate that combines the partial results of op, or
+     * null if they cannot be combined
+     */
+    private static Aggregator.Op mergeOp(Aggregator.Op op) {
+        switch (op) {
+            case MIN:
+            case MAX:
+            case SUM:
+                return op;
+            case COUNT:
+                return Aggregator.Op.SUM;
+            default:
+                return null;
+        }
+    }
+}
@@ -12,12 +12,15 @@ public class QueryPlanVisualizer {
 
     static final String JOIN = "⨝";
     static final String HASH_JOIN = "⨝(hash)";
+    static final String MERGE_JOIN = "⨝(merge)";
     static final String SELECT = "σ";
     static final String PROJECT = "π";
     static final String RENAME = "ρ";
     static final String SCAN = "scan";
     static final String ORDERBY = "o";
+    static final String LIMIT = "limit";
     static final String GROUPBY = "g";
+    static final String STREAM_GROUPBY = "g(stream)";
     static final String SPACE = "  ";
 
     private int calculateQueryPlanTreeDepth(OpIterator root) {
@@ -29,7 +32,7 @@ public class QueryPlanVisualizer {
         Operator o = (Operator) root;
         OpIterator[] children = o.getChildren();
 
-        if (o instanceof Join || o instanceof HashEquiJoin) {
+        if (o instanceof Join || o instanceof HashEquiJoin || o instanceof SortMergeJoin) {
             int d1 = this.calculateQueryPlanTreeDepth(children[0]);
             int d2 = this.calculateQueryPlanTreeDepth(children[1]);
             return Math.max(d1, d2) + 3;
@@ -76,8 +79,12 @@ public class QueryPlanVisualizer {
                 alias = " " + alias;
             else
                 alias = "";
+            String pushed = s.getPredicate() != null ? "," + s.getPredicate() : "";
+            if (s.getSample() != null) {
+                pushed += "," + s.getSample();
+            }
             thisNode.text = String
-                    .format("%1$s(%2$s)", SCAN, tableName + alias);
+                    .format("%1$s(%2$s%3$s)", SCAN, tableName + alias, pushed);
             if (SCAN.length() / 2 < parentUpperBarStartShift) {
                 thisNode.upBarPosition = currentStartPosition
                         + parentUpperBarStartShift;
@@ -138,18 +145,20 @@ public class QueryPlanVisualizer {
                 thisNode.leftChild = left;
                 thisNode.rightChild = right;
                 thisNode.height = currentDepth;
-            } else if (plan instanceof HashEquiJoin) {
-                HashEquiJoin j = (HashEquiJoin) plan;
-                JoinPredicate jp = j.getJoinPredicate();
-                TupleDesc td = j.getTupleDesc();
+            } else if (plan instanceof HashEquiJoin || plan instanceof SortMergeJoin) {
+                boolean hash = plan instanceof HashEquiJoin;
+                String name = hash ? HASH_JOIN : MERGE_JOIN;
+                JoinPredicate jp = hash ? ((HashEquiJoin) plan).getJoinPredicate()
+                        : ((SortMergeJoin) plan).getJoinPredicate();
+                TupleDesc td = plan.getTupleDesc();
                 String field1 = td.getFieldName(jp.getField1());
                 String field2 = td.getFieldName(jp.getField2()
                         + children[0].getTupleDesc().numFields());
-                thisNode.text = String.format("%1$s(%2$s),card:%3$d", HASH_JOIN, field1
-                        + jp.getOperator() + field2,j.getEstimatedCardinality());
+                thisNode.text = String.format("%1$s(%2$s),card:%3$d", name, field1
+                        + jp.getOperator() + field2,plan.getEstimatedCardinality());
                 int upBarShift = parentUpperBarStartShift;
-                if (HASH_JOIN.length() / 2 > parentUpperBarStartShift)
-                    upBarShift = HASH_JOIN.length() / 2;
+                if (name.length() / 2 > parentUpperBarStartShift)
+                    upBarShift = name.length() / 2;
                 SubTreeDescriptor left = this.buildTree(queryPlanDepth,
                         currentDepth + 3 + adjustDepth, children[0],
                         currentStartPosition, upBarShift);
@@ -158,7 +167,7 @@ public class QueryPlanVisualizer {
                         currentStartPosition + left.width + SPACE.length(), 0);
                 thisNode.upBarPosition = (left.upBarPosition + right.upBarPosition) / 2;
                 thisNode.textStartPosition = thisNode.upBarPosition
-                        - HASH_JOIN.length() / 2;
+                        - name.length() / 2;
                 thisNode.width = Math.max(
                         left.width + right.width + SPACE.length(),
                         thisNode.textStartPosition + thisNode.text.length()
@@ -187,6 +196,49 @@ public class QueryPlanVisualizer {
                 if (alignTxt.length() / 2 > parentUpperBarStartShift)
                     upBarShift = alignTxt.length() / 2;
 
+                SubTreeDescriptor child = this.buildTree(queryPlanDepth,
+                        currentDepth + 2 + adjustDepth, children[0],
+                        currentStartPosition, upBarShift);
+                thisNode.upBarPosition = child.upBarPosition;
+                thisNode.textStartPosition = thisNode.upBarPosition
+                        - alignTxt.length() / 2;
+                thisNode.width = Math.max(child.width,
+                        thisNode.textStartPosition + thisNode.text.length()
+                                - currentStartPosition);
+                thisNode.leftChild = child;
+                thisNode.height = currentDepth;
+            } else if (plan instanceof StreamAggregate || plan instanceof MultiAggregate
+                    || plan instanceof SampleAggregate) {
+                int upBarShift = parentUpperBarStartShift;
+                String alignTxt;
+                if (plan instanceof StreamAggregate) {
+                    StreamAggregate s = (StreamAggregate) plan;
+                    alignTxt = STREAM_GROUPBY;
+                    thisNode.text = String.format("%1$s(%2$s), %3$s(%4$s),card:%5$d",
+                            STREAM_GROUPBY, s.groupFieldName(), s.aggregateOp(),
+                            s.aggregateFieldName(),plan.getEstimatedCardinality());
+                } else {
+                    // 聚合列名已是op(field)的形式
+                    TupleDesc td = plan.getTupleDesc();
+                    String groupFieldName = plan instanceof MultiAggregate
+                            ? ((MultiAggregate) plan).groupFieldName() : ((SampleAggregate) plan).groupFieldName();
+                    StringBuilder aggs = new StringBuilder();
+                    int first = groupFieldName == null ? 0 : 1;
+                    for (int i = first; i < td.numFields(); i++) {
+                        aggs.append(i > first ? ", " : "").append(td.getFieldName(i));
+                    }
+                    if (first == 0) {
+                        alignTxt = td.getFieldName(0);
+                        thisNode.text = String.format("%1$s,card:%2$d", aggs, plan.getEstimatedCardinality());
+                    } else {
+                        alignTxt = GROUPBY;
+                        thisNode.text = String.format("%1$s(%2$s), %3$s,card:%4$d",
+                                GROUPBY, groupFieldName, aggs, plan.getEstimatedCardinality());
+                    }
+                }
+                if (alignTxt.length() / 2 > parentUpperBarStartShift)
+                    upBarShift = alignTxt.length() / 2;
+
                 SubTreeDescriptor child = this.buildTree(queryPlanDepth,
                         currentDepth + 2 + adjustDepth, children[0],
                         currentStartPosition, upBarShift);
@@ -201,10 +253,10 @@ public class QueryPlanVisualizer {
             } else if (plan instanceof Filter) {
                 Filter f = (Filter) plan;
                 Predicate p = f.getPredicate();
-                thisNode.text = String.format("%1$s(%2$s),card:%3$d", SELECT, children[0]
-                        .getTupleDesc().getFieldName(p.getField())
-                        + p.getOp()
-                        + p.getOperand(),f.getEstimatedCardinality());
+                String condition = p != null ? children[0].getTupleDesc().getFieldName(p.getField())
+                        + p.getOp() + p.getOperand() : f.getExpression().toString();
+                thisNode.text = String.format("%1$s(%2$s),card:%3$d", SELECT,
+                        condition, f.getEstimatedCardinality());
                 int upBarShift = parentUpperBarStartShift;
                 if (SELECT.length() / 2 > parentUpperBarStartShift)
                     upBarShift = SELECT.length() / 2;
@@ -221,11 +273,12 @@ public class QueryPlanVisualizer {
                 thisNode.height = currentDepth;
             } else if (plan instanceof OrderBy) {
                 OrderBy o = (OrderBy) plan;
+                String top = o.getLimit() >= 0 ? ",top " + o.getLimit() : "";
                 thisNode.text = String.format(
-                        "%1$s(%2$s),card:%3$d",
+                        "%1$s(%2$s%3$s),card:%4$d",
                         ORDERBY,
                         children[0].getTupleDesc().getFieldName(
-                                o.getOrderByField()),o.getEstimatedCardinality());
+                                o.getOrderByField()),top,o.getEstimatedCardinality());
                 int upBarShift = parentUpperBarStartShift;
                 if (ORDERBY.length() / 2 > parentUpperBarStartShift)
                     upBarShift = ORDERBY.length() / 2;
@@ -240,6 +293,24 @@ public class QueryPlanVisualizer {
                                 - currentStartPosition);
                 thisNode.leftChild = child;
                 thisNode.height = currentDepth;
+            } else if (plan instanceof Limit) {
+                Limit l = (Limit) plan;
+                thisNode.text = String.format("%1$s(%2$d,offset %3$d),card:%4$d",
+                        LIMIT, l.getLimit(), l.getOffset(), l.getEstimatedCardinality());
+                int upBarShift = parentUpperBarStartShift;
+                if (LIMIT.length() / 2 > parentUpperBarStartShift)
+                    upBarShift = LIMIT.length() / 2;
+                SubTreeDescriptor child = this.buildTree(queryPlanDepth,
+                        currentDepth + 2 + adjustDepth, children[0],
+                        currentStartPosition, upBarShift);
+                thisNode.upBarPosition = child.upBarPosition;
+                thisNode.textStartPosition = thisNode.upBarPosition
+                        - LIMIT.length() / 2;
+                thisNode.width = Math.max(child.width,
+                        thisNode.textStartPosition + thisNode.text.length()
+                                - currentStartPosition);
+                thisNode.leftChild = child;
+                thisNode.height = currentDepth;
             } else if (plan instanceof Project) {
                 Project p = (Project) plan;
                 StringBuilder fields = new StringBuilder();
@@ -263,7 +334,7 @@ public class QueryPlanVisualizer {
                 thisNode.leftChild = child;
                 thisNode.height = currentDepth;
             }
-            else if (plan.getClass().getSuperclass().getSuperclass().getSimpleName().equals("Exchange")) {
+            else if (plan instanceof Exchange) {
                 String name="Exchange";
                 int card=0;
                 try {
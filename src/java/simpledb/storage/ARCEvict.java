@@ -0,0 +1,154 @@
+package simpledb.storage;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.function.Predicate;
+
+/**
+ * Adaptive Replacement Cache (Megiddo and Modha, FAST 2003).
+ * <p>
+ * Cached pages are split between T1, pages used once since they were read,
+ * and T2, pages used at least twice. B1 and B2 remember the ids of pages
+ * recently evicted from T1 and T2. A miss on a page in B1 means T1 was too
+ * small, so the target size p of T1 grows; a miss on a page in B2 shrinks
+ * it. Victims come from T1 while it is larger than p, otherwise from T2.
+ * A large scan only ever fills T1, so pages used repeatedly survive it in
+ * T2, while a workload of recently read pages still gets the whole cache.
+ * <p>
+ * Every list is a LinkedHashSet kept in LRU order (least recent first), so
+ * each operation is O(1), apart from skipping pages the caller's predicate
+ * rejects. Thread-safe.
+ */
+public class ARCEvict implements EvictStrategy {
+
+    /**
+     * 缓冲池大约能放的页数c, 决定B1/B2记住多少页面
+     */
+    private final int capacity;
+    private final LinkedHashSet<PageId> t1 = new LinkedHashSet<>();
+    private final LinkedHashSet<PageId> t2 = new LinkedHashSet<>();
+    private final LinkedHashSet<PageId> b1 = new LinkedHashSet<>();
+    private final LinkedHashSet<PageId> b2 = new LinkedHashSet<>();
+    /**
+     * T1的目标大小
+     */
+    private int p;
+
+    public ARCEvict(int numPages) {
+        this.capacity = Math.max(1, numPages);
+    }
+
+    @Override
+    public synchronized void addPageId(PageId pageId) {
+        if (t1.contains(pageId) || t2.contains(pageId)) {
+            accessPageId(pageId);
+            return;
+        }
+        int c = capacity();
+        if (b1.contains(pageId)) {
+            p = Math.min(c, p + Math.max(1, b2.size() / b1.size()));
+            b1.remove(pageId);
+            t2.add(pageId);
+        } else if (b2.contains(pageId)) {
+            p = Math.max(0, p - Math.max(1, b1.size() / b2.size()));
+            b2.remove(pageId);
+            t2.add(pageId);
+        } else {
+            t1.add(pageId);
+        }
+        trimGhosts();
+    }
+
+    @Override
+    public synchronized void accessPageId(PageId pageId) {
+        if (t1.remove(pageId) || t2.remove(pageId)) {
+            t2.add(pageId);
+        }
+    }
+
+    @Override
+    public PageId getEvictPageId() {
+        return getEvictPageId(pid -> true);
+    }
+
+    @Override
+    public synchronized PageId getEvictPageId(Predicate<PageId> canEvict) {
+        boolean fromT1 = !t1.isEmpty() && (t1.size() > p || t2.isEmpty());
+        PageId victim = first(fromT1 ? t1 : t2, canEvict);
+        if (victim == null) {
+            victim = first(fromT1 ? t2 : t1, canEvict);
+        }
+        if (victim == null) {
+            return null;
+        }
+        if (t1.remove(victim)) {
+            b1.add(victim);
+        } else {
+            t2.remove(victim);
+            b2.add(victim);
+        }
+        trimGhosts();
+        return victim;
+    }
+
+    @Override
+    public synchronized void removePageId(PageId pageId) {
+        // 页面被丢弃, 不再记住它
+        t1.remove(pageId);
+        t2.remove(pageId);
+        b1.remove(pageId);
+        b2.remove(pageId);
+    }
+
+    @Override
+    public synchronized List<PageId> getEvictionOrder() {
+        List<PageId> order = new ArrayList<>(t1.size() + t2.size());
+        if (t1.size() > p || t2.isEmpty()) {
+            order.addAll(t1);
+            order.addAll(t2);
+        } else {
+            order.addAll(t2);
+            order.addAll(t1);
+        }
+        return order;
+    }
+
+    /**
+     * @return the target size of T1, for tests
+     */
+    synchronized int getTarget() {
+        return p;
+    }
+
+    private int capacity() {
+        // 字节预算下缓存的页数可能超过构造时给的页数
+        return Math.max(capacity, t1.size() + t2.size());
+    }
+
+    private void trimGhosts() {
+        int c = capacity();
+        while (t1.size() + b1.size() > c && !b1.isEmpty()) {
+            removeFirst(b1);
+        }
+        while (t1.size() + t2.size() + b1.size() + b2.size() > 2 * c && !(b1.isEmpty() && b2.isEmpty())) {
+            removeFirst(b2.isEmpty() ? b1 : b2);
+        }
+    }
+
+    private static PageId first(LinkedHashSet<PageId> list, Predicate<PageId> canEvict) {
+        for (PageId pid : list) {
+            if (canEvict.test(pid)) {
+                return pid;
+            }
+        }
+        return null;
+    }
+
+    private static void removeFirst(LinkedHashSet<PageId> list) {
+        Iterator<PageId> it = list.iterator();
+        it.next();
+        it.remove();
+    }
+}
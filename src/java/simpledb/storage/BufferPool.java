@@ -7,9 +7,18 @@ import simpledb.transaction.TransactionAbortedException;
 import simpledb.transaction.TransactionId;
 
 import java.io.IOException;
+import java.lang.ref.WeakReference;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
 
 /**
  * BufferPool manages the reading and writing of pages into memory from
@@ -37,19 +46,312 @@ public class BufferPool {
      */
     public static final int DEFAULT_PAGES = 50;
 
-    private final Integer numPages;
+    /**
+     * Bytes of pages recycled by a sequential scan ring, see
+     * {@link #newScanRing}.
+     */
+    public static final int SCAN_RING_BYTES = 256 * 1024;
+
+    /**
+     * Bytes of pages recycled by a bulk insert ring, see
+     * {@link #newBulkWriteRing}.
+     */
+    public static final int BULK_WRITE_RING_BYTES = 1024 * 1024;
+
+    /**
+     * System property naming the eviction policy of new buffer pools, see
+     * {@link EvictStrategy#create}; LRU if not set.
+     */
+    public static final String EVICT_POLICY_PROPERTY = "simpledb.evict";
+
+    /**
+     * System property giving new buffer pools a {@link CompressedPageCache}
+     * of that many bytes; no victim cache if not set.
+     */
+    public static final String VICTIM_CACHE_PROPERTY = "simpledb.victimCacheBytes";
+
+    /**
+     * LSN of a change that has no log record of its own.
+     */
+    static final long NO_LSN = -1;
+
+    /**
+     * 缓存页面可以占用的总字节数
+     */
+    private volatile long maxBytes;
+    /**
+     * 当前缓存页面占用的字节数, guarded by this
+     */
+    private long usedBytes;
     private final Map<PageId, Page> pageCache;
+    /**
+     * 每个缓存页面按其所属DbFile的页大小计入的字节数
+     */
+    private final Map<PageId, Integer> pageBytes;
     private final EvictStrategy evict;
+    /**
+     * off-heap模式下存放页面字节的arena, 否则为null; 此时页面记录在frames而不是pageCache中
+     */
+    private final FrameArena arena;
+    private final Map<PageId, FrameArena.Frame> frames;
+    /**
+     * 每个事务弄脏且尚未写回的页面, guarded by this
+     */
+    private final Map<TransactionId, Set<PageId>> dirtiedBy;
+    /**
+     * 后台写回脏页的线程, 未启动时为null
+     */
+    private PageCleaner cleaner;
+    /**
+     * 被pin住的页面及其pin次数, 这些页面不会被置换; guarded by this
+     */
+    private final Map<PageId, Integer> pinCount;
+    private final Map<TransactionId, List<PageId>> pinsBy;
+    /**
+     * 通过BufferRing读入的页面及其所属的环, 这些页面不在evict中
+     */
+    private final Map<PageId, BufferRing> ringOf;
+    /**
+     * 按名字注册的其他缓冲池, Catalog把表分配给它们; 只有Database持有的缓冲池会用到
+     */
+    private final Map<String, BufferPool> namedPools;
+    /**
+     * 每次getPage都会通知的回调, 用于记录页面访问序列; 默认为null
+     */
+    private volatile Consumer<PageId> accessTracer;
+    /**
+     * 存放被置换出去的干净页面的压缩缓存, 未配置时为null
+     */
+    private volatile CompressedPageCache victimCache;
+    /**
+     * 缓存页面的LSN: 最后一条描述该页面修改的日志记录的位置, 写回页面前日志要刷到这里
+     */
+    private final Map<PageId, Long> pageLsn;
+    /**
+     * 有修改没有以槽记录写入日志的页面, 写回时要记录整页的前后镜像; guarded by this
+     */
+    private final Set<PageId> needsImage;
+    /**
+     * 脏页表: 页面自上次写回以来第一条修改记录的LSN (recLSN), 恢复从其中最小的开始重做
+     */
+    private final Map<PageId, Long> recLsn;
 
     /**
-     * Creates a BufferPool that caches up to numPages pages.
+     * Creates a BufferPool that caches up to numPages pages of the default
+     * page size, i.e. a memory budget of numPages * {@link #getPageSize()} bytes.
      *
      * @param numPages maximum number of pages in this buffer pool.
      */
     public BufferPool(int numPages) {
-        this.numPages = numPages;
+        this((long) numPages * getPageSize(), newEvictStrategy(numPages), null);
+    }
+
+    private BufferPool(long maxBytes, EvictStrategy evict, FrameArena arena) {
+        this.maxBytes = maxBytes;
         this.pageCache = new ConcurrentHashMap<>();
-        this.evict = new LRUEvict(numPages);
+        this.pageBytes = new ConcurrentHashMap<>();
+        this.evict = evict;
+        this.arena = arena;
+        this.frames = new HashMap<>();
+        this.dirtiedBy = new HashMap<>();
+        this.pinCount = new HashMap<>();
+        this.pinsBy = new HashMap<>();
+        this.ringOf = new ConcurrentHashMap<>();
+        this.namedPools = new ConcurrentHashMap<>();
+        this.pageLsn = new ConcurrentHashMap<>();
+        this.needsImage = new HashSet<>();
+        this.recLsn = new ConcurrentHashMap<>();
+        long victimBytes = Long.getLong(VICTIM_CACHE_PROPERTY, 0);
+        this.victimCache = victimBytes > 0 ? new CompressedPageCache(victimBytes) : null;
+    }
+
+    /**
+     * Creates a BufferPool that caches pages of any size as long as their
+     * total size stays within maxBytes. Each page is accounted for with the
+     * page size of the DbFile it belongs to.
+     *
+     * @param maxBytes the memory budget of this buffer pool in bytes.
+     */
+    public static BufferPool withMemoryBudget(long maxBytes) {
+        return withMemoryBudget(maxBytes, newEvictStrategy(expectedPages(maxBytes)));
+    }
+
+    /**
+     * Creates a BufferPool with a memory budget of maxBytes that chooses the
+     * pages to evict with the given strategy.
+     *
+     * @param evict a new strategy, not shared with any other pool
+     */
+    public static BufferPool withMemoryBudget(long maxBytes, EvictStrategy evict) {
+        return new BufferPool(maxBytes, evict, null);
+    }
+
+    private static int expectedPages(long maxBytes) {
+        return (int) Math.max(1, maxBytes / getPageSize());
+    }
+
+    private static EvictStrategy newEvictStrategy(int numPages) {
+        return EvictStrategy.create(System.getProperty(EVICT_POLICY_PROPERTY, "lru"), numPages);
+    }
+
+    /**
+     * Creates a BufferPool whose pages live in a {@link FrameArena} of
+     * maxBytes bytes of direct memory allocated up front. Pages are read from
+     * disk straight into their frame and the page objects handed out are
+     * views over the frame where the DbFile supports it (see
+     * {@link DbFile#pageView}), so a large pool adds little to the Java heap.
+     * <p>
+     * Only page objects that may hold changes not yet written to their frame
+     * (dirty pages and pages fetched READ_WRITE) are kept strongly reachable;
+     * the views of clean pages are rebuilt from the frame when needed. A view
+     * stays reachable through its tuples, so it can copy them out of the
+     * frame before the frame is given to another page.
+     *
+     * @param maxBytes the size of the arena in bytes.
+     */
+    public static BufferPool offHeap(long maxBytes) {
+        return new BufferPool(maxBytes, newEvictStrategy(expectedPages(maxBytes)), new FrameArena(maxBytes));
+    }
+
+    /**
+     * @return the arena holding the pages of an off-heap buffer pool, or null
+     * if pages are cached on the Java heap.
+     */
+    public FrameArena getArena() {
+        return arena;
+    }
+
+    /**
+     * @return the strategy choosing the pages this pool evicts
+     */
+    public EvictStrategy getEvictStrategy() {
+        return evict;
+    }
+
+    /**
+     * Call tracer with the id of every page requested from this pool, hit or
+     * miss, e.g. to record a trace for replaying against other eviction
+     * policies. The tracer runs on the thread calling getPage and must be
+     * thread-safe.
+     *
+     * @param tracer the callback, or null to stop tracing
+     */
+    public void setAccessTracer(Consumer<PageId> tracer) {
+        this.accessTracer = tracer;
+    }
+
+    /**
+     * @return the cache of compressed pages evicted from this pool, or null
+     */
+    public CompressedPageCache getVictimCache() {
+        return victimCache;
+    }
+
+    /**
+     * Keep clean pages evicted from this pool in cache, and look pages this
+     * pool misses on up there before reading them from disk. Pages recycled
+     * by a {@link BufferRing} are not kept, so large scans do not flush the
+     * cache.
+     *
+     * @param cache the cache, not shared with another pool, or null to
+     *              stop caching evicted pages
+     */
+    public synchronized void setVictimCache(CompressedPageCache cache) {
+        this.victimCache = cache;
+    }
+
+    /**
+     * @return the memory budget of this buffer pool in bytes.
+     */
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    /**
+     * @return the number of bytes taken by the pages currently cached.
+     */
+    public synchronized long getUsedBytes() {
+        return usedBytes;
+    }
+
+    /**
+     * Change the memory budget of this pool without dropping its pages.
+     * Growing takes effect right away; shrinking evicts pages, clean ones
+     * first, until the cached pages fit in the new budget. An off-heap pool
+     * allocates new slabs when it grows and frees slabs as they empty when
+     * it shrinks.
+     *
+     * @param newMaxBytes the new memory budget in bytes
+     * @throws DbException if pinned pages keep the pool above the new
+     *                     budget; the budget still applies and the pool
+     *                     keeps shrinking as pages are evicted later
+     */
+    public synchronized void resize(long newMaxBytes) throws DbException {
+        if (newMaxBytes <= 0) {
+            throw new IllegalArgumentException("buffer pool size must be positive");
+        }
+        maxBytes = newMaxBytes;
+        if (arena != null && arena.getCapacity() < newMaxBytes) {
+            arena.grow(newMaxBytes - arena.getCapacity());
+        }
+        while (usedBytes > maxBytes) {
+            evictPage();
+        }
+        if (arena != null) {
+            arena.trim(maxBytes);
+        }
+    }
+
+    /**
+     * Register another buffer pool under a name. Pages of the tables the
+     * Catalog assigns to that name (see {@link simpledb.common.Catalog#setBufferPool})
+     * are then cached in it instead of in this pool, so they only compete
+     * with each other for memory and are evicted by the pool's own
+     * {@link EvictStrategy}. All page requests still go through this pool,
+     * which hands them on.
+     *
+     * @return pool
+     */
+    public BufferPool addPool(String name, BufferPool pool) {
+        if (pool == this || !pool.namedPools.isEmpty()) {
+            throw new IllegalArgumentException("named pools cannot have named pools of their own");
+        }
+        namedPools.put(name, pool);
+        return pool;
+    }
+
+    /**
+     * @return the pool registered under name, or null
+     */
+    public BufferPool getPool(String name) {
+        return namedPools.get(name);
+    }
+
+    /**
+     * @return the pool that caches pid: the named pool the Catalog assigns
+     * its table to, or this pool
+     */
+    BufferPool poolFor(PageId pid) {
+        if (namedPools.isEmpty()) {
+            return this;
+        }
+        return namedPool(Database.getCatalog().getBufferPoolName(pid));
+    }
+
+    /**
+     * @return the pool that caches the pages of a table, apart from B+ tree
+     * internal pages that may have a pool of their own
+     */
+    private BufferPool poolForTable(int tableId) {
+        if (namedPools.isEmpty()) {
+            return this;
+        }
+        return namedPool(Database.getCatalog().getBufferPoolName(tableId));
+    }
+
+    private BufferPool namedPool(String name) {
+        BufferPool pool = name == null ? null : namedPools.get(name);
+        return pool == null ? this : pool;
     }
 
     public static int getPageSize() {
@@ -83,17 +385,348 @@ public class BufferPool {
      */
     public Page getPage(TransactionId tid, PageId pid, Permissions perm)
             throws TransactionAbortedException, DbException {
-        if (!pageCache.containsKey(pid)) {
-            if (pageCache.size() >= numPages) {
-                System.out.println("准备置换" + pageCache.size());
-                evictPage();
-            }
-            DbFile dbFile = Database.getCatalog().getDatabaseFile(pid.getTableId());
-            Page page = dbFile.readPage(pid);
-            pageCache.put(pid, page);
+        return getPage(tid, pid, perm, null);
+    }
+
+    /**
+     * Retrieve the specified page through an access strategy. A page that is
+     * not cached is read into the ring instead of taking a frame from the
+     * rest of the pool; see {@link BufferRing}.
+     *
+     * @param ring the ring of the calling operation, or null to cache the
+     *             page like {@link #getPage(TransactionId, PageId, Permissions)}
+     */
+    public Page getPage(TransactionId tid, PageId pid, Permissions perm, BufferRing ring)
+            throws TransactionAbortedException, DbException {
+        BufferPool pool = poolFor(pid);
+        if (pool != this) {
+            return pool.getPage(tid, pid, perm, ring);
+        }
+        if (ring != null && ring.getPool() != this) {
+            throw new IllegalArgumentException("ring belongs to another buffer pool");
+        }
+        Consumer<PageId> tracer = accessTracer;
+        if (tracer != null) {
+            tracer.accept(pid);
+        }
+        if (arena != null) {
+            return getFramePage(pid, perm, ring);
+        }
+        Page page = pageCache.get(pid);
+        if (page == null) {
+            page = loadPage(pid, ring);
+        } else if (ring == null && ringOf.containsKey(pid)) {
+            promote(pid);
+        } else if (!ringOf.containsKey(pid)) {
+            evict.accessPageId(pid);
+        }
+        return page;
+    }
+
+    /**
+     * Retrieve the specified page like {@link #getPage} and pin it: the page
+     * is not evicted until the transaction calls {@link #unpinPage} (or
+     * completes). A page may be pinned several times and stays pinned until
+     * it is unpinned as many times.
+     */
+    public Page pinPage(TransactionId tid, PageId pid, Permissions perm)
+            throws TransactionAbortedException, DbException {
+        return pinPage(tid, pid, perm, null);
+    }
+
+    /**
+     * Retrieve and pin the specified page through an access strategy.
+     *
+     * @see #pinPage(TransactionId, PageId, Permissions)
+     * @see #getPage(TransactionId, PageId, Permissions, BufferRing)
+     */
+    public Page pinPage(TransactionId tid, PageId pid, Permissions perm, BufferRing ring)
+            throws TransactionAbortedException, DbException {
+        BufferPool pool = poolFor(pid);
+        if (pool != this) {
+            return pool.pinPage(tid, pid, perm, ring);
+        }
+        synchronized (this) {
+            Page page = getPage(tid, pid, perm, ring);
+            pinCount.merge(pid, 1, Integer::sum);
+            pinsBy.computeIfAbsent(tid, k -> new ArrayList<>()).add(pid);
+            return page;
+        }
+    }
+
+    /**
+     * Release one pin the transaction holds on the page.
+     *
+     * @throws IllegalArgumentException if tid has not pinned pid
+     */
+    public void unpinPage(TransactionId tid, PageId pid) {
+        BufferPool pool = poolFor(pid);
+        if (pool != this) {
+            pool.unpinPage(tid, pid);
+            return;
+        }
+        synchronized (this) {
+            releasePin(tid, pid);
+        }
+    }
+
+    private void releasePin(TransactionId tid, PageId pid) {
+        List<PageId> pinned = pinsBy.get(tid);
+        if (pinned == null || !pinned.remove(pid)) {
+            throw new IllegalArgumentException("page " + pid + " is not pinned by " + tid);
+        }
+        if (pinned.isEmpty()) {
+            pinsBy.remove(tid);
+        }
+        pinCount.computeIfPresent(pid, (k, n) -> n == 1 ? null : n - 1);
+    }
+
+    /**
+     * @return the number of pins held on the page
+     */
+    public int getPinCount(PageId pid) {
+        BufferPool pool = poolFor(pid);
+        if (pool != this) {
+            return pool.getPinCount(pid);
+        }
+        synchronized (this) {
+            return pinCount.getOrDefault(pid, 0);
+        }
+    }
+
+    /**
+     * Release every pin the transaction still holds.
+     */
+    private void unpinAll(TransactionId tid) {
+        for (BufferPool pool : namedPools.values()) {
+            pool.unpinAll(tid);
+        }
+        synchronized (this) {
+            unpinOwn(tid);
+        }
+    }
+
+    private void unpinOwn(TransactionId tid) {
+        List<PageId> pinned = pinsBy.remove(tid);
+        if (pinned != null) {
+            for (PageId pid : pinned) {
+                pinCount.computeIfPresent(pid, (k, n) -> n == 1 ? null : n - 1);
+            }
+        }
+    }
+
+    private boolean isPinned(PageId pid) {
+        return pinCount.containsKey(pid);
+    }
+
+    /**
+     * @return the pages cached in this pool, most recently used first,
+     * followed by those of each named pool in the same order. Pages held by
+     * a {@link BufferRing} are left out.
+     */
+    public List<PageId> getResidentPages() {
+        List<PageId> pids;
+        synchronized (this) {
+            pids = evict.getEvictionOrder();
+        }
+        Collections.reverse(pids);
+        for (BufferPool pool : namedPools.values()) {
+            pids.addAll(pool.getResidentPages());
+        }
+        return pids;
+    }
+
+    /**
+     * Make the cached pages among pids the most recently used pages of the
+     * pools caching them, the last one of pids becoming the most recent.
+     */
+    void touchPages(List<PageId> pids) {
+        if (namedPools.isEmpty()) {
+            touchOwnPages(pids);
+            return;
+        }
+        Map<BufferPool, List<PageId>> byPool = new HashMap<>();
+        for (PageId pid : pids) {
+            byPool.computeIfAbsent(poolFor(pid), k -> new ArrayList<>()).add(pid);
+        }
+        for (Map.Entry<BufferPool, List<PageId>> e : byPool.entrySet()) {
+            e.getKey().touchOwnPages(e.getValue());
+        }
+    }
+
+    private synchronized void touchOwnPages(List<PageId> pids) {
+        for (PageId pid : pids) {
+            if (pageCache.containsKey(pid) || frames.containsKey(pid)) {
+                if (ringOf.containsKey(pid)) {
+                    promote(pid);
+                }
+                evict.removePageId(pid);
+                evict.addPageId(pid);
+            }
+        }
+    }
+
+    /**
+     * Create a ring for a sequential scan of file, or return null if the
+     * file is small enough to be cached like any other table. A file counts
+     * as large if it does not fit in this pool: repeated scans of it would
+     * get no hits under LRU anyway, and would evict every other page.
+     */
+    public BufferRing newScanRing(DbFile file) {
+        BufferPool pool = poolForTable(file.getId());
+        if (pool != this) {
+            return pool.newScanRing(file);
+        }
+        if (!(file instanceof HeapFile)) {
+            return null;
+        }
+        long bytes = (long) ((HeapFile) file).numPages() * file.getPageSize();
+        if (bytes <= maxBytes) {
+            return null;
+        }
+        return newRing(SCAN_RING_BYTES, file.getPageSize());
+    }
+
+    /**
+     * Create a ring for inserting many tuples into file.
+     */
+    public BufferRing newBulkWriteRing(DbFile file) {
+        BufferPool pool = poolForTable(file.getId());
+        if (pool != this) {
+            return pool.newBulkWriteRing(file);
+        }
+        return newRing(BULK_WRITE_RING_BYTES, file.getPageSize());
+    }
+
+    private BufferRing newRing(long ringBytes, int pageSize) {
+        // 环最多占用缓冲池的1/8
+        long bytes = Math.min(ringBytes, maxBytes / 8);
+        return new BufferRing(this, (int) Math.max(1, bytes / pageSize));
+    }
+
+    /**
+     * Called by {@link BufferRing#close}: clean pages of the ring leave the
+     * pool right away, dirty ones become ordinary pages of the pool.
+     */
+    synchronized void releaseRing(BufferRing ring) {
+        for (PageId pid : ring.drain()) {
+            ringOf.remove(pid);
+            if (isClean(pid) && !isPinned(pid)) {
+                removePage(pid);
+            } else {
+                evict.addPageId(pid);
+            }
+        }
+    }
+
+    /**
+     * Move a page read through a ring into the main eviction order.
+     */
+    private synchronized void promote(PageId pid) {
+        BufferRing ring = ringOf.remove(pid);
+        if (ring != null) {
+            ring.remove(pid);
             evict.addPageId(pid);
         }
-        return pageCache.get(pid);
+    }
+
+    /**
+     * Record a page that was just read into the pool.
+     */
+    private void admit(PageId pid, BufferRing ring) {
+        if (ring == null) {
+            evict.addPageId(pid);
+        } else {
+            ring.add(pid);
+            ringOf.put(pid, ring);
+        }
+    }
+
+    /**
+     * getPage for off-heap buffer pools: find or fill the frame of the page
+     * and hand out the page object for it.
+     */
+    private synchronized Page getFramePage(PageId pid, Permissions perm, BufferRing ring) throws DbException {
+        DbFile dbFile = Database.getCatalog().getDatabaseFile(pid.getTableId());
+        FrameArena.Frame frame = frames.get(pid);
+        if (frame != null && !ringOf.containsKey(pid)) {
+            evict.accessPageId(pid);
+        } else if (frame != null && ring == null) {
+            promote(pid);
+        }
+        if (frame == null) {
+            int size = dbFile.getPageSize();
+            frame = allocateFrame(size, ring);
+            byte[] cached = takeVictim(pid);
+            try {
+                if (cached != null) {
+                    ByteBuffer dst = frame.buffer().duplicate();
+                    dst.clear();
+                    dst.put(cached);
+                } else {
+                    dbFile.readPage(pid, frame.buffer());
+                }
+            } catch (RuntimeException e) {
+                arena.free(frame);
+                throw e;
+            }
+            frame.pageId = pid;
+            frames.put(pid, frame);
+            usedBytes += size;
+            admit(pid, ring);
+        }
+        Page page = frame.livePage();
+        if (page == null) {
+            page = dbFile.pageView(pid, frame.buffer());
+            frame.view = new WeakReference<>(page);
+        }
+        if (perm == Permissions.READ_WRITE) {
+            // the caller may modify the page, keep it until it is flushed
+            frame.page = page;
+        }
+        return page;
+    }
+
+    /**
+     * Take a frame of size bytes from the arena, evicting pages until one
+     * is available.
+     */
+    private FrameArena.Frame allocateFrame(int size, BufferRing ring) throws DbException {
+        FrameArena.Frame frame;
+        // 缩小后arena可能比预算大, 还要检查预算
+        while (usedBytes + size > maxBytes || (frame = arena.allocate(size)) == null) {
+            if (frames.isEmpty()) {
+                throw new DbException("no frame of " + size + " bytes in an arena of " + arena.getCapacity() + " bytes");
+            }
+            evictPage(ring);
+        }
+        return frame;
+    }
+
+    /**
+     * Read a page that is not cached from its DbFile, evicting pages until
+     * it fits in the memory budget.
+     */
+    private synchronized Page loadPage(PageId pid, BufferRing ring) throws DbException {
+        Page page = pageCache.get(pid);
+        if (page != null) {
+            return page;
+        }
+        DbFile dbFile = Database.getCatalog().getDatabaseFile(pid.getTableId());
+        int size = dbFile.getPageSize();
+        if (size > maxBytes) {
+            throw new DbException("page of " + size + " bytes does not fit in a buffer pool of " + maxBytes + " bytes");
+        }
+        while (usedBytes + size > maxBytes) {
+            evictPage(ring);
+        }
+        byte[] cached = takeVictim(pid);
+        page = cached != null ? dbFile.pageView(pid, ByteBuffer.wrap(cached)) : dbFile.readPage(pid);
+        pageCache.put(pid, page);
+        pageBytes.put(pid, size);
+        usedBytes += size;
+        admit(pid, ring);
+        return page;
     }
 
     /**
@@ -118,6 +751,7 @@ public class BufferPool {
     public void transactionComplete(TransactionId tid) {
         // some code goes here
         // not necessary for lab1|lab2
+        unpinAll(tid);
     }
 
     /**
@@ -139,6 +773,40 @@ public class BufferPool {
     public void transactionComplete(TransactionId tid, boolean commit) {
         // some code goes here
         // not necessary for lab1|lab2
+        unpinAll(tid);
+        if (commit) {
+            try {
+                commitPages(tid);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * Make the pages dirtied by a committing transaction ready for its
+     * COMMIT record: pages whose changes are only logged as page images
+     * when they are written are written now, and the current contents of
+     * each page become its before image.
+     */
+    private synchronized void commitPages(TransactionId tid) throws IOException {
+        for (BufferPool pool : namedPools.values()) {
+            pool.commitPages(tid);
+        }
+        Set<PageId> pids = dirtiedBy.get(tid);
+        if (pids == null) {
+            return;
+        }
+        for (PageId pid : new ArrayList<>(pids)) {
+            Page page = cachedPage(pid);
+            if (page == null) {
+                continue;
+            }
+            if (needsImage.contains(pid)) {
+                flushPage(pid);
+            }
+            page.setBeforeImage();
+        }
     }
 
     /**
@@ -158,8 +826,28 @@ public class BufferPool {
      */
     public void insertTuple(TransactionId tid, int tableId, Tuple t)
             throws DbException, IOException, TransactionAbortedException {
+        insertTuple(tid, tableId, t, null);
+    }
+
+    /**
+     * Add a tuple to the specified table, reading the pages it needs through
+     * the given ring, e.g. one from {@link #newBulkWriteRing}.
+     *
+     * @see #insertTuple(TransactionId, int, Tuple)
+     */
+    public void insertTuple(TransactionId tid, int tableId, Tuple t, BufferRing ring)
+            throws DbException, IOException, TransactionAbortedException {
         DbFile dbFile = Database.getCatalog().getDatabaseFile(tableId);
-        updateBufferPool(dbFile.insertTuple(tid, t), tid);
+        List<Page> pages = dbFile.insertTuple(tid, t, ring);
+        LogFile log = Database.getLogFile();
+        // 检查点不能在写日志和标记脏页之间拍快照
+        log.checkpointLock.readLock().lock();
+        try {
+            long lsn = isSlotChange(t, pages) ? log.logInsert(tid, t) : NO_LSN;
+            updateBufferPool(pages, tid, lsn);
+        } finally {
+            log.checkpointLock.readLock().unlock();
+        }
     }
 
     /**
@@ -177,13 +865,96 @@ public class BufferPool {
      */
     public void deleteTuple(TransactionId tid, Tuple t)
             throws DbException, IOException, TransactionAbortedException {
-        DbFile dbFile = Database.getCatalog().getDatabaseFile(t.getRecordId().getPageId().getTableId());
-        updateBufferPool(dbFile.deleteTuple(tid, t), tid);
+        RecordId rid = t.getRecordId();
+        DbFile dbFile = Database.getCatalog().getDatabaseFile(rid.getPageId().getTableId());
+        // 删除前取出元组的字节, 用于撤销
+        byte[] data = dbFile instanceof HeapFile ? LogFile.tupleData(t) : null;
+        List<Page> pages = dbFile.deleteTuple(tid, t);
+        LogFile log = Database.getLogFile();
+        log.checkpointLock.readLock().lock();
+        try {
+            long lsn = data != null && isSlotChange(t, pages) ? log.logDelete(tid, rid, data) : NO_LSN;
+            updateBufferPool(pages, tid, lsn);
+        } finally {
+            log.checkpointLock.readLock().unlock();
+        }
     }
 
-    private void updateBufferPool(List<Page> pages, TransactionId tid) throws DbException {
+    /**
+     * @return true if the only page changed by inserting or deleting t is
+     * the HeapPage holding it, so the change is described by the slot of t
+     */
+    private static boolean isSlotChange(Tuple t, List<Page> pages) {
+        return pages.size() == 1 && pages.get(0) instanceof HeapPage && t.getRecordId() != null
+                && pages.get(0).getId().equals(t.getRecordId().getPageId());
+    }
+
+    private void updateBufferPool(List<Page> pages, TransactionId tid, long lsn) throws DbException {
         for (Page page : pages) {
-            page.markDirty(true, tid);
+            poolFor(page.getId()).markDirty(page, tid, lsn);
+        }
+    }
+
+    /**
+     * Called by {@link LogFile} after making a logged change to a page of
+     * the pool, e.g. when rolling back a transaction.
+     *
+     * @param lsn the LSN of the record describing the change
+     */
+    void logged(Page page, TransactionId tid, long lsn) {
+        poolFor(page.getId()).markDirty(page, tid, lsn);
+    }
+
+    /**
+     * A snapshot of the dirty page table of this pool and its named pools,
+     * taken by a checkpoint: each page with logged changes not on disk,
+     * mapped to the LSN of the first of them. Pages whose changes are not
+     * logged yet are left out, their records will follow the checkpoint.
+     */
+    synchronized Map<PageId, Long> getDirtyPageTable() {
+        Map<PageId, Long> dpt = new HashMap<>(recLsn);
+        for (BufferPool pool : namedPools.values()) {
+            dpt.putAll(pool.getDirtyPageTable());
+        }
+        return dpt;
+    }
+
+    /**
+     * Ask the page cleaners of this pool and its named pools, if running,
+     * to write dirty pages now rather than at the end of their interval.
+     */
+    void requestCleaning() {
+        for (BufferPool pool : namedPools.values()) {
+            pool.requestCleaning();
+        }
+        PageCleaner c;
+        synchronized (this) {
+            c = cleaner;
+        }
+        if (c != null) {
+            c.wakeUp();
+        }
+    }
+
+    /**
+     * @param lsn the LSN of the log record describing the change, or
+     *            {@link #NO_LSN} if the change is not logged yet and the
+     *            page must be logged as an image when it is written
+     */
+    private synchronized void markDirty(Page page, TransactionId tid, long lsn) {
+        page.markDirty(true, tid);
+        if (lsn == NO_LSN) {
+            needsImage.add(page.getId());
+        } else {
+            pageLsn.put(page.getId(), lsn);
+            recLsn.putIfAbsent(page.getId(), lsn);
+        }
+        dirtiedBy.computeIfAbsent(tid, k -> new HashSet<>()).add(page.getId());
+        if (arena != null) {
+            FrameArena.Frame frame = frames.get(page.getId());
+            if (frame != null) {
+                frame.page = page;
+            }
         }
     }
 
@@ -193,6 +964,15 @@ public class BufferPool {
      * break simpledb if running in NO STEAL mode.
      */
     public synchronized void flushAllPages() throws IOException {
+        for (BufferPool pool : namedPools.values()) {
+            pool.flushAllPages();
+        }
+        if (arena != null) {
+            for (PageId pageId : new ArrayList<>(frames.keySet())) {
+                flushPage(pageId);
+            }
+            return;
+        }
         pageCache.forEach((pageId, page) -> {
             try {
                 flushPage(pageId);
@@ -212,7 +992,35 @@ public class BufferPool {
      * are removed from the cache so they can be reused safely
      */
     public synchronized void discardPage(PageId pid) {
-        pageCache.remove(pid);
+        BufferPool pool = poolFor(pid);
+        if (pool != this) {
+            pool.discardPage(pid);
+            return;
+        }
+        forgetDirty(cachedPage(pid));
+        pageLsn.remove(pid);
+        recLsn.remove(pid);
+        needsImage.remove(pid);
+        CompressedPageCache cache = victimCache;
+        if (cache != null) {
+            cache.remove(pid);
+        }
+        BufferRing ring = ringOf.remove(pid);
+        if (ring != null) {
+            ring.remove(pid);
+        } else {
+            evict.removePageId(pid);
+        }
+        if (arena != null) {
+            FrameArena.Frame frame = frames.remove(pid);
+            if (frame != null) {
+                releaseFrame(frame);
+            }
+            return;
+        }
+        if (pageCache.remove(pid) != null) {
+            usedBytes -= pageBytes.remove(pid);
+        }
     }
 
     /**
@@ -221,34 +1029,360 @@ public class BufferPool {
      * @param pid an ID indicating the page to flush
      */
     private synchronized void flushPage(PageId pid) throws IOException {
+        if (arena != null) {
+            flushFrame(frames.get(pid));
+            return;
+        }
         Page flush = pageCache.get(pid);
+        if (flush != null) {
+            writePage(flush);
+        }
+    }
+
+    /**
+     * Write a page to its DbFile. If the page is dirty, the log is forced
+     * first up to the LSN of the page, so the log always reaches disk before
+     * the pages it describes; changes not logged yet are logged first as an
+     * UPDATE record with the whole page. The page is then clean.
+     */
+    private void writePage(Page page) throws IOException {
+        TransactionId dirtier = page.isDirty();
+        PageId pid = page.getId();
+        if (dirtier != null) {
+            LogFile log = Database.getLogFile();
+            Long lsn = pageLsn.get(pid);
+            if (needsImage.remove(pid) || lsn == null) {
+                log.logWrite(dirtier, page.getBeforeImage(), page);
+                log.force();
+            } else {
+                // 所有修改都已写成槽记录
+                log.force(lsn);
+            }
+        }
         // 通过tableId找到对应的DbFile,并将page写入到对应的DbFile中
-        int tableId = pid.getTableId();
-        DbFile dbFile = Database.getCatalog().getDatabaseFile(tableId);
-        // 将page刷新到磁盘
-        dbFile.writePage(flush);
+        DbFile dbFile = Database.getCatalog().getDatabaseFile(page.getId().getTableId());
+        dbFile.writePage(page);
+        recLsn.remove(pid);
+        if (dirtier != null) {
+            page.markDirty(false, null);
+            forgetDirty(page, dirtier);
+        }
+    }
+
+    /**
+     * @return the page object of pid that may hold changes not on disk, or
+     * null if the page is not cached (or, off-heap, only cached as a view)
+     */
+    private Page cachedPage(PageId pid) {
+        if (arena != null) {
+            FrameArena.Frame frame = frames.get(pid);
+            return frame == null ? null : frame.page;
+        }
+        return pageCache.get(pid);
+    }
+
+    /**
+     * @return true if pid can leave the pool without being written to disk
+     */
+    private boolean isClean(PageId pid) {
+        Page page = cachedPage(pid);
+        return page == null || page.isDirty() == null;
+    }
+
+    private void forgetDirty(Page page) {
+        if (page != null && page.isDirty() != null) {
+            forgetDirty(page, page.isDirty());
+        }
+    }
+
+    private void forgetDirty(Page page, TransactionId dirtier) {
+        Set<PageId> pids = dirtiedBy.get(dirtier);
+        if (pids != null) {
+            pids.remove(page.getId());
+            if (pids.isEmpty()) {
+                dirtiedBy.remove(dirtier);
+            }
+        }
+    }
+
+    /**
+     * Write the page object of a frame to disk and to the frame, if it may
+     * hold changes the frame does not have yet.
+     */
+    private void flushFrame(FrameArena.Frame frame) throws IOException {
+        if (frame == null || frame.page == null) {
+            // 帧中的字节与磁盘一致
+            return;
+        }
+        Page page = frame.page;
+        writePage(page);
+        byte[] data = page.getPageData();
+        ByteBuffer dst = frame.buffer().duplicate();
+        dst.clear();
+        dst.put(data);
+        frame.view = new WeakReference<>(page);
+        if (page.isDirty() == null) {
+            frame.page = null;
+        }
+    }
+
+    /**
+     * Give the frame of a page that left the pool back to the arena.
+     */
+    private void releaseFrame(FrameArena.Frame frame) {
+        Page live = frame.livePage();
+        if (live != null) {
+            live.detach();
+        }
+        usedBytes -= frame.size();
+        arena.free(frame);
+        if (arena.getCapacity() > maxBytes) {
+            arena.trim(maxBytes);
+        }
     }
 
     /**
      * Write all pages of the specified transaction to disk.
      */
     public synchronized void flushPages(TransactionId tid) throws IOException {
-        // some code goes here
-        // not necessary for lab1|lab2
+        for (BufferPool pool : namedPools.values()) {
+            pool.flushPages(tid);
+        }
+        Set<PageId> pids = dirtiedBy.remove(tid);
+        if (pids == null) {
+            return;
+        }
+        for (PageId pid : pids) {
+            Page page = cachedPage(pid);
+            if (page != null && tid.equals(page.isDirty())) {
+                flushPage(pid);
+            }
+        }
+    }
+
+    /**
+     * Write up to maxPages dirty pages to disk, taking the pool lock once per
+     * page so that concurrent getPage calls are not held up for a whole
+     * round. The pages stay cached but become clean, so eviction can later
+     * drop them without any I/O. Pages whose first logged change is the
+     * oldest are written first, which lets the log be truncated further at
+     * the next checkpoint.
+     *
+     * @return the number of pages written
+     */
+    public int cleanDirtyPages(int maxPages) throws IOException {
+        List<PageId> dirty = new ArrayList<>();
+        synchronized (this) {
+            for (Set<PageId> pids : dirtiedBy.values()) {
+                dirty.addAll(pids);
+            }
+        }
+        // 先写recLSN最小的页面, 使检查点之后能截断更多的日志
+        dirty.sort(Comparator.comparingLong(pid -> recLsn.getOrDefault(pid, Long.MAX_VALUE)));
+        int written = 0;
+        for (PageId pid : dirty) {
+            if (written >= maxPages) {
+                break;
+            }
+            synchronized (this) {
+                if (!isClean(pid)) {
+                    flushPage(pid);
+                    written++;
+                }
+            }
+        }
+        return written;
+    }
+
+    /**
+     * Start a background thread that writes dirty pages to disk, so that
+     * evictions find clean victims and do not have to wait for a write.
+     * The thread writes up to pagesPerRound pages every intervalMillis
+     * milliseconds, and right away when an eviction found no clean page.
+     * Does nothing if the cleaner is already running.
+     */
+    public synchronized void startPageCleaner(long intervalMillis, int pagesPerRound) {
+        if (cleaner == null) {
+            cleaner = new PageCleaner(intervalMillis, pagesPerRound);
+            cleaner.start();
+        }
+    }
+
+    /**
+     * Stop the background page cleaners of this pool and its named pools,
+     * if running, and wait for them to exit.
+     */
+    public void stopPageCleaner() {
+        for (BufferPool pool : namedPools.values()) {
+            pool.stopPageCleaner();
+        }
+        PageCleaner c;
+        synchronized (this) {
+            c = cleaner;
+            cleaner = null;
+        }
+        if (c != null) {
+            c.shutdown();
+        }
+    }
+
+    /**
+     * Make room for a page read through ring: once the ring is full its
+     * oldest unpinned page is replaced, otherwise a page of the pool is
+     * evicted.
+     */
+    private void evictPage(BufferRing ring) throws DbException {
+        if (ring != null && ring.isFull()) {
+            PageId victim = ring.recycle(pid -> !isPinned(pid));
+            if (victim != null) {
+                ringOf.remove(victim);
+                removePage(victim);
+                return;
+            }
+        }
+        evictPage();
     }
 
     /**
      * Discards a page from the buffer pool.
-     * Flushes the page to disk to ensure dirty pages are updated on disk.
+     * Pinned pages are never chosen. Prefers the first clean page in
+     * eviction order, which can be dropped without I/O; only if every
+     * unpinned page is dirty is one flushed to disk first.
      */
     private synchronized void evictPage() throws DbException {
-        PageId evictPageId = evict.getEvictPageId();
+        PageId evictPageId = evict.getEvictPageId(pid -> !isPinned(pid) && isClean(pid));
+        if (evictPageId == null) {
+            evictPageId = evict.getEvictPageId(pid -> !isPinned(pid));
+            if (cleaner != null) {
+                cleaner.wakeUp();
+            }
+        }
+        if (evictPageId == null) {
+            // 只剩下环中的页面
+            for (Map.Entry<PageId, BufferRing> e : ringOf.entrySet()) {
+                if (!isPinned(e.getKey())) {
+                    evictPageId = e.getKey();
+                    e.getValue().remove(evictPageId);
+                    ringOf.remove(evictPageId);
+                    break;
+                }
+            }
+        }
+        if (evictPageId == null) {
+            throw new DbException(pinCount.isEmpty() ? "no page to evict" : "all pages in the buffer pool are pinned");
+        }
+        CompressedPageCache cache = victimCache;
+        if (cache != null && isClean(evictPageId)) {
+            cache.put(evictPageId, pageData(evictPageId));
+        }
+        removePage(evictPageId);
+    }
+
+    /**
+     * @return the current bytes of a cached page
+     */
+    private byte[] pageData(PageId pid) {
+        Page page = cachedPage(pid);
+        if (page != null) {
+            return page.getPageData();
+        }
+        FrameArena.Frame frame = frames.get(pid);
+        byte[] data = new byte[frame.size()];
+        ByteBuffer src = frame.buffer().duplicate();
+        src.clear();
+        src.get(data);
+        return data;
+    }
+
+    /**
+     * @return the bytes of pid if it was in the victim cache, or null
+     */
+    private byte[] takeVictim(PageId pid) {
+        CompressedPageCache cache = victimCache;
+        return cache == null ? null : cache.take(pid);
+    }
+
+    /**
+     * Write a page that left the eviction order to disk if needed and drop
+     * it from the pool.
+     */
+    private void removePage(PageId pid) {
+        if (arena != null) {
+            FrameArena.Frame frame = frames.remove(pid);
+            try {
+                flushFrame(frame);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            releaseFrame(frame);
+            pageLsn.remove(pid);
+            recLsn.remove(pid);
+            return;
+        }
         try {
-            flushPage(evictPageId);
+            flushPage(pid);
         } catch (IOException e) {
             e.printStackTrace();
         }
-        pageCache.remove(evictPageId);
+        pageCache.remove(pid);
+        usedBytes -= pageBytes.remove(pid);
+        pageLsn.remove(pid);
+        recLsn.remove(pid);
     }
 
-}
\ No newline at end of file
+    private class PageCleaner extends Thread {
+        private final long intervalMillis;
+        private final int pagesPerRound;
+        // guarded by this
+        private boolean stopped;
+        private boolean wakeRequested;
+
+        PageCleaner(long intervalMillis, int pagesPerRound) {
+            super("BufferPool page cleaner");
+            setDaemon(true);
+            this.intervalMillis = intervalMillis;
+            this.pagesPerRound = pagesPerRound;
+        }
+
+        synchronized void wakeUp() {
+            wakeRequested = true;
+            notifyAll();
+        }
+
+        void shutdown() {
+            synchronized (this) {
+                stopped = true;
+                notifyAll();
+            }
+            try {
+                join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        @Override
+        public void run() {
+            while (true) {
+                synchronized (this) {
+                    if (!stopped && !wakeRequested) {
+                        try {
+                            wait(intervalMillis);
+                        } catch (InterruptedException e) {
+                            return;
+                        }
+                    }
+                    if (stopped) {
+                        return;
+                    }
+                    wakeRequested = false;
+                }
+                try {
+                    cleanDirtyPages(pagesPerRound);
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+    }
+}
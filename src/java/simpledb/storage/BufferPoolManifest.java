@@ -0,0 +1,158 @@
+package simpledb.storage;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationTargetException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * BufferPoolManifest records which pages a BufferPool holds, so that a
+ * restarted database can load them again before queries need them (see
+ * {@link PoolWarmer}).
+ * <p>
+ * The manifest lists the PageIds of the resident pages ordered by recency,
+ * the most recently used first; the position of a page is its recency rank.
+ * Each PageId is stored as its class name and {@link PageId#serialize()}, the
+ * same way {@link LogFile} stores the pages of its records. The file is
+ * written to a temporary file and renamed, so a crash while writing leaves
+ * the previous manifest in place.
+ */
+public class BufferPoolManifest {
+
+    private static final int MAGIC = 0x42504d46;
+    private static final int VERSION = 1;
+
+    private final File file;
+    private Thread writer;
+
+    public BufferPoolManifest(File file) {
+        this.file = file;
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * Write the resident pages of pool to the manifest file.
+     *
+     * @return the number of pages written
+     */
+    public synchronized int write(BufferPool pool) throws IOException {
+        List<PageId> pids = pool.getResidentPages();
+        File tmp = new File(file.getPath() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(pids.size());
+            for (PageId pid : pids) {
+                int[] args = pid.serialize();
+                out.writeUTF(pid.getClass().getName());
+                out.writeInt(args.length);
+                for (int arg : args) {
+                    out.writeInt(arg);
+                }
+            }
+        }
+        Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        return pids.size();
+    }
+
+    /**
+     * Read the pages listed in the manifest file.
+     *
+     * @return the PageIds in the manifest, the most recently used first, or
+     * an empty list if there is no manifest
+     * @throws IOException if the manifest cannot be read or is not a manifest
+     */
+    public synchronized List<PageId> read() throws IOException {
+        List<PageId> pids = new ArrayList<>();
+        if (!file.exists()) {
+            return pids;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                throw new IOException(file + " is not a buffer pool manifest");
+            }
+            int n = in.readInt();
+            for (int i = 0; i < n; i++) {
+                String idClassName = in.readUTF();
+                Object[] args = new Object[in.readInt()];
+                for (int j = 0; j < args.length; j++) {
+                    args[j] = in.readInt();
+                }
+                pids.add(newPageId(idClassName, args));
+            }
+        }
+        return pids;
+    }
+
+    private static PageId newPageId(String idClassName, Object[] args) throws IOException {
+        try {
+            for (Constructor<?> c : Class.forName(idClassName).getDeclaredConstructors()) {
+                if (c.getParameterCount() == args.length) {
+                    return (PageId) c.newInstance(args);
+                }
+            }
+        } catch (ClassNotFoundException | InvocationTargetException | IllegalAccessException
+                | InstantiationException | IllegalArgumentException e) {
+            throw new IOException("cannot restore page id of class " + idClassName, e);
+        }
+        throw new IOException("no constructor of " + idClassName + " takes " + args.length + " ints");
+    }
+
+    /**
+     * Start a daemon thread that writes the manifest of pool every
+     * intervalMillis milliseconds, so that the manifest is recent even if
+     * the database does not shut down cleanly. Does nothing if already
+     * started.
+     */
+    public synchronized void startPeriodicWrites(BufferPool pool, long intervalMillis) {
+        if (writer != null) {
+            return;
+        }
+        writer = new Thread(() -> {
+            while (!Thread.currentThread().isInterrupted()) {
+                try {
+                    Thread.sleep(intervalMillis);
+                    write(pool);
+                } catch (InterruptedException e) {
+                    return;
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        }, "BufferPool manifest writer");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /**
+     * Stop the thread started by {@link #startPeriodicWrites}, if any.
+     */
+    public void stopPeriodicWrites() {
+        Thread t;
+        synchronized (this) {
+            t = writer;
+            writer = null;
+        }
+        if (t != null) {
+            t.interrupt();
+            try {
+                t.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+}
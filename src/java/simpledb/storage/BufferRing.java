@@ -0,0 +1,121 @@
+package simpledb.storage;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.function.Predicate;
+
+/**
+ * BufferRing is an access strategy for operations that touch many pages
+ * once, such as a sequential scan of a large table or a bulk insert. Pages
+ * read through a ring are kept out of the main eviction order of the
+ * BufferPool; once the ring holds its capacity of pages, the next page it
+ * reads replaces the oldest page of the ring instead of some other page of
+ * the pool. A large scan therefore only ever takes a few frames and leaves
+ * the working set of other queries alone.
+ * <p>
+ * A page of a ring that is also requested without the ring becomes an
+ * ordinary page of the pool. Rings are created with
+ * {@link BufferPool#newScanRing} or {@link BufferPool#newBulkWriteRing} and
+ * must be closed when the operation is done.
+ * <p>
+ * Not thread-safe; the BufferPool only calls it while holding its monitor.
+ */
+public class BufferRing {
+
+    private final BufferPool pool;
+    private final int capacity;
+    /**
+     * 环中的页面, 最早读入的在队头
+     */
+    private final Deque<PageId> pages;
+    /**
+     * 批量插入时上一次找到空位的页号, 下次从这里开始找
+     */
+    private int insertPage;
+
+    BufferRing(BufferPool pool, int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("ring capacity must be positive");
+        }
+        this.pool = pool;
+        this.capacity = capacity;
+        this.pages = new ArrayDeque<>(capacity);
+    }
+
+    /**
+     * @return the buffer pool this ring takes its frames from
+     */
+    public BufferPool getPool() {
+        return pool;
+    }
+
+    /**
+     * @return the number of pages this ring recycles
+     */
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * @return the number of pages currently held by this ring
+     */
+    public int size() {
+        return pages.size();
+    }
+
+    /**
+     * @return the page number a bulk insert through this ring should start
+     * looking for free space at
+     */
+    public int getInsertPage() {
+        return insertPage;
+    }
+
+    public void setInsertPage(int insertPage) {
+        this.insertPage = insertPage;
+    }
+
+    /**
+     * Give the pages of this ring back to the pool.
+     */
+    public void close() {
+        pool.releaseRing(this);
+    }
+
+    boolean isFull() {
+        return pages.size() >= capacity;
+    }
+
+    void add(PageId pid) {
+        pages.addLast(pid);
+    }
+
+    void remove(PageId pid) {
+        pages.remove(pid);
+    }
+
+    /**
+     * Remove and return the oldest page of the ring that satisfies
+     * canRecycle, or null if there is none.
+     */
+    PageId recycle(Predicate<PageId> canRecycle) {
+        for (Iterator<PageId> it = pages.iterator(); it.hasNext(); ) {
+            PageId pid = it.next();
+            if (canRecycle.test(pid)) {
+                it.remove();
+                return pid;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Remove and return all pages of the ring.
+     */
+    Deque<PageId> drain() {
+        Deque<PageId> all = new ArrayDeque<>(pages);
+        pages.clear();
+        return all;
+    }
+}
@@ -0,0 +1,219 @@
+package simpledb.storage;
+
+import simpledb.common.Type;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Iterator;
+
+/**
+ * CompactTuple is a Tuple whose values live in their serialized form, a
+ * region of a byte array laid out exactly as {@link Tuple#serialize} would
+ * write it (field i starts at {@link TupleDesc#getFieldOffset(int)}).
+ * <p>
+ * Pages hand out CompactTuples that point straight into the page bytes, so
+ * reading a page costs a tuple and an empty field cache per tuple instead
+ * of a tuple, a field list and one boxed Field per column. {@link #getInt}
+ * decodes the value in place; Field objects are only created (and then
+ * cached) when a caller asks for them through {@link #getField}.
+ * <p>
+ * The bytes may also live in a ByteBuffer, e.g. a frame of an off-heap
+ * {@link FrameArena}. Such a tuple is only valid while the frame holds its
+ * page; {@link #detach} copies the values out before the frame is reused.
+ * The tuple keeps the object responsible for detaching it (its page)
+ * reachable, so the page cannot be collected and forget to detach it while
+ * a caller still holds the tuple. Since the frame may be detached by another
+ * thread than the one reading the tuple, every read of the frame checks
+ * afterwards whether the tuple was detached meanwhile, and if so uses the
+ * values detach copied out instead.
+ * <p>
+ * The backing bytes are never written to. The first call to
+ * {@link #setField} decodes every field and from then on the tuple behaves
+ * like an ordinary Tuple.
+ */
+public class CompactTuple extends Tuple {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * The backing bytes; exactly one of data and buf is set.
+     */
+    private final byte[] data;
+    private final ByteBuffer buf;
+    private final int offset;
+    /**
+     * The object that detaches this tuple before buf is reused, or null.
+     */
+    private final Object owner;
+
+    /**
+     * Lazily decoded fields; never replaced, so a detach on another thread
+     * cannot be lost.
+     */
+    private final Field[] decoded;
+
+    /**
+     * True once setField or detach was called; the bytes are then stale.
+     * Volatile since a frame may be detached by another thread than the one
+     * reading the tuple.
+     */
+    private volatile boolean modified;
+
+    /**
+     * Create a tuple over the serialized bytes of a tuple of the given schema.
+     *
+     * @param td     the schema of this tuple
+     * @param data   the bytes holding the serialized tuple; not copied, and
+     *               must not be modified while the tuple is alive
+     * @param offset position of the first byte of the tuple within data
+     */
+    public CompactTuple(TupleDesc td, byte[] data, int offset) {
+        super(td, null);
+        this.data = data;
+        this.buf = null;
+        this.offset = offset;
+        this.owner = null;
+        this.decoded = new Field[td.numFields()];
+    }
+
+    /**
+     * Create a tuple over the serialized bytes of a tuple held in a buffer.
+     *
+     * @param td     the schema of this tuple
+     * @param buf    the buffer holding the serialized tuple; only read with
+     *               absolute gets, so its position and limit do not matter
+     * @param offset position of the first byte of the tuple within buf
+     * @param owner  the object that calls {@link #detach} before buf is
+     *               reused; kept reachable as long as this tuple is
+     */
+    public CompactTuple(TupleDesc td, ByteBuffer buf, int offset, Object owner) {
+        super(td, null);
+        this.data = null;
+        this.buf = buf;
+        this.offset = offset;
+        this.owner = owner;
+        this.decoded = new Field[td.numFields()];
+    }
+
+    /**
+     * @return true if this tuple reads its values from buf
+     */
+    boolean isBackedBy(ByteBuffer buf) {
+        return !modified && this.buf == buf;
+    }
+
+    /**
+     * Decode every field so the tuple no longer reads the backing bytes.
+     */
+    synchronized void detach() {
+        if (!modified) {
+            // 先写完所有字段再置modified, 其他线程看到modified时也能看到全部字段
+            TupleDesc td = getTupleDesc();
+            for (int j = 0; j < decoded.length; j++) {
+                if (decoded[j] == null) {
+                    decoded[j] = data != null ? td.getFieldType(j).parse(data, offset + td.getFieldOffset(j))
+                            : td.getFieldType(j).parse(buf, offset + td.getFieldOffset(j));
+                }
+            }
+            modified = true;
+        }
+    }
+
+    @Override
+    public Field getField(int i) {
+        Field f = decoded[i];
+        if (f == null && !modified) {
+            TupleDesc td = getTupleDesc();
+            f = data != null ? td.getFieldType(i).parse(data, offset + td.getFieldOffset(i))
+                    : td.getFieldType(i).parse(buf, offset + td.getFieldOffset(i));
+            if (modified) {
+                // 读取期间被detach, 读到的可能已是别的页面的字节
+                return decoded[i];
+            }
+            decoded[i] = f;
+        }
+        return f;
+    }
+
+    @Override
+    public int getInt(int i) {
+        if (!modified) {
+            int pos = offset + getTupleDesc().getFieldOffset(i);
+            int value = data != null ? Type.readInt(data, pos) : buf.getInt(pos);
+            if (!modified) {
+                return value;
+            }
+        }
+        return super.getInt(i);
+    }
+
+    @Override
+    public void setField(int i, Field f) {
+        detach();
+        decoded[i] = f;
+    }
+
+    @Override
+    public void serialize(DataOutputStream dos) throws IOException {
+        if (modified) {
+            super.serialize(dos);
+        } else if (data != null) {
+            dos.write(data, offset, getTupleDesc().getSize());
+        } else {
+            byte[] bytes = new byte[getTupleDesc().getSize()];
+            copyBytes(bytes, 0, bytes.length);
+            if (modified) {
+                super.serialize(dos);
+            } else {
+                dos.write(bytes);
+            }
+        }
+    }
+
+    @Override
+    void copyFieldsTo(Field[] dest, int pos) {
+        for (int i = 0; i < getTupleDesc().numFields(); i++) {
+            dest[pos + i] = getField(i);
+        }
+    }
+
+    @Override
+    public Iterator<Field> fields() {
+        Field[] all = new Field[getTupleDesc().numFields()];
+        copyFieldsTo(all, 0);
+        return Arrays.asList(all).iterator();
+    }
+
+    /**
+     * Concatenate the bytes of two unmodified compact tuples.
+     *
+     * @return the combined tuple, or null if either input has been modified
+     */
+    static CompactTuple concat(TupleDesc td, CompactTuple t1, CompactTuple t2) {
+        if (t1.modified || t2.modified) {
+            return null;
+        }
+        int len1 = t1.getTupleDesc().getSize();
+        int len2 = t2.getTupleDesc().getSize();
+        byte[] bytes = new byte[len1 + len2];
+        t1.copyBytes(bytes, 0, len1);
+        t2.copyBytes(bytes, len1, len2);
+        if (t1.modified || t2.modified) {
+            // 复制期间被detach
+            return null;
+        }
+        return new CompactTuple(td, bytes, 0);
+    }
+
+    private void copyBytes(byte[] dest, int pos, int len) {
+        if (data != null) {
+            System.arraycopy(data, offset, dest, pos, len);
+        } else {
+            ByteBuffer src = buf.duplicate();
+            src.position(offset);
+            src.get(dest, pos, len);
+        }
+    }
+}
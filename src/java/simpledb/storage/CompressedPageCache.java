@@ -0,0 +1,227 @@
+package simpledb.storage;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * CompressedPageCache is a second-tier cache behind a BufferPool: clean
+ * pages evicted from the pool are kept here, deflated, and a page the pool
+ * misses on is looked up here before it is read from disk. Slotted pages
+ * that are partly empty compress well, so the cache holds several times
+ * more pages than the same memory would as pool frames.
+ * <p>
+ * The cache is exclusive: a page taken back into the pool is removed from
+ * the cache, and the pool only adds pages whose bytes match the disk, so
+ * the cache never holds a stale copy as long as the pool tells it about
+ * pages it discards ({@link #remove}). Entries beyond the byte budget are
+ * dropped least recently added first. Pages that do not compress are kept
+ * as they are.
+ * <p>
+ * Thread-safe.
+ */
+public class CompressedPageCache {
+
+    private static final class Entry {
+        /**
+         * 压缩后的页面字节; 如果压缩没有变小, 则是原始字节
+         */
+        final byte[] data;
+        final int pageSize;
+
+        Entry(byte[] data, int pageSize) {
+            this.data = data;
+            this.pageSize = pageSize;
+        }
+
+        boolean compressed() {
+            return data.length < pageSize;
+        }
+    }
+
+    private final long maxBytes;
+    private final Map<PageId, Entry> entries = new LinkedHashMap<>();
+    private final Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+    private final Inflater inflater = new Inflater();
+    /**
+     * 压缩时使用的缓冲区, 比页面大一些, 放得下不可压缩的数据
+     */
+    private byte[] scratch = new byte[0];
+
+    private long storedBytes;
+    private long pageBytes;
+    private long hits;
+    private long misses;
+    private long dropped;
+
+    /**
+     * @param maxBytes the memory budget for the compressed pages in bytes
+     */
+    public CompressedPageCache(long maxBytes) {
+        if (maxBytes <= 0) {
+            throw new IllegalArgumentException("cache budget must be positive");
+        }
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Keep a copy of a clean page leaving the buffer pool.
+     *
+     * @param pid      the id of the page
+     * @param pageData the bytes of the page, the same as on disk
+     */
+    public synchronized void put(PageId pid, byte[] pageData) {
+        remove(pid);
+        byte[] data = compress(pageData);
+        if (data.length > maxBytes) {
+            return;
+        }
+        entries.put(pid, new Entry(data, pageData.length));
+        storedBytes += data.length;
+        pageBytes += pageData.length;
+        Iterator<Entry> it = entries.values().iterator();
+        while (storedBytes > maxBytes) {
+            Entry eldest = it.next();
+            it.remove();
+            storedBytes -= eldest.data.length;
+            pageBytes -= eldest.pageSize;
+            dropped++;
+        }
+    }
+
+    /**
+     * Take a page out of the cache.
+     *
+     * @return the uncompressed bytes of the page, or null if it is not cached
+     */
+    public synchronized byte[] take(PageId pid) {
+        Entry e = entries.remove(pid);
+        if (e == null) {
+            misses++;
+            return null;
+        }
+        hits++;
+        storedBytes -= e.data.length;
+        pageBytes -= e.pageSize;
+        return e.compressed() ? decompress(e) : e.data;
+    }
+
+    /**
+     * Forget the page, e.g. because its contents on disk have changed.
+     */
+    public synchronized void remove(PageId pid) {
+        Entry e = entries.remove(pid);
+        if (e != null) {
+            storedBytes -= e.data.length;
+            pageBytes -= e.pageSize;
+        }
+    }
+
+    public synchronized void clear() {
+        entries.clear();
+        storedBytes = 0;
+        pageBytes = 0;
+    }
+
+    private byte[] compress(byte[] pageData) {
+        if (scratch.length < pageData.length + 64) {
+            scratch = new byte[pageData.length + 64];
+        }
+        deflater.reset();
+        deflater.setInput(pageData);
+        deflater.finish();
+        int n = deflater.deflate(scratch);
+        if (!deflater.finished() || n >= pageData.length) {
+            return pageData.clone();
+        }
+        return Arrays.copyOf(scratch, n);
+    }
+
+    private byte[] decompress(Entry e) {
+        byte[] pageData = new byte[e.pageSize];
+        inflater.reset();
+        inflater.setInput(e.data);
+        try {
+            if (inflater.inflate(pageData) != e.pageSize) {
+                throw new IllegalStateException("compressed page is truncated");
+            }
+        } catch (DataFormatException ex) {
+            throw new IllegalStateException("compressed page is corrupt", ex);
+        }
+        return pageData;
+    }
+
+    /**
+     * @return the memory budget of this cache in bytes
+     */
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    /**
+     * @return the number of pages in the cache
+     */
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public synchronized boolean contains(PageId pid) {
+        return entries.containsKey(pid);
+    }
+
+    /**
+     * @return the bytes taken by the compressed pages
+     */
+    public synchronized long getStoredBytes() {
+        return storedBytes;
+    }
+
+    /**
+     * @return the uncompressed size of the cached pages divided by the
+     * bytes they take, 1 if the cache is empty
+     */
+    public synchronized double getCompressionRatio() {
+        return storedBytes == 0 ? 1.0 : (double) pageBytes / storedBytes;
+    }
+
+    /**
+     * @return the number of lookups that found their page
+     */
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    /**
+     * @return the number of lookups that did not find their page
+     */
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    /**
+     * @return the fraction of lookups that found their page, 0 if there
+     * were none
+     */
+    public synchronized double getHitRate() {
+        long lookups = hits + misses;
+        return lookups == 0 ? 0.0 : (double) hits / lookups;
+    }
+
+    /**
+     * @return the number of pages dropped to stay within the budget
+     */
+    public synchronized long getDropped() {
+        return dropped;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("%d pages in %d/%d bytes (%.1fx), %d hits, %d misses (%.1f%%), %d dropped",
+                entries.size(), storedBytes, maxBytes, getCompressionRatio(), hits, misses,
+                100 * getHitRate(), dropped);
+    }
+}
@@ -8,6 +8,7 @@ import simpledb.transaction.TransactionId;
 
 import java.util.*;
 import java.io.*;
+import java.nio.ByteBuffer;
 
 /**
  * The interface for database files on disk. Each table is represented by a
@@ -33,6 +34,38 @@ public interface DbFile {
      */
     void writePage(Page p) throws IOException;
 
+    /**
+     * Read the specified page from disk into a frame of an off-heap
+     * {@link FrameArena}. The default implementation goes through
+     * {@link #readPage}; files should override it to read straight into the
+     * frame.
+     *
+     * @param id    the page to read
+     * @param frame the frame memory, at least {@link #getPageSize()} bytes;
+     *              only absolute operations may be used on it
+     * @throws IllegalArgumentException if the page does not exist in this file.
+     */
+    default void readPage(PageId id, ByteBuffer frame) {
+        byte[] data = readPage(id).getPageData();
+        for (int i = 0; i < data.length; i++) {
+            frame.put(i, data[i]);
+        }
+    }
+
+    /**
+     * Build the page object for a page held in a frame of an off-heap
+     * {@link FrameArena}. Files whose pages can be views over the frame
+     * memory should override this; the default reads the page again through
+     * {@link #readPage}, which is correct because the BufferPool only keeps
+     * clean pages in frames without a page object.
+     *
+     * @param id    the page held in frame
+     * @param frame the frame memory filled by {@link #readPage(PageId, ByteBuffer)}
+     */
+    default Page pageView(PageId id, ByteBuffer frame) {
+        return readPage(id);
+    }
+
     /**
      * Inserts the specified tuple to the file on behalf of transaction.
      * This method will acquire a lock on the affected pages of the file, and
@@ -48,6 +81,18 @@ public interface DbFile {
     List<Page> insertTuple(TransactionId tid, Tuple t)
         throws DbException, IOException, TransactionAbortedException;
 
+    /**
+     * Inserts the specified tuple like {@link #insertTuple(TransactionId, Tuple)},
+     * reading the pages it needs through the given ring. The default ignores
+     * the ring.
+     *
+     * @param ring the access strategy of the calling operation, or null
+     */
+    default List<Page> insertTuple(TransactionId tid, Tuple t, BufferRing ring)
+        throws DbException, IOException, TransactionAbortedException {
+        return insertTuple(tid, t);
+    }
+
     /**
      * Removes the specified tuple from the file on behalf of the specified
      * transaction.
@@ -73,6 +118,17 @@ public interface DbFile {
      */
     DbFileIterator iterator(TransactionId tid);
 
+    /**
+     * Returns an iterator like {@link #iterator(TransactionId)} that reads
+     * pages through the given ring, for scans that should not take over the
+     * buffer pool. The default ignores the ring.
+     *
+     * @param ring the access strategy of the calling operation, or null
+     */
+    default DbFileIterator iterator(TransactionId tid, BufferRing ring) {
+        return iterator(tid);
+    }
+
     /**
      * Returns a unique ID used to identify this DbFile in the Catalog. This id
      * can be used to look up the table via {@link Catalog#getDatabaseFile} and
@@ -93,4 +149,15 @@ public interface DbFile {
      * @return TupleDesc of this DbFile.
      */
     TupleDesc getTupleDesc();
+
+    /**
+     * Returns the size in bytes of the pages of this DbFile. Different files
+     * may use different page sizes; the BufferPool accounts for each cached
+     * page by the page size of the file it came from.
+     *
+     * @return the page size of this DbFile.
+     */
+    default int getPageSize() {
+        return BufferPool.getPageSize();
+    }
 }
@@ -1,5 +1,8 @@
 package simpledb.storage;
 
+import java.util.List;
+import java.util.function.Predicate;
+
 /**
  * @className: Evictstrategy
  * @author: 朱江
@@ -11,6 +14,49 @@ public interface EvictStrategy {
     // 返回要删除的页面的ID
     PageId getEvictPageId();
 
+    // 按置换顺序返回并删除第一个满足canEvict的页面, 没有则返回null
+    PageId getEvictPageId(Predicate<PageId> canEvict);
+
     void addPageId(PageId pageId);
 
+    // 缓存命中时调用, 可能不持有BufferPool的锁, 实现需要自己保证线程安全
+    default void accessPageId(PageId pageId) {
+    }
+
+    // 页面被移出缓存(如discardPage)时调用, 之后不应再返回该页面
+    void removePageId(PageId pageId);
+
+    // 按置换顺序返回当前所有页面, 第一个是下一个会被置换的页面
+    List<PageId> getEvictionOrder();
+
+    /**
+     * Create the eviction strategy called name for a pool of about numPages
+     * pages: "lru", "fifo", "arc", or "lru-k" (LRU-2) / "lru-N" for LRU-K
+     * with K = N.
+     *
+     * @throws IllegalArgumentException if there is no strategy of that name
+     */
+    static EvictStrategy create(String name, int numPages) {
+        String policy = name.trim().toLowerCase();
+        switch (policy) {
+            case "lru":
+                return new LRUEvict(numPages);
+            case "fifo":
+                return new FIFOEvict(numPages);
+            case "arc":
+                return new ARCEvict(numPages);
+            case "lru-k":
+                return new LRUKEvict(2, numPages);
+            default:
+                if (policy.startsWith("lru-")) {
+                    try {
+                        return new LRUKEvict(Integer.parseInt(policy.substring("lru-".length())), numPages);
+                    } catch (NumberFormatException e) {
+                        // fall through
+                    }
+                }
+                throw new IllegalArgumentException("unknown eviction policy " + name);
+        }
+    }
+
 }
@@ -1,7 +1,11 @@
 package simpledb.storage;
 
 import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Queue;
+import java.util.function.Predicate;
 
 /**
  * @className: FIFOStracy
@@ -20,21 +24,38 @@ public class FIFOEvict implements EvictStrategy {
     }
 
     @Override
-    public void addPageId(PageId pageId) {
+    public synchronized void addPageId(PageId pageId) {
         // 向尾部插入元素
-        boolean offer = queue.offer(pageId);
-        if (offer) {
-            System.out.println("PageId: " + pageId + " 插入队列成功");
-            System.out.println(queue.size());
-        } else {
-            System.out.println("PageId: " + pageId + " 插入队列失败");
-        }
+        queue.offer(pageId);
     }
 
     @Override
-    public PageId getEvictPageId() {
+    public synchronized PageId getEvictPageId() {
         // 从队列头部获取元素
         return queue.poll();
     }
 
+    @Override
+    public synchronized PageId getEvictPageId(Predicate<PageId> canEvict) {
+        Iterator<PageId> it = queue.iterator();
+        while (it.hasNext()) {
+            PageId pageId = it.next();
+            if (canEvict.test(pageId)) {
+                it.remove();
+                return pageId;
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public synchronized void removePageId(PageId pageId) {
+        queue.remove(pageId);
+    }
+
+    @Override
+    public synchronized List<PageId> getEvictionOrder() {
+        return new ArrayList<>(queue);
+    }
+
 }
\ No newline at end of file
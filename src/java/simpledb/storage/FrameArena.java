@@ -0,0 +1,229 @@
+package simpledb.storage;
+
+import java.lang.ref.WeakReference;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * FrameArena is the page memory of a BufferPool created with
+ * {@link BufferPool#offHeap(long)}. The whole budget is allocated up front as
+ * direct ByteBuffer slabs, so cached page bytes live outside the Java heap and
+ * are never copied or collected by the GC.
+ * <p>
+ * A slab is carved into frames of a single size the first time a page of that
+ * size needs a frame, so tables with different page sizes can share the
+ * arena. A slab whose frames are all free again goes back to the pool of
+ * unassigned slabs and may be carved for another page size.
+ * <p>
+ * Not thread-safe; the BufferPool only calls it while holding its monitor.
+ */
+public class FrameArena {
+
+    /**
+     * Default number of bytes per slab.
+     */
+    public static final int DEFAULT_SLAB_SIZE = 1 << 20;
+
+    /**
+     * Descriptor of one frame: the memory holding a single page and the
+     * BufferPool state for the page it currently holds.
+     */
+    public static final class Frame {
+        private final Slab slab;
+        private final ByteBuffer buffer;
+
+        /**
+         * The page held in this frame, or null if the frame is free.
+         */
+        PageId pageId;
+        /**
+         * The page object that must stay in memory: dirty or requested
+         * READ_WRITE, so its changes are not yet in the frame. Null otherwise.
+         */
+        Page page;
+        /**
+         * The last page object handed out for this frame, if any, so that
+         * callers still using it see the same object.
+         */
+        WeakReference<Page> view;
+
+        private Frame(Slab slab, ByteBuffer buffer) {
+            this.slab = slab;
+            this.buffer = buffer;
+        }
+
+        /**
+         * @return the memory of this frame; capacity is the frame size and
+         * only absolute operations should be used on it
+         */
+        public ByteBuffer buffer() {
+            return buffer;
+        }
+
+        /**
+         * @return the size of this frame in bytes
+         */
+        public int size() {
+            return buffer.capacity();
+        }
+
+        /**
+         * @return the page object currently in use for this frame, or null
+         */
+        Page livePage() {
+            if (page != null) {
+                return page;
+            }
+            return view == null ? null : view.get();
+        }
+    }
+
+    private static final class Slab {
+        final ByteBuffer memory;
+        final Deque<Frame> free = new ArrayDeque<>();
+        int frameSize;
+        int numFrames;
+
+        Slab(ByteBuffer memory) {
+            this.memory = memory;
+        }
+
+        /**
+         * Split this slab into frames of frameSize bytes.
+         */
+        void carve(int frameSize) {
+            this.frameSize = frameSize;
+            this.numFrames = memory.capacity() / frameSize;
+            free.clear();
+            for (int i = 0; i < numFrames; i++) {
+                ByteBuffer dup = memory.duplicate();
+                dup.position(i * frameSize);
+                dup.limit((i + 1) * frameSize);
+                free.add(new Frame(this, dup.slice()));
+            }
+        }
+    }
+
+    private final int slabSize;
+    private long capacity;
+    private final List<Slab> unassigned = new ArrayList<>();
+    private final Map<Integer, List<Slab>> slabsBySize = new HashMap<>();
+    private long usedBytes;
+
+    /**
+     * Allocate an arena of capacity bytes in slabs of
+     * {@link #DEFAULT_SLAB_SIZE} bytes.
+     */
+    public FrameArena(long capacity) {
+        this(capacity, DEFAULT_SLAB_SIZE);
+    }
+
+    /**
+     * Allocate an arena of capacity bytes. Frames cannot be larger than a
+     * slab, so slabSize must be at least the largest page size in use.
+     *
+     * @param capacity total bytes of direct memory to allocate
+     * @param slabSize bytes per slab; the last slab may be smaller
+     */
+    public FrameArena(long capacity, int slabSize) {
+        if (capacity <= 0 || slabSize <= 0) {
+            throw new IllegalArgumentException("arena and slab size must be positive");
+        }
+        this.slabSize = slabSize;
+        grow(capacity);
+    }
+
+    /**
+     * Allocate bytes more of direct memory, in slabs of the slab size of
+     * this arena.
+     */
+    public void grow(long bytes) {
+        for (long allocated = 0; allocated < bytes; allocated += slabSize) {
+            int size = (int) Math.min(slabSize, bytes - allocated);
+            unassigned.add(new Slab(ByteBuffer.allocateDirect(size)));
+            capacity += size;
+        }
+    }
+
+    /**
+     * Release slabs holding no frames in use until the capacity is at most
+     * targetCapacity, or no such slab is left. Released memory is freed
+     * when the GC collects its buffer.
+     *
+     * @return the capacity after trimming
+     */
+    public long trim(long targetCapacity) {
+        for (int i = unassigned.size() - 1; i >= 0 && capacity > targetCapacity; i--) {
+            capacity -= unassigned.remove(i).memory.capacity();
+        }
+        return capacity;
+    }
+
+    /**
+     * @return the total number of bytes of direct memory held by this arena
+     */
+    public long getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * @return the number of bytes in frames handed out by {@link #allocate}
+     */
+    public long getUsedBytes() {
+        return usedBytes;
+    }
+
+    /**
+     * Take a free frame of exactly size bytes.
+     *
+     * @return the frame, or null if no frame of this size is free and no slab
+     * is left to carve one from; the caller should evict a page and retry
+     */
+    public Frame allocate(int size) {
+        List<Slab> slabs = slabsBySize.computeIfAbsent(size, k -> new ArrayList<>());
+        for (Slab slab : slabs) {
+            if (!slab.free.isEmpty()) {
+                return take(slab);
+            }
+        }
+        for (int i = 0; i < unassigned.size(); i++) {
+            Slab slab = unassigned.get(i);
+            if (slab.memory.capacity() >= size) {
+                unassigned.remove(i);
+                slab.carve(size);
+                slabs.add(slab);
+                return take(slab);
+            }
+        }
+        return null;
+    }
+
+    private Frame take(Slab slab) {
+        Frame frame = slab.free.poll();
+        usedBytes += frame.size();
+        return frame;
+    }
+
+    /**
+     * Return a frame to the arena. The caller must make sure no page object
+     * still reads from it (see {@link Page#detach()}).
+     */
+    public void free(Frame frame) {
+        frame.pageId = null;
+        frame.page = null;
+        frame.view = null;
+        Slab slab = frame.slab;
+        slab.free.add(frame);
+        usedBytes -= frame.size();
+        if (slab.free.size() == slab.numFrames) {
+            // the whole slab is free again, let any page size use it
+            slabsBySize.get(slab.frameSize).remove(slab);
+            unassigned.add(slab);
+        }
+    }
+}
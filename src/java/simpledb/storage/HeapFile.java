@@ -7,6 +7,8 @@ import simpledb.transaction.TransactionAbortedException;
 import simpledb.transaction.TransactionId;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.util.*;
 
 /**
@@ -31,6 +33,11 @@ public class HeapFile implements DbFile {
      */
     private final TupleDesc td;
 
+    /**
+     * 每一页的字节数
+     */
+    private final int pageSize;
+
 
     /**
      * 写在内部类的原因是：DbFileIterator is the iterator interface that all SimpleDB Dbfile should
@@ -38,16 +45,22 @@ public class HeapFile implements DbFile {
     private static final class HeapFileIterator implements DbFileIterator {
         private final HeapFile heapFile;
         private final TransactionId tid;
+        private final BufferRing ring;
 
         /**
          * 存储了堆文件迭代器
          */
         private Iterator<Tuple> tupleIterator;
         private int index;
+        /**
+         * 当前正在迭代的页面, 迭代期间保持pin住
+         */
+        private PageId pinned;
 
-        public HeapFileIterator(HeapFile file, TransactionId tid) {
+        public HeapFileIterator(HeapFile file, TransactionId tid, BufferRing ring) {
             this.heapFile = file;
             this.tid = tid;
+            this.ring = ring;
         }
 
         @Override
@@ -59,7 +72,9 @@ public class HeapFile implements DbFile {
         private Iterator<Tuple> getTupleIterator(int pageNumber) throws TransactionAbortedException, DbException {
             if (pageNumber >= 0 && pageNumber < heapFile.numPages()) {
                 HeapPageId pid = new HeapPageId(heapFile.getId(), pageNumber);
-                HeapPage page = (HeapPage) Database.getBufferPool().getPage(tid, pid, Permissions.READ_ONLY);
+                unpin();
+                HeapPage page = (HeapPage) Database.getBufferPool().pinPage(tid, pid, Permissions.READ_ONLY, ring);
+                pinned = pid;
                 return page.iterator();
             } else {
                 throw new DbException(String.format("heapFile %d  does not exist in page[%d]!", pageNumber, heapFile.getId()));
@@ -79,6 +94,7 @@ public class HeapFile implements DbFile {
                 if (index < heapFile.numPages()) {
                     tupleIterator = getTupleIterator(index);
                 } else {
+                    unpin();
                     return false;
                 }
             }
@@ -102,9 +118,17 @@ public class HeapFile implements DbFile {
 
         @Override
         public void close() {
+            unpin();
             tupleIterator = null;
         }
 
+        private void unpin() {
+            if (pinned != null) {
+                Database.getBufferPool().unpinPage(tid, pinned);
+                pinned = null;
+            }
+        }
+
     }
 
     /**
@@ -114,9 +138,24 @@ public class HeapFile implements DbFile {
      *          file.
      */
     public HeapFile(File f, TupleDesc td) {
+        this(f, td, BufferPool.getPageSize());
+    }
+
+    /**
+     * Constructs a heap file backed by the specified file whose pages are
+     * pageSize bytes long. Heap files carry no header, so the page size must
+     * be the same every time the file is opened; the Catalog records it for
+     * tables loaded from a schema file.
+     *
+     * @param f        the file that stores the on-disk backing store for this heap
+     *                 file.
+     * @param pageSize the page size of this file
+     */
+    public HeapFile(File f, TupleDesc td, int pageSize) {
         // some code goes here
         this.f = f;
         this.td = td;
+        this.pageSize = pageSize;
     }
 
     /**
@@ -153,29 +192,35 @@ public class HeapFile implements DbFile {
         return this.td;
     }
 
+    // see DbFile.java for javadocs
+    @Override
+    public int getPageSize() {
+        return pageSize;
+    }
+
     // see DbFile.java for javadocs
     public Page readPage(PageId pid) {
         // some code goes here
         int tableId = pid.getTableId();
         int pgNo = pid.getPageNumber();
-        int offset = pgNo * BufferPool.getPageSize();
+        int offset = pgNo * pageSize;
         RandomAccessFile randomAccessFile = null;
 
         try {
             randomAccessFile = new RandomAccessFile(f, "r");
             // 起码有pgNo页那么大小就应该大于pgNo
-            if ((long) (pgNo + 1) * BufferPool.getPageSize() > randomAccessFile.length()) {
+            if ((long) (pgNo + 1) * pageSize > randomAccessFile.length()) {
                 randomAccessFile.close();
                 throw new IllegalArgumentException(String.format("table %d page %d is invalid", tableId, pgNo));
             }
-            byte[] bytes = new byte[BufferPool.getPageSize()];
+            byte[] bytes = new byte[pageSize];
             // 移动偏移量到文件开头，并计算是否change
             randomAccessFile.seek(offset);
-            int read = randomAccessFile.read(bytes, 0, BufferPool.getPageSize());
+            int read = randomAccessFile.read(bytes, 0, pageSize);
             // Do not load the entire table into memory on the open() call
             // -- this will cause an out of memory error for very large tables.
-            if (read != BufferPool.getPageSize()) {
-                throw new IllegalArgumentException(String.format("table %d page %d read %d bytes not equal to BufferPool.getPageSize() ", tableId, pgNo, read));
+            if (read != pageSize) {
+                throw new IllegalArgumentException(String.format("table %d page %d read %d bytes not equal to page size %d", tableId, pgNo, read, pageSize));
             }
             HeapPageId id = new HeapPageId(pid.getTableId(), pid.getPageNumber());
             return new HeapPage(id, bytes);
@@ -193,13 +238,42 @@ public class HeapFile implements DbFile {
         throw new IllegalArgumentException(String.format("table %d page %d is invalid", tableId, pgNo));
     }
 
+    // see DbFile.java for javadocs
+    @Override
+    public void readPage(PageId pid, ByteBuffer frame) {
+        int pgNo = pid.getPageNumber();
+        try (FileChannel channel = new RandomAccessFile(f, "r").getChannel()) {
+            long offset = (long) pgNo * pageSize;
+            if (offset + pageSize > channel.size()) {
+                throw new IllegalArgumentException(String.format("table %d page %d is invalid", pid.getTableId(), pgNo));
+            }
+            // 直接读入frame, 不经过堆上的byte[]
+            ByteBuffer dst = frame.duplicate();
+            dst.clear();
+            dst.limit(pageSize);
+            while (dst.hasRemaining()) {
+                if (channel.read(dst, offset + dst.position()) < 0) {
+                    throw new IllegalArgumentException(String.format("table %d page %d is invalid", pid.getTableId(), pgNo));
+                }
+            }
+        } catch (IOException e) {
+            throw new IllegalArgumentException(String.format("table %d page %d is invalid", pid.getTableId(), pgNo), e);
+        }
+    }
+
+    // see DbFile.java for javadocs
+    @Override
+    public Page pageView(PageId pid, ByteBuffer frame) {
+        return new HeapPage(new HeapPageId(pid.getTableId(), pid.getPageNumber()), frame);
+    }
+
     // see DbFile.java for javadocs
     public void writePage(Page page) throws IOException {
         // some code goes here
         // not necessary for lab1
         PageId pageId = page.getId();
         int pageNo = pageId.getPageNumber();
-        int offset = pageNo * BufferPool.getPageSize();
+        int offset = pageNo * pageSize;
         byte[] pageData = page.getPageData();
 
         RandomAccessFile file = new RandomAccessFile(this.f, "rw");
@@ -216,7 +290,7 @@ public class HeapFile implements DbFile {
     public int numPages() {
         // some code goes here
         // 通过文件长度算出所在bufferPool所需的页数（Math.floor是向下取整）
-        return (int) Math.floor(getFile().length() * 1.0 / BufferPool.getPageSize());
+        return (int) Math.floor(getFile().length() * 1.0 / pageSize);
     }
 
     // see DbFile.java for javadocs
@@ -224,12 +298,21 @@ public class HeapFile implements DbFile {
             throws DbException, IOException, TransactionAbortedException {
         // some code goes here
         // not necessary for lab1
+        return insertTuple(tid, t, null);
+    }
+
+    // see DbFile.java for javadocs
+    @Override
+    public List<Page> insertTuple(TransactionId tid, Tuple t, BufferRing ring)
+            throws DbException, IOException, TransactionAbortedException {
         ArrayList<Page> pageList = new ArrayList<Page>();
-        for (int i = 0; i < numPages(); ++i) {
+        // 批量插入时从上一次插入的页开始找空位, 而不是每次都从第0页开始
+        int start = ring == null ? 0 : Math.min(ring.getInsertPage(), numPages());
+        for (int i = start; i < numPages(); ++i) {
             // took care of getting new page
             HeapPageId heapPageId = new HeapPageId(this.getId(), i);
             HeapPage p = (HeapPage) Database.getBufferPool().getPage(tid,
-                    heapPageId, Permissions.READ_WRITE);
+                    heapPageId, Permissions.READ_WRITE, ring);
             if (p.getNumEmptySlots() == 0) {
                 // lab4 解锁
                 Database.getBufferPool().unsafeReleasePage(tid, heapPageId);
@@ -237,19 +320,25 @@ public class HeapFile implements DbFile {
             }
             p.insertTuple(t);
             pageList.add(p);
+            if (ring != null) {
+                ring.setInsertPage(i);
+            }
             return pageList;
         }
         // 如果现有的页都没有空闲的slot，则新起一页
         BufferedOutputStream bw = new BufferedOutputStream(new FileOutputStream(f, true));
-        byte[] emptyData = HeapPage.createEmptyPageData();
+        byte[] emptyData = HeapPage.createEmptyPageData(pageSize);
         bw.write(emptyData);
         bw.close();
         // 加载进BufferPool
         HeapPage p = (HeapPage) Database.getBufferPool().getPage(tid,
-                new HeapPageId(getId(), numPages() - 1), Permissions.READ_WRITE);
+                new HeapPageId(getId(), numPages() - 1), Permissions.READ_WRITE, ring);
         p.insertTuple(t);
         p.markDirty(true, tid);
         pageList.add(p);
+        if (ring != null) {
+            ring.setInsertPage(numPages() - 1);
+        }
         return pageList;
 
 
@@ -274,8 +363,14 @@ public class HeapFile implements DbFile {
      */
     public DbFileIterator iterator(TransactionId tid) {
         //some code goes here
-        return new HeapFileIterator(this, tid);
+        return new HeapFileIterator(this, tid, null);
+
+    }
 
+    // see DbFile.java for javadocs
+    @Override
+    public DbFileIterator iterator(TransactionId tid, BufferRing ring) {
+        return new HeapFileIterator(this, tid, ring);
     }
 
 }
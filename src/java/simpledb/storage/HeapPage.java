@@ -6,7 +6,7 @@ import simpledb.common.DbException;
 import simpledb.transaction.TransactionId;
 
 import java.io.*;
-import java.util.ArrayList;
+import java.nio.ByteBuffer;
 import java.util.Iterator;
 import java.util.NoSuchElementException;
 
@@ -23,8 +23,13 @@ public class HeapPage implements Page {
     final byte[] header; // 头信息字节数组
     final Tuple[] tuples;
     final int numSlots;
+    final int pageSize;
     byte[] oldData;
-    private final Byte oldDataLock = (byte) 0;
+    private final Object oldDataLock = new Object();
+    /**
+     * 页面作为FrameArena中frame的视图时, tuple直接读取的frame内存; 否则为null
+     */
+    private ByteBuffer frame;
 
     // the transaction id which changed the page to dirty
     private TransactionId dirtyId;
@@ -36,9 +41,11 @@ public class HeapPage implements Page {
      * The format of a HeapPage is a set of header bytes indicating
      * the slots of the page that are in use, some number of tuple slots.
      * Specifically, the number of tuples is equal to: <p>
-     * floor((BufferPool.getPageSize()*8) / (tuple size * 8 + 1))
+     * floor((pageSize*8) / (tuple size * 8 + 1))
      * <p> where tuple size is the size of tuples in this
-     * database table, which can be determined via {@link Catalog#getTupleDesc}.
+     * database table, which can be determined via {@link Catalog#getTupleDesc},
+     * and pageSize is the page size of the owning HeapFile
+     * ({@link Catalog#getPageSize}).
      * The number of 8-bit header words is equal to:
      * <p>
      * ceiling(no. tuple slots / 8)
@@ -51,22 +58,40 @@ public class HeapPage implements Page {
     public HeapPage(HeapPageId id, byte[] data) throws IOException {
         this.pid = id; // 页id
         this.td = Database.getCatalog().getTupleDesc(id.getTableId()); // 表的元信息
+        this.pageSize = Database.getCatalog().getPageSize(id.getTableId());
         this.numSlots = getNumTuples(); // 有多少个槽，每个槽存一个tuple
-        DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data)); // 读取原始文件
         // allocate and read the header slots of this page
         header = new byte[getHeaderSize()]; // 头信息初始化，一个bitmap
-        for (int i = 0; i < header.length; i++)
-            header[i] = dis.readByte();
+        System.arraycopy(data, 0, header, 0, header.length);
         tuples = new Tuple[numSlots];
-        try {
-            // allocate and read the actual records of this page
-            for (int i = 0; i < tuples.length; i++)
-                tuples[i] = readNextTuple(dis, i);
-        } catch (NoSuchElementException e) {
-            e.printStackTrace();
-        }
-        dis.close();
-        setBeforeImage();
+        // tuples are views over data, which is never modified afterwards, so
+        // it can double as the before image
+        for (int i = 0; i < tuples.length; i++)
+            tuples[i] = readNextTuple(data, i);
+        oldData = data;
+    }
+
+    /**
+     * Create a HeapPage that is a view over a frame of a {@link FrameArena}
+     * holding the page bytes. Only the header is copied onto the heap; the
+     * tuples read their values from the frame until {@link #detach} is called,
+     * and the before image is copied out lazily.
+     *
+     * @see BufferPool#offHeap(long)
+     */
+    public HeapPage(HeapPageId id, ByteBuffer frame) {
+        this.pid = id;
+        this.td = Database.getCatalog().getTupleDesc(id.getTableId());
+        this.pageSize = Database.getCatalog().getPageSize(id.getTableId());
+        this.numSlots = getNumTuples();
+        header = new byte[getHeaderSize()];
+        ByteBuffer src = frame.duplicate();
+        src.clear();
+        src.get(header);
+        tuples = new Tuple[numSlots];
+        for (int i = 0; i < tuples.length; i++)
+            tuples[i] = readNextTuple(frame, i);
+        this.frame = frame;
     }
 
     /**
@@ -77,7 +102,7 @@ public class HeapPage implements Page {
     private int getNumTuples() {
         // some code goes here
         // 返回一个heapfile中tuple的个数
-        return (int) Math.floor((BufferPool.getPageSize() * 8.0) / (this.td.getSize() * 8 + 1));
+        return (int) Math.floor((pageSize * 8.0) / (this.td.getSize() * 8 + 1));
     }
 
     /**
@@ -100,6 +125,7 @@ public class HeapPage implements Page {
         try {
             byte[] oldDataRef = null;
             synchronized (oldDataLock) {
+                snapshotFrame();
                 oldDataRef = oldData;
             }
             return new HeapPage(pid, oldDataRef);
@@ -113,7 +139,42 @@ public class HeapPage implements Page {
 
     public void setBeforeImage() {
         synchronized (oldDataLock) {
-            oldData = getPageData().clone();
+            oldData = getPageData();
+        }
+    }
+
+    /**
+     * Copy the frame bytes into oldData if the before image has not been
+     * taken yet. Must be called before the page is modified, since the
+     * frame is overwritten when the modified page is flushed.
+     */
+    private void snapshotFrame() {
+        synchronized (oldDataLock) {
+            if (oldData == null && frame != null) {
+                byte[] copy = new byte[pageSize];
+                ByteBuffer src = frame.duplicate();
+                src.clear();
+                src.get(copy);
+                oldData = copy;
+            }
+        }
+    }
+
+    /**
+     * Stop reading the frame this page is a view over, so the frame can be
+     * given to another page. Does nothing for pages built from a byte array.
+     */
+    @Override
+    public void detach() {
+        synchronized (oldDataLock) {
+            if (frame == null)
+                return;
+            snapshotFrame();
+            for (Tuple t : tuples) {
+                if (t instanceof CompactTuple && ((CompactTuple) t).isBackedBy(frame))
+                    ((CompactTuple) t).detach();
+            }
+            frame = null;
         }
     }
 
@@ -126,36 +187,28 @@ public class HeapPage implements Page {
     }
 
     /**
-     * Suck up tuples from the source file.
+     * Suck up tuples from the source file. The returned tuple is a
+     * {@link CompactTuple} over the page bytes, so no fields are decoded here.
      */
-    private Tuple readNextTuple(DataInputStream dis, int slotId) throws NoSuchElementException {
-        // if associated bit is not set, read forward to the next tuple, and
-        // return null.
+    private Tuple readNextTuple(byte[] data, int slotId) {
+        // if associated bit is not set, there is no tuple in this slot
         if (!isSlotUsed(slotId)) {
-            for (int i = 0; i < td.getSize(); i++) {
-                try {
-                    dis.readByte();
-                } catch (IOException e) {
-                    throw new NoSuchElementException("error reading empty tuple");
-                }
-            }
             return null;
         }
 
-        // read fields in the tuple
-        Tuple t = new Tuple(td);
+        Tuple t = new CompactTuple(td, data, header.length + slotId * td.getSize());
         RecordId rid = new RecordId(pid, slotId);
         t.setRecordId(rid);
-        try {
-            for (int j = 0; j < td.numFields(); j++) {
-                Field f = td.getFieldType(j).parse(dis);
-                t.setField(j, f);
-            }
-        } catch (java.text.ParseException e) {
-            e.printStackTrace();
-            throw new NoSuchElementException("parsing error!");
+        return t;
+    }
+
+    private Tuple readNextTuple(ByteBuffer frame, int slotId) {
+        if (!isSlotUsed(slotId)) {
+            return null;
         }
 
+        Tuple t = new CompactTuple(td, frame, header.length + slotId * td.getSize(), this);
+        t.setRecordId(new RecordId(pid, slotId));
         return t;
     }
 
@@ -171,7 +224,7 @@ public class HeapPage implements Page {
      * @see #HeapPage
      */
     public byte[] getPageData() {
-        int len = BufferPool.getPageSize();
+        int len = pageSize;
         ByteArrayOutputStream baos = new ByteArrayOutputStream(len);
         DataOutputStream dos = new DataOutputStream(baos);
 
@@ -186,35 +239,23 @@ public class HeapPage implements Page {
         }
 
         // create the tuples
+        byte[] emptyTuple = new byte[td.getSize()];
         for (int i = 0; i < tuples.length; i++) {
-
-            // empty slot
-            if (!isSlotUsed(i)) {
-                for (int j = 0; j < td.getSize(); j++) {
-                    try {
-                        dos.writeByte(0);
-                    } catch (IOException e) {
-                        e.printStackTrace();
-                    }
-
-                }
-                continue;
-            }
-
-            // non-empty slot
-            for (int j = 0; j < td.numFields(); j++) {
-                Field f = tuples[i].getField(j);
-                try {
-                    f.serialize(dos);
-
-                } catch (IOException e) {
-                    e.printStackTrace();
+            try {
+                // empty slot
+                if (!isSlotUsed(i)) {
+                    dos.write(emptyTuple);
+                } else {
+                    // non-empty slot
+                    tuples[i].serialize(dos);
                 }
+            } catch (IOException e) {
+                e.printStackTrace();
             }
         }
 
         // padding
-        int zerolen = BufferPool.getPageSize() - (header.length + td.getSize() * tuples.length); //- numSlots * td.getSize();
+        int zerolen = pageSize - (header.length + td.getSize() * tuples.length); //- numSlots * td.getSize();
         byte[] zeroes = new byte[zerolen];
         try {
             dos.write(zeroes, 0, zerolen);
@@ -241,8 +282,17 @@ public class HeapPage implements Page {
      * @return The returned ByteArray.
      */
     public static byte[] createEmptyPageData() {
-        int len = BufferPool.getPageSize();
-        return new byte[len]; //all 0
+        return createEmptyPageData(BufferPool.getPageSize());
+    }
+
+    /**
+     * Generate the bytes of an empty HeapPage of the given page size.
+     *
+     * @param pageSize the page size of the HeapFile
+     * @return The returned ByteArray.
+     */
+    public static byte[] createEmptyPageData(int pageSize) {
+        return new byte[pageSize]; //all 0
     }
 
     /**
@@ -260,7 +310,9 @@ public class HeapPage implements Page {
         int slotNum = recordId.getTupleNumber();
         // 如果不在这一页或者这一页对应的slot为0，则抛出异常
         if (recordId.getPageId().equals(this.pid) && isSlotUsed(slotNum)) {
+            snapshotFrame();
             markSlotUsed(slotNum, false);
+            detachSlot(slotNum);
             tuples[slotNum] = null;
             return;
         }
@@ -283,6 +335,7 @@ public class HeapPage implements Page {
         if(getNumEmptySlots() == 0 || !t.getTupleDesc().equals(td)){
             throw new DbException("page is full or tuple descriptor does not match");
         }
+        snapshotFrame();
         // 找到第一个slot为空的位置插入新的Tuple
         for (int i=0;i<numSlots;i++){
             if(!isSlotUsed(i)){
@@ -296,6 +349,43 @@ public class HeapPage implements Page {
 
     }
 
+    /**
+     * Put the tuple serialized in data into a slot, whether or not the slot
+     * is in use. Used by recovery to redo and undo logged slot changes.
+     *
+     * @param data the bytes of the tuple, as written by {@link Tuple#serialize}
+     */
+    void setSlot(int slot, byte[] data) {
+        snapshotFrame();
+        detachSlot(slot);
+        Tuple t = new CompactTuple(td, data, 0);
+        t.setRecordId(new RecordId(pid, slot));
+        tuples[slot] = t;
+        markSlotUsed(slot, true);
+    }
+
+    /**
+     * Empty a slot, whether or not it is in use. Used by recovery to redo and
+     * undo logged slot changes.
+     */
+    void clearSlot(int slot) {
+        snapshotFrame();
+        markSlotUsed(slot, false);
+        detachSlot(slot);
+        tuples[slot] = null;
+    }
+
+    /**
+     * Copy the values of the tuple in a slot out of the frame before the
+     * page drops it: callers may still hold it, and the frame is overwritten
+     * when the modified page is flushed.
+     */
+    private void detachSlot(int slot) {
+        Tuple t = tuples[slot];
+        if (frame != null && t instanceof CompactTuple && ((CompactTuple) t).isBackedBy(frame))
+            ((CompactTuple) t).detach();
+    }
+
     /**
      * Marks this page as dirty/not dirty and record that transaction
      * that did the dirtying
@@ -359,11 +449,31 @@ public class HeapPage implements Page {
      * (note that this iterator shouldn't return tuples in empty slots!)
      */
     public Iterator<Tuple> iterator() {
-        ArrayList<Tuple> t = new ArrayList<>();
-        for (int i = 0; i < numSlots; i++) {
-            if (isSlotUsed(i)) t.add(tuples[i]);
+        return new Iterator<Tuple>() {
+            private int slot = nextUsedSlot(0);
+
+            @Override
+            public boolean hasNext() {
+                return slot < numSlots;
+            }
+
+            @Override
+            public Tuple next() {
+                if (slot >= numSlots) {
+                    throw new NoSuchElementException();
+                }
+                Tuple t = tuples[slot];
+                slot = nextUsedSlot(slot + 1);
+                return t;
+            }
+        };
+    }
+
+    private int nextUsedSlot(int from) {
+        while (from < numSlots && !isSlotUsed(from)) {
+            from++;
         }
-        return t.iterator();
+        return from;
     }
-}
 
+}
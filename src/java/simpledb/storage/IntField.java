@@ -55,20 +55,29 @@ public class IntField implements Field {
 
         IntField iVal = (IntField) val;
 
+        return compare(op, value, iVal.value);
+    }
+
+    /**
+     * Compare two unboxed int values with the semantics of
+     * {@link Field#compare}; used by operators that read ints straight out
+     * of tuples with {@link Tuple#getInt}.
+     */
+    public static boolean compare(Predicate.Op op, int left, int right) {
         switch (op) {
             case EQUALS:
             case LIKE:
-                return value == iVal.value;
+                return left == right;
             case NOT_EQUALS:
-                return value != iVal.value;
+                return left != right;
             case GREATER_THAN:
-                return value > iVal.value;
+                return left > right;
             case GREATER_THAN_OR_EQ:
-                return value >= iVal.value;
+                return left >= right;
             case LESS_THAN:
-                return value < iVal.value;
+                return left < right;
             case LESS_THAN_OR_EQ:
-                return value <= iVal.value;
+                return left <= right;
         }
 
         return false;
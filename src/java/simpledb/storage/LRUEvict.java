@@ -1,7 +1,10 @@
 package simpledb.storage;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Predicate;
 
 /**
  * @className: LRUCache
@@ -26,7 +29,7 @@ public class LRUEvict implements EvictStrategy {
     }
 
     @Override
-    public void addPageId(PageId pageId) {
+    public synchronized void addPageId(PageId pageId) {
         if (map.containsKey(pageId)) {
             DLinkedNode node = map.get(pageId);
             moveToHead(node);
@@ -35,16 +38,56 @@ public class LRUEvict implements EvictStrategy {
             map.put(pageId, node);
             addToHead(node);
         }
-        System.out.println("LRU SIZE = " + map.size());
     }
 
     @Override
-    public PageId getEvictPageId() {
+    public synchronized void accessPageId(PageId pageId) {
+        DLinkedNode node = map.get(pageId);
+        if (node != null) {
+            moveToHead(node);
+        }
+    }
+
+    @Override
+    public synchronized PageId getEvictPageId() {
+        if (tail.prev == head) {
+            return null;
+        }
         DLinkedNode node = removeTail();
         map.remove(node.getValue());
         return node.getValue();
     }
 
+    @Override
+    public synchronized PageId getEvictPageId(Predicate<PageId> canEvict) {
+        // 从最久未使用的页面开始找
+        for (DLinkedNode node = tail.prev; node != head; node = node.prev) {
+            if (canEvict.test(node.getValue())) {
+                removeNode(node);
+                map.remove(node.getValue());
+                return node.getValue();
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public synchronized void removePageId(PageId pageId) {
+        DLinkedNode node = map.remove(pageId);
+        if (node != null) {
+            removeNode(node);
+        }
+    }
+
+    @Override
+    public synchronized List<PageId> getEvictionOrder() {
+        List<PageId> order = new ArrayList<>(map.size());
+        for (DLinkedNode node = tail.prev; node != head; node = node.prev) {
+            order.add(node.getValue());
+        }
+        return order;
+    }
+
     private void addToHead(DLinkedNode node) {
         node.prev = head;
         node.next = head.next;
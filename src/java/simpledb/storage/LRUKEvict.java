@@ -0,0 +1,183 @@
+package simpledb.storage;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.Predicate;
+
+/**
+ * LRU-K (O'Neil, O'Neil and Weikum, SIGMOD 1993).
+ * <p>
+ * The victim is the page whose K-th most recent access is the oldest. Pages
+ * with fewer than K accesses count as infinitely old and go first, least
+ * recently used first, so pages touched once by a scan are evicted before
+ * any page that is used repeatedly. The access history of evicted pages is
+ * kept for about as many pages as the pool holds, so a page that comes back
+ * soon keeps its history.
+ * <p>
+ * Pages with fewer than K accesses are kept in LRU order in a
+ * LinkedHashSet, which makes their accesses O(1); the others are ordered by
+ * their K-th most recent access in a TreeMap, O(log n) per access.
+ * Thread-safe.
+ */
+public class LRUKEvict implements EvictStrategy {
+
+    private static final class History {
+        /**
+         * 最近K次访问的时间, 第n次访问记在n % K
+         */
+        final long[] times;
+        long accesses;
+
+        History(int k) {
+            times = new long[k];
+        }
+
+        void record(long time) {
+            times[(int) (accesses % times.length)] = time;
+            accesses++;
+        }
+
+        boolean full() {
+            return accesses >= times.length;
+        }
+
+        /**
+         * @return the time of the K-th most recent access; only valid when full
+         */
+        long kth() {
+            return times[(int) (accesses % times.length)];
+        }
+    }
+
+    private final int k;
+    private long clock;
+    private final Map<PageId, History> resident = new HashMap<>();
+    /**
+     * 访问次数不足K次的页面, 按最近一次访问排序
+     */
+    private final LinkedHashSet<PageId> young = new LinkedHashSet<>();
+    /**
+     * 访问了至少K次的页面, 按第K近的访问时间排序; 时间各不相同
+     */
+    private final TreeMap<Long, PageId> old = new TreeMap<>();
+    /**
+     * 已被置换的页面的访问历史
+     */
+    private final LinkedHashMap<PageId, History> retained;
+
+    public LRUKEvict(int k, int numPages) {
+        if (k < 1) {
+            throw new IllegalArgumentException("K must be at least 1");
+        }
+        this.k = k;
+        final int retainedPages = Math.max(1, numPages);
+        this.retained = new LinkedHashMap<PageId, History>() {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<PageId, History> eldest) {
+                return size() > retainedPages;
+            }
+        };
+    }
+
+    public int getK() {
+        return k;
+    }
+
+    @Override
+    public synchronized void addPageId(PageId pageId) {
+        History h = resident.get(pageId);
+        if (h != null) {
+            access(pageId, h);
+            return;
+        }
+        h = retained.remove(pageId);
+        if (h == null) {
+            h = new History(k);
+        }
+        h.record(++clock);
+        resident.put(pageId, h);
+        index(pageId, h);
+    }
+
+    @Override
+    public synchronized void accessPageId(PageId pageId) {
+        History h = resident.get(pageId);
+        if (h != null) {
+            access(pageId, h);
+        }
+    }
+
+    private void access(PageId pageId, History h) {
+        unindex(pageId, h);
+        h.record(++clock);
+        index(pageId, h);
+    }
+
+    @Override
+    public PageId getEvictPageId() {
+        return getEvictPageId(pid -> true);
+    }
+
+    @Override
+    public synchronized PageId getEvictPageId(Predicate<PageId> canEvict) {
+        PageId victim = null;
+        for (PageId pid : young) {
+            if (canEvict.test(pid)) {
+                victim = pid;
+                break;
+            }
+        }
+        if (victim == null) {
+            for (PageId pid : old.values()) {
+                if (canEvict.test(pid)) {
+                    victim = pid;
+                    break;
+                }
+            }
+        }
+        if (victim != null) {
+            History h = resident.remove(victim);
+            unindex(victim, h);
+            retained.put(victim, h);
+        }
+        return victim;
+    }
+
+    @Override
+    public synchronized void removePageId(PageId pageId) {
+        History h = resident.remove(pageId);
+        if (h != null) {
+            unindex(pageId, h);
+        }
+        retained.remove(pageId);
+    }
+
+    @Override
+    public synchronized List<PageId> getEvictionOrder() {
+        List<PageId> order = new ArrayList<>(resident.size());
+        order.addAll(young);
+        order.addAll(old.values());
+        return order;
+    }
+
+    private void index(PageId pageId, History h) {
+        if (h.full()) {
+            old.put(h.kth(), pageId);
+        } else {
+            young.add(pageId);
+        }
+    }
+
+    private void unindex(PageId pageId, History h) {
+        if (h.full()) {
+            old.remove(h.kth());
+        } else {
+            young.remove(pageId);
+        }
+    }
+}
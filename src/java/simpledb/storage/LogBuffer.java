@@ -0,0 +1,215 @@
+package simpledb.storage;
+
+import java.io.IOException;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * LogBuffer is the in-memory tail of the log: records are appended here
+ * without taking a lock, and written to the {@link LogSegments} later in
+ * large contiguous pieces.
+ * <p>
+ * A writer reserves the LSN range of its record with an atomic
+ * fetch-and-add on the end of the log, copies the record into a ring of
+ * bytes at those LSNs, and reports the range as complete. Writers copy in
+ * parallel and may complete out of order. Flushing writes the longest run
+ * of complete records after what was already written, with one write per
+ * contiguous piece of the ring (two when the run wraps around). Any thread
+ * may flush; a writer that finds the ring full flushes to make room.
+ * <p>
+ * A record larger than the ring is written straight to the segments once
+ * everything before it is written.
+ * <p>
+ * If a record cannot be copied or written after its LSNs were reserved, the
+ * log would have a gap that nothing ever fills, so the buffer is marked
+ * broken: every later append and flush throws instead of waiting for the
+ * gap, until {@link #reset} starts over at the end of the segments.
+ * <p>
+ * Thread-safe.
+ */
+class LogBuffer {
+
+    private final LogSegments segments;
+    private final byte[] ring;
+    /**
+     * 下一个可分配的LSN, 即日志的逻辑末尾
+     */
+    private final AtomicLong reserved;
+    /**
+     * 已复制完成但还没有写出的记录: 起始LSN到结束LSN
+     */
+    private final ConcurrentSkipListMap<Long, Long> completed = new ConcurrentSkipListMap<>();
+    private final ReentrantLock flushLock = new ReentrantLock();
+    /**
+     * 日志已经写到段文件中的位置
+     */
+    private volatile long flushed;
+    /**
+     * 第一次写入失败的原因, 之后日志中有永远填不上的空洞
+     */
+    private volatile Throwable failure;
+
+    LogBuffer(LogSegments segments, int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("log buffer capacity must be positive");
+        }
+        this.segments = segments;
+        this.ring = new byte[capacity];
+        this.reserved = new AtomicLong(segments.getEnd());
+        this.flushed = segments.getEnd();
+    }
+
+    /**
+     * Start over at the end of the segments, e.g. after recovery found
+     * where the log ends. Must not be called while records are appended.
+     */
+    void reset() {
+        failure = null;
+        completed.clear();
+        reserved.set(segments.getEnd());
+        flushed = segments.getEnd();
+    }
+
+    /**
+     * @return the end of the log, including records still being copied
+     */
+    long getEnd() {
+        return reserved.get();
+    }
+
+    /**
+     * @return the end of the part of the log written to the segments
+     */
+    long getFlushed() {
+        return flushed;
+    }
+
+    /**
+     * Append a record followed by its LSN, the trailer every log record
+     * ends with.
+     *
+     * @param record the record without its trailer
+     * @return the LSN of the record
+     */
+    long append(byte[] record) throws IOException {
+        checkFailure();
+        int len = record.length + LogFile.LONG_SIZE;
+        long lsn = reserved.getAndAdd(len);
+        long end = lsn + len;
+        try {
+            byte[] trailer = new byte[LogFile.LONG_SIZE];
+            for (int i = 0; i < trailer.length; i++) {
+                trailer[i] = (byte) (lsn >>> (56 - 8 * i));
+            }
+            if (len > ring.length) {
+                appendDirect(lsn, record, trailer);
+                return lsn;
+            }
+            while (end - flushed > ring.length) {
+                // 环形缓冲区满了, 帮忙写出前面已完成的记录
+                if (!flush()) {
+                    Thread.yield();
+                }
+            }
+            copy(record, lsn);
+            copy(trailer, lsn + record.length);
+            completed.put(lsn, end);
+            return lsn;
+        } catch (IOException | RuntimeException | Error e) {
+            fail(e);
+            throw e;
+        }
+    }
+
+    private void fail(Throwable e) {
+        if (failure == null) {
+            failure = e;
+        }
+    }
+
+    /**
+     * @throws IOException if an earlier record could not be written, so the
+     *                     log can never be written past it
+     */
+    private void checkFailure() throws IOException {
+        Throwable e = failure;
+        if (e != null) {
+            throw new IOException("log is broken by an earlier failed write", e);
+        }
+    }
+
+    private void copy(byte[] data, long lsn) {
+        int pos = (int) (lsn % ring.length);
+        int first = Math.min(data.length, ring.length - pos);
+        System.arraycopy(data, 0, ring, pos, first);
+        System.arraycopy(data, first, ring, 0, data.length - first);
+    }
+
+    private void appendDirect(long lsn, byte[] record, byte[] trailer) throws IOException {
+        while (flushed < lsn) {
+            if (!flush()) {
+                Thread.yield();
+            }
+        }
+        flushLock.lock();
+        try {
+            checkFailure();
+            segments.append(record, 0, record.length);
+            segments.append(trailer, 0, trailer.length);
+            flushed = lsn + record.length + trailer.length;
+        } finally {
+            flushLock.unlock();
+        }
+    }
+
+    /**
+     * Write the complete records following the written part of the log to
+     * the segments.
+     *
+     * @return true if anything was written
+     */
+    boolean flush() throws IOException {
+        flushLock.lock();
+        try {
+            checkFailure();
+            long from = flushed;
+            long to = from;
+            for (Long next = completed.remove(to); next != null; next = completed.remove(to)) {
+                to = next;
+            }
+            if (to == from) {
+                return false;
+            }
+            int pos = (int) (from % ring.length);
+            int len = (int) (to - from);
+            int first = Math.min(len, ring.length - pos);
+            try {
+                segments.append(ring, pos, first);
+                if (first < len) {
+                    segments.append(ring, 0, len - first);
+                }
+            } catch (IOException | RuntimeException | Error e) {
+                // 这些记录已经从completed中移除, 不能再写出
+                fail(e);
+                throw e;
+            }
+            flushed = to;
+            return true;
+        } finally {
+            flushLock.unlock();
+        }
+    }
+
+    /**
+     * Write the log to the segments at least up to lsn, waiting for the
+     * writers still copying records before it.
+     */
+    void flushTo(long lsn) throws IOException {
+        while (flushed < lsn) {
+            if (!flush()) {
+                Thread.yield();
+            }
+        }
+    }
+}
@@ -2,11 +2,19 @@
 package simpledb.storage;
 
 import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.common.Permissions;
+import simpledb.transaction.TransactionAbortedException;
 import simpledb.transaction.TransactionId;
 import simpledb.common.Debug;
 
 import java.io.*;
 import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 import java.lang.reflect.*;
 
 /*
@@ -18,6 +26,14 @@ two-phase locking discipline are followed.  <p>
 <u> Locking note: </u>
 <p>
 
+Appending a record takes no lock: records go through a LogBuffer, in
+which writers reserve their LSNs atomically and copy their records in
+parallel.  Appends whose effect a checkpoint must see together with
+the record, such as BEGIN and COMMIT and the slot records of the
+BufferPool, hold the read lock of checkpointLock, which a checkpoint
+takes for writing before the BufferPool lock.
+<p>
+
 Many of the methods here are synchronized (to prevent concurrent log
 writes from happening); many of the methods in BufferPool are also
 synchronized (for similar reasons.)  Problem is that BufferPool writes
@@ -43,11 +59,15 @@ must not be declared synchronized and must begin with a block like:
 
 <ul>
 
-<li> The first long integer of the file represents the offset of the
-last written checkpoint, or -1 if there are no checkpoints
+<li> The log is stored in segment files of a fixed size next to the
+log file, see LogSegments.  The log file itself holds two long
+integers: the offset of the last written checkpoint, or -1 if there are
+no checkpoints, and the offset where the log starts.  Offsets are
+positions in the sequence of segments and never change, truncating the
+log deletes the segments before the start.
 
-<li> All additional data in the log consists of log records.  Log
-records are variable length.
+<li> All data in the segments consists of log records.  Log records are
+variable length, and may cross from one segment into the next.
 
 <li> Each log record begins with an integer type and a long integer
 transaction id.
@@ -55,8 +75,8 @@ transaction id.
 <li> Each log record ends with a long integer file offset representing
 the position in the log file where the record began.
 
-<li> There are five record types: ABORT, COMMIT, UPDATE, BEGIN, and
-CHECKPOINT
+<li> There are eight record types: ABORT, COMMIT, UPDATE, BEGIN,
+CHECKPOINT, INSERT, DELETE and CLR
 
 <li> ABORT, COMMIT, and BEGIN records contain no additional data
 
@@ -69,31 +89,81 @@ methods.  See LogFile.print() for an example.
 the checkpoint was taken and their first log record on disk.  The format
 of the record is an integer count of the number of transactions, as well
 as a long integer transaction id and a long integer first record offset
-for each active transaction.
+for each active transaction.  The active transactions are followed by
+the dirty page table of the BufferPool: an integer count of pages, and
+for each page a serialized page id (id class name, integer count and
+integers, like in a page image) and a long integer recLSN, the offset of
+the first record changing the page since it was last written.
+Checkpoints are fuzzy: they do not write any pages, so recovery redoes
+from the smallest recLSN of the last checkpoint instead of from the
+checkpoint itself.
+
+<li> INSERT and DELETE records describe a single slot of a HeapPage
+instead of the whole page: the table id, page number and slot number as
+integers, followed by an integer length and the serialized tuple (the
+tuple inserted, or the tuple deleted so that it can be put back).
+
+<li> CLR (compensation) records are written by rollback and recovery for
+each change they undo, so that undoing is itself redone after a crash.
+They hold the integer kind of change made (CLEAR_SLOT, SET_SLOT or
+SET_PAGE), the slot like an INSERT record or, for SET_PAGE, a serialized
+page, and a long integer offset: the record that was undone.  Records of
+the transaction from that offset on need not be undone again.
 
 </ul>
+
+<p> The offset at which a record begins is its log sequence number (LSN).
+The BufferPool remembers the LSN of the last record describing each page
+and forces the log up to it before writing the page.
 */
 public class LogFile {
 
+    /** The property setting the size of the log segment files in bytes */
+    public static final String SEGMENT_SIZE_PROPERTY = "simpledb.logSegmentBytes";
+    static final int DEFAULT_SEGMENT_SIZE = 16 * 1024 * 1024;
+    /** The property setting the number of threads that redo changes in
+        {@link #recover()}; 1, the default, redoes them on the calling
+        thread */
+    public static final String RECOVERY_THREADS_PROPERTY = "simpledb.recoveryThreads";
+    /** The property setting the size of the in-memory log buffer in bytes */
+    public static final String BUFFER_SIZE_PROPERTY = "simpledb.logBufferBytes";
+    static final int DEFAULT_BUFFER_SIZE = 1024 * 1024;
+
     final File logFile;
-    private RandomAccessFile raf;
-    Boolean recoveryUndecided; // no call to recover() and no append to log
+    private final LogSegments segments;
+    private final LogBuffer buffer;
+    volatile boolean recoveryUndecided; // no call to recover() and no append to log
 
     static final int ABORT_RECORD = 1;
     static final int COMMIT_RECORD = 2;
     static final int UPDATE_RECORD = 3;
     static final int BEGIN_RECORD = 4;
     static final int CHECKPOINT_RECORD = 5;
+    static final int INSERT_RECORD = 6;
+    static final int DELETE_RECORD = 7;
+    static final int CLR_RECORD = 8;
     static final long NO_CHECKPOINT_ID = -1;
 
+    // kinds of change redone or undone by recovery, see Change
+    static final int CLEAR_SLOT = 0;
+    static final int SET_SLOT = 1;
+    static final int SET_PAGE = 2;
+
     final static int INT_SIZE = 4;
     final static int LONG_SIZE = 8;
 
-    long currentOffset = -1;//protected by this
+    volatile long forcedOffset = 0; // the log is on disk up to here, protected by forceLock
+    private final Object forceLock = new Object();
 //    int pageSize;
-    int totalRecords = 0; // for PatchTest //protected by this
+    final AtomicInteger totalRecords = new AtomicInteger(); // for PatchTest
+
+    final Map<Long,Long> tidToFirstLogRecord = new ConcurrentHashMap<>();
 
-    final Map<Long,Long> tidToFirstLogRecord = new HashMap<>();
+    /** Held for reading while appending a record together with the state
+        it changes, e.g. the first record of a transaction; held for
+        writing by a checkpoint while it takes a snapshot of that state.
+        Taken before the BufferPool lock. */
+    final ReentrantReadWriteLock checkpointLock = new ReentrantReadWriteLock();
 
     /** Constructor.
         Initialize and back the log file with the specified file.
@@ -108,7 +178,8 @@ public class LogFile {
     */
     public LogFile(File f) throws IOException {
 	this.logFile = f;
-        raf = new RandomAccessFile(f, "rw");
+        segments = new LogSegments(f, Integer.getInteger(SEGMENT_SIZE_PROPERTY, DEFAULT_SEGMENT_SIZE));
+        buffer = new LogBuffer(segments, Integer.getInteger(BUFFER_SIZE_PROPERTY, DEFAULT_BUFFER_SIZE));
         recoveryUndecided = true;
 
         // install shutdown hook to force cleanup on close
@@ -126,19 +197,25 @@ public class LogFile {
     // DB wants to do recovery, we're sure now -- it didn't. So truncate
     // the log.
     void preAppend() throws IOException {
-        totalRecords++;
+        totalRecords.incrementAndGet();
         if(recoveryUndecided){
-            recoveryUndecided = false;
-            raf.seek(0);
-            raf.setLength(0);
-            raf.writeLong(NO_CHECKPOINT_ID);
-            raf.seek(raf.length());
-            currentOffset = raf.getFilePointer();
+            synchronized (this) {
+                if (recoveryUndecided) {
+                    segments.reset(LONG_SIZE);
+                    buffer.reset();
+                    recoveryUndecided = false;
+                }
+            }
         }
     }
 
-    public synchronized int getTotalRecords() {
-        return totalRecords;
+    public int getTotalRecords() {
+        return totalRecords.get();
+    }
+
+    /** @return the offset at which the next record will be written */
+    public long getCurrentOffset() {
+        return buffer.getEnd();
     }
     
     /** Write an abort record to the log for the specified tid, force
@@ -149,24 +226,26 @@ public class LogFile {
         // must have buffer pool lock before proceeding, since this
         // calls rollback
 
-        synchronized (Database.getBufferPool()) {
+        checkpointLock.readLock().lock();
+        try {
+            synchronized (Database.getBufferPool()) {
 
-            synchronized(this) {
-                preAppend();
-                //Debug.log("ABORT");
-                //should we verify that this is a live transaction?
+                synchronized(this) {
+                    preAppend();
+                    //Debug.log("ABORT");
+                    //should we verify that this is a live transaction?
 
-                // must do this here, since rollback only works for
-                // live transactions (needs tidToFirstLogRecord)
-                rollback(tid);
+                    // must do this here, since rollback only works for
+                    // live transactions (needs tidToFirstLogRecord)
+                    rollback(tid);
 
-                raf.writeInt(ABORT_RECORD);
-                raf.writeLong(tid.getId());
-                raf.writeLong(currentOffset);
-                currentOffset = raf.getFilePointer();
-                force();
-                tidToFirstLogRecord.remove(tid.getId());
+                    appendMarker(ABORT_RECORD, tid.getId());
+                    force();
+                    tidToFirstLogRecord.remove(tid.getId());
+                }
             }
+        } finally {
+            checkpointLock.readLock().unlock();
         }
     }
 
@@ -175,17 +254,21 @@ public class LogFile {
 
         @param tid The committing transaction.
     */
-    public synchronized void logCommit(TransactionId tid) throws IOException {
+    public void logCommit(TransactionId tid) throws IOException {
         preAppend();
         Debug.log("COMMIT " + tid.getId());
         //should we verify that this is a live transaction?
 
-        raf.writeInt(COMMIT_RECORD);
-        raf.writeLong(tid.getId());
-        raf.writeLong(currentOffset);
-        currentOffset = raf.getFilePointer();
-        force();
-        tidToFirstLogRecord.remove(tid.getId());
+        long lsn;
+        checkpointLock.readLock().lock();
+        try {
+            lsn = appendMarker(COMMIT_RECORD, tid.getId());
+            tidToFirstLogRecord.remove(tid.getId());
+        } finally {
+            checkpointLock.readLock().unlock();
+        }
+        // 同时提交的事务共用一次刷盘
+        force(lsn);
     }
 
     /** Write an UPDATE record to disk for the specified tid and page
@@ -196,10 +279,10 @@ public class LogFile {
 
         @see Page#getBeforeImage
     */
-    public  synchronized void logWrite(TransactionId tid, Page before,
+    public void logWrite(TransactionId tid, Page before,
                                        Page after)
         throws IOException  {
-        Debug.log("WRITE, offset = " + raf.getFilePointer());
+        Debug.log("WRITE, offset = " + buffer.getEnd());
         preAppend();
         /* update record conists of
 
@@ -209,18 +292,255 @@ public class LogFile {
            after page data
            start offset
         */
-        raf.writeInt(UPDATE_RECORD);
-        raf.writeLong(tid.getId());
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(2 * BufferPool.getPageSize() + 256);
+        DataOutputStream out = new DataOutputStream(baos);
+        out.writeInt(UPDATE_RECORD);
+        out.writeLong(tid.getId());
+
+        writePageData(out,before);
+        writePageData(out,after);
+        append(baos);
+
+        Debug.log("WRITE OFFSET = " + buffer.getEnd());
+    }
+
+    /** Write an INSERT record for a tuple just inserted into a HeapPage.
+        Unlike an UPDATE record it only holds the tuple and its slot, so
+        the page is not logged again when it is flushed.
+        @param tid The transaction performing the insert
+        @param t The inserted tuple; its RecordId gives the page and slot
+        @return The LSN of the record
+    */
+    public long logInsert(TransactionId tid, Tuple t)
+        throws IOException {
+        return logSlotRecord(INSERT_RECORD, tid, t.getRecordId(), tupleData(t));
+    }
+
+    /** Write a DELETE record for a tuple about to be deleted from a
+        HeapPage.
+        @param tid The transaction performing the delete
+        @param rid The slot the tuple is deleted from
+        @param tuple The serialized tuple, see {@link #tupleData}
+        @return The LSN of the record
+    */
+    public long logDelete(TransactionId tid, RecordId rid, byte[] tuple)
+        throws IOException {
+        return logSlotRecord(DELETE_RECORD, tid, rid, tuple);
+    }
+
+    /** @return the bytes of t as stored in a HeapPage slot */
+    static byte[] tupleData(Tuple t) throws IOException {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(t.getTupleDesc().getSize());
+        t.serialize(new DataOutputStream(baos));
+        return baos.toByteArray();
+    }
+
+    private long logSlotRecord(int type, TransactionId tid, RecordId rid, byte[] tuple)
+        throws IOException {
+        preAppend();
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(64 + tuple.length);
+        DataOutputStream out = new DataOutputStream(baos);
+        out.writeInt(type);
+        out.writeLong(tid.getId());
+        writeSlot(out, rid.getPageId(), rid.getTupleNumber(), tuple);
+        return append(baos);
+    }
+
+    /** Append the record built in baos to the log buffer, followed by
+        its start offset.
+        @return The LSN of the record
+    */
+    private long append(ByteArrayOutputStream baos) throws IOException {
+        return buffer.append(baos.toByteArray());
+    }
+
+    /** Write everything appended so far to the segments.
+        @return The end of the log
+    */
+    private long flushBuffer() throws IOException {
+        long end = buffer.getEnd();
+        buffer.flushTo(end);
+        return end;
+    }
+
+    /** Append a record that holds nothing but its type and transaction,
+        such as BEGIN, COMMIT and ABORT.
+        @return The LSN of the record
+    */
+    private long appendMarker(int type, long tid) throws IOException {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(INT_SIZE + 2 * LONG_SIZE);
+        DataOutputStream out = new DataOutputStream(baos);
+        out.writeInt(type);
+        out.writeLong(tid);
+        return append(baos);
+    }
+
+    static void writeSlot(DataOutput out, PageId pid, int slot, byte[] tuple)
+        throws IOException {
+        out.writeInt(pid.getTableId());
+        out.writeInt(pid.getPageNumber());
+        out.writeInt(slot);
+        out.writeInt(tuple.length);
+        out.write(tuple);
+    }
+
+    /** A change to one page, as redone or undone by recovery: a slot
+        emptied or filled, or a whole page image put in place. */
+    static final class Change {
+        final int kind;
+        final PageId pid;
+        final int slot;
+        final byte[] tuple;
+        final Page image;
+
+        Change(int kind, PageId pid, int slot, byte[] tuple, Page image) {
+            this.kind = kind;
+            this.pid = pid;
+            this.slot = slot;
+            this.tuple = tuple;
+            this.image = image;
+        }
+
+        static Change slot(int kind, PageId pid, int slot, byte[] tuple) {
+            return new Change(kind, pid, slot, tuple, null);
+        }
+
+        static Change page(Page image) {
+            return new Change(SET_PAGE, image.getId(), -1, null, image);
+        }
+
+        void write(DataOutput out, LogFile log) throws IOException {
+            out.writeInt(kind);
+            if (kind == SET_PAGE) {
+                log.writePageData(out, image);
+            } else {
+                writeSlot(out, pid, slot, tuple == null ? new byte[0] : tuple);
+            }
+        }
+
+        /** Make this change to page, a HeapPage unless this is a SET_PAGE
+            change.
+            @return the page after the change
+        */
+        Page applyTo(Page page) {
+            switch (kind) {
+            case SET_PAGE:
+                return image;
+            case SET_SLOT:
+                ((HeapPage) page).setSlot(slot, tuple);
+                return page;
+            default:
+                ((HeapPage) page).clearSlot(slot);
+                return page;
+            }
+        }
+    }
 
-        writePageData(raf,before);
-        writePageData(raf,after);
-        raf.writeLong(currentOffset);
-        currentOffset = raf.getFilePointer();
+    /** A record read back by {@link #readRecord}. */
+    static final class Record {
+        long offset;
+        long end;
+        int type;
+        long tid;
+        Change redo; // the change the record made, null if none
+        Change undo; // the change that reverts it, null if it cannot be undone
+        long undoNext = -1; // CLR only
+        final Map<Long, Long> active = new HashMap<>(); // CHECKPOINT only
+        final Map<PageId, Long> dirty = new HashMap<>(); // CHECKPOINT only
+    }
 
-        Debug.log("WRITE OFFSET = " + currentOffset);
+    /** Read the record starting at offset.
+        @throws EOFException if the log ends before the record does, or
+        the bytes at offset are not a complete record
+    */
+    Record readRecord(long offset) throws IOException {
+        return readRecord(segments.reader(offset));
+    }
+
+    /** Read the record starting at the position of in, leaving in at
+        the end of the record.
+        @see #readRecord(long)
+    */
+    Record readRecord(LogSegments.Reader in) throws IOException {
+        long offset = in.getPosition();
+        Record r = new Record();
+        r.offset = offset;
+        r.type = in.readInt();
+        r.tid = in.readLong();
+        if (r.type < ABORT_RECORD || r.type > CLR_RECORD) {
+            throw new EOFException("no log record at " + offset);
+        }
+        switch (r.type) {
+        case UPDATE_RECORD:
+            Page before = readPageData(in);
+            Page after = readPageData(in);
+            r.redo = Change.page(after);
+            r.undo = Change.page(before);
+            break;
+        case INSERT_RECORD:
+        case DELETE_RECORD: {
+            PageId pid = new HeapPageId(in.readInt(), in.readInt());
+            int slot = in.readInt();
+            byte[] tuple = new byte[in.readInt()];
+            in.readFully(tuple);
+            Change set = Change.slot(SET_SLOT, pid, slot, tuple);
+            Change clear = Change.slot(CLEAR_SLOT, pid, slot, null);
+            r.redo = r.type == INSERT_RECORD ? set : clear;
+            r.undo = r.type == INSERT_RECORD ? clear : set;
+            break;
+        }
+        case CLR_RECORD: {
+            int kind = in.readInt();
+            if (kind == SET_PAGE) {
+                r.redo = Change.page(readPageData(in));
+            } else {
+                PageId pid = new HeapPageId(in.readInt(), in.readInt());
+                int slot = in.readInt();
+                byte[] tuple = new byte[in.readInt()];
+                in.readFully(tuple);
+                r.redo = Change.slot(kind, pid, slot, tuple);
+            }
+            r.undoNext = in.readLong();
+            break;
+        }
+        case CHECKPOINT_RECORD: {
+            int n = in.readInt();
+            while (n-- > 0) {
+                long xid = in.readLong();
+                r.active.put(xid, in.readLong());
+            }
+            n = in.readInt();
+            while (n-- > 0) {
+                PageId pid = readPageId(in);
+                r.dirty.put(pid, in.readLong());
+            }
+            break;
+        }
+        }
+        if (in.readLong() != offset) { // start offset
+            throw new EOFException("torn log record at " + offset);
+        }
+        r.end = in.getPosition();
+        return r;
+    }
+
+    /** Write a CLR record for a change undone on behalf of tid.
+        @param undone The offset of the record whose change is undone
+        @return The LSN of the record
+    */
+    private long logCompensation(long tid, Change change, long undone)
+        throws IOException {
+        preAppend();
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(64);
+        DataOutputStream out = new DataOutputStream(baos);
+        out.writeInt(CLR_RECORD);
+        out.writeLong(tid);
+        change.write(out, this);
+        out.writeLong(undone);
+        return append(baos);
     }
 
-    void writePageData(RandomAccessFile raf, Page p) throws IOException{
+    void writePageData(DataOutput raf, Page p) throws IOException{
         PageId pid = p.getId();
         int[] pageInfo = pid.serialize();
 
@@ -248,7 +568,29 @@ public class LogFile {
         //        Debug.log ("WROTE PAGE DATA, CLASS = " + pageClassName + ", table = " +  pid.getTableId() + ", page = " + pid.pageno());
     }
 
-    Page readPageData(RandomAccessFile raf) throws IOException {
+    void writePageId(DataOutput raf, PageId pid) throws IOException {
+        int[] idInfo = pid.serialize();
+        raf.writeUTF(pid.getClass().getName());
+        raf.writeInt(idInfo.length);
+        for (int j : idInfo) {
+            raf.writeInt(j);
+        }
+    }
+
+    PageId readPageId(DataInput raf) throws IOException {
+        String idClassName = raf.readUTF();
+        Object[] idArgs = new Object[raf.readInt()];
+        for (int i = 0; i < idArgs.length; i++) {
+            idArgs[i] = raf.readInt();
+        }
+        try {
+            return (PageId) Class.forName(idClassName).getDeclaredConstructors()[0].newInstance(idArgs);
+        } catch (ClassNotFoundException | InvocationTargetException | IllegalAccessException | InstantiationException e) {
+            throw new IOException("cannot read page id of class " + idClassName, e);
+        }
+    }
+
+    Page readPageData(DataInput raf) throws IOException {
         PageId pid;
         Page newPage = null;
 
@@ -271,7 +613,7 @@ public class LogFile {
             int pageSize = raf.readInt();
 
             byte[] pageData = new byte[pageSize];
-            raf.read(pageData); //read before image
+            raf.readFully(pageData); //read before image
 
             Object[] pageArgs = new Object[2];
             pageArgs[0] = pid;
@@ -292,7 +634,7 @@ public class LogFile {
         @param tid The transaction that is beginning
 
     */
-    public synchronized  void logXactionBegin(TransactionId tid)
+    public void logXactionBegin(TransactionId tid)
         throws IOException {
         Debug.log("BEGIN");
         if(tidToFirstLogRecord.get(tid.getId()) != null){
@@ -300,150 +642,96 @@ public class LogFile {
             throw new IOException("double logXactionBegin()");
         }
         preAppend();
-        raf.writeInt(BEGIN_RECORD);
-        raf.writeLong(tid.getId());
-        raf.writeLong(currentOffset);
-        tidToFirstLogRecord.put(tid.getId(), currentOffset);
-        currentOffset = raf.getFilePointer();
+        checkpointLock.readLock().lock();
+        try {
+            tidToFirstLogRecord.put(tid.getId(), appendMarker(BEGIN_RECORD, tid.getId()));
+        } finally {
+            checkpointLock.readLock().unlock();
+        }
 
-        Debug.log("BEGIN OFFSET = " + currentOffset);
+        Debug.log("BEGIN OFFSET = " + buffer.getEnd());
     }
 
-    /** Checkpoint the log and write a checkpoint record. */
+    /** Checkpoint the log and write a checkpoint record.  The checkpoint
+        is fuzzy: instead of writing the dirty pages of the BufferPool, it
+        records their recLSNs, and only holds the BufferPool lock while
+        taking that snapshot.  The page cleaner of the BufferPool, if
+        running, is asked to write dirty pages so that later checkpoints
+        can truncate more of the log.
+    */
     public void logCheckpoint() throws IOException {
+        BufferPool pool = Database.getBufferPool();
+        long startCpOffset;
+        // 拍快照期间不能有事务开始或结束, 也不能有页面被标记为脏页
+        checkpointLock.writeLock().lock();
         //make sure we have buffer pool lock before proceeding
-        synchronized (Database.getBufferPool()) {
-            synchronized (this) {
+        try {
+            synchronized (pool) {
+                synchronized (this) {
                 //Debug.log("CHECKPOINT, offset = " + raf.getFilePointer());
                 preAppend();
-                long startCpOffset, endCpOffset;
-                Set<Long> keys = tidToFirstLogRecord.keySet();
-                Iterator<Long> els = keys.iterator();
-                force();
-                Database.getBufferPool().flushAllPages();
-                startCpOffset = raf.getFilePointer();
-                raf.writeInt(CHECKPOINT_RECORD);
-                raf.writeLong(-1); //no tid , but leave space for convenience
+                Map<PageId, Long> dirty = pool.getDirtyPageTable();
+                ByteArrayOutputStream baos = new ByteArrayOutputStream(64);
+                DataOutputStream out = new DataOutputStream(baos);
+                out.writeInt(CHECKPOINT_RECORD);
+                out.writeLong(-1); //no tid , but leave space for convenience
 
                 //write list of outstanding transactions
-                raf.writeInt(keys.size());
-                while (els.hasNext()) {
-                    Long key = els.next();
-                    Debug.log("WRITING CHECKPOINT TRANSACTION ID: " + key);
-                    raf.writeLong(key);
-                    //Debug.log("WRITING CHECKPOINT TRANSACTION OFFSET: " + tidToFirstLogRecord.get(key));
-                    raf.writeLong(tidToFirstLogRecord.get(key));
+                out.writeInt(tidToFirstLogRecord.size());
+                for (Map.Entry<Long, Long> e : tidToFirstLogRecord.entrySet()) {
+                    Debug.log("WRITING CHECKPOINT TRANSACTION ID: " + e.getKey());
+                    out.writeLong(e.getKey());
+                    out.writeLong(e.getValue());
+                }
+                out.writeInt(dirty.size());
+                for (Map.Entry<PageId, Long> e : dirty.entrySet()) {
+                    writePageId(out, e.getKey());
+                    out.writeLong(e.getValue());
+                }
+                startCpOffset = append(baos);
                 }
-
-                //once the CP is written, make sure the CP location at the
-                // beginning of the log file is updated
-                endCpOffset = raf.getFilePointer();
-                raf.seek(0);
-                raf.writeLong(startCpOffset);
-                raf.seek(endCpOffset);
-                raf.writeLong(currentOffset);
-                currentOffset = raf.getFilePointer();
-                //Debug.log("CP OFFSET = " + currentOffset);
             }
+        } finally {
+            checkpointLock.writeLock().unlock();
+        }
+        // 在缓冲池锁之外刷日志
+        synchronized (this) {
+            force();
+            //once the CP is on disk, make sure the CP location at the
+            // beginning of the log file is updated
+            segments.setCheckpoint(startCpOffset);
+            segments.force();
         }
+        pool.requestCleaning();
 
         logTruncate();
     }
 
     /** Truncate any unneeded portion of the log to reduce its space
-        consumption */
+        consumption.  The log before the first record of the active
+        transactions and the dirty pages of the last checkpoint is not
+        needed; the segments holding only such records are deleted. */
     public synchronized void logTruncate() throws IOException {
         preAppend();
-        raf.seek(0);
-        long cpLoc = raf.readLong();
-
+        long cpLoc = segments.getCheckpoint();
+        if (cpLoc == NO_CHECKPOINT_ID) {
+            return;
+        }
+        flushBuffer();
+        Record cp = readRecord(cpLoc);
+        if (cp.type != CHECKPOINT_RECORD) {
+            throw new RuntimeException("Checkpoint pointer does not point to checkpoint record");
+        }
         long minLogRecord = cpLoc;
-
-        if (cpLoc != -1L) {
-            raf.seek(cpLoc);
-            int cpType = raf.readInt();
-            @SuppressWarnings("unused")
-            long cpTid = raf.readLong();
-
-            if (cpType != CHECKPOINT_RECORD) {
-                throw new RuntimeException("Checkpoint pointer does not point to checkpoint record");
-            }
-
-            int numOutstanding = raf.readInt();
-
-            for (int i = 0; i < numOutstanding; i++) {
-                @SuppressWarnings("unused")
-                long tid = raf.readLong();
-                long firstLogRecord = raf.readLong();
-                if (firstLogRecord < minLogRecord) {
-                    minLogRecord = firstLogRecord;
-                }
-            }
+        // 活跃事务的第一条记录和脏页的recLSN之前的日志都不再需要
+        for (long firstLogRecord : cp.active.values()) {
+            minLogRecord = Math.min(minLogRecord, firstLogRecord);
         }
-
-        // we can truncate everything before minLogRecord
-        File newFile = new File("logtmp" + System.currentTimeMillis());
-        RandomAccessFile logNew = new RandomAccessFile(newFile, "rw");
-        logNew.seek(0);
-        logNew.writeLong((cpLoc - minLogRecord) + LONG_SIZE);
-
-        raf.seek(minLogRecord);
-
-        //have to rewrite log records since offsets are different after truncation
-        while (true) {
-            try {
-                int type = raf.readInt();
-                long record_tid = raf.readLong();
-                long newStart = logNew.getFilePointer();
-
-                Debug.log("NEW START = " + newStart);
-
-                logNew.writeInt(type);
-                logNew.writeLong(record_tid);
-
-                switch (type) {
-                case UPDATE_RECORD:
-                    Page before = readPageData(raf);
-                    Page after = readPageData(raf);
-
-                    writePageData(logNew, before);
-                    writePageData(logNew, after);
-                    break;
-                case CHECKPOINT_RECORD:
-                    int numXactions = raf.readInt();
-                    logNew.writeInt(numXactions);
-                    while (numXactions-- > 0) {
-                        long xid = raf.readLong();
-                        long xoffset = raf.readLong();
-                        logNew.writeLong(xid);
-                        logNew.writeLong((xoffset - minLogRecord) + LONG_SIZE);
-                    }
-                    break;
-                case BEGIN_RECORD:
-                    tidToFirstLogRecord.put(record_tid,newStart);
-                    break;
-                }
-
-                //all xactions finish with a pointer
-                logNew.writeLong(newStart);
-                raf.readLong();
-
-            } catch (EOFException e) {
-                break;
-            }
+        for (long rec : cp.dirty.values()) {
+            minLogRecord = Math.min(minLogRecord, rec);
         }
-
-        Debug.log("TRUNCATING LOG;  WAS " + raf.length() + " BYTES ; NEW START : " + minLogRecord + " NEW LENGTH: " + (raf.length() - minLogRecord));
-
-        raf.close();
-        logFile.delete();
-        newFile.renameTo(logFile);
-        raf = new RandomAccessFile(logFile, "rw");
-        raf.seek(raf.length());
-        newFile.delete();
-
-        currentOffset = raf.getFilePointer();
-        //print();
+        Debug.log("TRUNCATING LOG;  WAS " + (buffer.getEnd() - segments.getStart()) + " BYTES ; NEW START : " + minLogRecord + " NEW LENGTH: " + (buffer.getEnd() - minLogRecord));
+        segments.truncateBefore(minLogRecord);
     }
 
     /** Rollback the specified transaction, setting the state of any
@@ -460,18 +748,99 @@ public class LogFile {
             synchronized(this) {
                 preAppend();
                 // some code goes here
+                Long first = tidToFirstLogRecord.get(tid.getId());
+                // 没有BEGIN记录的事务, 只能从日志开头找它的记录
+                undo(Collections.singletonMap(tid.getId(), first == null ? segments.getStart() : first), tid, null);
+            }
+        }
+    }
+
+    /** Undo the changes of some transactions, the latest change first,
+        reading the log backwards from its end.  Each change undone is
+        logged with a CLR record, and changes already compensated by a CLR
+        are skipped.
+
+        @param losers The transactions to undo and the offsets of their
+        first records
+        @param live The transaction being rolled back, when pages is null
+        @param pages The pages being recovered, to undo the changes on; or
+        null to undo them on the pages of the buffer pool
+    */
+    private void undo(Map<Long, Long> losers, TransactionId live, Map<PageId, Page> pages)
+        throws IOException {
+        if (losers.isEmpty()) {
+            return;
+        }
+        long stop = Math.max(Collections.min(losers.values()), segments.getStart());
+        // 每个事务中已经补偿过的记录的起始位置, 之后的记录不用再撤销
+        Map<Long, Long> undoneFrom = new HashMap<>();
+        long end = flushBuffer();
+        while (end > stop) {
+            long offset = segments.reader(end - LONG_SIZE).readLong();
+            if (offset < stop) {
+                break;
+            }
+            Record r = readRecord(offset);
+            end = offset;
+            if (!losers.containsKey(r.tid)) {
+                continue;
+            }
+            if (r.type == CLR_RECORD) {
+                undoneFrom.merge(r.tid, r.undoNext, Math::min);
+            } else if (r.undo != null && offset < undoneFrom.getOrDefault(r.tid, Long.MAX_VALUE)) {
+                long lsn = logCompensation(r.tid, r.undo, offset);
+                apply(r.undo, lsn, live, pages);
             }
         }
     }
 
+    /** Make a logged change to its page.
+
+        @param lsn The LSN of the record describing the change
+        @param tid The transaction making the change in the buffer pool
+        @param pages The pages being recovered; or null to change the page
+        in the buffer pool
+    */
+    private void apply(Change change, long lsn, TransactionId tid, Map<PageId, Page> pages)
+        throws IOException {
+        DbFile file = Database.getCatalog().getDatabaseFile(change.pid.getTableId());
+        if (pages != null) {
+            Page page = pages.get(change.pid);
+            if (page == null && change.kind != SET_PAGE) {
+                page = file.readPage(change.pid);
+            }
+            pages.put(change.pid, change.applyTo(page));
+            return;
+        }
+        BufferPool pool = Database.getBufferPool();
+        if (change.kind == SET_PAGE) {
+            // 整页镜像直接写回磁盘, 并丢弃缓冲池中的页面
+            force(lsn);
+            file.writePage(change.image);
+            pool.discardPage(change.pid);
+            return;
+        }
+        try {
+            Page page = pool.getPage(tid, change.pid, Permissions.READ_WRITE);
+            change.applyTo(page);
+            pool.logged(page, tid, lsn);
+        } catch (DbException | TransactionAbortedException e) {
+            throw new IOException("cannot undo a change to page " + change.pid, e);
+        }
+    }
+
     /** Shutdown the logging system, writing out whatever state
         is necessary so that start up can happen quickly (without
         extensive recovery.)
     */
-    public synchronized void shutdown() {
+    public void shutdown() {
         try {
+            // 检查点不写回页面, 先写回所有页面, 重启时就不需要重做
+            Database.getBufferPool().flushAllPages();
             logCheckpoint();  //simple way to shutdown is to write a checkpoint record
-            raf.close();
+            synchronized (this) {
+                segments.close();
+            }
         } catch (IOException e) {
             System.out.println("ERROR SHUTTING DOWN -- IGNORING.");
             e.printStackTrace();
@@ -483,66 +852,262 @@ public class LogFile {
         updates of uncommitted transactions are not installed.
     */
     public void recover() throws IOException {
+        recover(Integer.getInteger(RECOVERY_THREADS_PROPERTY, 1));
+    }
+
+    /** Recover the database system, redoing changes on the given number
+        of threads.  The log is still read once, by the calling thread,
+        which hands each change to the thread of its page, so the changes
+        to a page are redone in log order.  Undo starts once every change
+        has been redone.
+
+        @param threads The number of threads redoing changes; with 1 they
+        are redone by the calling thread
+    */
+    public void recover(int threads) throws IOException {
+        if (threads < 1) {
+            throw new IllegalArgumentException("recovery needs at least one thread");
+        }
         synchronized (Database.getBufferPool()) {
             synchronized (this) {
                 recoveryUndecided = false;
                 // some code goes here
+                if (segments.isEmpty()) {
+                    segments.reset(LONG_SIZE);
+                    buffer.reset();
+                    return;
+                }
+                long cpLoc = segments.getCheckpoint();
+                // 检查点之前的记录, 只重做其脏页表中recLSN之后的部分
+                Map<PageId, Long> dirty = Collections.emptyMap();
+                long offset = segments.getStart();
+                if (cpLoc != NO_CHECKPOINT_ID) {
+                    dirty = readRecord(cpLoc).dirty;
+                    offset = dirty.isEmpty() ? cpLoc : Math.min(cpLoc, Collections.min(dirty.values()));
+                }
+
+                // analysis and redo: repeat history, including the changes
+                // of transactions that did not commit
+                Map<Long, Long> losers = new HashMap<>();
+                Map<PageId, Page> pages = new HashMap<>();
+                ParallelRedo redo = threads > 1 ? new ParallelRedo(threads) : null;
+                LogSegments.Reader in = segments.reader(offset);
+                while (true) {
+                    Record r;
+                    try {
+                        r = readRecord(in);
+                    } catch (EOFException e) {
+                        break; // the last record was not written completely
+                    } catch (IOException | RuntimeException e) {
+                        if (redo != null) {
+                            redo.cancel();
+                        }
+                        throw e;
+                    }
+                    switch (r.type) {
+                    case CHECKPOINT_RECORD:
+                        losers.putAll(r.active);
+                        break;
+                    case BEGIN_RECORD:
+                        losers.put(r.tid, r.offset);
+                        break;
+                    case COMMIT_RECORD:
+                    case ABORT_RECORD:
+                        losers.remove(r.tid);
+                        break;
+                    default:
+                        losers.putIfAbsent(r.tid, r.offset);
+                        if (r.redo != null && (r.offset > cpLoc
+                                || r.offset >= dirty.getOrDefault(r.redo.pid, Long.MAX_VALUE))) {
+                            if (redo != null) {
+                                redo.submit(r.redo);
+                            } else {
+                                apply(r.redo, r.offset, null, pages);
+                            }
+                        }
+                    }
+                    offset = r.end;
+                }
+                if (redo != null) {
+                    pages.putAll(redo.finish());
+                }
+                segments.truncateAfter(offset);
+                buffer.reset();
+
+                // undo the transactions that did not finish
+                undo(losers, null, pages);
+                for (Long tid : losers.keySet()) {
+                    appendMarker(ABORT_RECORD, tid);
+                    tidToFirstLogRecord.remove(tid);
+                }
+                force();
+
+                for (Page page : pages.values()) {
+                    Database.getCatalog().getDatabaseFile(page.getId().getTableId()).writePage(page);
+                    Database.getBufferPool().discardPage(page.getId());
+                }
             }
          }
     }
 
-    /** Print out a human readable represenation of the log */
-    public void print() throws IOException {
-        long curOffset = raf.getFilePointer();
+    /** The redo pass of recovery on several threads.  Each thread owns
+        the pages whose id hashes to it and applies their changes in the
+        order they are submitted, on its own copies of the pages.
+    */
+    private class ParallelRedo {
+        private final Change done = Change.slot(CLEAR_SLOT, null, -1, null);
+        private final List<BlockingQueue<Change>> queues = new ArrayList<>();
+        private final List<Thread> workers = new ArrayList<>();
+        private final List<Map<PageId, Page>> pagesOf = new ArrayList<>();
+        private volatile Throwable failure;
+
+        ParallelRedo(int threads) {
+            for (int i = 0; i < threads; i++) {
+                BlockingQueue<Change> queue = new ArrayBlockingQueue<>(1024);
+                Map<PageId, Page> pages = new HashMap<>();
+                Thread worker = new Thread(() -> run(queue, pages), "redo " + i);
+                worker.setDaemon(true);
+                queues.add(queue);
+                pagesOf.add(pages);
+                workers.add(worker);
+                worker.start();
+            }
+        }
 
-        raf.seek(0);
+        private void run(BlockingQueue<Change> queue, Map<PageId, Page> pages) {
+            try {
+                for (Change change = queue.take(); change != done; change = queue.take()) {
+                    if (failure == null) {
+                        try {
+                            apply(change, -1, null, pages);
+                        } catch (IOException | RuntimeException e) {
+                            failure = e;
+                        }
+                    }
+                }
+            } catch (InterruptedException e) {
+                // cancelled
+            }
+        }
 
-        System.out.println("0: checkpoint record at offset " + raf.readLong());
+        void submit(Change change) throws IOException {
+            try {
+                queues.get(Math.floorMod(change.pid.hashCode(), queues.size())).put(change);
+            } catch (InterruptedException e) {
+                cancel();
+                Thread.currentThread().interrupt();
+                throw new IOException("interrupted during recovery", e);
+            }
+        }
 
-        while (true) {
+        /** Wait for every submitted change to be redone.
+            @return the redone pages
+        */
+        Map<PageId, Page> finish() throws IOException {
+            Map<PageId, Page> pages = new HashMap<>();
             try {
-                int cpType = raf.readInt();
-                long cpTid = raf.readLong();
+                for (BlockingQueue<Change> queue : queues) {
+                    queue.put(done);
+                }
+                for (Thread worker : workers) {
+                    worker.join();
+                }
+            } catch (InterruptedException e) {
+                cancel();
+                Thread.currentThread().interrupt();
+                throw new IOException("interrupted during recovery", e);
+            }
+            if (failure != null) {
+                throw new IOException("redo failed", failure);
+            }
+            for (Map<PageId, Page> p : pagesOf) {
+                pages.putAll(p);
+            }
+            return pages;
+        }
+
+        void cancel() {
+            for (Thread worker : workers) {
+                worker.interrupt();
+            }
+        }
+    }
+
+    /** Print out a human readable represenation of the log */
+    public void print() throws IOException {
+        System.out.println("checkpoint record at offset " + segments.getCheckpoint());
+        System.out.println("log starts at offset " + segments.getStart());
 
-                System.out.println((raf.getFilePointer() - (INT_SIZE + LONG_SIZE)) + ": RECORD TYPE " + cpType);
-                System.out.println((raf.getFilePointer() - LONG_SIZE) + ": TID " + cpTid);
+        long end = recoveryUndecided ? Long.MAX_VALUE : flushBuffer();
+        LogSegments.Reader in = segments.reader(segments.getStart());
+        while (in.getPosition() < end) {
+            try {
+                int cpType = in.readInt();
+                long cpTid = in.readLong();
+                if (cpType < ABORT_RECORD || cpType > CLR_RECORD) {
+                    break; // past the end of the log
+                }
+
+                System.out.println((in.getPosition() - (INT_SIZE + LONG_SIZE)) + ": RECORD TYPE " + cpType);
+                System.out.println((in.getPosition() - LONG_SIZE) + ": TID " + cpTid);
 
                 switch (cpType) {
                 case BEGIN_RECORD:
                     System.out.println(" (BEGIN)");
-                    System.out.println(raf.getFilePointer() + ": RECORD START OFFSET: " + raf.readLong());
+                    System.out.println(in.getPosition() + ": RECORD START OFFSET: " + in.readLong());
                     break;
                 case ABORT_RECORD:
                     System.out.println(" (ABORT)");
-                    System.out.println(raf.getFilePointer() + ": RECORD START OFFSET: " + raf.readLong());
+                    System.out.println(in.getPosition() + ": RECORD START OFFSET: " + in.readLong());
                     break;
                 case COMMIT_RECORD:
                     System.out.println(" (COMMIT)");
-                    System.out.println(raf.getFilePointer() + ": RECORD START OFFSET: " + raf.readLong());
+                    System.out.println(in.getPosition() + ": RECORD START OFFSET: " + in.readLong());
                     break;
 
                 case CHECKPOINT_RECORD:
                     System.out.println(" (CHECKPOINT)");
-                    int numTransactions = raf.readInt();
-                    System.out.println((raf.getFilePointer() - INT_SIZE) + ": NUMBER OF OUTSTANDING RECORDS: " + numTransactions);
+                    int numTransactions = in.readInt();
+                    System.out.println((in.getPosition() - INT_SIZE) + ": NUMBER OF OUTSTANDING RECORDS: " + numTransactions);
 
                     while (numTransactions-- > 0) {
-                        long tid = raf.readLong();
-                        long firstRecord = raf.readLong();
-                        System.out.println((raf.getFilePointer() - (LONG_SIZE + LONG_SIZE)) + ": TID: " + tid);
-                        System.out.println((raf.getFilePointer() - LONG_SIZE) + ": FIRST LOG RECORD: " + firstRecord);
+                        long tid = in.readLong();
+                        long firstRecord = in.readLong();
+                        System.out.println((in.getPosition() - (LONG_SIZE + LONG_SIZE)) + ": TID: " + tid);
+                        System.out.println((in.getPosition() - LONG_SIZE) + ": FIRST LOG RECORD: " + firstRecord);
+                    }
+                    int numDirty = in.readInt();
+                    System.out.println((in.getPosition() - INT_SIZE) + ": NUMBER OF DIRTY PAGES: " + numDirty);
+                    while (numDirty-- > 0) {
+                        PageId pid = readPageId(in);
+                        System.out.println("    table id " + pid.getTableId() + " page number " + pid.getPageNumber()
+                                + " recLSN " + in.readLong());
                     }
-                    System.out.println(raf.getFilePointer() + ": RECORD START OFFSET: " + raf.readLong());
+                    System.out.println(in.getPosition() + ": RECORD START OFFSET: " + in.readLong());
 
+                    break;
+                case INSERT_RECORD:
+                case DELETE_RECORD:
+                case CLR_RECORD:
+                    Record r = readRecord(in.getPosition() - (INT_SIZE + LONG_SIZE));
+                    Change c = r.type == DELETE_RECORD ? r.undo : r.redo;
+                    System.out.println(r.type == INSERT_RECORD ? " (INSERT)" : r.type == DELETE_RECORD ? " (DELETE)" : " (CLR)");
+                    System.out.println("    table id " + c.pid.getTableId() + " page number " + c.pid.getPageNumber()
+                            + (c.kind == SET_PAGE ? " page image" : " slot " + c.slot + (c.kind == SET_SLOT ? " set" : " cleared")));
+                    if (r.type == CLR_RECORD) {
+                        System.out.println("    undoes record at " + r.undoNext);
+                    }
+                    System.out.println((r.end - LONG_SIZE) + ": RECORD START OFFSET: " + r.offset);
+                    in = segments.reader(r.end);
                     break;
                 case UPDATE_RECORD:
                     System.out.println(" (UPDATE)");
 
-                    long start = raf.getFilePointer();
-                    Page before = readPageData(raf);
+                    long start = in.getPosition();
+                    Page before = readPageData(in);
 
-                    long middle = raf.getFilePointer();
-                    Page after = readPageData(raf);
+                    long middle = in.getPosition();
+                    Page after = readPageData(in);
 
                     System.out.println(start + ": before image table id " + before.getId().getTableId());
                     System.out.println((start + INT_SIZE) + ": before image page number " + before.getId().getPageNumber());
@@ -550,9 +1115,9 @@ public class LogFile {
 
                     System.out.println(middle + ": after image table id " + after.getId().getTableId());
                     System.out.println((middle + INT_SIZE) + ": after image page number " + after.getId().getPageNumber());
-                    System.out.println((middle + INT_SIZE) + " TO " + (raf.getFilePointer()) + ": page data");
+                    System.out.println((middle + INT_SIZE) + " TO " + (in.getPosition()) + ": page data");
 
-                    System.out.println(raf.getFilePointer() + ": RECORD START OFFSET: " + raf.readLong());
+                    System.out.println(in.getPosition() + ": RECORD START OFFSET: " + in.readLong());
 
                     break;
                 }
@@ -562,13 +1127,31 @@ public class LogFile {
                 break;
             }
         }
+    }
 
-        // Return the file pointer to its original position
-        raf.seek(curOffset);
+    public void force() throws IOException {
+        synchronized (forceLock) {
+            long end = flushBuffer();
+            segments.force();
+            forcedOffset = end;
+        }
     }
 
-    public  synchronized void force() throws IOException {
-        raf.getChannel().force(true);
+    /** Force the log to disk up to and including the record at lsn, if it
+        is not there already.  Called before a page is written, with the
+        LSN of the last record describing the page, and after a COMMIT
+        record: transactions committing together wait for a single force,
+        which writes all of their records.
+    */
+    public void force(long lsn) throws IOException {
+        if (lsn < forcedOffset) {
+            return;
+        }
+        synchronized (forceLock) {
+            if (lsn >= forcedOffset) {
+                force();
+            }
+        }
     }
 
 }
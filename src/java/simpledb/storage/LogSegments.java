@@ -0,0 +1,438 @@
+package simpledb.storage;
+
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * LogSegments stores the bytes of the {@link LogFile} in fixed-size segment
+ * files, so that the start of the log can be dropped by deleting whole
+ * files instead of copying the rest of the log.
+ * <p>
+ * The log is a stream of bytes addressed by LSN. The byte at LSN n is at
+ * offset n % segmentSize of segment n / segmentSize, in the file named
+ * after the control file plus "." and the segment number in hex. LSNs never
+ * change: truncating the log only moves its start. The control file holds
+ * two long integers, the LSN of the last checkpoint record (or -1) and the
+ * start of the log.
+ * <p>
+ * Segments are created at their full size. Once appends are halfway
+ * through a segment, the next one is preallocated by a background thread
+ * that fills it with zeros, so appends neither extend a file nor allocate
+ * its blocks. Bytes past the end of the log read as zeros.
+ * <p>
+ * Thread-safe. Reads and writes are serialized, which is cheap since the
+ * {@link LogBuffer} in front of the segments writes large pieces.
+ */
+class LogSegments {
+
+    /**
+     * 后台预分配段文件的线程, 所有日志共用
+     */
+    private static final ExecutorService PREALLOCATOR = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "log segment preallocator");
+        t.setDaemon(true);
+        return t;
+    });
+    private static final int ZERO_CHUNK = 64 * 1024;
+
+    private final File control;
+    private final RandomAccessFile controlFile;
+    private final int segmentSize;
+    /**
+     * 段号到打开的段文件的索引
+     */
+    private final TreeMap<Long, FileChannel> segments = new TreeMap<>();
+    /**
+     * 正在后台预分配的段
+     */
+    private final Map<Long, Future<FileChannel>> preallocating = new TreeMap<>();
+    /**
+     * 上次force之后写过的段
+     */
+    private final Set<Long> unforced = new HashSet<>();
+
+    private final boolean existed;
+    private long checkpoint;
+    private long start;
+    private long end;
+    private boolean controlChanged;
+
+    /**
+     * Open the log stored in the control file f and the segment files next
+     * to it. The end of the log is not known until {@link #truncateAfter}
+     * is called by recovery, or the log is {@link #reset}.
+     */
+    LogSegments(File f, int segmentSize) throws IOException {
+        if (segmentSize <= 0) {
+            throw new IllegalArgumentException("segment size must be positive");
+        }
+        this.control = f.getAbsoluteFile();
+        this.controlFile = new RandomAccessFile(control, "rw");
+        this.segmentSize = segmentSize;
+        this.checkpoint = LogFile.NO_CHECKPOINT_ID;
+        this.existed = controlFile.length() >= 2 * LogFile.LONG_SIZE;
+        if (existed) {
+            checkpoint = controlFile.readLong();
+            start = controlFile.readLong();
+        }
+        this.end = start;
+        File[] files = control.getParentFile().listFiles();
+        if (files != null) {
+            for (File file : files) {
+                long no = segmentNumber(file);
+                if (no >= 0) {
+                    segments.put(no, new RandomAccessFile(file, "rw").getChannel());
+                }
+            }
+        }
+    }
+
+    private long segmentNumber(File file) {
+        String prefix = control.getName() + ".";
+        if (!file.getName().startsWith(prefix)) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(file.getName().substring(prefix.length()), 16);
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private File segmentFile(long no) {
+        return new File(control.getParentFile(), String.format("%s.%016x", control.getName(), no));
+    }
+
+    /**
+     * @return true if there is no log to recover
+     */
+    synchronized boolean isEmpty() {
+        return !existed || segments.isEmpty();
+    }
+
+    /**
+     * Throw away the whole log and start a new one, at LSN startLsn.
+     */
+    synchronized void reset(long startLsn) throws IOException {
+        awaitPreallocation();
+        for (Long no : segments.keySet()) {
+            segments.get(no).close();
+            segmentFile(no).delete();
+        }
+        segments.clear();
+        unforced.clear();
+        checkpoint = LogFile.NO_CHECKPOINT_ID;
+        start = startLsn;
+        end = startLsn;
+        writeControl();
+        controlFile.getChannel().force(true);
+    }
+
+    synchronized long getCheckpoint() {
+        return checkpoint;
+    }
+
+    synchronized void setCheckpoint(long lsn) throws IOException {
+        checkpoint = lsn;
+        writeControl();
+    }
+
+    synchronized long getStart() {
+        return start;
+    }
+
+    synchronized long getEnd() {
+        return end;
+    }
+
+    int getSegmentSize() {
+        return segmentSize;
+    }
+
+    /**
+     * @return the number of segment files of the log
+     */
+    synchronized int getSegmentCount() {
+        return segments.size();
+    }
+
+    private void writeControl() throws IOException {
+        controlFile.seek(0);
+        controlFile.writeLong(checkpoint);
+        controlFile.writeLong(start);
+        controlChanged = true;
+    }
+
+    /**
+     * Write len bytes of data from off at the end of the log, crossing
+     * into the following segments as needed.
+     *
+     * @return the LSN of the first byte written
+     */
+    synchronized long append(byte[] data, int off, int len) throws IOException {
+        long lsn = end;
+        int written = 0;
+        while (written < len) {
+            long no = end / segmentSize;
+            int offset = (int) (end % segmentSize);
+            int n = Math.min(len - written, segmentSize - offset);
+            FileChannel ch = segment(no);
+            ByteBuffer buf = ByteBuffer.wrap(data, off + written, n);
+            long pos = offset;
+            while (buf.hasRemaining()) {
+                pos += ch.write(buf, pos);
+            }
+            unforced.add(no);
+            if (offset < segmentSize / 2 && offset + n >= segmentSize / 2) {
+                preallocate(no + 1);
+            }
+            written += n;
+            end += n;
+        }
+        return lsn;
+    }
+
+    /**
+     * @return the channel of segment no, created if it does not exist yet
+     */
+    private FileChannel segment(long no) throws IOException {
+        FileChannel ch = segments.get(no);
+        if (ch != null) {
+            return ch;
+        }
+        Future<FileChannel> pending;
+        synchronized (this) {
+            pending = preallocating.remove(no);
+        }
+        if (pending != null) {
+            try {
+                ch = pending.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("interrupted while preallocating log segment " + no, e);
+            } catch (ExecutionException e) {
+                ch = null; // 预分配失败, 下面直接创建
+            }
+        }
+        if (ch == null) {
+            RandomAccessFile raf = new RandomAccessFile(segmentFile(no), "rw");
+            raf.setLength(segmentSize);
+            ch = raf.getChannel();
+        }
+        segments.put(no, ch);
+        return ch;
+    }
+
+    private synchronized void preallocate(long no) {
+        if (segments.containsKey(no) || preallocating.containsKey(no)) {
+            return;
+        }
+        File file = segmentFile(no);
+        preallocating.put(no, PREALLOCATOR.submit(() -> {
+            FileChannel ch = new RandomAccessFile(file, "rw").getChannel();
+            zero(ch, 0, segmentSize);
+            ch.force(true);
+            return ch;
+        }));
+    }
+
+    private static void zero(FileChannel ch, long from, long to) throws IOException {
+        ByteBuffer zeros = ByteBuffer.allocate(ZERO_CHUNK);
+        for (long pos = from; pos < to; pos += ZERO_CHUNK) {
+            zeros.clear();
+            zeros.limit((int) Math.min(ZERO_CHUNK, to - pos));
+            while (zeros.hasRemaining()) {
+                ch.write(zeros, pos + zeros.position());
+            }
+        }
+    }
+
+    private void awaitPreallocation() throws IOException {
+        Map<Long, Future<FileChannel>> pending;
+        synchronized (this) {
+            pending = new TreeMap<>(preallocating);
+            preallocating.clear();
+        }
+        for (Map.Entry<Long, Future<FileChannel>> e : pending.entrySet()) {
+            try {
+                segments.put(e.getKey(), e.getValue().get());
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new IOException("interrupted while preallocating a log segment", ex);
+            } catch (ExecutionException ex) {
+                segmentFile(e.getKey()).delete();
+            }
+        }
+    }
+
+    /**
+     * Make the end of the log the given LSN, e.g. because recovery found
+     * no complete record after it. The rest of its segment is zeroed, so
+     * that no part of a torn record is read back, and later segments are
+     * deleted.
+     */
+    synchronized void truncateAfter(long lsn) throws IOException {
+        awaitPreallocation();
+        long last = lsn / segmentSize;
+        Iterator<Map.Entry<Long, FileChannel>> it = segments.tailMap(last, false).entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<Long, FileChannel> e = it.next();
+            e.getValue().close();
+            segmentFile(e.getKey()).delete();
+            unforced.remove(e.getKey());
+            it.remove();
+        }
+        FileChannel ch = segments.get(last);
+        if (ch != null) {
+            zero(ch, lsn % segmentSize, segmentSize);
+            unforced.add(last);
+        }
+        end = lsn;
+    }
+
+    /**
+     * Drop the log before the given LSN: it becomes the start of the log,
+     * and the segments that end before it are deleted.
+     */
+    synchronized void truncateBefore(long lsn) throws IOException {
+        if (lsn <= start) {
+            return;
+        }
+        start = lsn;
+        writeControl();
+        // 先持久化新的起点, 再删除段文件
+        controlFile.getChannel().force(true);
+        controlChanged = false;
+        Iterator<Map.Entry<Long, FileChannel>> it = segments.headMap(lsn / segmentSize, false).entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<Long, FileChannel> e = it.next();
+            e.getValue().close();
+            segmentFile(e.getKey()).delete();
+            unforced.remove(e.getKey());
+            it.remove();
+        }
+    }
+
+    /**
+     * Force the segments written since the last call, and the control file
+     * if it changed, to disk.
+     */
+    synchronized void force() throws IOException {
+        for (Long no : unforced) {
+            FileChannel ch = segments.get(no);
+            if (ch != null) {
+                ch.force(false);
+            }
+        }
+        unforced.clear();
+        if (controlChanged) {
+            controlFile.getChannel().force(false);
+            controlChanged = false;
+        }
+    }
+
+    synchronized void close() throws IOException {
+        awaitPreallocation();
+        for (FileChannel ch : segments.values()) {
+            ch.close();
+        }
+        segments.clear();
+        controlFile.close();
+    }
+
+    /**
+     * @return a reader of the log starting at lsn
+     */
+    Reader reader(long lsn) {
+        return new Reader(new SegmentInput(lsn));
+    }
+
+    /**
+     * Reads the log from some LSN on; its position is the LSN of the next
+     * byte to read. Reading past the last segment throws EOFException.
+     */
+    class Reader extends DataInputStream {
+        private Reader(SegmentInput in) {
+            super(in);
+        }
+
+        long getPosition() {
+            return ((SegmentInput) in).pos;
+        }
+    }
+
+    private class SegmentInput extends InputStream {
+        private long pos;
+        private final byte[] buf = new byte[8192];
+        // buf holds the bytes from bufStart to bufStart + bufLen
+        private long bufStart;
+        private int bufLen;
+
+        SegmentInput(long pos) {
+            this.pos = pos;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (!fill()) {
+                return -1;
+            }
+            return buf[(int) (pos++ - bufStart)] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            if (!fill()) {
+                return -1;
+            }
+            int n = Math.min(len, (int) (bufStart + bufLen - pos));
+            System.arraycopy(buf, (int) (pos - bufStart), b, off, n);
+            pos += n;
+            return n;
+        }
+
+        /**
+         * Make sure the byte at pos is buffered.
+         *
+         * @return false if pos is past the last segment
+         */
+        private boolean fill() throws IOException {
+            if (pos >= bufStart && pos < bufStart + bufLen) {
+                return true;
+            }
+            int n;
+            synchronized (LogSegments.this) {
+                FileChannel ch = segments.get(pos / segmentSize);
+                if (ch == null) {
+                    return false;
+                }
+                int offset = (int) (pos % segmentSize);
+                ByteBuffer bb = ByteBuffer.wrap(buf, 0, Math.min(buf.length, segmentSize - offset));
+                n = ch.read(bb, offset);
+            }
+            if (n <= 0) {
+                return false;
+            }
+            bufStart = pos;
+            bufLen = n;
+            return true;
+        }
+    }
+}
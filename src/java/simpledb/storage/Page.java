@@ -58,4 +58,13 @@ public interface Page {
      * copy current content to the before image.
      */
     void setBeforeImage();
+
+    /**
+     * Called by the BufferPool before the memory this page was built over is
+     * reused for another page. Pages that are views over a frame of a
+     * {@link FrameArena} copy whatever they still read from it; other pages
+     * have nothing to do.
+     */
+    default void detach() {
+    }
 }
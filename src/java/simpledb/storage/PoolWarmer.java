@@ -0,0 +1,214 @@
+package simpledb.storage;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.common.Permissions;
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * PoolWarmer loads a list of pages, usually read from a
+ * {@link BufferPoolManifest}, into a BufferPool on background threads.
+ * <p>
+ * Only the most recently used pages that fit in the pool are loaded; pages of
+ * tables routed to a named pool (see {@link BufferPool#addPool}) must fit in
+ * that pool instead. They are read one table at a time in page number order,
+ * i.e. in file offset order, so the reads are sequential instead of one
+ * random read per page fault. Each table is read by a single thread and the
+ * threads take tables from a shared queue. Once all pages are loaded their
+ * recency is restored, so the pages that were hottest before the restart
+ * are again the last to be evicted.
+ * <p>
+ * The progress of the warm-up can be followed with the getters, while
+ * queries are already running.
+ */
+public class PoolWarmer {
+
+    private final BufferPool pool;
+    private final TransactionId tid;
+    /**
+     * 要加载的页面, 最近使用的在后面, 用于加载完成后恢复LRU顺序
+     */
+    private final List<PageId> coldestFirst;
+    private final ConcurrentLinkedQueue<List<PageId>> tables;
+    private final CountDownLatch done;
+
+    private final int pagesPlanned;
+    private final AtomicInteger pagesLoaded = new AtomicInteger();
+    private final AtomicInteger pagesSkipped = new AtomicInteger();
+    private final AtomicLong bytesLoaded = new AtomicLong();
+    private final long startNanos;
+    private volatile long endNanos;
+
+    private PoolWarmer(BufferPool pool, List<PageId> hottestFirst, int threads) {
+        this.pool = pool;
+        this.tid = new TransactionId();
+        this.startNanos = System.nanoTime();
+
+        // 从最热的页面开始选, 直到装满各自的缓冲池
+        List<PageId> selected = new ArrayList<>();
+        Map<Integer, List<PageId>> byTable = new TreeMap<>();
+        Map<BufferPool, Long> bytes = new HashMap<>();
+        int skipped = 0;
+        for (PageId pid : hottestFirst) {
+            int size;
+            try {
+                size = Database.getCatalog().getPageSize(pid.getTableId());
+            } catch (NoSuchElementException e) {
+                // 表已经不存在了
+                skipped++;
+                continue;
+            }
+            BufferPool target = pool.poolFor(pid);
+            long used = bytes.getOrDefault(target, 0L);
+            if (used + size > target.getMaxBytes()) {
+                continue;
+            }
+            bytes.put(target, used + size);
+            selected.add(pid);
+            byTable.computeIfAbsent(pid.getTableId(), k -> new ArrayList<>()).add(pid);
+        }
+        this.pagesPlanned = selected.size();
+        this.pagesSkipped.set(skipped);
+        this.coldestFirst = new ArrayList<>(selected);
+        Collections.reverse(this.coldestFirst);
+
+        this.tables = new ConcurrentLinkedQueue<>();
+        for (List<PageId> pids : byTable.values()) {
+            pids.sort(Comparator.comparingInt(PageId::getPageNumber));
+            tables.add(pids);
+        }
+        int n = Math.max(1, Math.min(threads, byTable.size()));
+        this.done = new CountDownLatch(n);
+        for (int i = 0; i < n; i++) {
+            Thread t = new Thread(this::run, "BufferPool warmer " + i);
+            t.setDaemon(true);
+            t.start();
+        }
+    }
+
+    /**
+     * Start loading pages into pool.
+     *
+     * @param pool        the pool to warm up
+     * @param hottestFirst the pages to load, the most recently used first,
+     *                    e.g. from {@link BufferPoolManifest#read()}
+     * @param threads     the number of threads reading pages
+     * @return the warmer, to follow its progress
+     */
+    public static PoolWarmer start(BufferPool pool, List<PageId> hottestFirst, int threads) {
+        return new PoolWarmer(pool, hottestFirst, threads);
+    }
+
+    private void run() {
+        try {
+            List<PageId> pids;
+            while ((pids = tables.poll()) != null) {
+                for (PageId pid : pids) {
+                    load(pid);
+                }
+            }
+        } finally {
+            finishWorker();
+        }
+    }
+
+    private void load(PageId pid) {
+        try {
+            pool.getPage(tid, pid, Permissions.READ_ONLY);
+            pagesLoaded.incrementAndGet();
+            bytesLoaded.addAndGet(Database.getCatalog().getPageSize(pid.getTableId()));
+        } catch (DbException | TransactionAbortedException | IllegalArgumentException | NoSuchElementException e) {
+            // 页面已经不在文件中, 或者缓冲池已满
+            pagesSkipped.incrementAndGet();
+        }
+    }
+
+    private synchronized void finishWorker() {
+        if (done.getCount() == 1) {
+            pool.touchPages(coldestFirst);
+            pool.transactionComplete(tid);
+            endNanos = System.nanoTime();
+        }
+        done.countDown();
+    }
+
+    /**
+     * @return the number of pages selected for loading
+     */
+    public int getPagesPlanned() {
+        return pagesPlanned;
+    }
+
+    /**
+     * @return the number of pages read into the pool so far
+     */
+    public int getPagesLoaded() {
+        return pagesLoaded.get();
+    }
+
+    /**
+     * @return the number of pages of the manifest that could not be loaded
+     * because their table or page no longer exists
+     */
+    public int getPagesSkipped() {
+        return pagesSkipped.get();
+    }
+
+    /**
+     * @return the number of bytes read into the pool so far
+     */
+    public long getBytesLoaded() {
+        return bytesLoaded.get();
+    }
+
+    /**
+     * @return the fraction of the selected pages loaded so far, from 0 to 1
+     */
+    public double getProgress() {
+        return pagesPlanned == 0 ? 1.0 : (double) pagesLoaded.get() / pagesPlanned;
+    }
+
+    /**
+     * @return milliseconds since the warm-up started, or how long it took
+     * once it is done
+     */
+    public long getElapsedMillis() {
+        long end = isDone() ? endNanos : System.nanoTime();
+        return TimeUnit.NANOSECONDS.toMillis(end - startNanos);
+    }
+
+    public boolean isDone() {
+        return done.getCount() == 0;
+    }
+
+    /**
+     * Wait for the warm-up to finish.
+     *
+     * @return true if it finished within timeoutMillis
+     */
+    public boolean awaitCompletion(long timeoutMillis) throws InterruptedException {
+        return done.await(timeoutMillis, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("warmed %d/%d pages (%d bytes, %d skipped) in %d ms%s",
+                getPagesLoaded(), pagesPlanned, getBytesLoaded(), getPagesSkipped(), getElapsedMillis(),
+                isDone() ? "" : ", in progress");
+    }
+}
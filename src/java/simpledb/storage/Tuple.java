@@ -1,7 +1,9 @@
 package simpledb.storage;
 
+import java.io.DataOutputStream;
+import java.io.IOException;
 import java.io.Serializable;
-import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Iterator;
 
 /**
@@ -13,7 +15,7 @@ public class Tuple implements Serializable {
 
     private TupleDesc td; // 元组描述
 
-    private final ArrayList<Field> fields; // Field集合，相当于这一行数据的集合
+    private final Field[] fields; // Field集合，相当于这一行数据的集合
 
 
     private RecordId recordId;
@@ -28,10 +30,17 @@ public class Tuple implements Serializable {
     public Tuple(TupleDesc td) {
         // some code goes here
         this.td = td;
-        fields = new ArrayList<>();
-        for (int i = 0; i < td.numFields(); i++) {
-            fields.add(null);
-        }
+        fields = new Field[td.numFields()];
+    }
+
+    /**
+     * Constructor for subclasses that keep their values in another
+     * representation (see {@link CompactTuple}); they must override every
+     * accessor that reads the fields array.
+     */
+    Tuple(TupleDesc td, Field[] fields) {
+        this.td = td;
+        this.fields = fields;
     }
 
     /**
@@ -69,9 +78,7 @@ public class Tuple implements Serializable {
      */
     public void setField(int i, Field f) {
         // some code goes here
-        fields.set(i, f);
-
-
+        fields[i] = f;
     }
 
     /**
@@ -79,7 +86,61 @@ public class Tuple implements Serializable {
      * @return the value of the ith field, or null if it has not been set.
      */
     public Field getField(int i) {
-        return fields.get(i);
+        return fields[i];
+    }
+
+    /**
+     * Typed accessor for integer fields. Operators that only need the value
+     * should prefer this over {@link #getField}, since compact tuples can
+     * answer it without allocating a {@link IntField}.
+     *
+     * @param i index of an INT_TYPE field. It must be a valid index.
+     * @return the int value of the ith field
+     */
+    public int getInt(int i) {
+        return ((IntField) getField(i)).getValue();
+    }
+
+    /**
+     * Write the serialized form of this tuple (the concatenation of its
+     * serialized fields) to the specified DataOutputStream.
+     */
+    public void serialize(DataOutputStream dos) throws IOException {
+        for (int i = 0; i < td.numFields(); i++) {
+            getField(i).serialize(dos);
+        }
+    }
+
+    /**
+     * Copy the fields of this tuple into dest starting at position pos.
+     */
+    void copyFieldsTo(Field[] dest, int pos) {
+        System.arraycopy(fields, 0, dest, pos, fields.length);
+    }
+
+    /**
+     * Concatenate two tuples into a new tuple with the specified (usually
+     * precomputed, see {@link TupleDesc#merge}) descriptor, copying field
+     * references rather than re-setting them one by one. If both inputs are
+     * unmodified {@link CompactTuple}s the result is also compact, so no
+     * Field objects are created at all.
+     *
+     * @param td the descriptor of the result; must be td(t1) ++ td(t2)
+     * @param t1 the tuple providing the first fields
+     * @param t2 the tuple providing the last fields
+     * @return the combined tuple
+     */
+    public static Tuple merge(TupleDesc td, Tuple t1, Tuple t2) {
+        if (t1 instanceof CompactTuple && t2 instanceof CompactTuple) {
+            Tuple merged = CompactTuple.concat(td, (CompactTuple) t1, (CompactTuple) t2);
+            if (merged != null) {
+                return merged;
+            }
+        }
+        Field[] merged = new Field[td.numFields()];
+        t1.copyFieldsTo(merged, 0);
+        t2.copyFieldsTo(merged, t1.getTupleDesc().numFields());
+        return new Tuple(td, merged);
     }
 
     /**
@@ -93,9 +154,10 @@ public class Tuple implements Serializable {
     public String toString() {
         // some code goes here
         StringBuilder s = new StringBuilder();
-        for (int i = 0; i < this.fields.size(); i++) {
-            s.append(fields.get(i).toString());
-            if (i < fields.size() - 1)
+        int n = td.numFields();
+        for (int i = 0; i < n; i++) {
+            s.append(getField(i).toString());
+            if (i < n - 1)
                 s.append("\t");
         }
         return s.toString();
@@ -106,7 +168,7 @@ public class Tuple implements Serializable {
      */
     public Iterator<Field> fields() {
         // some code goes here
-        return fields.iterator();
+        return Arrays.asList(fields).iterator();
     }
 
     /**
@@ -16,6 +16,13 @@ import java.util.*;
 public class TupleDesc implements Serializable {
     private final List<TDItem> items;
 
+    /**
+     * Byte offset of every field inside the serialized tuple, plus the total
+     * tuple size as the last element. Computed once so that per-tuple code
+     * (page decoding, {@link CompactTuple}) does not walk the item list.
+     */
+    private final int[] offsets;
+
     /**
      * @return An iterator which iterates over all the field TDItems
      * that are included in this TupleDesc
@@ -42,6 +49,7 @@ public class TupleDesc implements Serializable {
             TDItem tdItem = new TDItem(typeAr[i], fieldAr[i]);
             items.add(tdItem);
         }
+        offsets = computeOffsets(items);
     }
 
     /**
@@ -58,10 +66,20 @@ public class TupleDesc implements Serializable {
             TDItem item = new TDItem(type, null);
             items.add(item);
         }
+        offsets = computeOffsets(items);
     }
 
     public TupleDesc(List<TDItem> items) {
         this.items = items;
+        this.offsets = computeOffsets(items);
+    }
+
+    private static int[] computeOffsets(List<TDItem> items) {
+        int[] offsets = new int[items.size() + 1];
+        for (int i = 0; i < items.size(); i++) {
+            offsets[i + 1] = offsets[i] + items.get(i).fieldType.getLen();
+        }
+        return offsets;
     }
 
     /**
@@ -125,11 +143,16 @@ public class TupleDesc implements Serializable {
      */
     public int getSize() {
         // 返回一行数据占的总字节数
-        int bytes = 0;
-        for (TDItem item : items) {
-            bytes += item.fieldType.getLen();
-        }
-        return bytes;
+        return offsets[items.size()];
+    }
+
+    /**
+     * @param i index of the field. It must be a valid index.
+     * @return the byte offset of the ith field inside a serialized tuple of
+     * this TupleDesc.
+     */
+    public int getFieldOffset(int i) {
+        return offsets[i];
     }
 
     /**
@@ -141,10 +164,10 @@ public class TupleDesc implements Serializable {
      * @return the new TupleDesc
      */
     public static TupleDesc merge(TupleDesc td1, TupleDesc td2) {
-        final Set<TDItem> items = new HashSet<>(td1.items.size() + td2.items.size());
+        final List<TDItem> items = new ArrayList<>(td1.items.size() + td2.items.size());
         items.addAll(td1.getItems());
         items.addAll(td2.getItems());
-        return new TupleDesc(new ArrayList<>(items));
+        return new TupleDesc(items);
     }
 
     public List<TDItem> getItems() {
@@ -8,6 +8,8 @@ import simpledb.storage.*;
 import simpledb.systemtest.SimpleDbTestBase;
 import simpledb.execution.Predicate.Op;
 
+import java.io.File;
+import java.nio.file.Files;
 import java.util.*;
 
 import org.junit.After;
@@ -89,6 +91,107 @@ public class BTreeFileReadTest extends SimpleDbTestBase {
 		assertFalse(page.isSlotUsed(20));
 	}
 
+	/**
+	 * Unit test for BTreeFile.readPage() on a file with a non-default page size
+	 */
+	@Test
+	public void readPageCustomPageSize() throws Exception {
+		List<List<Integer>> tuples = new ArrayList<>();
+		for (int i = 0; i < 400; ++i) {
+			tuples.add(Arrays.asList(i, -i));
+		}
+		File hFile = File.createTempFile("table", ".dat");
+		hFile.deleteOnExit();
+		File bFile = File.createTempFile("table_index", ".dat");
+		bFile.deleteOnExit();
+		BTreeFile small = BTreeFileEncoder.convert(tuples, hFile, bFile, 1024, 2,
+				Utility.getTypes(2), ',', 0);
+		assertEquals(1024, small.getPageSize());
+		// 124 tuples fit on a 1024 byte leaf page: 4 leaves and their parent
+		assertEquals(5, small.numPages());
+
+		// reopening the file picks the page size up from the root pointer page
+		BTreeFile reopened = new BTreeFile(bFile, 0, td);
+		assertEquals(1024, reopened.getPageSize());
+		assertEquals(5, reopened.numPages());
+		Database.getCatalog().addTable(reopened, UUID.randomUUID().toString());
+		BTreeLeafPage page = (BTreeLeafPage) reopened.readPage(new BTreePageId(reopened.getId(), 1, BTreePageId.LEAF));
+		assertEquals(124, page.getMaxTuples());
+		assertEquals(1024, page.getPageData().length);
+	}
+
+	/**
+	 * Unit test for reading and updating a file whose root pointer page does
+	 * not record the page size, as written before page sizes were per table
+	 */
+	@Test
+	public void readLegacyFile() throws Exception {
+		List<List<Integer>> tuples = new ArrayList<>();
+		for (int i = 0; i < 2000; ++i) {
+			tuples.add(Arrays.asList(i, -i));
+		}
+		File hFile = File.createTempFile("table", ".dat");
+		hFile.deleteOnExit();
+		File bFile = File.createTempFile("table_index", ".dat");
+		bFile.deleteOnExit();
+		BTreeFile current = BTreeFileEncoder.convert(tuples, hFile, bFile,
+				BufferPool.getPageSize(), 2, Utility.getTypes(2), ',', 0);
+		int numPages = current.numPages();
+		assertTrue(numPages > 1);
+
+		// rewrite it with a 9 byte root pointer page: root, category, header
+		byte[] bytes = Files.readAllBytes(bFile.toPath());
+		byte[] legacy = new byte[bytes.length - BTreeRootPtrPage.PAGE_SIZE + BTreeRootPtrPage.LEGACY_PAGE_SIZE];
+		System.arraycopy(bytes, 0, legacy, 0, BTreeRootPtrPage.LEGACY_PAGE_SIZE);
+		legacy[4] &= ~BTreeRootPtrPage.PAGE_SIZE_RECORDED;
+		System.arraycopy(bytes, BTreeRootPtrPage.PAGE_SIZE, legacy, BTreeRootPtrPage.LEGACY_PAGE_SIZE,
+				bytes.length - BTreeRootPtrPage.PAGE_SIZE);
+		Files.write(bFile.toPath(), legacy);
+
+		BTreeFile old = new BTreeFile(bFile, 0, td);
+		Database.getCatalog().addTable(old, UUID.randomUUID().toString());
+		assertEquals(BufferPool.getPageSize(), old.getPageSize());
+		assertEquals(numPages, old.numPages());
+		BTreeRootPtrPage rootPtr = (BTreeRootPtrPage) old.readPage(BTreeRootPtrPage.getId(old.getId()));
+		assertEquals(BTreeRootPtrPage.LEGACY_PAGE_SIZE, rootPtr.getLength());
+		assertEquals(BTreePageId.INTERNAL, rootPtr.getRootId().pgcateg());
+		assertEquals(2000, countTuples(old, rootPtr.getRootId()));
+
+		// writing the pages back keeps the legacy layout
+		old.writePage(rootPtr);
+		rewritePages(old, rootPtr.getRootId());
+		assertArrayEquals(legacy, Files.readAllBytes(bFile.toPath()));
+	}
+
+	private int countTuples(BTreeFile file, BTreePageId pid) {
+		Page page = file.readPage(pid);
+		if (pid.pgcateg() == BTreePageId.LEAF) {
+			return ((BTreeLeafPage) page).getNumTuples();
+		}
+		int count = 0;
+		Iterator<BTreeEntry> it = ((BTreeInternalPage) page).iterator();
+		BTreeEntry e = null;
+		while (it.hasNext()) {
+			e = it.next();
+			count += countTuples(file, e.getLeftChild());
+		}
+		return count + countTuples(file, e.getRightChild());
+	}
+
+	private void rewritePages(BTreeFile file, BTreePageId pid) throws Exception {
+		Page page = file.readPage(pid);
+		file.writePage(page);
+		if (pid.pgcateg() == BTreePageId.INTERNAL) {
+			Iterator<BTreeEntry> it = ((BTreeInternalPage) page).iterator();
+			BTreeEntry e = null;
+			while (it.hasNext()) {
+				e = it.next();
+				rewritePages(file, e.getLeftChild());
+			}
+			rewritePages(file, e.getRightChild());
+		}
+	}
+
 	@Test
 	public void testIteratorBasic() throws Exception {
 		BTreeFile smallFile = BTreeUtility.createRandomBTreeFile(2, 3, null,
@@ -55,6 +55,34 @@ public class BTreeRootPtrPageTest extends SimpleDbTestBase {
 		assertEquals(pid, page.getId());
 	}
 
+	/**
+	 * Unit test for BTreeRootPtrPage.getTreePageSize()
+	 */
+	@Test public void getTreePageSize() throws Exception {
+		BTreeRootPtrPage page = new BTreeRootPtrPage(pid, EXAMPLE_DATA);
+		assertEquals(0, page.getTreePageSize());
+
+		page = new BTreeRootPtrPage(pid, BTreeFileEncoder.convertToRootPtrPage(1, BTreePageId.LEAF, 2, 1024));
+		assertEquals(1024, page.getTreePageSize());
+		page = new BTreeRootPtrPage(pid, page.getPageData());
+		assertEquals(1024, page.getTreePageSize());
+		assertEquals(new BTreePageId(pid.getTableId(), 2, BTreePageId.HEADER), page.getHeaderId());
+
+		assertEquals(BTreeRootPtrPage.PAGE_SIZE, page.getLength());
+
+		// root pointer pages written before the page size was recorded
+		byte[] legacy = new byte[BTreeRootPtrPage.LEGACY_PAGE_SIZE];
+		System.arraycopy(EXAMPLE_DATA, 0, legacy, 0, legacy.length);
+		legacy[4] &= ~BTreeRootPtrPage.PAGE_SIZE_RECORDED;
+		page = new BTreeRootPtrPage(pid, legacy);
+		assertEquals(0, page.getTreePageSize());
+		assertEquals(BTreeRootPtrPage.LEGACY_PAGE_SIZE, page.getLength());
+		assertEquals(new BTreePageId(pid.getTableId(), 1, BTreePageId.LEAF), page.getRootId());
+		assertEquals(new BTreePageId(pid.getTableId(), 2, BTreePageId.HEADER), page.getHeaderId());
+		// and they keep their layout when written back
+		assertArrayEquals(legacy, page.getPageData());
+	}
+
 	/**
 	 * Unit test for BTreeRootPtrPage.getRootId()
 	 */
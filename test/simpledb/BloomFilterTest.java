@@ -0,0 +1,114 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.execution.BloomFilter;
+import simpledb.execution.Filter;
+import simpledb.execution.HashEquiJoin;
+import simpledb.execution.Join;
+import simpledb.execution.JoinPredicate;
+import simpledb.execution.Predicate;
+import simpledb.execution.SeqScan;
+import simpledb.storage.HeapFile;
+import simpledb.storage.IntField;
+import simpledb.storage.StringField;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+public class BloomFilterTest extends SimpleDbTestBase {
+
+    /**
+     * Every key added is found, and few others are.
+     */
+    @Test public void falsePositives() {
+        BloomFilter filter = new BloomFilter(10000);
+        for (int i = 0; i < 20000; i += 2) {
+            filter.add(new IntField(i));
+        }
+        int reported = 0;
+        for (int i = 0; i < 20000; i++) {
+            if (i % 2 == 0) {
+                assertTrue(filter.mightContain(new IntField(i)));
+            } else if (filter.mightContain(new IntField(i))) {
+                reported++;
+            }
+        }
+        assertTrue("false positives: " + reported, reported < 300);
+    }
+
+    @Test public void strings() {
+        BloomFilter filter = new BloomFilter(2);
+        filter.add(new StringField("apple", 10));
+        assertTrue(filter.mightContain(new StringField("apple", 10)));
+        assertFalse(new BloomFilter(0).mightContain(new StringField("apple", 10)));
+    }
+
+    /**
+     * A scan with a runtime filter only returns tuples with keys in it.
+     */
+    @Test public void scan() throws Exception {
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, 2000, 1000, null, null);
+        SeqScan scan = new SeqScan(new TransactionId(), f.getId());
+        BloomFilter filter = new BloomFilter(10);
+        for (int i = 0; i < 10; i++) {
+            filter.add(new IntField(i));
+        }
+        scan.setRuntimeFilter(1, filter);
+        List<List<Integer>> tuples = SystemTestUtil.drain(scan);
+        assertTrue(tuples.size() < 200);
+        int matches = 0;
+        for (List<Integer> t : tuples) {
+            if (t.get(1) < 10) {
+                matches++;
+            }
+        }
+        scan.setRuntimeFilter(1, null);
+        assertEquals(2000, SystemTestUtil.drain(scan).size());
+        assertTrue(matches > 0);
+    }
+
+    /**
+     * The hash join pushes the keys of its left child into the scan of its
+     * right child while it runs, and removes them when it is closed.
+     */
+    @Test public void hashJoinPushdown() throws Exception {
+        HeapFile small = SystemTestUtil.createRandomHeapFile(2, 20, 5000, null, null);
+        Database.getCatalog().addTable(small, "small");
+        HeapFile big = SystemTestUtil.createRandomHeapFile(2, 5000, 5000, null, null);
+        Database.getCatalog().addTable(big, "big");
+        TransactionId tid = new TransactionId();
+        JoinPredicate p = new JoinPredicate(0, Predicate.Op.EQUALS, 1);
+        Predicate positive = new Predicate(0, Predicate.Op.GREATER_THAN_OR_EQ, new IntField(0));
+
+        SeqScan probe = new SeqScan(tid, big.getId());
+        HashEquiJoin join = new HashEquiJoin(p, new SeqScan(tid, small.getId()),
+                new Filter(positive, probe));
+        List<List<Integer>> expected = SystemTestUtil.sortTuples(SystemTestUtil.drain(
+                new Join(p, new SeqScan(tid, small.getId()), new SeqScan(tid, big.getId()))));
+
+        join.open();
+        assertNotNull(probe.getRuntimeFilter());
+        join.close();
+        assertNull(probe.getRuntimeFilter());
+        assertEquals(expected, SystemTestUtil.sortTuples(SystemTestUtil.drain(join)));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(BloomFilterTest.class);
+    }
+}
@@ -0,0 +1,136 @@
+package simpledb;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.Permissions;
+import simpledb.storage.BufferPool;
+import simpledb.storage.BufferPoolManifest;
+import simpledb.storage.HeapFile;
+import simpledb.storage.HeapPageId;
+import simpledb.storage.PageId;
+import simpledb.storage.PoolWarmer;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class BufferPoolManifestTest extends SimpleDbTestBase {
+
+    private TransactionId tid;
+    private HeapFile hf;
+    private BufferPoolManifest manifest;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        tid = new TransactionId();
+        hf = SystemTestUtil.createRandomHeapFile(2, 504 * 8, null, null);
+        File f = File.createTempFile("manifest", ".dat");
+        f.deleteOnExit();
+        manifest = new BufferPoolManifest(f);
+    }
+
+    private HeapPageId pid(int pgNo) {
+        return new HeapPageId(hf.getId(), pgNo);
+    }
+
+    /**
+     * Unit test for BufferPoolManifest.write() and read()
+     */
+    @Test public void writeAndRead() throws Exception {
+        BufferPool bp = Database.resetBufferPool(4);
+        for (int i : new int[]{5, 1, 7, 2}) {
+            bp.getPage(tid, pid(i), Permissions.READ_ONLY);
+        }
+        assertEquals(Arrays.asList(pid(2), pid(7), pid(1), pid(5)), bp.getResidentPages());
+        assertEquals(4, manifest.write(bp));
+        assertEquals(bp.getResidentPages(), manifest.read());
+    }
+
+    @Test public void readMissingManifest() throws Exception {
+        assertTrue(manifest.getFile().delete());
+        assertTrue(manifest.read().isEmpty());
+    }
+
+    /**
+     * A restarted pool gets back the hottest pages that fit, in the same
+     * recency order.
+     */
+    @Test public void warmRestart() throws Exception {
+        BufferPool bp = Database.resetBufferPool(8);
+        for (int i = 0; i < 8; i++) {
+            bp.getPage(tid, pid(i), Permissions.READ_ONLY);
+        }
+        // page 3 becomes the most recently used page
+        bp.discardPage(pid(3));
+        bp.getPage(tid, pid(3), Permissions.READ_ONLY);
+        manifest.write(bp);
+        List<PageId> before = bp.getResidentPages();
+
+        BufferPool restarted = Database.resetBufferPool(5);
+        PoolWarmer warmer = PoolWarmer.start(restarted, manifest.read(), 2);
+        assertTrue(warmer.awaitCompletion(10000));
+        assertTrue(warmer.isDone());
+        assertEquals(5, warmer.getPagesPlanned());
+        assertEquals(5, warmer.getPagesLoaded());
+        assertEquals(0, warmer.getPagesSkipped());
+        assertEquals(5L * BufferPool.getPageSize(), warmer.getBytesLoaded());
+        assertEquals(1.0, warmer.getProgress(), 0.0);
+        assertEquals(before.subList(0, 5), restarted.getResidentPages());
+        assertEquals(pid(3), restarted.getResidentPages().get(0));
+    }
+
+    /**
+     * Pages of a table routed to a named pool are saved and warmed into
+     * that pool, within its own budget.
+     */
+    @Test public void warmRestartNamedPool() throws Exception {
+        HeapFile hot = SystemTestUtil.createRandomHeapFile(2, 504 * 4, null, null);
+        Database.getCatalog().setBufferPool(hot.getId(), "hot");
+        BufferPool bp = Database.resetBufferPool(4);
+        BufferPool hotPool = bp.addPool("hot", new BufferPool(4));
+        for (int i = 0; i < 4; i++) {
+            bp.getPage(tid, pid(i), Permissions.READ_ONLY);
+            bp.getPage(tid, new HeapPageId(hot.getId(), i), Permissions.READ_ONLY);
+        }
+        // page 0 of the hot table becomes its most recently used page
+        bp.discardPage(new HeapPageId(hot.getId(), 0));
+        bp.getPage(tid, new HeapPageId(hot.getId(), 0), Permissions.READ_ONLY);
+        assertEquals(8, manifest.write(bp));
+        List<PageId> hotBefore = hotPool.getResidentPages();
+
+        BufferPool restarted = Database.resetBufferPool(2);
+        BufferPool restartedHot = restarted.addPool("hot", new BufferPool(3));
+        PoolWarmer warmer = PoolWarmer.start(restarted, manifest.read(), 2);
+        assertTrue(warmer.awaitCompletion(10000));
+        assertEquals(5, warmer.getPagesPlanned());
+        assertEquals(5, warmer.getPagesLoaded());
+        assertEquals(Arrays.asList(pid(3), pid(2)), restarted.getResidentPages().subList(0, 2));
+        assertEquals(hotBefore.subList(0, 3), restartedHot.getResidentPages());
+        assertEquals(new HeapPageId(hot.getId(), 0), restartedHot.getResidentPages().get(0));
+    }
+
+    @Test public void warmRestartSkipsMissingPages() throws Exception {
+        List<PageId> pids = Arrays.asList(pid(0), new HeapPageId(hf.getId(), 100), new HeapPageId(-1, 0));
+        PoolWarmer warmer = PoolWarmer.start(Database.getBufferPool(), pids, 1);
+        assertTrue(warmer.awaitCompletion(10000));
+        assertEquals(1, warmer.getPagesLoaded());
+        assertEquals(2, warmer.getPagesSkipped());
+        assertEquals(Arrays.asList(pid(0)), Database.getBufferPool().getResidentPages());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(BufferPoolManifestTest.class);
+    }
+}
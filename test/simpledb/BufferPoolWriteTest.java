@@ -5,6 +5,8 @@ import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
 import java.util.List;
 
 import org.junit.After;
@@ -15,6 +17,8 @@ import simpledb.common.Database;
 import simpledb.common.DbException;
 import simpledb.common.Permissions;
 import simpledb.common.Utility;
+import simpledb.execution.Insert;
+import simpledb.execution.SeqScan;
 import simpledb.storage.*;
 import simpledb.systemtest.SystemTestUtil;
 import static org.junit.Assert.*;
@@ -140,6 +144,346 @@ public class BufferPoolWriteTest extends TestUtil.CreateHeapFile {
     	assertEquals(10, count);
     }
 
+    @Test public void mixedPageSizesWithinBudget() throws Exception {
+    	List<List<Integer>> tuples = new ArrayList<>();
+    	for (int i = 0; i < 8 * 126; ++i) {
+    		List<Integer> tuple = new ArrayList<>();
+    		tuple.add(i);
+    		tuple.add(i);
+    		tuples.add(tuple);
+    	}
+    	File f = File.createTempFile("small", ".dat");
+    	f.deleteOnExit();
+    	HeapFileEncoder.convert(tuples, f, 1024, 2);
+    	HeapFile small = new HeapFile(f, Utility.getTupleDesc(2), 1024);
+    	Database.getCatalog().addTable(small, SystemTestUtil.getUUID());
+    	HeapFile big = SystemTestUtil.createRandomHeapFile(2, 1000, null, null);
+    	assertEquals(8, small.numPages());
+
+    	BufferPool bp = BufferPool.withMemoryBudget(2 * BufferPool.getPageSize());
+    	for (int i = 0; i < 8; i++) {
+    		bp.getPage(tid, new HeapPageId(small.getId(), i), Permissions.READ_ONLY);
+    	}
+    	// eight 1024 byte pages fill the budget exactly
+    	assertEquals(8 * 1024, bp.getUsedBytes());
+
+    	// a default sized page makes room for itself by evicting four small ones
+    	bp.getPage(tid, new HeapPageId(big.getId(), 0), Permissions.READ_ONLY);
+    	assertEquals(4 * 1024 + BufferPool.getPageSize(), bp.getUsedBytes());
+    	bp.getPage(tid, new HeapPageId(big.getId(), 1), Permissions.READ_ONLY);
+    	assertEquals(2 * BufferPool.getPageSize(), bp.getUsedBytes());
+
+    	bp.discardPage(new HeapPageId(big.getId(), 0));
+    	assertEquals(BufferPool.getPageSize(), bp.getUsedBytes());
+    }
+
+    @Test public void offHeapInsertAndScan() throws Exception {
+    	BufferPool bp = Database.resetBufferPool(BufferPool.offHeap(3L * BufferPool.getPageSize()));
+    	List<List<Integer>> tuples = new ArrayList<>();
+    	for (int i = 0; i < 504 * 5; ++i) {
+    		bp.insertTuple(tid, empty.getId(), Utility.getHeapTuple(i, 2));
+    		tuples.add(Arrays.asList(i, i));
+    	}
+    	// five pages went through an arena of three frames
+    	assertEquals(5, empty.numPages());
+    	assertEquals(3L * BufferPool.getPageSize(), bp.getArena().getUsedBytes());
+    	SystemTestUtil.matchTuples(empty, tid, tuples);
+
+    	// everything must be on disk once flushed
+    	bp.flushAllPages();
+    	Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+    	SystemTestUtil.matchTuples(empty, tid, tuples);
+    }
+
+    @Test public void offHeapViewSurvivesFrameReuse() throws Exception {
+    	List<List<Integer>> tuples = new ArrayList<>();
+    	HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 504 * 2, null, tuples);
+    	BufferPool bp = Database.resetBufferPool(BufferPool.offHeap(BufferPool.getPageSize()));
+
+    	HeapPage first = (HeapPage) bp.getPage(tid, new HeapPageId(hf.getId(), 0), Permissions.READ_ONLY);
+    	assertSame(first, bp.getPage(tid, new HeapPageId(hf.getId(), 0), Permissions.READ_ONLY));
+    	// the only frame now holds page 1; page 0 must have copied its tuples out
+    	HeapPage second = (HeapPage) bp.getPage(tid, new HeapPageId(hf.getId(), 1), Permissions.READ_ONLY);
+    	int i = 0;
+    	for (Iterator<Tuple> it = first.iterator(); it.hasNext(); i++) {
+    		assertEquals(tuples.get(i), SystemTestUtil.tupleToList(it.next()));
+    	}
+    	for (Iterator<Tuple> it = second.iterator(); it.hasNext(); i++) {
+    		assertEquals(tuples.get(i), SystemTestUtil.tupleToList(it.next()));
+    	}
+    	assertEquals(504 * 2, i);
+    	assertArrayEquals(first.getPageData(), first.getBeforeImage().getPageData());
+    }
+
+    @Test public void offHeapTupleSurvivesEviction() throws Exception {
+    	List<List<Integer>> tuples = new ArrayList<>();
+    	HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 504 * 10, null, tuples);
+    	BufferPool bp = Database.resetBufferPool(BufferPool.offHeap(2L * BufferPool.getPageSize()));
+
+    	// hold a tuple but not its page, which the GC may then collect
+    	HeapPageId first = new HeapPageId(hf.getId(), 0);
+    	Tuple kept = ((HeapPage) bp.getPage(tid, first, Permissions.READ_ONLY)).iterator().next();
+    	System.gc();
+    	for (int pgNo = 1; pgNo < 10; pgNo++) {
+    		bp.getPage(tid, new HeapPageId(hf.getId(), pgNo), Permissions.READ_ONLY);
+    	}
+    	assertEquals(tuples.get(0), SystemTestUtil.tupleToList(kept));
+    	assertEquals((int) tuples.get(0).get(0), kept.getInt(0));
+
+    	// a deleted tuple must not read the frame the page is flushed to
+    	HeapPageId last = new HeapPageId(hf.getId(), 9);
+    	Tuple deleted = ((HeapPage) bp.getPage(tid, last, Permissions.READ_WRITE)).iterator().next();
+    	bp.deleteTuple(tid, deleted);
+    	bp.flushAllPages();
+    	assertEquals(tuples.get(504 * 9), SystemTestUtil.tupleToList(deleted));
+    }
+
+    @Test public void flushPagesWritesOnlyThatTransaction() throws Exception {
+    	File otherFile = File.createTempFile("other", ".dat");
+    	otherFile.deleteOnExit();
+    	HeapFile other = Utility.createEmptyHeapFile(otherFile.getAbsolutePath(), 2);
+    	TransactionId tid2 = new TransactionId();
+    	BufferPool bp = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+    	bp.insertTuple(tid, empty.getId(), Utility.getHeapTuple(1, 2));
+    	bp.insertTuple(tid2, other.getId(), Utility.getHeapTuple(2, 2));
+
+    	bp.flushPages(tid);
+    	assertNull(bp.getPage(tid, new HeapPageId(empty.getId(), 0), Permissions.READ_ONLY).isDirty());
+    	assertEquals(tid2, bp.getPage(tid2, new HeapPageId(other.getId(), 0), Permissions.READ_ONLY).isDirty());
+    	assertEquals(503, ((HeapPage) empty.readPage(new HeapPageId(empty.getId(), 0))).getNumEmptySlots());
+    	assertEquals(504, ((HeapPage) other.readPage(new HeapPageId(other.getId(), 0))).getNumEmptySlots());
+    	bp.transactionComplete(tid2);
+    }
+
+    @Test public void evictionPrefersCleanPages() throws Exception {
+    	HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 504 * 3, null, null);
+    	BufferPool bp = Database.resetBufferPool(2);
+    	Page dirty = bp.getPage(tid, new HeapPageId(hf.getId(), 0), Permissions.READ_WRITE);
+    	dirty.markDirty(true, tid);
+    	bp.getPage(tid, new HeapPageId(hf.getId(), 1), Permissions.READ_ONLY);
+    	// page 0 is the least recently used, but page 1 can be dropped without a write
+    	bp.getPage(tid, new HeapPageId(hf.getId(), 2), Permissions.READ_ONLY);
+    	assertSame(dirty, bp.getPage(tid, new HeapPageId(hf.getId(), 0), Permissions.READ_ONLY));
+    	assertEquals(tid, dirty.isDirty());
+    }
+
+    @Test public void pageCleanerWritesDirtyPages() throws Exception {
+    	BufferPool bp = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+    	for (int i = 0; i < 504 * 2; ++i) {
+    		bp.insertTuple(tid, empty.getId(), Utility.getHeapTuple(i, 2));
+    	}
+    	Page first = bp.getPage(tid, new HeapPageId(empty.getId(), 0), Permissions.READ_ONLY);
+    	Page last = bp.getPage(tid, new HeapPageId(empty.getId(), 1), Permissions.READ_ONLY);
+    	assertEquals(tid, first.isDirty());
+    	assertEquals(tid, last.isDirty());
+
+    	// one page per round, so the cleaner needs at least two rounds
+    	bp.startPageCleaner(10, 1);
+    	try {
+    		long deadline = System.currentTimeMillis() + 10000;
+    		while ((first.isDirty() != null || last.isDirty() != null) && System.currentTimeMillis() < deadline) {
+    			Thread.sleep(10);
+    		}
+    	} finally {
+    		bp.stopPageCleaner();
+    	}
+    	assertNull(first.isDirty());
+    	assertNull(last.isDirty());
+    	assertEquals(0, bp.cleanDirtyPages(Integer.MAX_VALUE));
+    	for (int i = 0; i < 2; i++) {
+    		assertEquals(0, ((HeapPage) empty.readPage(new HeapPageId(empty.getId(), i))).getNumEmptySlots());
+    	}
+    }
+
+    @Test public void pinnedPagesAreNotEvicted() throws Exception {
+    	HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 504 * 3, null, null);
+    	BufferPool bp = Database.resetBufferPool(2);
+    	HeapPageId p0 = new HeapPageId(hf.getId(), 0);
+    	Page pinned = bp.pinPage(tid, p0, Permissions.READ_ONLY);
+    	bp.getPage(tid, new HeapPageId(hf.getId(), 1), Permissions.READ_ONLY);
+    	// page 0 is the least recently used page, but it is pinned
+    	bp.pinPage(tid, new HeapPageId(hf.getId(), 2), Permissions.READ_ONLY);
+    	assertSame(pinned, bp.getPage(tid, p0, Permissions.READ_ONLY));
+    	assertEquals(1, bp.getPinCount(p0));
+
+    	try {
+    		bp.getPage(tid, new HeapPageId(hf.getId(), 1), Permissions.READ_ONLY);
+    		fail("every page is pinned");
+    	} catch (DbException expected) {
+    	}
+    	bp.unpinPage(tid, p0);
+    	assertEquals(0, bp.getPinCount(p0));
+    	bp.getPage(tid, new HeapPageId(hf.getId(), 1), Permissions.READ_ONLY);
+    	assertNotSame(pinned, bp.getPage(tid, p0, Permissions.READ_ONLY));
+    }
+
+    @Test public void largeScanDoesNotEvictWorkingSet() throws Exception {
+    	HeapFile hot = SystemTestUtil.createRandomHeapFile(2, 504 * 4, null, null);
+    	HeapFile big = SystemTestUtil.createRandomHeapFile(2, 504 * 40, null, null);
+    	BufferPool bp = Database.resetBufferPool(16);
+    	List<Page> working = new ArrayList<>();
+    	for (int i = 0; i < 4; i++) {
+    		working.add(bp.getPage(tid, new HeapPageId(hot.getId(), i), Permissions.READ_ONLY));
+    	}
+
+    	SeqScan scan = new SeqScan(tid, big.getId());
+    	scan.open();
+    	int count = 0;
+    	while (scan.hasNext()) {
+    		scan.next();
+    		count++;
+    	}
+    	scan.close();
+    	assertEquals(504 * 40, count);
+    	for (int i = 0; i < 4; i++) {
+    		assertSame(working.get(i), bp.getPage(tid, new HeapPageId(hot.getId(), i), Permissions.READ_ONLY));
+    	}
+    	// the clean pages of the ring left the pool with it
+    	assertEquals(4L * BufferPool.getPageSize(), bp.getUsedBytes());
+    }
+
+    @Test public void bulkInsertUsesRing() throws Exception {
+    	List<List<Integer>> tuples = new ArrayList<>();
+    	HeapFile source = SystemTestUtil.createRandomHeapFile(2, 504 * 20, null, tuples);
+    	HeapFile hot = SystemTestUtil.createRandomHeapFile(2, 504 * 4, null, null);
+    	BufferPool bp = Database.resetBufferPool(16);
+    	List<Page> working = new ArrayList<>();
+    	for (int i = 0; i < 4; i++) {
+    		working.add(bp.getPage(tid, new HeapPageId(hot.getId(), i), Permissions.READ_ONLY));
+    	}
+
+    	Insert insert = new Insert(tid, new SeqScan(tid, source.getId()), empty.getId());
+    	insert.open();
+    	assertEquals(504 * 20, insert.next().getInt(0));
+    	insert.close();
+    	for (int i = 0; i < 4; i++) {
+    		assertSame(working.get(i), bp.getPage(tid, new HeapPageId(hot.getId(), i), Permissions.READ_ONLY));
+    	}
+    	assertEquals(20, empty.numPages());
+    	SystemTestUtil.matchTuples(empty, tid, tuples);
+    }
+
+    @Test public void resizeKeepsPages() throws Exception {
+    	HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 504 * 8, null, null);
+    	BufferPool bp = Database.resetBufferPool(4);
+    	List<Page> pages = new ArrayList<>();
+    	for (int i = 0; i < 4; i++) {
+    		pages.add(bp.getPage(tid, new HeapPageId(hf.getId(), i), Permissions.READ_ONLY));
+    	}
+    	pages.get(3).markDirty(true, tid);
+
+    	bp.resize(8L * BufferPool.getPageSize());
+    	for (int i = 4; i < 8; i++) {
+    		bp.getPage(tid, new HeapPageId(hf.getId(), i), Permissions.READ_ONLY);
+    	}
+    	assertEquals(8L * BufferPool.getPageSize(), bp.getUsedBytes());
+    	for (int i = 0; i < 4; i++) {
+    		assertSame(pages.get(i), bp.getPage(tid, new HeapPageId(hf.getId(), i), Permissions.READ_ONLY));
+    	}
+
+    	// clean pages go first, so the dirty page 3 stays
+    	bp.resize(2L * BufferPool.getPageSize());
+    	assertEquals(2L * BufferPool.getPageSize(), bp.getMaxBytes());
+    	assertEquals(2L * BufferPool.getPageSize(), bp.getUsedBytes());
+    	assertSame(pages.get(3), bp.getPage(tid, new HeapPageId(hf.getId(), 3), Permissions.READ_ONLY));
+    }
+
+    @Test public void offHeapResize() throws Exception {
+    	List<List<Integer>> tuples = new ArrayList<>();
+    	HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 504 * 8, null, tuples);
+    	BufferPool bp = Database.resetBufferPool(BufferPool.offHeap(4L * BufferPool.getPageSize()));
+    	bp.resize(8L * BufferPool.getPageSize());
+    	assertEquals(8L * BufferPool.getPageSize(), bp.getArena().getCapacity());
+    	SystemTestUtil.matchTuples(hf, tid, tuples);
+    	assertEquals(8L * BufferPool.getPageSize(), bp.getUsedBytes());
+
+    	bp.resize(2L * BufferPool.getPageSize());
+    	assertEquals(2L * BufferPool.getPageSize(), bp.getUsedBytes());
+    	SystemTestUtil.matchTuples(hf, tid, tuples);
+    	assertTrue(bp.getUsedBytes() <= 2L * BufferPool.getPageSize());
+    	assertEquals(bp.getUsedBytes(), bp.getArena().getUsedBytes());
+    }
+
+    @Test public void namedPoolKeepsTableApart() throws Exception {
+    	HeapFile hot = SystemTestUtil.createRandomHeapFile(2, 504 * 2, null, null);
+    	HeapFile big = SystemTestUtil.createRandomHeapFile(2, 504 * 10, null, null);
+    	BufferPool bp = Database.resetBufferPool(4);
+    	BufferPool hotPool = bp.addPool("hot", BufferPool.withMemoryBudget(2L * BufferPool.getPageSize(), new FIFOEvict(2)));
+    	assertSame(hotPool, bp.getPool("hot"));
+    	Database.getCatalog().setBufferPool(hot.getId(), "hot");
+
+    	List<Page> pages = new ArrayList<>();
+    	for (int i = 0; i < 2; i++) {
+    		pages.add(bp.getPage(tid, new HeapPageId(hot.getId(), i), Permissions.READ_ONLY));
+    	}
+    	assertEquals(0, bp.getUsedBytes());
+    	assertEquals(2L * BufferPool.getPageSize(), hotPool.getUsedBytes());
+    	for (int i = 0; i < 10; i++) {
+    		bp.getPage(tid, new HeapPageId(big.getId(), i), Permissions.READ_ONLY);
+    	}
+    	for (int i = 0; i < 2; i++) {
+    		assertSame(pages.get(i), bp.getPage(tid, new HeapPageId(hot.getId(), i), Permissions.READ_ONLY));
+    	}
+
+    	// dirty pages are tracked, pinned and flushed by the pool holding them
+    	bp.deleteTuple(tid, ((HeapPage) pages.get(0)).iterator().next());
+    	assertEquals(tid, pages.get(0).isDirty());
+    	bp.pinPage(tid, pages.get(0).getId(), Permissions.READ_ONLY);
+    	assertEquals(1, hotPool.getPinCount(pages.get(0).getId()));
+    	bp.flushPages(tid);
+    	assertNull(pages.get(0).isDirty());
+    	bp.transactionComplete(tid);
+    	assertEquals(0, bp.getPinCount(pages.get(0).getId()));
+    }
+
+    @Test public void victimCacheServesEvictedPages() throws Exception {
+    	HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 504 * 3, null, null);
+    	BufferPool bp = Database.resetBufferPool(2);
+    	CompressedPageCache cache = new CompressedPageCache(4L * BufferPool.getPageSize());
+    	bp.setVictimCache(cache);
+    	HeapPageId pid0 = new HeapPageId(hf.getId(), 0);
+    	byte[] data0 = bp.getPage(tid, pid0, Permissions.READ_ONLY).getPageData();
+    	// page 1 is dirty when evicted, so only page 0 goes to the cache
+    	Page page1 = bp.getPage(tid, new HeapPageId(hf.getId(), 1), Permissions.READ_WRITE);
+    	page1.markDirty(true, tid);
+    	bp.getPage(tid, new HeapPageId(hf.getId(), 2), Permissions.READ_ONLY);
+    	assertTrue(cache.contains(pid0));
+    	assertEquals(1, cache.size());
+    	assertTrue(cache.toString(), cache.getCompressionRatio() > 1.0);
+
+    	assertArrayEquals(data0, bp.getPage(tid, pid0, Permissions.READ_ONLY).getPageData());
+    	assertFalse(cache.contains(pid0));
+    	assertEquals(1, cache.getHits());
+    	assertEquals(3, cache.getMisses());
+    	assertEquals(0.25, cache.getHitRate(), 0.0);
+
+    	// a discarded page may change on disk, so it is not served from the cache
+    	bp.getPage(tid, new HeapPageId(hf.getId(), 1), Permissions.READ_ONLY);
+    	assertTrue(cache.contains(new HeapPageId(hf.getId(), 2)));
+    	bp.discardPage(new HeapPageId(hf.getId(), 2));
+    	assertFalse(cache.contains(new HeapPageId(hf.getId(), 2)));
+    }
+
+    @Test public void victimCacheStaysWithinBudget() throws Exception {
+    	HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 504 * 10, null, null);
+    	BufferPool bp = BufferPool.offHeap(2L * BufferPool.getPageSize());
+    	Database.resetBufferPool(bp);
+    	CompressedPageCache cache = new CompressedPageCache(3L * BufferPool.getPageSize());
+    	bp.setVictimCache(cache);
+    	List<byte[]> data = new ArrayList<>();
+    	for (int i = 0; i < 10; i++) {
+    		data.add(bp.getPage(tid, new HeapPageId(hf.getId(), i), Permissions.READ_ONLY).getPageData());
+    	}
+    	assertTrue(cache.getStoredBytes() <= cache.getMaxBytes());
+    	assertTrue(cache.size() > 0);
+    	assertTrue(cache.getDropped() > 0);
+    	// the most recently evicted pages are still cached
+    	for (int i = 9; i >= 0; i--) {
+    		assertArrayEquals(data.get(i), bp.getPage(tid, new HeapPageId(hf.getId(), i), Permissions.READ_ONLY).getPageData());
+    	}
+    	assertTrue(cache.getHits() > 0);
+    }
+
     /**
      * JUnit suite target
      */
@@ -2,6 +2,8 @@ package simpledb;
 
 import static org.junit.Assert.assertEquals;
 
+import java.io.File;
+import java.io.PrintWriter;
 import java.util.NoSuchElementException;
 import java.util.Random;
 
@@ -14,6 +16,7 @@ import org.junit.Test;
 import simpledb.TestUtil.SkeletonFile;
 import simpledb.common.Database;
 import simpledb.common.Utility;
+import simpledb.storage.BufferPool;
 import simpledb.storage.DbFile;
 import simpledb.storage.TupleDesc;
 import simpledb.systemtest.SimpleDbTestBase;
@@ -97,6 +100,25 @@ public class CatalogTest extends SimpleDbTestBase {
     	assertEquals(f, Database.getCatalog().getDatabaseFile(id2));
     }
 
+    /**
+     * Check that loadSchema picks up per-table page sizes
+     */
+    @Test public void loadSchemaPageSize() throws Exception {
+        File schema = File.createTempFile("catalog", ".txt");
+        schema.deleteOnExit();
+        String small = "t" + r.nextInt(Integer.MAX_VALUE);
+        String plain = "t" + r.nextInt(Integer.MAX_VALUE);
+        try (PrintWriter pw = new PrintWriter(schema)) {
+            pw.println(small + " (a int pk, b int) pagesize=1024");
+            pw.println(plain + " (a int, b string)");
+        }
+        Database.getCatalog().loadSchema(schema.getAbsolutePath());
+
+        assertEquals(1024, Database.getCatalog().getPageSize(Database.getCatalog().getTableId(small)));
+        assertEquals("a", Database.getCatalog().getPrimaryKey(Database.getCatalog().getTableId(small)));
+        assertEquals(BufferPool.getPageSize(), Database.getCatalog().getPageSize(Database.getCatalog().getTableId(plain)));
+    }
+
     /**
      * JUnit suite target
      */
@@ -0,0 +1,145 @@
+package simpledb;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.storage.ARCEvict;
+import simpledb.storage.BufferPool;
+import simpledb.storage.EvictStrategy;
+import simpledb.storage.FIFOEvict;
+import simpledb.storage.HeapPageId;
+import simpledb.storage.LRUEvict;
+import simpledb.storage.LRUKEvict;
+import simpledb.storage.PageId;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+public class EvictStrategyTest {
+
+    private static PageId pid(int pgNo) {
+        return new HeapPageId(1, pgNo);
+    }
+
+    /**
+     * Request pages from a simulated pool of capacity pages, like BufferPool
+     * does: hits are reported with accessPageId, misses evict when full.
+     */
+    private static void request(EvictStrategy evict, Set<PageId> resident, int capacity, int... pgNos) {
+        for (int pgNo : pgNos) {
+            PageId pid = pid(pgNo);
+            if (resident.contains(pid)) {
+                evict.accessPageId(pid);
+                continue;
+            }
+            if (resident.size() >= capacity) {
+                assertTrue(resident.remove(evict.getEvictPageId()));
+            }
+            evict.addPageId(pid);
+            resident.add(pid);
+        }
+    }
+
+    @Test public void arcKeepsReusedPagesAcrossScan() {
+        Set<PageId> arc = new HashSet<>();
+        ARCEvict arcEvict = new ARCEvict(4);
+        Set<PageId> lru = new HashSet<>();
+        LRUEvict lruEvict = new LRUEvict(4);
+        int[] workload = {1, 2, 1, 2, 10, 11, 12, 13, 14, 15, 16, 17};
+        request(arcEvict, arc, 4, workload);
+        request(lruEvict, lru, 4, workload);
+        assertTrue(arc.contains(pid(1)));
+        assertTrue(arc.contains(pid(2)));
+        assertFalse(lru.contains(pid(1)));
+        assertFalse(lru.contains(pid(2)));
+    }
+
+    @Test public void arcAdaptsToRecency() {
+        // a page evicted from the recency list and requested again is
+        // reused, so ARC gives the recency list more room
+        Set<PageId> resident = new HashSet<>();
+        ARCEvict evict = new ARCEvict(4);
+        request(evict, resident, 4, 1, 2, 1, 2, 10, 11, 12, 10, 13, 11, 14, 10, 11);
+        assertTrue(resident.contains(pid(10)));
+        assertTrue(resident.contains(pid(11)));
+        assertEquals(4, evict.getEvictionOrder().size());
+    }
+
+    @Test public void lruKEvictsSingleReferencePagesFirst() {
+        LRUKEvict evict = new LRUKEvict(2, 4);
+        evict.addPageId(pid(1));
+        evict.accessPageId(pid(1));
+        evict.addPageId(pid(2));
+        evict.accessPageId(pid(2));
+        evict.addPageId(pid(3));
+        evict.addPageId(pid(4));
+        // 3 and 4 were referenced once, 3 the longest ago
+        assertEquals(pid(3), evict.getEvictPageId());
+        assertEquals(pid(4), evict.getEvictPageId());
+        // then the page whose second most recent access is the oldest
+        evict.accessPageId(pid(1));
+        evict.accessPageId(pid(1));
+        assertEquals(pid(2), evict.getEvictPageId());
+        assertEquals(pid(1), evict.getEvictPageId());
+        assertNull(evict.getEvictPageId());
+    }
+
+    @Test public void lruKRemembersEvictedPages() {
+        LRUKEvict evict = new LRUKEvict(2, 4);
+        evict.addPageId(pid(1));
+        assertEquals(pid(1), evict.getEvictPageId());
+        evict.addPageId(pid(2));
+        // the second read of page 1 counts as its second reference
+        evict.addPageId(pid(1));
+        assertEquals(pid(2), evict.getEvictPageId());
+        evict.removePageId(pid(1));
+        assertTrue(evict.getEvictionOrder().isEmpty());
+    }
+
+    @Test public void evictPageIdSkipsRejectedPages() {
+        for (EvictStrategy evict : new EvictStrategy[]{new ARCEvict(4), new LRUKEvict(2, 4)}) {
+            evict.addPageId(pid(1));
+            evict.addPageId(pid(2));
+            evict.addPageId(pid(3));
+            assertEquals(pid(2), evict.getEvictPageId(pid -> pid.getPageNumber() != 1));
+            assertNull(evict.getEvictPageId(pid -> false));
+            assertEquals(2, evict.getEvictionOrder().size());
+        }
+    }
+
+    @Test public void createByName() {
+        assertTrue(EvictStrategy.create("lru", 4) instanceof LRUEvict);
+        assertTrue(EvictStrategy.create("FIFO", 4) instanceof FIFOEvict);
+        assertTrue(EvictStrategy.create(" arc ", 4) instanceof ARCEvict);
+        assertEquals(2, ((LRUKEvict) EvictStrategy.create("lru-k", 4)).getK());
+        assertEquals(3, ((LRUKEvict) EvictStrategy.create("lru-3", 4)).getK());
+        for (String name : new String[]{"clock", "lru-x", "lru-0"}) {
+            try {
+                EvictStrategy.create(name, 4);
+                fail("expected IllegalArgumentException for " + name);
+            } catch (IllegalArgumentException expected) {
+            }
+        }
+    }
+
+    @Test public void bufferPoolUsesConfiguredPolicy() {
+        System.setProperty(BufferPool.EVICT_POLICY_PROPERTY, "arc");
+        try {
+            assertTrue(new BufferPool(4).getEvictStrategy() instanceof ARCEvict);
+            assertTrue(BufferPool.withMemoryBudget(4 * BufferPool.getPageSize()).getEvictStrategy() instanceof ARCEvict);
+        } finally {
+            System.clearProperty(BufferPool.EVICT_POLICY_PROPERTY);
+        }
+        assertTrue(new BufferPool(4).getEvictStrategy() instanceof LRUEvict);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(EvictStrategyTest.class);
+    }
+}
@@ -0,0 +1,194 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.common.DbException;
+import simpledb.execution.Exchange;
+import simpledb.execution.OpIterator;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionAbortedException;
+
+public class ExchangeTest extends SimpleDbTestBase {
+
+    /** Inputs of width 2 with rows low..high-1, split in n ranges. */
+    private static List<OpIterator> inputs(int n, int rows) {
+        List<OpIterator> inputs = new ArrayList<>();
+        for (int i = 0; i < n; i++) {
+            inputs.add(new TestUtil.MockScan(i * rows / n, (i + 1) * rows / n, 2));
+        }
+        return inputs;
+    }
+
+    private static List<List<Integer>> expected(int rows) {
+        List<List<Integer>> expected = new ArrayList<>();
+        for (int i = 0; i < rows; i++) {
+            expected.add(Arrays.asList(i, i));
+        }
+        return expected;
+    }
+
+    private static List<List<Integer>> drain(OpIterator it) throws DbException, TransactionAbortedException {
+        List<List<Integer>> tuples = new ArrayList<>();
+        while (it.hasNext()) {
+            tuples.add(SystemTestUtil.tupleToList(it.next()));
+        }
+        return tuples;
+    }
+
+    private static List<List<Integer>> sorted(List<List<Integer>> tuples) {
+        tuples.sort((a, b) -> Integer.compare(a.get(0), b.get(0)));
+        return tuples;
+    }
+
+    /**
+     * Gather returns the tuples of all inputs.
+     */
+    @Test public void gather() throws Exception {
+        Exchange exchange = Exchange.gather(inputs(3, 5000));
+        exchange.open();
+        assertEquals(expected(5000), sorted(drain(exchange)));
+        exchange.close();
+    }
+
+    /**
+     * Repartitioning puts equal values in the same output, and every tuple
+     * in one output. The outputs are read at the same time.
+     */
+    @Test public void repartition() throws Exception {
+        List<Exchange> outputs = Exchange.repartition(inputs(3, 20000), 0, 4, false);
+        ExecutorService pool = Executors.newFixedThreadPool(outputs.size());
+        try {
+            List<Future<List<List<Integer>>>> results = new ArrayList<>();
+            for (Exchange output : outputs) {
+                results.add(pool.submit(() -> {
+                    output.open();
+                    List<List<Integer>> tuples = drain(output);
+                    output.close();
+                    return tuples;
+                }));
+            }
+            List<List<Integer>> all = new ArrayList<>();
+            for (int i = 0; i < results.size(); i++) {
+                for (List<Integer> t : results.get(i).get()) {
+                    assertEquals(i, Math.floorMod(Integer.hashCode(t.get(0)), outputs.size()));
+                    all.add(t);
+                }
+            }
+            assertEquals(expected(20000), sorted(all));
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * Every output of a broadcast gets every tuple, and returns them again
+     * after a rewind.
+     */
+    @Test public void broadcastAndRewind() throws Exception {
+        List<Exchange> outputs = Exchange.broadcast(inputs(2, 1000), 3, true);
+        for (Exchange output : outputs) {
+            output.open();
+        }
+        for (Exchange output : outputs) {
+            List<List<Integer>> first = drain(output);
+            assertEquals(expected(1000), sorted(new ArrayList<>(first)));
+            output.rewind();
+            assertEquals(first, drain(output));
+            output.close();
+        }
+    }
+
+    /**
+     * A gather cannot be rewound.
+     */
+    @Test(expected = DbException.class) public void gatherRewind() throws Exception {
+        Exchange exchange = Exchange.gather(inputs(2, 10));
+        exchange.open();
+        try {
+            exchange.rewind();
+        } finally {
+            exchange.close();
+        }
+    }
+
+    /**
+     * Closing the outputs before their end stops the producers.
+     */
+    @Test public void closeEarly() throws Exception {
+        List<Exchange> outputs = Exchange.repartition(inputs(4, 1000000), 0, 2, false);
+        for (Exchange output : outputs) {
+            output.open();
+        }
+        for (int i = 0; i < 10; i++) {
+            assertTrue(outputs.get(0).hasNext());
+            outputs.get(0).next();
+        }
+        for (Exchange output : outputs) {
+            output.close();
+        }
+        for (Thread t : Thread.getAllStackTraces().keySet()) {
+            assertFalse(t.getName().startsWith("exchange-"));
+        }
+    }
+
+    /**
+     * An error of an input is thrown by the output.
+     */
+    @Test public void failure() throws Exception {
+        OpIterator failing = new TestUtil.MockScan(0, 1000, 2) {
+            private int count;
+
+            @Override
+            public Tuple next() throws NoSuchElementException {
+                if (++count == 500) {
+                    throw new IllegalStateException("broken input");
+                }
+                return super.next();
+            }
+        };
+        Exchange exchange = Exchange.gather(Collections.singletonList(failing));
+        exchange.open();
+        try {
+            drain(exchange);
+            fail("expected the error of the input");
+        } catch (IllegalStateException e) {
+            assertEquals("broken input", e.getMessage());
+        }
+        exchange.close();
+    }
+
+    /**
+     * The exchange returns the TupleDesc of its inputs.
+     */
+    @Test public void getTupleDesc() {
+        List<OpIterator> inputs = inputs(2, 10);
+        TupleDesc expected = inputs.get(0).getTupleDesc();
+        assertEquals(expected, Exchange.gather(inputs).getTupleDesc());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(ExchangeTest.class);
+    }
+}
@@ -0,0 +1,157 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.common.Type;
+import simpledb.common.Utility;
+import simpledb.execution.Expression;
+import simpledb.execution.Predicate;
+import simpledb.storage.Field;
+import simpledb.storage.IntField;
+import simpledb.storage.StringField;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class ExpressionTest extends SimpleDbTestBase {
+
+    private static final TupleDesc INTS = Utility.getTupleDesc(2, "c");
+
+    private static Tuple ints(int a, int b) {
+        Tuple t = new Tuple(INTS);
+        t.setField(0, new IntField(a));
+        t.setField(1, new IntField(b));
+        return t;
+    }
+
+    /**
+     * Compiled comparisons agree with Predicate for every operator, with
+     * a constant or another column.
+     */
+    @Test public void comparisons() {
+        for (Predicate.Op op : Predicate.Op.values()) {
+            Expression.Condition c = Expression.compare(Expression.column(0), op, Expression.constant(3)).compile(INTS);
+            Expression.Condition reversed = Expression.compare(Expression.column("c1"), op, Expression.column(0))
+                    .compile(INTS);
+            Predicate p = new Predicate(0, op, new IntField(3));
+            for (int i = 0; i < 6; i++) {
+                assertEquals(op + " " + i, p.filter(ints(i, 0)), c.test(ints(i, 0)));
+                assertEquals(op + " " + i, IntField.compare(op, 3, i), reversed.test(ints(i, 3)));
+            }
+        }
+    }
+
+    @Test public void arithmetic() {
+        // c0 * 2 - c1 / 3 > -c0
+        Expression e = Expression.compare(
+                Expression.arithmetic(
+                        Expression.arithmetic(Expression.column(0), Expression.ArithmeticOp.TIMES, Expression.constant(2)),
+                        Expression.ArithmeticOp.MINUS,
+                        Expression.arithmetic(Expression.column(1), Expression.ArithmeticOp.DIVIDE, Expression.constant(3))),
+                Predicate.Op.GREATER_THAN,
+                Expression.arithmetic(Expression.constant(0), Expression.ArithmeticOp.MINUS, Expression.column(0)));
+        Expression.Condition c = e.compile(INTS);
+        for (int a = -5; a < 5; a++) {
+            for (int b = -10; b < 10; b++) {
+                assertEquals(a * 2 - b / 3 > -a, c.test(ints(a, b)));
+            }
+        }
+        Expression.IntValue folded = Expression.arithmetic(Expression.constant(6), Expression.ArithmeticOp.PLUS,
+                Expression.constant(7)).compileInt(INTS);
+        assertEquals(13, folded.eval(ints(0, 0)));
+    }
+
+    @Test(expected = ArithmeticException.class) public void divisionByZero() {
+        Expression.arithmetic(Expression.column(0), Expression.ArithmeticOp.DIVIDE, Expression.column(1))
+                .compileInt(INTS).eval(ints(1, 0));
+    }
+
+    @Test public void logical() {
+        Expression lt = Expression.compare(Expression.column(0), Predicate.Op.LESS_THAN, Expression.constant(2));
+        Expression eq = Expression.compare(Expression.column(1), Predicate.Op.EQUALS, Expression.constant(7));
+        Expression gt = Expression.compare(Expression.column(0), Predicate.Op.GREATER_THAN, Expression.constant(8));
+        Expression.Condition and = Expression.and(lt, eq).compile(INTS);
+        Expression.Condition or = Expression.or(lt, eq, gt).compile(INTS);
+        Expression.Condition not = Expression.not(Expression.or(lt, gt)).compile(INTS);
+        for (int a = 0; a < 10; a++) {
+            for (int b = 6; b < 9; b++) {
+                assertEquals(a < 2 && b == 7, and.test(ints(a, b)));
+                assertEquals(a < 2 || b == 7 || a > 8, or.test(ints(a, b)));
+                assertEquals(!(a < 2 || a > 8), not.test(ints(a, b)));
+            }
+        }
+    }
+
+    @Test public void in() {
+        List<Field> few = Arrays.asList(new IntField(4), new IntField(1), new IntField(4));
+        List<Field> many = new ArrayList<>();
+        for (int i = 0; i < 100; i += 3) {
+            many.add(new IntField(i));
+        }
+        Expression.Condition small = Expression.in(Expression.column(0), few).compile(INTS);
+        Expression.Condition large = Expression.in(Expression.column(0), many).compile(INTS);
+        for (int i = -1; i < 101; i++) {
+            assertEquals(i == 1 || i == 4, small.test(ints(i, 0)));
+            assertEquals(i >= 0 && i < 100 && i % 3 == 0, large.test(ints(i, 0)));
+        }
+    }
+
+    @Test public void strings() {
+        TupleDesc td = new TupleDesc(new Type[]{Type.STRING_TYPE, Type.INT_TYPE}, new String[]{"s", "i"});
+        Tuple t = new Tuple(td);
+        t.setField(0, new StringField("banana", Type.STRING_LEN));
+        t.setField(1, new IntField(1));
+        Expression s = Expression.column("s");
+        assertTrue(Expression.compare(s, Predicate.Op.EQUALS,
+                Expression.constant(new StringField("banana", Type.STRING_LEN))).compile(td).test(t));
+        assertTrue(Expression.compare(s, Predicate.Op.LIKE,
+                Expression.constant(new StringField("nan", Type.STRING_LEN))).compile(td).test(t));
+        assertFalse(Expression.compare(s, Predicate.Op.LESS_THAN,
+                Expression.constant(new StringField("apple", Type.STRING_LEN))).compile(td).test(t));
+        assertTrue(Expression.in(s, Arrays.asList(new StringField("apple", Type.STRING_LEN),
+                new StringField("banana", Type.STRING_LEN))).compile(td).test(t));
+    }
+
+    @Test(expected = IllegalArgumentException.class) public void typeMismatch() {
+        Expression.compare(Expression.column(0), Predicate.Op.EQUALS,
+                Expression.constant(new StringField("x", Type.STRING_LEN))).compile(INTS);
+    }
+
+    @Test(expected = IllegalArgumentException.class) public void notACondition() {
+        Expression.column(0).compile(INTS);
+    }
+
+    @Test public void rename() {
+        Expression e = Expression.or(
+                Expression.compare(Expression.column("x"), Predicate.Op.EQUALS, Expression.constant(1)),
+                Expression.in(Expression.column("y"), Collections.singletonList(new IntField(2))));
+        assertEquals(new HashSet<>(Arrays.asList("x", "y")), e.columnNames());
+        Map<String, String> names = new HashMap<>();
+        names.put("x", "c0");
+        names.put("y", "c1");
+        Expression renamed = e.rename(names);
+        assertTrue(renamed.compile(INTS).test(ints(5, 2)));
+        assertFalse(renamed.compile(INTS).test(ints(5, 3)));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(ExpressionTest.class);
+    }
+}
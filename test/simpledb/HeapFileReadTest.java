@@ -6,6 +6,7 @@ import simpledb.storage.*;
 import simpledb.systemtest.SimpleDbTestBase;
 import simpledb.systemtest.SystemTestUtil;
 
+import java.io.File;
 import java.util.*;
 import org.junit.After;
 import org.junit.Before;
@@ -81,6 +82,32 @@ public class HeapFileReadTest extends SimpleDbTestBase {
         assertFalse(page.isSlotUsed(20));
     }
 
+    /**
+     * Unit test for HeapFile.readPage() on a file with a non-default page size
+     */
+    @Test
+    public void readPageCustomPageSize() throws Exception {
+        List<List<Integer>> tuples = new ArrayList<>();
+        for (int i = 0; i < 200; ++i) {
+            tuples.add(Arrays.asList(i, -i));
+        }
+        File f = File.createTempFile("table", ".dat");
+        f.deleteOnExit();
+        HeapFileEncoder.convert(tuples, f, 1024, 2);
+        HeapFile small = new HeapFile(f, td, 1024);
+        Database.getCatalog().addTable(small, SystemTestUtil.getUUID());
+
+        assertEquals(1024, small.getPageSize());
+        assertEquals(1024, Database.getCatalog().getPageSize(small.getId()));
+        // 126 tuples fit on a 1024 byte page
+        assertEquals(2, small.numPages());
+        HeapPage page = (HeapPage) small.readPage(new HeapPageId(small.getId(), 1));
+        assertEquals(126 - 74, page.getNumEmptySlots());
+        assertEquals(1024, page.getPageData().length);
+
+        SystemTestUtil.matchTuples(small, tuples);
+    }
+
     @Test
     public void testIteratorBasic() throws Exception {
         HeapFile smallFile = SystemTestUtil.createRandomHeapFile(2, 3, null,
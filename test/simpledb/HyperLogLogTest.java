@@ -0,0 +1,119 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.common.Type;
+import simpledb.execution.Aggregate;
+import simpledb.execution.Aggregator;
+import simpledb.execution.HyperLogLog;
+import simpledb.execution.OpIterator;
+import simpledb.execution.SeqScan;
+import simpledb.storage.HeapFile;
+import simpledb.storage.IntField;
+import simpledb.storage.StringField;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+public class HyperLogLogTest extends SimpleDbTestBase {
+
+    private static void assertClose(long expected, long actual, double relativeError) {
+        assertTrue("expected about " + expected + " but was " + actual,
+                Math.abs(actual - expected) <= relativeError * expected);
+    }
+
+    @Test public void empty() {
+        assertEquals(0, new HyperLogLog().estimate());
+    }
+
+    /**
+     * Small and large cardinalities are both estimated within a few
+     * standard errors, whatever the number of duplicates.
+     */
+    @Test public void accuracy() {
+        for (int n : new int[]{10, 1000, 200000}) {
+            HyperLogLog hll = new HyperLogLog();
+            for (int i = 0; i < n; i++) {
+                hll.add(new IntField(i));
+                hll.add(new IntField(i));
+            }
+            assertClose(n, hll.estimate(), 0.05);
+        }
+        HyperLogLog strings = new HyperLogLog();
+        for (int i = 0; i < 50000; i++) {
+            strings.add(new StringField("s" + (i % 20000), Type.STRING_LEN));
+        }
+        assertClose(20000, strings.estimate(), 0.05);
+    }
+
+    @Test public void merge() {
+        HyperLogLog a = new HyperLogLog(), b = new HyperLogLog();
+        for (int i = 0; i < 30000; i++) {
+            a.add(new IntField(i));
+            b.add(new IntField(i + 10000));
+        }
+        a.merge(b);
+        assertClose(40000, a.estimate(), 0.05);
+    }
+
+    @Test(expected = IllegalArgumentException.class) public void mergePrecisions() {
+        new HyperLogLog(10).merge(new HyperLogLog(12));
+    }
+
+    /**
+     * APPROX_COUNT_DISTINCT of each group is close to its exact number of
+     * distinct values.
+     */
+    @Test public void groupedAggregate() throws Exception {
+        List<List<Integer>> tuples = new ArrayList<>();
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, 20000, 1000, null, tuples);
+        TransactionId tid = new TransactionId();
+        Set<Integer> all = new HashSet<>();
+        for (List<Integer> t : tuples) {
+            all.add(t.get(1));
+        }
+        OpIterator ungrouped = new Aggregate(new SeqScan(tid, f.getId()), 1, Aggregator.NO_GROUPING,
+                Aggregator.Op.APPROX_COUNT_DISTINCT);
+        ungrouped.open();
+        assertClose(all.size(), ungrouped.next().getInt(0), 0.05);
+        ungrouped.close();
+
+        Map<Integer, Set<Integer>> perGroup = new HashMap<>();
+        for (List<Integer> t : tuples) {
+            perGroup.computeIfAbsent(t.get(0), k -> new HashSet<>()).add(t.get(1));
+        }
+        OpIterator grouped = new Aggregate(new SeqScan(tid, f.getId()), 1, 0,
+                Aggregator.Op.APPROX_COUNT_DISTINCT);
+        grouped.open();
+        int groups = 0;
+        while (grouped.hasNext()) {
+            List<Integer> t = SystemTestUtil.tupleToList(grouped.next());
+            // 每组只有几十个值, 线性计数只在少数值落入同一寄存器时偏小
+            assertTrue(Math.abs(perGroup.get(t.get(0)).size() - t.get(1)) <= 3);
+            groups++;
+        }
+        assertEquals(perGroup.size(), groups);
+        grouped.rewind();
+        assertTrue(grouped.hasNext());
+        grouped.close();
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(HyperLogLogTest.class);
+    }
+}
@@ -0,0 +1,147 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.execution.Limit;
+import simpledb.execution.OpIterator;
+import simpledb.execution.OrderBy;
+import simpledb.storage.Tuple;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class LimitTest extends SimpleDbTestBase {
+
+    /**
+     * A MockScan that counts the tuples read from it and whether it is open.
+     */
+    private static class CountingScan extends TestUtil.MockScan {
+        private static final long serialVersionUID = 1L;
+
+        int read;
+        boolean open;
+
+        CountingScan(int low, int high) {
+            super(low, high, 1);
+        }
+
+        @Override public void open() {
+            super.open();
+            open = true;
+        }
+
+        @Override public void close() {
+            super.close();
+            open = false;
+        }
+
+        @Override public Tuple next() {
+            read++;
+            return super.next();
+        }
+    }
+
+    private static List<Integer> run(OpIterator op) throws Exception {
+        List<Integer> values = new ArrayList<>();
+        while (op.hasNext()) {
+            values.add(SystemTestUtil.tupleToList(op.next()).get(0));
+        }
+        return values;
+    }
+
+    private static List<Integer> range(int low, int high) {
+        List<Integer> values = new ArrayList<>();
+        for (int i = low; i < high; i++) {
+            values.add(i);
+        }
+        return values;
+    }
+
+    /**
+     * The child is closed as soon as the last tuple is returned, without
+     * reading any further.
+     */
+    @Test public void stopsEarly() throws Exception {
+        CountingScan scan = new CountingScan(0, 1000);
+        Limit limit = new Limit(scan, 10, 5);
+        limit.open();
+        assertEquals(range(5, 15), run(limit));
+        assertEquals(15, scan.read);
+        assertFalse(scan.open);
+        limit.rewind();
+        assertTrue(scan.open);
+        assertEquals(range(5, 15), run(limit));
+        limit.close();
+        assertFalse(scan.open);
+    }
+
+    @Test public void shortInput() throws Exception {
+        Limit limit = new Limit(new CountingScan(0, 8), 10, 5);
+        limit.open();
+        assertEquals(range(5, 8), run(limit));
+        limit.close();
+
+        limit = new Limit(new CountingScan(0, 8), 10, 20);
+        limit.open();
+        assertTrue(run(limit).isEmpty());
+        limit.close();
+
+        CountingScan scan = new CountingScan(0, 8);
+        limit = new Limit(scan, 0, 0);
+        limit.open();
+        assertTrue(run(limit).isEmpty());
+        assertEquals(0, scan.read);
+        limit.close();
+    }
+
+    @Test(expected = IllegalArgumentException.class) public void negative() {
+        new Limit(new CountingScan(0, 1), -1, 0);
+    }
+
+    /**
+     * A top-N OrderBy returns the first tuples of a full sort, with ties in
+     * the same order.
+     */
+    @Test public void topN() throws Exception {
+        int[] data = new int[2 * 5000];
+        for (int i = 0; i < 5000; i++) {
+            data[2 * i] = (i * 7919) % 300;
+            data[2 * i + 1] = i;
+        }
+        for (boolean asc : new boolean[]{true, false}) {
+            OrderBy full = new OrderBy(0, asc, TestUtil.createTupleList(2, data));
+            full.open();
+            List<List<Integer>> expected = new ArrayList<>();
+            while (full.hasNext() && expected.size() < 40) {
+                expected.add(SystemTestUtil.tupleToList(full.next()));
+            }
+            full.close();
+
+            OrderBy top = new OrderBy(0, asc, TestUtil.createTupleList(2, data), 40);
+            top.open();
+            List<List<Integer>> actual = new ArrayList<>();
+            while (top.hasNext()) {
+                actual.add(SystemTestUtil.tupleToList(top.next()));
+            }
+            assertEquals(expected, actual);
+            top.rewind();
+            assertTrue(top.hasNext());
+            top.close();
+        }
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(LimitTest.class);
+    }
+}
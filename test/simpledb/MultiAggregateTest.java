@@ -0,0 +1,99 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.common.Type;
+import simpledb.execution.Aggregate;
+import simpledb.execution.Aggregator;
+import simpledb.execution.MultiAggregate;
+import simpledb.execution.OpIterator;
+import simpledb.execution.SeqScan;
+import simpledb.storage.HeapFile;
+import simpledb.storage.TupleDesc;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+public class MultiAggregateTest extends SimpleDbTestBase {
+
+    private static final int[] FIELDS = {1, 1, 2, 2, 1};
+    private static final Aggregator.Op[] OPS = {
+            Aggregator.Op.MIN, Aggregator.Op.MAX, Aggregator.Op.SUM,
+            Aggregator.Op.AVG, Aggregator.Op.COUNT};
+
+    /**
+     * @return the results of one Aggregate per aggregate, side by side
+     */
+    private static List<List<Integer>> separately(HeapFile f, int gfield) throws Exception {
+        TransactionId tid = new TransactionId();
+        List<List<Integer>> rows = null;
+        for (int i = 0; i < OPS.length; i++) {
+            List<List<Integer>> result = SystemTestUtil.sortTuples(SystemTestUtil.drain(
+                    new Aggregate(new SeqScan(tid, f.getId()), FIELDS[i], gfield, OPS[i])));
+            if (rows == null) {
+                rows = result;
+            } else {
+                for (int r = 0; r < rows.size(); r++) {
+                    rows.get(r).add(result.get(r).get(result.get(r).size() - 1));
+                }
+            }
+        }
+        return rows;
+    }
+
+    @Test public void grouped() throws Exception {
+        HeapFile f = SystemTestUtil.createRandomHeapFile(3, 3000, 100, null, null);
+        MultiAggregate op = new MultiAggregate(new SeqScan(new TransactionId(), f.getId()), FIELDS, OPS, 0);
+        assertEquals(separately(f, 0), SystemTestUtil.sortTuples(SystemTestUtil.drain(op)));
+        assertEquals(0, op.getSpilledBytes());
+    }
+
+    @Test public void ungrouped() throws Exception {
+        HeapFile f = SystemTestUtil.createRandomHeapFile(3, 3000, 100, null, null);
+        MultiAggregate op = new MultiAggregate(new SeqScan(new TransactionId(), f.getId()), FIELDS, OPS,
+                Aggregator.NO_GROUPING);
+        assertEquals(separately(f, Aggregator.NO_GROUPING), SystemTestUtil.sortTuples(SystemTestUtil.drain(op)));
+    }
+
+    /**
+     * All the aggregates of the groups that do not fit in the budget are
+     * spilled together.
+     */
+    @Test public void spills() throws Exception {
+        HeapFile f = SystemTestUtil.createRandomHeapFile(3, 3000, 1000, null, null);
+        MultiAggregate op = new MultiAggregate(new SeqScan(new TransactionId(), f.getId()), FIELDS, OPS, 0, 5000);
+        assertEquals(separately(f, 0), SystemTestUtil.sortTuples(SystemTestUtil.drain(op)));
+        assertTrue(op.getSpilledBytes() > 0);
+    }
+
+    @Test public void getTupleDesc() throws Exception {
+        OpIterator child = TestUtil.createTupleList(2, new Object[]{"a", 1});
+        MultiAggregate op = new MultiAggregate(child, new int[]{1, 1, 0},
+                new Aggregator.Op[]{Aggregator.Op.MIN, Aggregator.Op.MAX, Aggregator.Op.COUNT}, 0);
+        TupleDesc td = op.getTupleDesc();
+        assertEquals(new TupleDesc(new Type[]{Type.STRING_TYPE, Type.INT_TYPE, Type.INT_TYPE, Type.INT_TYPE}),
+                new TupleDesc(new Type[]{td.getFieldType(0), td.getFieldType(1), td.getFieldType(2),
+                        td.getFieldType(3)}));
+        assertTrue(td.getFieldName(1).startsWith("min"));
+        assertTrue(td.getFieldName(2).startsWith("max"));
+    }
+
+    @Test(expected = IllegalArgumentException.class) public void sumStrings() {
+        OpIterator child = TestUtil.createTupleList(2, new Object[]{"a", 1});
+        new MultiAggregate(child, new int[]{1, 0}, new Aggregator.Op[]{Aggregator.Op.SUM, Aggregator.Op.SUM}, 1);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(MultiAggregateTest.class);
+    }
+}
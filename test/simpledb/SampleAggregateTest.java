@@ -0,0 +1,130 @@
+package simpledb;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.execution.Aggregator;
+import simpledb.execution.PageSample;
+import simpledb.execution.SampleAggregate;
+import simpledb.execution.SeqScan;
+import simpledb.storage.HeapFile;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+public class SampleAggregateTest extends SimpleDbTestBase {
+
+    private static final int[] FIELDS = {0, 1, 1};
+    private static final Aggregator.Op[] OPS = {Aggregator.Op.COUNT, Aggregator.Op.SUM, Aggregator.Op.AVG};
+
+    private static List<List<Integer>> run(SampleAggregate op) throws Exception {
+        List<List<Integer>> tuples = new ArrayList<>();
+        op.open();
+        while (op.hasNext()) {
+            tuples.add(SystemTestUtil.tupleToList(op.next()));
+        }
+        op.close();
+        return tuples;
+    }
+
+    @Test public void choose() {
+        PageSample reservoir = PageSample.reservoir(10, 42);
+        int[] pages = reservoir.choose(100);
+        assertEquals(10, pages.length);
+        for (int i = 1; i < pages.length; i++) {
+            assertTrue(pages[i - 1] < pages[i]);
+        }
+        assertArrayEquals(pages, PageSample.reservoir(10, 42).choose(100));
+        assertEquals(5, reservoir.choose(5).length);
+        assertEquals(0.1, reservoir.expectedFraction(100), 1e-9);
+
+        int[] bernoulli = PageSample.bernoulli(0.25, 7).choose(1000);
+        assertTrue(bernoulli.length > 200 && bernoulli.length < 300);
+        assertEquals(1000, PageSample.bernoulli(1, 7).choose(1000).length);
+    }
+
+    @Test(expected = IllegalArgumentException.class) public void badFraction() {
+        PageSample.bernoulli(0, 1);
+    }
+
+    /**
+     * Reading every page gives the exact aggregates with no error.
+     */
+    @Test public void fullSample() throws Exception {
+        List<List<Integer>> tuples = new ArrayList<>();
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, 5000, 1000, null, tuples);
+        SeqScan scan = new SeqScan(new TransactionId(), f.getId());
+        scan.setSample(PageSample.bernoulli(1, 1));
+        int sum = 0;
+        for (List<Integer> t : tuples) {
+            sum += t.get(1);
+        }
+        List<List<Integer>> result = run(new SampleAggregate(scan, FIELDS, OPS, Aggregator.NO_GROUPING));
+        assertEquals(1, result.size());
+        assertEquals(Arrays.asList(5000, 0, sum, 0, sum / 5000, 0), result.get(0));
+        assertEquals(f.numPages(), scan.getSampledPages());
+    }
+
+    /**
+     * The estimates of a sample of the pages are scaled up to the whole
+     * table, and are within a few error bounds of the exact aggregates.
+     */
+    @Test public void estimates() throws Exception {
+        List<List<Integer>> tuples = new ArrayList<>();
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, 40000, 1000, null, tuples);
+        long sum = 0;
+        for (List<Integer> t : tuples) {
+            sum += t.get(1);
+        }
+        long[] exact = {tuples.size(), sum, sum / tuples.size()};
+        for (PageSample sample : new PageSample[]{PageSample.bernoulli(0.3, 3), PageSample.reservoir(30, 3)}) {
+            SeqScan scan = new SeqScan(new TransactionId(), f.getId());
+            scan.setSample(sample);
+            List<Integer> result = run(new SampleAggregate(scan, FIELDS, OPS, Aggregator.NO_GROUPING)).get(0);
+            assertTrue(scan.getSampledPages() < scan.getTablePages());
+            for (int i = 0; i < OPS.length; i++) {
+                int estimate = result.get(2 * i), error = result.get(2 * i + 1);
+                assertTrue(OPS[i] + " error " + error, error >= 0);
+                // 页面几乎都是满的, COUNT的误差界可能为0, 只差最后一页
+                assertTrue(OPS[i] + " estimate " + estimate + " +- " + error + " of " + exact[i],
+                        Math.abs(estimate - exact[i]) <= 3 * error + exact[i] / 100);
+            }
+        }
+    }
+
+    @Test public void grouped() throws Exception {
+        List<List<Integer>> tuples = new ArrayList<>();
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, 20000, 4, null, tuples);
+        Map<Integer, Integer> counts = new HashMap<>();
+        for (List<Integer> t : tuples) {
+            counts.merge(t.get(0), 1, Integer::sum);
+        }
+        SeqScan scan = new SeqScan(new TransactionId(), f.getId());
+        scan.setSample(PageSample.reservoir(20, 5));
+        SampleAggregate op = new SampleAggregate(scan, new int[]{1}, new Aggregator.Op[]{Aggregator.Op.COUNT}, 0);
+        List<List<Integer>> result = run(op);
+        assertEquals(counts.size(), result.size());
+        for (List<Integer> t : result) {
+            int exact = counts.get(t.get(0));
+            assertTrue(Math.abs(t.get(1) - exact) <= 3 * t.get(2));
+        }
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(SampleAggregateTest.class);
+    }
+}
@@ -0,0 +1,174 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.Utility;
+import simpledb.execution.HashEquiJoin;
+import simpledb.execution.Join;
+import simpledb.execution.JoinPredicate;
+import simpledb.execution.OpIterator;
+import simpledb.execution.OrderBy;
+import simpledb.execution.Predicate;
+import simpledb.execution.SeqScan;
+import simpledb.execution.SortMergeJoin;
+import simpledb.optimizer.JoinOptimizer;
+import simpledb.optimizer.LogicalJoinNode;
+import simpledb.storage.HeapFile;
+import simpledb.storage.Tuple;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+public class SortMergeJoinTest extends SimpleDbTestBase {
+
+    private static final Predicate.Op[] OPS = {
+            Predicate.Op.EQUALS, Predicate.Op.LESS_THAN, Predicate.Op.LESS_THAN_OR_EQ,
+            Predicate.Op.GREATER_THAN, Predicate.Op.GREATER_THAN_OR_EQ};
+
+    /** A sorted input of width 2: the key, and the position of the tuple. */
+    private static OpIterator sorted(int... keys) {
+        int[] data = new int[keys.length * 2];
+        int[] copy = keys.clone();
+        Arrays.sort(copy);
+        for (int i = 0; i < copy.length; i++) {
+            data[2 * i] = copy[i];
+            data[2 * i + 1] = i;
+        }
+        return TestUtil.createTupleList(2, data);
+    }
+
+    /** Compare the merge join with a nested loops join of the same inputs. */
+    private static void validate(Predicate.Op op, int[] left, int[] right) throws Exception {
+        JoinPredicate pred = new JoinPredicate(0, op, 0);
+        List<List<Integer>> expected = SystemTestUtil.sortTuples(
+                SystemTestUtil.drain(new Join(pred, sorted(left), sorted(right))));
+        assertEquals(op.toString(), expected, SystemTestUtil.sortTuples(
+                SystemTestUtil.drain(new SortMergeJoin(pred, sorted(left), sorted(right)))));
+    }
+
+    /**
+     * Duplicates on both sides are joined with each other.
+     */
+    @Test public void duplicates() throws Exception {
+        int[] left = {1, 1, 2, 3, 3, 3, 5, 8};
+        int[] right = {0, 1, 1, 1, 3, 3, 4, 5, 9};
+        for (Predicate.Op op : OPS) {
+            validate(op, left, right);
+        }
+        assertEquals(6 + 6 + 1, SystemTestUtil.drain(new SortMergeJoin(new JoinPredicate(0, Predicate.Op.EQUALS, 0),
+                sorted(left), sorted(right))).size());
+    }
+
+    /**
+     * Empty inputs and inputs without matches.
+     */
+    @Test public void noMatches() throws Exception {
+        for (Predicate.Op op : OPS) {
+            validate(op, new int[0], new int[]{1, 2});
+            validate(op, new int[]{1, 2}, new int[0]);
+            validate(op, new int[]{1, 2, 3}, new int[]{4, 5});
+            validate(op, new int[]{4, 5}, new int[]{1, 2, 3});
+        }
+    }
+
+    /**
+     * Random inputs with many duplicates.
+     */
+    @Test public void random() throws Exception {
+        Random r = new Random(6830);
+        for (int round = 0; round < 20; round++) {
+            int[] left = new int[r.nextInt(60)];
+            int[] right = new int[r.nextInt(60)];
+            for (int i = 0; i < left.length; i++) {
+                left[i] = r.nextInt(15);
+            }
+            for (int i = 0; i < right.length; i++) {
+                right[i] = r.nextInt(15);
+            }
+            for (Predicate.Op op : OPS) {
+                validate(op, left, right);
+            }
+        }
+    }
+
+    /**
+     * The join returns the same tuples after a rewind.
+     */
+    @Test public void rewind() throws Exception {
+        SortMergeJoin op = new SortMergeJoin(new JoinPredicate(0, Predicate.Op.EQUALS, 0),
+                sorted(1, 1, 2, 3), sorted(1, 2, 2, 4));
+        op.open();
+        List<Tuple> first = new ArrayList<>();
+        while (op.hasNext()) {
+            first.add(op.next());
+        }
+        assertEquals(4, first.size());
+        op.rewind();
+        for (Tuple t : first) {
+            assertTrue(op.hasNext());
+            assertTrue(TestUtil.compareTuples(t, op.next()));
+        }
+        assertTrue(TestUtil.checkExhausted(op));
+    }
+
+    @Test(expected = IllegalArgumentException.class) public void notEquals() {
+        new SortMergeJoin(new JoinPredicate(0, Predicate.Op.NOT_EQUALS, 0), sorted(1), sorted(1));
+    }
+
+    @Test public void getTupleDesc() {
+        SortMergeJoin op = new SortMergeJoin(new JoinPredicate(0, Predicate.Op.EQUALS, 0), sorted(1), sorted(1));
+        assertEquals(Utility.getTupleDesc(4), op.getTupleDesc());
+    }
+
+    /**
+     * The optimizer merges inputs that are sorted on the join fields, and
+     * sorts the inputs of range joins.
+     */
+    @Test public void optimizerChoosesMergeJoin() throws Exception {
+        HeapFile a = SystemTestUtil.createRandomHeapFile(2, 100, 10, null, null, "c");
+        Database.getCatalog().addTable(a, "a");
+        HeapFile b = SystemTestUtil.createRandomHeapFile(2, 100, 10, null, null, "c");
+        Database.getCatalog().addTable(b, "b");
+        TransactionId tid = new TransactionId();
+
+        LogicalJoinNode eq = new LogicalJoinNode("a", "b", "c0", "c1", Predicate.Op.EQUALS);
+        OpIterator j = JoinOptimizer.instantiateJoin(eq, new SeqScan(tid, a.getId(), "a"),
+                new SeqScan(tid, b.getId(), "b"));
+        assertTrue(j instanceof HashEquiJoin);
+
+        j = JoinOptimizer.instantiateJoin(eq, new OrderBy(0, true, new SeqScan(tid, a.getId(), "a")),
+                new OrderBy(1, true, new SeqScan(tid, b.getId(), "b")));
+        assertTrue(j instanceof SortMergeJoin);
+        assertEquals(0, JoinOptimizer.sortedOn(j));
+
+        LogicalJoinNode lt = new LogicalJoinNode("a", "b", "c0", "c1", Predicate.Op.LESS_THAN);
+        j = JoinOptimizer.instantiateJoin(lt, new SeqScan(tid, a.getId(), "a"), new SeqScan(tid, b.getId(), "b"));
+        assertTrue(j instanceof SortMergeJoin);
+        List<List<Integer>> expected = SystemTestUtil.sortTuples(SystemTestUtil.drain(
+                new Join(new JoinPredicate(0, Predicate.Op.LESS_THAN, 1),
+                        new SeqScan(tid, a.getId(), "a"), new SeqScan(tid, b.getId(), "b"))));
+        assertEquals(expected, SystemTestUtil.sortTuples(SystemTestUtil.drain(j)));
+
+        LogicalJoinNode ne = new LogicalJoinNode("a", "b", "c0", "c1", Predicate.Op.NOT_EQUALS);
+        j = JoinOptimizer.instantiateJoin(ne, new SeqScan(tid, a.getId(), "a"), new SeqScan(tid, b.getId(), "b"));
+        assertTrue(j instanceof Join);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(SortMergeJoinTest.class);
+    }
+}
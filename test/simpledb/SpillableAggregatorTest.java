@@ -0,0 +1,117 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.common.Type;
+import simpledb.execution.Aggregate;
+import simpledb.execution.Aggregator;
+import simpledb.execution.OpIterator;
+import simpledb.execution.SeqScan;
+import simpledb.execution.SpillableAggregator;
+import simpledb.storage.HeapFile;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+public class SpillableAggregatorTest extends SimpleDbTestBase {
+
+    private static final Aggregator.Op[] OPS = {
+            Aggregator.Op.MIN, Aggregator.Op.MAX, Aggregator.Op.SUM,
+            Aggregator.Op.AVG, Aggregator.Op.COUNT};
+
+    /**
+     * An aggregate with a small budget spills groups and returns the same
+     * result as one that keeps every group in memory.
+     */
+    @Test public void spillsGroups() throws Exception {
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, 5000, 2000, null, null);
+        TransactionId tid = new TransactionId();
+        for (Aggregator.Op op : OPS) {
+            Aggregate inMemory = new Aggregate(new SeqScan(tid, f.getId()), 1, 0, op);
+            Aggregate spilling = new Aggregate(new SeqScan(tid, f.getId()), 1, 0, op, 20000);
+            List<List<Integer>> expected = SystemTestUtil.sortTuples(SystemTestUtil.drain(inMemory));
+            assertEquals(op.toString(), expected, SystemTestUtil.sortTuples(SystemTestUtil.drain(spilling)));
+            assertEquals(0, inMemory.getSpilledBytes());
+            assertTrue(spilling.getSpilledBytes() > 0);
+            assertTrue(spilling.getSpilledBytes() < 5000 * 8);
+        }
+    }
+
+    /**
+     * With room for a single group, spill files are partitioned again until
+     * the depth limit, after which groups stay in memory.
+     */
+    @Test public void recursivePartitioning() throws Exception {
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, 3000, 1000, null, null);
+        TransactionId tid = new TransactionId();
+        Aggregate inMemory = new Aggregate(new SeqScan(tid, f.getId()), 1, 0, Aggregator.Op.SUM);
+        Aggregate spilling = new Aggregate(new SeqScan(tid, f.getId()), 1, 0, Aggregator.Op.SUM, 1);
+        assertEquals(SystemTestUtil.sortTuples(SystemTestUtil.drain(inMemory)),
+                SystemTestUtil.sortTuples(SystemTestUtil.drain(spilling)));
+        // 每层递归都会再写一次大部分元组
+        assertTrue(spilling.getSpilledBytes() > 3000 * 8);
+    }
+
+    @Test public void rewind() throws Exception {
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, 2000, 500, null, null);
+        TransactionId tid = new TransactionId();
+        Aggregate op = new Aggregate(new SeqScan(tid, f.getId()), 1, 0, Aggregator.Op.COUNT, 1000);
+        List<List<Integer>> first = new ArrayList<>();
+        List<List<Integer>> second = new ArrayList<>();
+        op.open();
+        while (op.hasNext()) {
+            first.add(SystemTestUtil.tupleToList(op.next()));
+        }
+        op.rewind();
+        while (op.hasNext()) {
+            second.add(SystemTestUtil.tupleToList(op.next()));
+        }
+        op.close();
+        SystemTestUtil.sortTuples(first);
+        SystemTestUtil.sortTuples(second);
+        assertEquals(first, second);
+        assertEquals(SystemTestUtil.sortTuples(SystemTestUtil.drain(
+                new Aggregate(new SeqScan(tid, f.getId()), 1, 0, Aggregator.Op.COUNT))), first);
+    }
+
+    @Test public void countStrings() throws Exception {
+        Object[] data = new Object[400];
+        for (int i = 0; i < 200; i++) {
+            data[2 * i] = i % 50;
+            data[2 * i + 1] = "s" + i;
+        }
+        SpillableAggregator agg = new SpillableAggregator(0, Type.INT_TYPE, 1, Type.STRING_TYPE,
+                Aggregator.Op.COUNT, 1);
+        OpIterator in = TestUtil.createTupleList(2, data);
+        in.open();
+        while (in.hasNext()) {
+            agg.mergeTupleIntoGroup(in.next());
+        }
+        List<List<Integer>> result = SystemTestUtil.sortTuples(SystemTestUtil.drain(agg.iterator()));
+        assertEquals(50, result.size());
+        for (List<Integer> group : result) {
+            assertEquals(4, (int) group.get(1));
+        }
+        assertTrue(agg.getSpilledBytes() > 0);
+        agg.close();
+    }
+
+    @Test(expected = IllegalArgumentException.class) public void sumStrings() {
+        new SpillableAggregator(0, Type.INT_TYPE, 1, Type.STRING_TYPE, Aggregator.Op.SUM, 1);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(SpillableAggregatorTest.class);
+    }
+}
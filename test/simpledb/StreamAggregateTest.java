@@ -0,0 +1,110 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.common.DbException;
+import simpledb.execution.Aggregate;
+import simpledb.execution.Aggregator;
+import simpledb.execution.OpIterator;
+import simpledb.execution.OrderBy;
+import simpledb.execution.SeqScan;
+import simpledb.execution.StreamAggregate;
+import simpledb.optimizer.JoinOptimizer;
+import simpledb.storage.HeapFile;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+public class StreamAggregateTest extends SimpleDbTestBase {
+
+    private static final Aggregator.Op[] OPS = {
+            Aggregator.Op.MIN, Aggregator.Op.MAX, Aggregator.Op.SUM,
+            Aggregator.Op.AVG, Aggregator.Op.COUNT};
+
+    private static List<List<Integer>> run(OpIterator op, boolean sort) throws Exception {
+        List<List<Integer>> tuples = new ArrayList<>();
+        op.open();
+        while (op.hasNext()) {
+            tuples.add(SystemTestUtil.tupleToList(op.next()));
+        }
+        op.close();
+        if (sort) {
+            tuples.sort(Comparator.comparing(Object::toString));
+        }
+        return tuples;
+    }
+
+    /**
+     * Every aggregate of a sorted input agrees with the hash aggregate, and
+     * the groups are returned in order.
+     */
+    @Test public void matchesAggregate() throws Exception {
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, 3000, 200, null, null);
+        TransactionId tid = new TransactionId();
+        for (Aggregator.Op op : OPS) {
+            OpIterator sorted = new OrderBy(0, true, new SeqScan(tid, f.getId()));
+            StreamAggregate stream = new StreamAggregate(sorted, 1, 0, op);
+            Aggregate hash = new Aggregate(new SeqScan(tid, f.getId()), 1, 0, op);
+            assertEquals(hash.getTupleDesc(), stream.getTupleDesc());
+            List<List<Integer>> result = run(stream, false);
+            for (int i = 1; i < result.size(); i++) {
+                assertTrue(result.get(i - 1).get(0) < result.get(i).get(0));
+            }
+            result.sort(Comparator.comparing(Object::toString));
+            assertEquals(op.toString(), run(hash, true), result);
+        }
+    }
+
+    @Test public void countStrings() throws Exception {
+        OpIterator child = TestUtil.createTupleList(2,
+                new Object[]{1, "a", 1, "b", 2, "c", 4, "d", 4, "e", 4, "f"});
+        StreamAggregate op = new StreamAggregate(child, 1, 0, Aggregator.Op.COUNT);
+        OpIterator expected = TestUtil.createTupleList(2, new int[]{1, 2, 2, 1, 4, 3});
+        op.open();
+        TestUtil.matchAllTuples(expected, op);
+        op.rewind();
+        TestUtil.matchAllTuples(expected, op);
+        op.close();
+    }
+
+    @Test public void empty() throws Exception {
+        OpIterator child = TestUtil.createTupleList(2, new int[0]);
+        assertTrue(run(new StreamAggregate(child, 1, 0, Aggregator.Op.SUM), false).isEmpty());
+    }
+
+    @Test(expected = DbException.class) public void unsorted() throws Exception {
+        OpIterator child = TestUtil.createTupleList(2, new int[]{1, 1, 2, 2, 1, 3});
+        run(new StreamAggregate(child, 1, 0, Aggregator.Op.SUM), false);
+    }
+
+    @Test(expected = IllegalArgumentException.class) public void noGrouping() {
+        new StreamAggregate(TestUtil.createTupleList(2, new int[]{1, 1}), 1, Aggregator.NO_GROUPING,
+                Aggregator.Op.SUM);
+    }
+
+    @Test(expected = IllegalArgumentException.class) public void sumStrings() {
+        new StreamAggregate(TestUtil.createTupleList(2, new Object[]{1, "a"}), 1, 0, Aggregator.Op.SUM);
+    }
+
+    @Test public void sortedOnGroupField() {
+        StreamAggregate op = new StreamAggregate(TestUtil.createTupleList(2, new int[]{1, 1}), 0, 1,
+                Aggregator.Op.COUNT);
+        assertEquals(0, JoinOptimizer.sortedOn(op));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(StreamAggregateTest.class);
+    }
+}
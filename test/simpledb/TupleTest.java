@@ -5,6 +5,10 @@ import junit.framework.JUnit4TestAdapter;
 
 import org.junit.Test;
 
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+
+import simpledb.common.Type;
 import simpledb.common.Utility;
 import simpledb.storage.*;
 import simpledb.systemtest.SimpleDbTestBase;
@@ -59,6 +63,43 @@ public class TupleTest extends SimpleDbTestBase {
 	}
     }
 
+    /**
+     * Unit test for CompactTuple: values decoded from bytes, and setField
+     * switching it to an ordinary tuple.
+     */
+    @Test public void compactTuple() throws Exception {
+        TupleDesc td = Utility.getTupleDesc(3);
+        Tuple tup = Utility.getHeapTuple(new int[]{7, -3, 42});
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        tup.serialize(new DataOutputStream(baos));
+        byte[] data = new byte[td.getSize() + 5];
+        System.arraycopy(baos.toByteArray(), 0, data, 5, td.getSize());
+
+        Tuple compact = new CompactTuple(td, data, 5);
+        assertEquals(-3, compact.getInt(1));
+        assertEquals(new IntField(42), compact.getField(2));
+
+        compact.setField(0, new IntField(8));
+        assertEquals(8, compact.getInt(0));
+        assertEquals(new IntField(-3), compact.getField(1));
+        assertEquals(7, Type.readInt(data, 5));
+    }
+
+    /**
+     * Unit test for Tuple.merge()
+     */
+    @Test public void mergeTuples() {
+        TupleDesc td1 = Utility.getTupleDesc(2);
+        TupleDesc td2 = Utility.getTupleDesc(1);
+        TupleDesc merged = TupleDesc.merge(td1, td2);
+        Tuple t = Tuple.merge(merged, Utility.getHeapTuple(new int[]{1, 2}),
+                Utility.getHeapTuple(new int[]{3}));
+        assertEquals(merged, t.getTupleDesc());
+        assertEquals(new IntField(1), t.getField(0));
+        assertEquals(new IntField(2), t.getField(1));
+        assertEquals(3, t.getInt(2));
+    }
+
     /**
      * JUnit suite target
      */
@@ -0,0 +1,144 @@
+package simpledb.perf;
+
+import simpledb.common.Database;
+import simpledb.execution.*;
+import simpledb.storage.EvictStrategy;
+import simpledb.storage.HeapFile;
+import simpledb.storage.IntField;
+import simpledb.storage.PageId;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * Compares the hit ratios of the eviction policies on a recorded page
+ * access trace.
+ * <p>
+ * The trace is recorded with {@link simpledb.storage.BufferPool#setAccessTracer}
+ * while running queries against a pool large enough to hold every table:
+ * filters and joins over a set of small tables picked with a skewed
+ * (Zipf-like) distribution, mixed with a periodic sequential scan of a large
+ * table. The trace is then replayed against each policy at several pool
+ * sizes, so every policy sees exactly the same page requests.
+ * <p>
+ * Run with <code>ant runbench -Dbench=EvictionPolicyBenchmark</code>.
+ */
+public class EvictionPolicyBenchmark {
+
+    private static final int HOT_TABLES = 12;
+    private static final int HOT_ROWS = 5000;
+    private static final int BIG_ROWS = 100000;
+    private static final int QUERIES = 400;
+    private static final int SCAN_EVERY = 20;
+    private static final String[] POLICIES = {"lru", "fifo", "arc", "lru-2", "lru-3"};
+    private static final int[] CAPACITIES = {32, 64, 96, 128, 192};
+
+    interface PlanFactory {
+        OpIterator create(TransactionId tid);
+    }
+
+    public static void main(String[] args) throws Exception {
+        Database.resetBufferPool(4000);
+        List<HeapFile> hot = new ArrayList<>();
+        for (int i = 0; i < HOT_TABLES; i++) {
+            hot.add(SystemTestUtil.createRandomHeapFile(2, HOT_ROWS, 1000, null, null));
+        }
+        HeapFile big = SystemTestUtil.createRandomHeapFile(2, BIG_ROWS, null, null);
+
+        List<PageId> trace = Collections.synchronizedList(new ArrayList<>());
+        Database.getBufferPool().setAccessTracer(trace::add);
+        Random random = new Random(6830);
+        for (int q = 0; q < QUERIES; q++) {
+            if (q % SCAN_EVERY == SCAN_EVERY - 1) {
+                run(tid -> new SeqScan(tid, big.getId()));
+            } else if (random.nextInt(4) == 0) {
+                HeapFile left = hot.get(zipf(random, HOT_TABLES));
+                HeapFile right = hot.get(zipf(random, HOT_TABLES));
+                run(tid -> new HashEquiJoin(new JoinPredicate(0, Predicate.Op.EQUALS, 0),
+                        new SeqScan(tid, left.getId()), new SeqScan(tid, right.getId())));
+            } else {
+                HeapFile table = hot.get(zipf(random, HOT_TABLES));
+                IntField bound = new IntField(random.nextInt(1000));
+                run(tid -> new Filter(new Predicate(1, Predicate.Op.LESS_THAN, bound),
+                        new SeqScan(tid, table.getId())));
+            }
+        }
+        Database.getBufferPool().setAccessTracer(null);
+
+        Set<PageId> distinct = new HashSet<>(trace);
+        System.out.printf("trace: %d requests, %d distinct pages, %d pages in the large table%n",
+                trace.size(), distinct.size(), big.numPages());
+        System.out.printf("%-8s", "pages");
+        for (String policy : POLICIES) {
+            System.out.printf("%10s", policy);
+        }
+        System.out.println();
+        for (int capacity : CAPACITIES) {
+            System.out.printf("%-8d", capacity);
+            for (String policy : POLICIES) {
+                double hitRatio = replay(trace, EvictStrategy.create(policy, capacity), capacity);
+                System.out.printf("%9.2f%%", 100 * hitRatio);
+            }
+            System.out.println();
+        }
+    }
+
+    /**
+     * @return a table index from 0 to n - 1, where index i is chosen about
+     * twice as often as index 2i + 1
+     */
+    private static int zipf(Random random, int n) {
+        double harmonic = 0;
+        for (int i = 1; i <= n; i++) {
+            harmonic += 1.0 / i;
+        }
+        double x = random.nextDouble() * harmonic;
+        for (int i = 1; i <= n; i++) {
+            x -= 1.0 / i;
+            if (x <= 0) {
+                return i - 1;
+            }
+        }
+        return n - 1;
+    }
+
+    private static void run(PlanFactory factory) throws Exception {
+        TransactionId tid = new TransactionId();
+        OpIterator it = factory.create(tid);
+        it.open();
+        while (it.hasNext()) {
+            it.next();
+        }
+        it.close();
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * Simulate a pool of capacity pages evicting with evict.
+     *
+     * @return the fraction of requests in trace that hit the pool
+     */
+    private static double replay(List<PageId> trace, EvictStrategy evict, int capacity) {
+        Set<PageId> resident = new HashSet<>();
+        long hits = 0;
+        for (PageId pid : trace) {
+            if (resident.contains(pid)) {
+                hits++;
+                evict.accessPageId(pid);
+                continue;
+            }
+            if (resident.size() >= capacity) {
+                resident.remove(evict.getEvictPageId());
+            }
+            evict.addPageId(pid);
+            resident.add(pid);
+        }
+        return (double) hits / Math.max(trace.size(), 1);
+    }
+}
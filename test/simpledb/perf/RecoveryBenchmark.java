@@ -0,0 +1,135 @@
+package simpledb.perf;
+
+import simpledb.common.Database;
+import simpledb.common.Permissions;
+import simpledb.common.Utility;
+import simpledb.storage.HeapFile;
+import simpledb.storage.HeapPage;
+import simpledb.storage.HeapPageId;
+import simpledb.storage.IntField;
+import simpledb.storage.Tuple;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.Transaction;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+import java.util.zip.CRC32;
+
+/**
+ * Measures crash recovery time with different numbers of redo threads.
+ * <p>
+ * A synthetic crash is set up once: a table is loaded, then many small
+ * transactions delete and insert tuples on random pages, and the database
+ * "crashes" with none of their pages written, a few of the transactions
+ * still open. The table and the log are saved, and before each recovery
+ * run they are restored, so every run recovers exactly the same crash.
+ * The table recovered by each run is compared with the first one.
+ * <p>
+ * Run with <code>ant runbench -Dbench=RecoveryBenchmark</code>.
+ */
+public class RecoveryBenchmark {
+
+    private static final int ROWS = 1000000;
+    private static final int TRANSACTIONS = 2000;
+    private static final int CHANGES_PER_TRANSACTION = 25;
+    private static final int OPEN_TRANSACTIONS = 50;
+    private static final int[] THREADS = {1, 2, 4, 8};
+    private static final int RUNS = 3;
+
+    public static void main(String[] args) throws Exception {
+        Database.reset();
+        Database.resetBufferPool(4000);
+        File table = SystemTestUtil.createRandomHeapFileUnopened(2, ROWS, 100000, null, null);
+        HeapFile hf = Utility.openHeapFile(2, table);
+        Random random = new Random(6830);
+        List<Transaction> open = new ArrayList<>();
+        for (int i = 0; i < TRANSACTIONS + OPEN_TRANSACTIONS; i++) {
+            Transaction t = new Transaction();
+            t.start();
+            for (int j = 0; j < CHANGES_PER_TRANSACTION; j++) {
+                HeapPageId pid = new HeapPageId(hf.getId(), random.nextInt(hf.numPages()));
+                HeapPage page = (HeapPage) Database.getBufferPool().getPage(t.getId(), pid, Permissions.READ_WRITE);
+                List<Tuple> tuples = new ArrayList<>();
+                for (Iterator<Tuple> it = page.iterator(); it.hasNext(); ) {
+                    tuples.add(it.next());
+                }
+                if (!tuples.isEmpty()) {
+                    Database.getBufferPool().deleteTuple(t.getId(), tuples.get(random.nextInt(tuples.size())));
+                }
+                Tuple tuple = new Tuple(hf.getTupleDesc());
+                tuple.setField(0, new IntField(random.nextInt(100000)));
+                tuple.setField(1, new IntField(random.nextInt(100000)));
+                Database.getBufferPool().insertTuple(t.getId(), hf.getId(), tuple);
+            }
+            if (i < TRANSACTIONS) {
+                t.commit();
+            } else {
+                open.add(t);
+            }
+        }
+        long logBytes = Database.getLogFile().getCurrentOffset();
+
+        // crash: save the table and the log as they are on disk
+        File saved = Files.createTempDirectory("crash").toFile();
+        List<File> files = new ArrayList<>(logFiles());
+        files.add(table);
+        for (File f : files) {
+            Files.copy(f.toPath(), new File(saved, f.getName()).toPath());
+        }
+        System.out.printf("crash: %d pages, %d log bytes, %d committed and %d open transactions%n",
+                hf.numPages(), logBytes, TRANSACTIONS, open.size());
+
+        Long expected = null;
+        for (int threads : THREADS) {
+            long best = Long.MAX_VALUE;
+            for (int run = 0; run < RUNS; run++) {
+                for (File f : logFiles()) {
+                    f.delete();
+                }
+                for (File f : saved.listFiles()) {
+                    File to = f.getName().equals(table.getName()) ? table : new File(f.getName());
+                    Files.copy(f.toPath(), to.toPath(), StandardCopyOption.REPLACE_EXISTING);
+                }
+                Database.reset();
+                Utility.openHeapFile(2, table);
+                long start = System.nanoTime();
+                Database.getLogFile().recover(threads);
+                best = Math.min(best, System.nanoTime() - start);
+                long crc = checksum(table);
+                if (expected == null) {
+                    expected = crc;
+                } else if (crc != expected) {
+                    throw new IllegalStateException(threads + " threads recovered a different table");
+                }
+            }
+            System.out.printf("%2d threads: %8.1f ms%n", threads, best / 1e6);
+        }
+        for (File f : saved.listFiles()) {
+            f.delete();
+        }
+        saved.delete();
+    }
+
+    private static List<File> logFiles() {
+        List<File> files = new ArrayList<>();
+        File[] all = new File(".").listFiles((dir, name) -> name.equals("log") || name.matches("log\\.[0-9a-f]{16}"));
+        if (all != null) {
+            for (File f : all) {
+                files.add(f);
+            }
+        }
+        return files;
+    }
+
+    private static long checksum(File f) throws IOException {
+        CRC32 crc = new CRC32();
+        crc.update(Files.readAllBytes(f.toPath()));
+        return crc.getValue();
+    }
+}
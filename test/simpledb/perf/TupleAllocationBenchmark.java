@@ -0,0 +1,82 @@
+package simpledb.perf;
+
+import simpledb.common.Database;
+import simpledb.execution.*;
+import simpledb.storage.HeapFile;
+import simpledb.storage.IntField;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Measures the allocation rate (bytes allocated per produced tuple) and the
+ * throughput of the scan, filter and join operators over in-memory tables.
+ * <p>
+ * Every table fits into the buffer pool, so after the warm-up iterations the
+ * numbers only reflect the cost of materializing and combining tuples.
+ * <p>
+ * Run with <code>ant runbench -Dbench=TupleAllocationBenchmark</code>.
+ */
+public class TupleAllocationBenchmark {
+
+    private static final int ROWS = 20000;
+    private static final int WARMUP = 3;
+    private static final int ITERATIONS = 5;
+
+    private static final com.sun.management.ThreadMXBean THREADS =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    interface PlanFactory {
+        OpIterator create(TransactionId tid);
+    }
+
+    public static void main(String[] args) throws Exception {
+        Database.resetBufferPool(1000);
+        List<List<Integer>> tuples = new ArrayList<>();
+        HeapFile wide = SystemTestUtil.createRandomHeapFile(4, ROWS, null, tuples);
+        HeapFile left = SystemTestUtil.createRandomHeapFile(2, ROWS, 2000, null, tuples);
+        HeapFile right = SystemTestUtil.createRandomHeapFile(2, ROWS, 2000, null, tuples);
+        HeapFile small1 = SystemTestUtil.createRandomHeapFile(2, 500, 500, null, tuples);
+        HeapFile small2 = SystemTestUtil.createRandomHeapFile(2, 500, 500, null, tuples);
+
+        run("seqscan", tid -> new SeqScan(tid, wide.getId()));
+        run("filter", tid -> new Filter(new Predicate(0, Predicate.Op.LESS_THAN, new IntField(1 << 15)),
+                new SeqScan(tid, wide.getId())));
+        run("nested-loop join", tid -> new Join(new JoinPredicate(0, Predicate.Op.EQUALS, 0),
+                new SeqScan(tid, small1.getId()), new SeqScan(tid, small2.getId())));
+        run("hash join", tid -> new HashEquiJoin(new JoinPredicate(0, Predicate.Op.EQUALS, 0),
+                new SeqScan(tid, left.getId()), new SeqScan(tid, right.getId())));
+    }
+
+    private static void run(String name, PlanFactory factory) throws Exception {
+        long rows = 0, bytes = 0, nanos = 0;
+        for (int i = 0; i < WARMUP + ITERATIONS; i++) {
+            TransactionId tid = new TransactionId();
+            OpIterator it = factory.create(tid);
+            long threadId = Thread.currentThread().getId();
+            long startBytes = THREADS.getThreadAllocatedBytes(threadId);
+            long startNanos = System.nanoTime();
+            long n = 0;
+            it.open();
+            while (it.hasNext()) {
+                it.next();
+                n++;
+            }
+            it.close();
+            long elapsed = System.nanoTime() - startNanos;
+            long allocated = THREADS.getThreadAllocatedBytes(threadId) - startBytes;
+            Database.getBufferPool().transactionComplete(tid);
+            if (i >= WARMUP) {
+                rows += n;
+                bytes += allocated;
+                nanos += elapsed;
+            }
+        }
+        System.out.printf("%-18s rows/iter=%8d  bytes/row=%8.1f  ns/row=%8.1f%n",
+                name, rows / ITERATIONS, (double) bytes / Math.max(rows, 1),
+                (double) nanos / Math.max(rows, 1));
+    }
+}
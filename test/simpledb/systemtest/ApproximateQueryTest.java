@@ -0,0 +1,101 @@
+package simpledb.systemtest;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.ParsingException;
+import simpledb.common.Database;
+import simpledb.execution.OpIterator;
+import simpledb.execution.Operator;
+import simpledb.execution.SampleAggregate;
+import simpledb.execution.SeqScan;
+import simpledb.transaction.TransactionId;
+
+/**
+ * Runs queries with approximate distinct counts and sampled tables.
+ */
+public class ApproximateQueryTest extends SimpleDbTestBase {
+    private final List<List<Integer>> a = new ArrayList<>();
+
+    @Before public void createTable() throws Exception {
+        SystemTestUtil.createQueryTable("a", 3, 20000, 3000, a);
+    }
+
+    private static List<List<Integer>> run(String sql) throws Exception {
+        return SystemTestUtil.runQuery(sql, 1);
+    }
+
+    @Test public void approxCountDistinct() throws Exception {
+        Set<Integer> distinct = new HashSet<>();
+        for (List<Integer> t : a) {
+            distinct.add(t.get(1));
+        }
+        List<List<Integer>> result = run("SELECT APPROX_COUNT_DISTINCT(a.c1) FROM a;");
+        assertEquals(1, result.size());
+        int estimate = result.get(0).get(0);
+        assertTrue(estimate + " of " + distinct.size(), Math.abs(estimate - distinct.size()) < distinct.size() / 20);
+    }
+
+    /**
+     * A sample of every page gives the exact COUNT, SUM and AVG, each
+     * followed by an error bound of 0.
+     */
+    @Test public void fullSample() throws Exception {
+        int sum = 0;
+        for (List<Integer> t : a) {
+            sum += t.get(1);
+        }
+        TransactionId tid = new TransactionId();
+        OpIterator plan = SystemTestUtil.planQuery(tid, "SELECT COUNT(a.c0), SUM(a.c1), AVG(a.c1) FROM a WHERE SAMPLE(100);", 1);
+        assertTrue(((Operator) plan).getChildren()[0] instanceof SampleAggregate);
+        Database.getBufferPool().transactionComplete(tid);
+        assertEquals(Arrays.asList(Arrays.asList(a.size(), 0, sum, 0, sum / a.size(), 0)),
+                run("SELECT COUNT(a.c0), SUM(a.c1), AVG(a.c1) FROM a WHERE SAMPLE(100);"));
+    }
+
+    @Test public void samplePages() throws Exception {
+        List<List<Integer>> result = run(
+                "SELECT a.c2, COUNT(a.c0) FROM a WHERE SAMPLE_PAGES(a, 20, 42) AND a.c0 < 1500 GROUP BY a.c2;");
+        assertTrue(result.size() > 1000);
+        long total = 0;
+        for (List<Integer> t : result) {
+            assertEquals(3, t.size());
+            assertTrue(t.get(2) >= 0);
+            total += t.get(1);
+        }
+        // 分组估计之和约为满足条件的元组数, 也就是大约一半
+        long matching = a.stream().filter(t -> t.get(0) < 1500).count();
+        assertTrue(total + " of " + matching, Math.abs(total - matching) < matching / 5);
+    }
+
+    /**
+     * Aggregates other than COUNT, SUM and AVG are computed over the sample.
+     */
+    @Test public void maxOfSample() throws Exception {
+        TransactionId tid = new TransactionId();
+        OpIterator plan = SystemTestUtil.planQuery(tid, "SELECT MAX(a.c0) FROM a WHERE SAMPLE(a, 10, 1);", 1);
+        SeqScan scan = (SeqScan) ((Operator) ((Operator) plan).getChildren()[0]).getChildren()[0];
+        assertTrue(scan.getSample() != null);
+        Database.getBufferPool().transactionComplete(tid);
+        int max = run("SELECT MAX(a.c0) FROM a WHERE SAMPLE(a, 10, 1);").get(0).get(0);
+        assertTrue(max <= 3000);
+    }
+
+    @Test(expected = ParsingException.class) public void mixedAggregates() throws Exception {
+        run("SELECT MAX(a.c0), SUM(a.c1) FROM a WHERE SAMPLE(10);");
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(ApproximateQueryTest.class);
+    }
+}
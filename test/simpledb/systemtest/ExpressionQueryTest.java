@@ -0,0 +1,119 @@
+package simpledb.systemtest;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.BiPredicate;
+import java.util.function.Predicate;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.ParsingException;
+import simpledb.common.Database;
+import simpledb.execution.OpIterator;
+import simpledb.execution.Operator;
+import simpledb.execution.SeqScan;
+import simpledb.transaction.TransactionId;
+
+/**
+ * Runs queries with OR, NOT, IN, BETWEEN and arithmetic in their WHERE
+ * clauses and compares their results with the tuples selected in Java.
+ */
+public class ExpressionQueryTest extends SimpleDbTestBase {
+    private final List<List<Integer>> a = new ArrayList<>();
+    private final List<List<Integer>> b = new ArrayList<>();
+
+    @Before public void createTables() throws Exception {
+        SystemTestUtil.createQueryTable("a", 2, 2000, 100, a);
+        SystemTestUtil.createQueryTable("b", 2, 300, 100, b);
+    }
+
+    private static List<List<Integer>> run(String sql) throws Exception {
+        return SystemTestUtil.sortTuples(SystemTestUtil.runQuery(sql, 1));
+    }
+
+    private void validate(String sql, Predicate<List<Integer>> where) throws Exception {
+        List<List<Integer>> expected = new ArrayList<>();
+        for (List<Integer> t : a) {
+            if (where.test(t)) {
+                expected.add(t);
+            }
+        }
+        SystemTestUtil.sortTuples(expected);
+        assertTrue(sql, expected.size() > 0);
+        assertEquals(sql, expected, run(sql));
+    }
+
+    @Test public void or() throws Exception {
+        validate("SELECT * FROM a WHERE a.c0 < 10 OR a.c1 = 50;",
+                t -> t.get(0) < 10 || t.get(1) == 50);
+        validate("SELECT * FROM a WHERE a.c0 > 20 AND (a.c1 < 5 OR a.c1 > 95);",
+                t -> t.get(0) > 20 && (t.get(1) < 5 || t.get(1) > 95));
+    }
+
+    @Test public void notAndIn() throws Exception {
+        validate("SELECT * FROM a WHERE a.c0 IN (1, 2, 3, 50);",
+                t -> t.get(0) == 1 || t.get(0) == 2 || t.get(0) == 3 || t.get(0) == 50);
+        validate("SELECT * FROM a WHERE a.c0 NOT IN (1, 2, 3) AND NOT (a.c1 >= 10);",
+                t -> t.get(0) != 1 && t.get(0) != 2 && t.get(0) != 3 && t.get(1) < 10);
+        validate("SELECT * FROM a WHERE a.c0 BETWEEN 10 AND 12;",
+                t -> t.get(0) >= 10 && t.get(0) <= 12);
+    }
+
+    @Test public void arithmetic() throws Exception {
+        validate("SELECT * FROM a WHERE a.c0 + a.c1 * 2 < 30;",
+                t -> t.get(0) + t.get(1) * 2 < 30);
+        validate("SELECT * FROM a WHERE a.c0 - a.c1 = -3 OR a.c0 / 10 = 9;",
+                t -> t.get(0) - t.get(1) == -3 || t.get(0) / 10 == 9);
+    }
+
+    /**
+     * A condition over two tables is applied after the join.
+     */
+    @Test public void acrossJoin() throws Exception {
+        String sql = "SELECT * FROM a, b WHERE a.c0 = b.c0 AND (a.c1 < 10 OR b.c1 < 10);";
+        BiPredicate<List<Integer>, List<Integer>> where =
+                (l, r) -> l.get(0).equals(r.get(0)) && (l.get(1) < 10 || r.get(1) < 10);
+        List<List<Integer>> expected = new ArrayList<>();
+        for (List<Integer> l : a) {
+            for (List<Integer> r : b) {
+                if (where.test(l, r)) {
+                    List<Integer> t = new ArrayList<>(l);
+                    t.addAll(r);
+                    expected.add(t);
+                }
+            }
+        }
+        SystemTestUtil.sortTuples(expected);
+        assertEquals(expected, run(sql));
+    }
+
+    /**
+     * Filters are pushed into the scan, which only returns the columns the
+     * query reads.
+     */
+    @Test public void pushdown() throws Exception {
+        TransactionId tid = new TransactionId();
+        OpIterator plan = SystemTestUtil.planQuery(tid, "SELECT a.c1 FROM a WHERE a.c0 < 10 OR a.c0 > 90;", 1);
+        OpIterator child = ((Operator) plan).getChildren()[0];
+        assertTrue(child instanceof SeqScan);
+        assertNotNull(((SeqScan) child).getPredicate());
+        assertArrayEquals(new int[]{1}, ((SeqScan) child).getProjection());
+        Database.getBufferPool().transactionComplete(tid);
+        validate("SELECT * FROM a WHERE a.c0 < 10 OR a.c0 > 90;", t -> t.get(0) < 10 || t.get(0) > 90);
+    }
+
+    @Test(expected = ParsingException.class) public void typeMismatch() throws Exception {
+        run("SELECT * FROM a WHERE a.c0 = 1 OR a.c1 = 'x';");
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(ExpressionQueryTest.class);
+    }
+}
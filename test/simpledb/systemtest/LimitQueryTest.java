@@ -0,0 +1,94 @@
+package simpledb.systemtest;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.Parser;
+import simpledb.common.Database;
+import simpledb.execution.Limit;
+import simpledb.execution.OpIterator;
+import simpledb.execution.Operator;
+import simpledb.execution.OrderBy;
+import simpledb.execution.SeqScan;
+import simpledb.transaction.TransactionId;
+
+/**
+ * Runs queries with LIMIT and OFFSET, with and without ORDER BY.
+ */
+public class LimitQueryTest extends SimpleDbTestBase {
+    private final List<List<Integer>> a = new ArrayList<>();
+
+    @Before public void createTable() throws Exception {
+        SystemTestUtil.createQueryTable("a", 2, 20000, 100000, a);
+    }
+
+    private static List<List<Integer>> run(String sql, int dop) throws Exception {
+        TransactionId tid = new TransactionId();
+        OpIterator plan = SystemTestUtil.planQuery(tid, sql, dop);
+        assertTrue(((Operator) plan).getChildren()[0] instanceof Limit);
+        List<List<Integer>> tuples = SystemTestUtil.drain(plan);
+        Database.getBufferPool().transactionComplete(tid);
+        return tuples;
+    }
+
+    @Test public void firstRows() throws Exception {
+        List<List<Integer>> result = run("SELECT * FROM a LIMIT 10;", 1);
+        assertEquals(a.subList(0, 10), result);
+        assertEquals(a.subList(100, 110), run("SELECT * FROM a LIMIT 10 OFFSET 100;", 1));
+        assertTrue(run("SELECT a.c0 FROM a WHERE a.c1 < 0 LIMIT 5;", 1).isEmpty());
+    }
+
+    /**
+     * A parallel plan stops its producer threads when the limit is reached.
+     */
+    @Test public void parallel() throws Exception {
+        List<List<Integer>> result = run("SELECT a.c0, a.c1 FROM a WHERE a.c0 > 50000 LIMIT 7;", 4);
+        assertEquals(7, result.size());
+        for (List<Integer> t : result) {
+            assertTrue(a.contains(t));
+            assertTrue(t.get(0) > 50000);
+        }
+    }
+
+    @Test public void topN() throws Exception {
+        List<List<Integer>> sorted = a.stream()
+                .sorted(Comparator.comparing((List<Integer> t) -> t.get(1)).reversed())
+                .collect(Collectors.toList());
+        List<List<Integer>> result = run("SELECT * FROM a ORDER BY a.c1 DESC LIMIT 20 OFFSET 5;", 1);
+        assertEquals(20, result.size());
+        for (int i = 0; i < 20; i++) {
+            assertEquals(sorted.get(5 + i).get(1), result.get(i).get(1));
+        }
+
+        TransactionId tid = new TransactionId();
+        OpIterator plan = SystemTestUtil.planQuery(tid, "SELECT * FROM a ORDER BY a.c1 LIMIT 20 OFFSET 5;", 1);
+        OrderBy orderBy = (OrderBy) ((Operator) ((Operator) plan).getChildren()[0]).getChildren()[0];
+        assertEquals(25, orderBy.getLimit());
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * LIMIT is rejected in statements other than queries, rather than
+     * ignored.
+     */
+    @Test public void deleteWithLimit() throws Exception {
+        new Parser().processNextStatement("DELETE FROM a WHERE a.c0 >= 0 LIMIT 1;");
+        TransactionId tid = new TransactionId();
+        int count = SystemTestUtil.drain(new SeqScan(tid, Database.getCatalog().getTableId("a"))).size();
+        Database.getBufferPool().transactionComplete(tid);
+        assertEquals(a.size(), count);
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(LimitQueryTest.class);
+    }
+}
@@ -435,9 +435,244 @@ public class LogTest extends SimpleDbTestBase {
         t.commit();
     }
 
+    @Test public void TestSlotRecordsAreSmall()
+            throws IOException, DbException, TransactionAbortedException {
+        setup();
+        doInsert(hf1, 1, 2);
+
+        // *** Test:
+        // inserting a tuple logs the tuple, not the whole page,
+        // and flushing the page logs nothing more
+
+        Transaction t = new Transaction();
+        t.start();
+        long before = Database.getLogFile().getCurrentOffset();
+        insertRow(hf1, t, 3);
+        Database.getBufferPool().flushAllPages();
+        t.commit();
+        long logged = Database.getLogFile().getCurrentOffset() - before;
+        assertTrue("logged " + logged + " bytes", logged < BufferPool.getPageSize() / 16);
+    }
+
+    @Test public void TestAbortKeepsOtherChangesToPage()
+            throws IOException, DbException, TransactionAbortedException {
+        setup();
+        doInsert(hf1, 1, 2);
+
+        // *** Test:
+        // T1 and T2 insert into the same page, T2 commits, T1 aborts:
+        // undoing T1 must not undo T2
+
+        Transaction t1 = new Transaction();
+        t1.start();
+        insertRow(hf1, t1, 30);
+        Transaction t2 = new Transaction();
+        t2.start();
+        insertRow(hf1, t2, 31);
+        t2.commit();
+        abort(t1);
+
+        Transaction t = new Transaction();
+        t.start();
+        look(hf1, t, 30, false);
+        look(hf1, t, 31, true);
+        t.commit();
+
+        // the slot freed by T1 is reused, and everything survives a crash
+        doInsert(hf1, 32, -1);
+        crash();
+
+        t = new Transaction();
+        t.start();
+        look(hf1, t, 1, true);
+        look(hf1, t, 2, true);
+        look(hf1, t, 30, false);
+        look(hf1, t, 31, true);
+        look(hf1, t, 32, true);
+        t.commit();
+    }
+
 
     /** Make test compatible with older version of ant. */
     public static junit.framework.Test suite() {
         return new junit.framework.JUnit4TestAdapter(LogTest.class);
     }
+
+    @Test public void TestCheckpointDoesNotWritePages()
+            throws IOException, DbException, TransactionAbortedException {
+        setup();
+        doInsert(hf1, 1, 2);
+
+        // *** Test:
+        // a checkpoint leaves dirty pages in the buffer pool; recovery
+        // redoes the committed change logged before it, and undoes the
+        // open transaction
+
+        Transaction t1 = new Transaction();
+        t1.start();
+        insertRow(hf1, t1, 40);
+        Transaction t2 = new Transaction();
+        t2.start();
+        insertRow(hf1, t2, 41);
+        t2.commit();
+        Database.getLogFile().logCheckpoint();
+
+        HeapPage onDisk = (HeapPage) hf1.readPage(new HeapPageId(hf1.getId(), 0));
+        Iterator<Tuple> it = onDisk.iterator();
+        while (it.hasNext()) {
+            int v = ((IntField) it.next().getField(0)).getValue();
+            assertTrue("checkpoint wrote a dirty page", v != 40 && v != 41);
+        }
+
+        crash();
+
+        Transaction t = new Transaction();
+        t.start();
+        look(hf1, t, 1, true);
+        look(hf1, t, 2, true);
+        look(hf1, t, 40, false);
+        look(hf1, t, 41, true);
+        t.commit();
+    }
+
+    // count the segment files of the log
+    int logSegments() {
+        String[] names = new File(".").list((dir, name) -> name.matches("log\\.[0-9a-f]{16}"));
+        return names == null ? 0 : names.length;
+    }
+
+    @Test public void TestTruncateDeletesSegments()
+            throws IOException, DbException, TransactionAbortedException {
+        System.setProperty(LogFile.SEGMENT_SIZE_PROPERTY, "1024");
+        try {
+            setup();
+
+            // *** Test:
+            // with small segments, a checkpoint after everything is on disk
+            // deletes the segments before it, and the rest of the log
+            // still recovers
+
+            for (int i = 0; i < 20; i++) {
+                doInsert(hf1, 100 + i, 200 + i);
+            }
+            int before = logSegments();
+            assertTrue(before + " segments", before > 2);
+            Database.getBufferPool().flushAllPages();
+            Database.getLogFile().logCheckpoint();
+            assertTrue(logSegments() + " segments left of " + before, logSegments() < before);
+
+            Transaction t1 = new Transaction();
+            t1.start();
+            insertRow(hf1, t1, 300);
+            doInsert(hf1, 301, -1);
+            crash();
+
+            Transaction t = new Transaction();
+            t.start();
+            for (int i = 0; i < 20; i++) {
+                look(hf1, t, 100 + i, true);
+                look(hf1, t, 200 + i, true);
+            }
+            look(hf1, t, 300, false);
+            look(hf1, t, 301, true);
+            t.commit();
+        } finally {
+            System.clearProperty(LogFile.SEGMENT_SIZE_PROPERTY);
+        }
+    }
+
+    @Test public void TestParallelRedo()
+            throws IOException, DbException, TransactionAbortedException {
+        System.setProperty(LogFile.RECOVERY_THREADS_PROPERTY, "4");
+        try {
+            setup();
+            doInsert(hf1, 1, 2);
+
+            // *** Test:
+            // committed changes to several pages of both tables are redone
+            // by several threads, and the open transaction is undone
+
+            Transaction t1 = new Transaction();
+            t1.start();
+            for (int i = 0; i < 1200; i++) {
+                insertRow(hf1, t1, 1000 + i);
+            }
+            insertRow(hf2, t1, 5);
+            t1.commit();
+            Transaction t2 = new Transaction();
+            t2.start();
+            insertRow(hf1, t2, 3000);
+            insertRow(hf2, t2, 6);
+            Transaction t3 = new Transaction();
+            t3.start();
+            insertRow(hf2, t3, 7);
+            t3.commit();
+            assertTrue(hf1.numPages() > 2);
+
+            crash();
+
+            Transaction t = new Transaction();
+            t.start();
+            look(hf1, t, 1, true);
+            look(hf1, t, 2, true);
+            look(hf1, t, 1000, true);
+            look(hf1, t, 1600, true);
+            look(hf1, t, 2199, true);
+            look(hf1, t, 3000, false);
+            look(hf2, t, 5, true);
+            look(hf2, t, 6, false);
+            look(hf2, t, 7, true);
+            t.commit();
+        } finally {
+            System.clearProperty(LogFile.RECOVERY_THREADS_PROPERTY);
+        }
+    }
+
+    @Test public void TestConcurrentCommits() throws Exception {
+        setup();
+        doInsert(hf1, 1, 2);
+        doInsert(hf2, 3, 4);
+
+        // *** Test:
+        // transactions committing from several threads append to the log
+        // at the same time; all of them survive a crash
+
+        List<Thread> threads = new ArrayList<>();
+        List<Throwable> failures = Collections.synchronizedList(new ArrayList<>());
+        for (int n = 0; n < 3; n++) {
+            HeapFile hf = n == 0 ? hf1 : n == 1 ? hf2 : null;
+            int base = 1000 * (n + 1);
+            threads.add(new Thread(() -> {
+                try {
+                    for (int i = 0; i < 100; i++) {
+                        Transaction t = new Transaction();
+                        t.start();
+                        if (hf != null) {
+                            insertRow(hf, t, base + i);
+                        }
+                        t.commit();
+                    }
+                } catch (Throwable e) {
+                    failures.add(e);
+                }
+            }));
+        }
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(Collections.emptyList(), failures);
+
+        crash();
+
+        Transaction t = new Transaction();
+        t.start();
+        for (int i = 0; i < 100; i++) {
+            look(hf1, t, 1000 + i, true);
+            look(hf2, t, 2000 + i, true);
+        }
+        t.commit();
+    }
 }
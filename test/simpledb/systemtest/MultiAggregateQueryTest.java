@@ -0,0 +1,74 @@
+package simpledb.systemtest;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.execution.MultiAggregate;
+import simpledb.execution.OpIterator;
+import simpledb.execution.Operator;
+import simpledb.transaction.TransactionId;
+
+/**
+ * Runs queries with several aggregates in their SELECT lists and compares
+ * their results with the aggregates computed in Java.
+ */
+public class MultiAggregateQueryTest extends SimpleDbTestBase {
+    private final List<List<Integer>> a = new ArrayList<>();
+
+    @Before public void createTable() throws Exception {
+        SystemTestUtil.createQueryTable("a", 3, 2000, 50, a);
+    }
+
+    private static List<List<Integer>> run(String sql) throws Exception {
+        TransactionId tid = new TransactionId();
+        OpIterator plan = SystemTestUtil.planQuery(tid, sql, 1);
+        assertTrue(((Operator) plan).getChildren()[0] instanceof MultiAggregate);
+        List<List<Integer>> tuples = SystemTestUtil.drain(plan);
+        Database.getBufferPool().transactionComplete(tid);
+        return SystemTestUtil.sortTuples(tuples);
+    }
+
+    @Test public void grouped() throws Exception {
+        // 分组值 -> {min(c0), max(c0), sum(c1), count}
+        Map<Integer, int[]> groups = new TreeMap<>();
+        for (List<Integer> t : a) {
+            int[] g = groups.computeIfAbsent(t.get(2), k -> new int[]{Integer.MAX_VALUE, Integer.MIN_VALUE, 0, 0});
+            g[0] = Math.min(g[0], t.get(0));
+            g[1] = Math.max(g[1], t.get(0));
+            g[2] += t.get(1);
+            g[3]++;
+        }
+        List<List<Integer>> expected = new ArrayList<>();
+        for (Map.Entry<Integer, int[]> e : groups.entrySet()) {
+            int[] g = e.getValue();
+            expected.add(Arrays.asList(g[1], e.getKey(), g[0], g[2] / g[3]));
+        }
+        SystemTestUtil.sortTuples(expected);
+        assertEquals(expected,
+                run("SELECT MAX(a.c0), a.c2, MIN(a.c0), AVG(a.c1) FROM a GROUP BY a.c2;"));
+    }
+
+    @Test public void ungrouped() throws Exception {
+        int sum = 0;
+        for (List<Integer> t : a) {
+            sum += t.get(1);
+        }
+        assertEquals(Arrays.asList(Arrays.asList(a.size(), sum)),
+                run("SELECT COUNT(a.c0), SUM(a.c1) FROM a WHERE a.c0 >= 0;"));
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(MultiAggregateQueryTest.class);
+    }
+}
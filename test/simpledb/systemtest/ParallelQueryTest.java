@@ -0,0 +1,65 @@
+package simpledb.systemtest;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Runs queries with plans split over several threads and compares their
+ * results with those of the serial plans.
+ */
+public class ParallelQueryTest extends SimpleDbTestBase {
+    private static final int DOP = 4;
+
+    @Before public void createTables() throws Exception {
+        SystemTestUtil.createQueryTable("a", 2, 30000, 1000, null);
+        SystemTestUtil.createQueryTable("b", 2, 5000, 1000, null);
+        SystemTestUtil.createQueryTable("small", 2, 200, 1000, null);
+    }
+
+    private static void validate(String sql) throws Exception {
+        List<List<Integer>> expected = SystemTestUtil.sortTuples(SystemTestUtil.runQuery(sql, 1));
+        assertEquals(sql, expected, SystemTestUtil.sortTuples(SystemTestUtil.runQuery(sql, DOP)));
+    }
+
+    @Test public void scanAndFilter() throws Exception {
+        validate("SELECT * FROM a WHERE a.c0 < 300;");
+    }
+
+    @Test public void hashJoin() throws Exception {
+        validate("SELECT * FROM a, b WHERE a.c0 = b.c0 AND b.c1 < 100;");
+    }
+
+    @Test public void nestedLoopsJoin() throws Exception {
+        validate("SELECT * FROM b, small WHERE b.c0 < small.c1 AND small.c0 < 50;");
+    }
+
+    @Test public void aggregates() throws Exception {
+        validate("SELECT COUNT(a.c1) FROM a;");
+        validate("SELECT MAX(a.c1) FROM a WHERE a.c0 > 500;");
+        validate("SELECT a.c0, SUM(a.c1) FROM a GROUP BY a.c0;");
+        validate("SELECT a.c0, AVG(a.c1) FROM a GROUP BY a.c0;");
+        validate("SELECT AVG(a.c1) FROM a;");
+    }
+
+    @Test public void joinAndAggregate() throws Exception {
+        validate("SELECT b.c1, COUNT(a.c1) FROM a, b WHERE a.c0 = b.c0 GROUP BY b.c1;");
+    }
+
+    /** The order of ORDER BY queries is kept. */
+    @Test public void orderBy() throws Exception {
+        String sql = "SELECT a.c0 FROM a WHERE a.c1 < 100 ORDER BY a.c0;";
+        List<List<Integer>> expected = SystemTestUtil.runQuery(sql, 1);
+        assertTrue(expected.size() > 1000);
+        assertEquals(expected, SystemTestUtil.runQuery(sql, DOP));
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(ParallelQueryTest.class);
+    }
+}
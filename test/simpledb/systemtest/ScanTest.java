@@ -3,6 +3,8 @@ package simpledb.systemtest;
 import simpledb.common.Database;
 import simpledb.common.DbException;
 import simpledb.common.Utility;
+import simpledb.execution.Expression;
+import simpledb.execution.Predicate;
 import simpledb.execution.SeqScan;
 import simpledb.storage.*;
 
@@ -11,6 +13,7 @@ import static org.junit.Assert.*;
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.NoSuchElementException;
 import java.util.Random;
@@ -73,6 +76,95 @@ public class ScanTest extends SimpleDbTestBase {
         Database.getBufferPool().transactionComplete(tid);
     }
 
+    /** A parallel scan returns the same tuples as a serial one. */
+    @Test public void testParallel() throws IOException, DbException, TransactionAbortedException {
+        List<List<Integer>> tuples = new ArrayList<>();
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, 10000, null, tuples);
+        for (int dop : new int[]{2, 3, 8}) {
+            TransactionId tid = new TransactionId();
+            SeqScan scan = new SeqScan(tid, f.getId(), "table");
+            scan.setParallelism(dop, false);
+            SystemTestUtil.matchTuples(scan, tuples);
+            Database.getBufferPool().transactionComplete(tid);
+        }
+    }
+
+    /** An ordered parallel scan returns the tuples in table order, also after a rewind. */
+    @Test public void testParallelOrdered() throws IOException, DbException, TransactionAbortedException {
+        List<List<Integer>> tuples = new ArrayList<>();
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, 20000, null, tuples);
+
+        TransactionId tid = new TransactionId();
+        SeqScan scan = new SeqScan(tid, f.getId(), "table");
+        scan.setParallelism(4, true);
+        scan.open();
+        for (int pass = 0; pass < 2; pass++) {
+            for (List<Integer> expected : tuples) {
+                assertTrue(scan.hasNext());
+                assertEquals(expected, SystemTestUtil.tupleToList(scan.next()));
+            }
+            assertFalse(scan.hasNext());
+            scan.rewind();
+        }
+        scan.close();
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /** Closing a parallel scan before its end stops the workers. */
+    @Test public void testParallelClose() throws IOException, DbException, TransactionAbortedException {
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, 20000, null, null);
+
+        TransactionId tid = new TransactionId();
+        SeqScan scan = new SeqScan(tid, f.getId(), "table");
+        scan.setParallelism(4, false);
+        scan.open();
+        for (int i = 0; i < 10; i++) {
+            assertTrue(scan.hasNext());
+            scan.next();
+        }
+        scan.close();
+        for (Thread t : Thread.getAllStackTraces().keySet()) {
+            assertFalse(t.getName().startsWith("scan-"));
+        }
+        assertFalse(scan.hasNext());
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /** A scan with a pushed predicate and projection returns the selected columns of the matching tuples. */
+    @Test public void testPushdown() throws IOException, DbException, TransactionAbortedException {
+        List<List<Integer>> tuples = new ArrayList<>();
+        HeapFile f = SystemTestUtil.createRandomHeapFile(3, 5000, 100, null, tuples, "c");
+        List<List<Integer>> expected = new ArrayList<>();
+        for (List<Integer> t : tuples) {
+            if (t.get(0) < 20 || t.get(1) == 7) {
+                expected.add(Arrays.asList(t.get(2), t.get(0)));
+            }
+        }
+
+        for (int dop : new int[]{1, 3}) {
+            TransactionId tid = new TransactionId();
+            SeqScan scan = new SeqScan(tid, f.getId(), "table");
+            scan.setPredicate(Expression.or(
+                    Expression.compare(Expression.column(0), Predicate.Op.LESS_THAN, Expression.constant(20)),
+                    Expression.compare(Expression.column("table.c1"), Predicate.Op.EQUALS, Expression.constant(7))));
+            scan.setProjection(new int[]{2, 0});
+            scan.setParallelism(dop, true);
+            assertEquals(2, scan.getTupleDesc().numFields());
+            assertEquals("table.c2", scan.getTupleDesc().getFieldName(0));
+            scan.open();
+            for (int pass = 0; pass < 2; pass++) {
+                for (List<Integer> t : expected) {
+                    assertTrue(scan.hasNext());
+                    assertEquals(t, SystemTestUtil.tupleToList(scan.next()));
+                }
+                assertFalse(scan.hasNext());
+                scan.rewind();
+            }
+            scan.close();
+            Database.getBufferPool().transactionComplete(tid);
+        }
+    }
+
     /** Verifies that the buffer pool is actually caching data.
      * @throws TransactionAbortedException
      * @throws DbException */
@@ -3,6 +3,7 @@ package simpledb.systemtest;
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Comparator;
 import java.util.List;
 import java.util.Map;
 import java.util.Random;
@@ -10,9 +11,14 @@ import java.util.UUID;
 
 import org.junit.Assert;
 
+import simpledb.Parser;
+import simpledb.ParsingException;
+import simpledb.TableStatsTest;
 import simpledb.common.*;
 import simpledb.execution.OpIterator;
 import simpledb.execution.SeqScan;
+import simpledb.optimizer.LogicalPlan;
+import simpledb.optimizer.TableStats;
 import simpledb.storage.*;
 import simpledb.transaction.TransactionAbortedException;
 import simpledb.transaction.TransactionId;
@@ -151,6 +157,67 @@ public class SystemTestUtil {
         }
     }
 
+    /**
+     * Create a random HeapFile whose columns are named c0, c1, ..., add it
+     * to the catalog as name and compute its table statistics, so queries
+     * can be run over it with {@link #runQuery}.
+     */
+    public static HeapFile createQueryTable(String name, int columns, int rows, int maxValue,
+            List<List<Integer>> tuples) throws IOException {
+        HeapFile f = createRandomHeapFile(columns, rows, maxValue, null, tuples, "c");
+        Database.getCatalog().addTable(f, name);
+        TableStats.setTableStats(name, new TableStats(f.getId(), TableStatsTest.IO_COST));
+        return f;
+    }
+
+    /**
+     * Parse sql and build its physical plan, split over dop threads where
+     * the plan allows it.
+     */
+    public static OpIterator planQuery(TransactionId tid, String sql, int dop)
+            throws ParsingException, IOException {
+        LogicalPlan lp = new Parser().generateLogicalPlan(tid, sql);
+        lp.setParallelism(dop);
+        return lp.physicalPlan(tid, TableStats.getStatsMap(), false);
+    }
+
+    /**
+     * Open plan, read all its tuples and close it.
+     */
+    public static List<List<Integer>> drain(OpIterator plan)
+            throws DbException, TransactionAbortedException {
+        List<List<Integer>> tuples = new ArrayList<>();
+        plan.open();
+        while (plan.hasNext()) {
+            tuples.add(tupleToList(plan.next()));
+        }
+        plan.close();
+        return tuples;
+    }
+
+    /**
+     * Run sql in a transaction of its own.
+     *
+     * @return the result tuples, in the order the plan returned them
+     */
+    public static List<List<Integer>> runQuery(String sql, int dop)
+            throws ParsingException, IOException, DbException, TransactionAbortedException {
+        TransactionId tid = new TransactionId();
+        List<List<Integer>> tuples = drain(planQuery(tid, sql, dop));
+        Database.getBufferPool().transactionComplete(tid);
+        return tuples;
+    }
+
+    /**
+     * Sort tuples in place so results can be compared regardless of order.
+     *
+     * @return tuples
+     */
+    public static List<List<Integer>> sortTuples(List<List<Integer>> tuples) {
+        tuples.sort(Comparator.comparing(Object::toString));
+        return tuples;
+    }
+
     /**
      * Returns number of bytes of RAM used by JVM after calling System.gc many times.
      * @return amount of RAM (in bytes) used by JVM